@@ -17,41 +17,93 @@
 package earth.eu.jtzipi.modules.fx;
 
 import earth.eu.jtzipi.modules.fx.node.PathNodeFX;
+import earth.eu.jtzipi.modules.io.watcher.IWatchEventHandler;
+import earth.eu.jtzipi.modules.io.watcher.IWatchTask;
+import earth.eu.jtzipi.modules.io.watcher.WatchEventAdapter;
+import earth.eu.jtzipi.modules.io.watcher.Watcher;
+import earth.eu.jtzipi.modules.utils.ITaskProgressUpdater;
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import earth.eu.jtzipi.modules.utils.hash.ChecksumCache;
+import earth.eu.jtzipi.modules.utils.hash.ChecksumScheduler;
+import earth.eu.jtzipi.modules.utils.hash.FingerprintProvider;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.concurrent.Service;
 import javafx.concurrent.Task;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.codec.digest.MessageDigestAlgorithms;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.security.MessageDigest;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
-
-
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Service computing hashes of path nodes in parallel.
+ * <p>
+ * Files are hashed by a {@link ChecksumScheduler} on the
+ * {@link ExecutorRegistry#CHECKSUM} pool with at most {@link #getMaxConcurrency()} workers.
+ * Hash properties are set on the FX thread in coalesced batches, see {@link FxBatcher}.
+ * Results are cached by file identity and algorithm and are reused while size and
+ * modification time are unchanged.
+ * </p>
+ * <p>
+ * The cache can be linked to a {@link Watcher} with {@link #watch(Watcher, Path, boolean)}.
+ * Modified and deleted files are evicted at once and the hash properties of their nodes are cleared.
+ * With {@link #setRecomputeOnIdle(Duration)} evicted files are hashed again in the background
+ * once no event arrived for that long and no service is running.
+ * </p>
+ */
 public class ChecksumService extends Service<Map<PathNodeFX, String>> {
 
-    private static final ExecutorService CSES = Executors.newCachedThreadPool();
 
-    private static final ConcurrentMap<PathNodeFX, String> CACHE_MAP = new ConcurrentHashMap<>();
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( "ChecksumService" );
+    private static final ICounter EVICTED = Metrics.counter( "hash.cache.evicted" );
+    private static final ICounter RECOMPUTED = Metrics.counter( "hash.cache.recomputed" );
+    // identity -> hashes
+    private static final ConcurrentMap<String, Entry> CACHE_MAP = new ConcurrentHashMap<>();
+    // absolute path -> identity, to find the entry of a watch event
+    private static final ConcurrentMap<Path, String> PATH_MAP = new ConcurrentHashMap<>();
+    // evicted entries waiting for recompute
+    private static final ConcurrentMap<Path, Entry> RECOMPUTE_MAP = new ConcurrentHashMap<>();
+    private static final AtomicInteger RUNNING = new AtomicInteger();
+    private static final FxBatcher<Runnable> FX_UPDATES = FxBatcher.of( batchL -> batchL.forEach( Runnable::run ) );
+    private static final IWatchEventHandler INVALIDATOR = new Invalidator();
+    private static final String ERROR_HASH = "Error computing Hash";
+    private static final Object RECOMPUTE_LOCK = new Object();
+
+    // idle time before recompute, null is off
+    private static volatile Duration recomputeIdle;
+    private static ScheduledFuture<?> recomputeFuture;
+
+    static {
+        // allow fingerprint algorithms XXH64 and CRC32C
+        FingerprintProvider.install();
+    }
 
     // message digest property
     private final ObjectProperty<String> fxMDProp = new SimpleObjectProperty<>( this, "FX_HASH_ALGO_DIGEST_PROP", MessageDigestAlgorithms.SHA_512 );
     // files to calculate hash value
     private ObservableList<PathNodeFX> fxPathFXNodeList = FXCollections.emptyObservableList();
+    // max parallel workers
+    private int maxConcurrency = ExecutorRegistry.get( ExecutorRegistry.CHECKSUM ).getMaximumPoolSize();
 
     @Override
     protected Task<Map<PathNodeFX, String>> createTask() {
 
         Set<PathNodeFX> pathSet = new HashSet<>( new ArrayList<>( fxPathFXNodeList ) );
 
-        return new ChecksumTaskSimple( pathSet, fxMDProp.getValue() )
-                ;
+        return new ChecksumTask( pathSet, fxMDProp.getValue(), maxConcurrency );
     }
 
     public String getDigestAlgo() {
@@ -72,125 +124,389 @@ public class ChecksumService extends Service<Map<PathNodeFX, String>> {
         fxPathFXNodeList = FXCollections.observableList( pathNodeList );
     }
 
+    /**
+     * Max number of files hashed at once.
+     *
+     * @return workers
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
 
-    private static class ChecksumTaskSimple extends Task<Map<PathNodeFX, String>> {
-        private final Set<PathNodeFX> pathS;
-        private final String mdAlgo;
+    /**
+     * Set max number of files hashed at once for the next run.
+     *
+     * @param workers workers &gt; 0
+     * @throws IllegalArgumentException if {@code workers} &lt; 1
+     */
+    public void setMaxConcurrency( final int workers ) {
+        if ( workers < 1 ) {
+            throw new IllegalArgumentException( "Workers[=" + workers + "] < 1" );
+        }
+        this.maxConcurrency = workers;
+    }
 
-        ChecksumTaskSimple( final Set<PathNodeFX> pathNodeSet, final String messageDigestAlgoStr ) {
+    /**
+     * Register a dir for cache invalidation.
+     * <p>
+     * The returned task is not started. Run {@link IWatchTask#watch()} on a thread of its own,
+     * e.g. {@code ExecutorRegistry.blocking( ExecutorRegistry.IO ).submit( task::watch )}.
+     * </p>
+     *
+     * @param watcher   watcher
+     * @param dir       dir to watch
+     * @param recursive watch sub dirs
+     * @return watch task
+     * @throws IOException          if {@code dir} is not readable or is not a dir
+     * @throws NullPointerException if {@code watcher} or {@code dir} is null
+     */
+    public static IWatchTask watch( final Watcher watcher, final Path dir, final boolean recursive ) throws IOException {
+        Objects.requireNonNull( watcher );
+        return watcher.forPath( dir, false, recursive, INVALIDATOR, Watcher.WATCH_KEY_EVENT_ALL );
+    }
 
-            this.pathS = pathNodeSet;
-            this.mdAlgo = messageDigestAlgoStr;
+    /**
+     * Handler evicting cached hashes on watch events.
+     * <p>
+     * Use this to combine invalidation with other handlers of an existing watch task.
+     * </p>
+     *
+     * @return handler
+     */
+    public static IWatchEventHandler invalidationHandler() {
+        return INVALIDATOR;
+    }
+
+    /**
+     * Evict cached hashes of a path and, if it is a dir, of all paths below.
+     *
+     * @param path path
+     * @throws NullPointerException if {@code path} is null
+     */
+    public static void invalidate( final Path path ) {
+        Objects.requireNonNull( path );
+        final Path abs = path.toAbsolutePath().normalize();
+        if ( !evict( abs ) ) {
+            // no file, maybe a dir
+            for ( final Path cached : PATH_MAP.keySet() ) {
+                if ( cached.startsWith( abs ) ) {
+                    evict( cached );
+                }
+            }
         }
+    }
 
-        @Override
-        protected Map<PathNodeFX, String> call() {
+    /**
+     * Evict all cached hashes.
+     */
+    public static void invalidateAll() {
+        PATH_MAP.keySet().forEach( ChecksumService::evict );
+    }
 
-            Map<PathNodeFX, String> resultM = new HashMap<>();
-            DigestUtils du = new DigestUtils( mdAlgo );
+    /**
+     * Idle time before evicted files are hashed again.
+     *
+     * @return idle time or {@code null} if off
+     */
+    public static Duration getRecomputeOnIdle() {
+        return recomputeIdle;
+    }
 
-            long len = pathS.size();
-            long c = 0;
-            updateProgress( 0, len );
-            for ( PathNodeFX pathNode : pathS ) {
+    /**
+     * Hash evicted files again in the background.
+     * <p>
+     * Recompute starts after no eviction happened for {@code idle} and waits while any service is running.
+     * One worker of the {@link ExecutorRegistry#CHECKSUM} pool is used.
+     * </p>
+     *
+     * @param idle idle time or {@code null} to turn off
+     * @throws IllegalArgumentException if {@code idle} is negative
+     */
+    public static void setRecomputeOnIdle( final Duration idle ) {
+        if ( null != idle && idle.isNegative() ) {
+            throw new IllegalArgumentException( "Idle[=" + idle + "] < 0" );
+        }
+        recomputeIdle = idle;
+        if ( null == idle ) {
+            RECOMPUTE_MAP.clear();
+        }
+    }
 
-                try {
-                    String hex = du.digestAsHex( pathNode.getPathNode().getValue() );
-                    pathNode.fxPathHashProp( mdAlgo ).setValue( hex );
-                    resultM.put( pathNode, hex );
-                } catch ( final IOException ioE ) {
-                    setException( ioE );
-                    pathNode.fxPathHashProp( mdAlgo ).setValue( "Error computing Hash" );
-                }
+    private static void cache( final Path path, final BasicFileAttributes attrs, final String algo, final String hash, final Collection<PathNodeFX> nodes ) {
+        final String identity = ChecksumCache.identity( path, attrs );
+        final Entry entry = CACHE_MAP.computeIfAbsent( identity, id -> new Entry() );
+        entry.hashM.put( algo, new Cached( attrs, hash ) );
+        nodes.forEach( entry::attach );
+        PATH_MAP.put( path.toAbsolutePath().normalize(), identity );
+    }
 
-                updateProgress( ++c, len );
+    private static boolean evict( final Path abs ) {
+        final String identity = PATH_MAP.remove( abs );
+        if ( null == identity ) {
+            return false;
+        }
+        final Entry entry = CACHE_MAP.remove( identity );
+        if ( null == entry ) {
+            return true;
+        }
+        EVICTED.inc();
+        final List<PathNodeFX> nodeL = entry.nodes();
+        final Set<String> algoS = new HashSet<>( entry.hashM.keySet() );
+        if ( !nodeL.isEmpty() ) {
+            FX_UPDATES.offer( () -> nodeL.forEach( nodeFX -> algoS.forEach( algo -> nodeFX.fxPathHashProp( algo ).setValue( null ) ) ) );
+        }
+        if ( null != recomputeIdle ) {
+            RECOMPUTE_MAP.put( abs, entry );
+            scheduleRecompute();
+        }
+        return true;
+    }
 
+    private static void scheduleRecompute() {
+        final Duration idle = recomputeIdle;
+        if ( null == idle ) {
+            return;
+        }
+        synchronized ( RECOMPUTE_LOCK ) {
+            // restart idle time on each event
+            if ( null != recomputeFuture ) {
+                recomputeFuture.cancel( false );
             }
-            return resultM;
+            recomputeFuture = ExecutorRegistry.scheduler().schedule(
+                    () -> ExecutorRegistry.blocking( ExecutorRegistry.IO ).execute( ChecksumService::recompute ),
+                    idle.toMillis(), TimeUnit.MILLISECONDS );
         }
-
     }
 
-    private static class ChecksumTask extends Task<Map<PathNodeFX, String>> {
-
-        private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( "ChecksumTask" );
+    private static void recompute() {
+        if ( RECOMPUTE_MAP.isEmpty() ) {
+            return;
+        }
+        if ( RUNNING.get() > 0 ) {
+            scheduleRecompute();
+            return;
+        }
 
-        private final CompletionService<Map.Entry<PathNodeFX, String>> NODE_FX_HASH_CS = new ExecutorCompletionService<>( CSES );
+        final Map<String, List<Path>> algoM = new HashMap<>();
+        final Map<Path, Entry> oldM = new HashMap<>();
+        final Map<Path, BasicFileAttributes> attrM = new HashMap<>();
+        for ( final Path path : new ArrayList<>( RECOMPUTE_MAP.keySet() ) ) {
+            final Entry old = RECOMPUTE_MAP.remove( path );
+            if ( null == old || !Files.isRegularFile( path ) ) {
+                continue;
+            }
+            try {
+                attrM.put( path, Files.readAttributes( path, BasicFileAttributes.class ) );
+            } catch ( final IOException ioE ) {
+                LOG.debug( "Skip recompute of '" + path + "'", ioE );
+                continue;
+            }
+            oldM.put( path, old );
+            old.hashM.keySet().forEach( algo -> algoM.computeIfAbsent( algo, a -> new ArrayList<>() ).add( path ) );
+        }
 
-        private final Set<PathNodeFX> pathS;
-        private final String mdAlgo;
+        for ( final Map.Entry<String, List<Path>> me : algoM.entrySet() ) {
+            final String algo = me.getKey();
+            try {
+                ChecksumScheduler.of( algo )
+                        .executor( ExecutorRegistry.get( ExecutorRegistry.CHECKSUM ), 1 )
+                        .onHash( ( path, hash ) -> {
+                            final List<PathNodeFX> nodeL = oldM.get( path ).nodes();
+                            cache( path, attrM.get( path ), algo, hash, nodeL );
+                            RECOMPUTED.inc();
+                            if ( !nodeL.isEmpty() ) {
+                                FX_UPDATES.offer( () -> nodeL.forEach( nodeFX -> nodeFX.fxPathHashProp( algo ).setValue( hash ) ) );
+                            }
+                        } )
+                        .hash( me.getValue() );
+            } catch ( final InterruptedException iE ) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch ( final IllegalArgumentException iaE ) {
+                LOG.warn( "Can not recompute " + algo, iaE );
+            }
+        }
+    }
 
-        ChecksumTask( final Set<PathNodeFX> pathNodeSet, final String messageDigestAlgoStr ) {
+    /**
+     * Evict cache entries on watch events.
+     */
+    private static final class Invalidator extends WatchEventAdapter {
 
-            this.pathS = pathNodeSet;
-            this.mdAlgo = messageDigestAlgoStr;
+        @Override
+        public EventAction onOverflow( final Path path, final int cnt ) {
+            // events lost, nothing cached can be trusted
+            invalidateAll();
+            return EventAction.ADVANCE;
         }
 
         @Override
-        protected Map<PathNodeFX, String> call() {
+        public EventAction onCreate( final Path path, final int cnt ) {
+            // file replaced by move
+            evict( path.toAbsolutePath().normalize() );
+            return EventAction.ADVANCE;
+        }
 
+        @Override
+        public EventAction onModify( final Path path, final int cnt ) {
+            // only the file itself, a modified dir reports its entries on its own
+            evict( path.toAbsolutePath().normalize() );
+            return EventAction.ADVANCE;
+        }
 
-            MessageDigest md = DigestUtils.getDigest( mdAlgo, DigestUtils.getSha512Digest() );
-            Map<PathNodeFX, String> resultM = new HashMap<>();
+        @Override
+        public EventAction onDelete( final Path path, final int cnt ) {
+            invalidate( path );
+            return EventAction.ADVANCE;
+        }
+    }
 
-            long toCalc = 0L;
+    /**
+     * Cached hashes of one file identity and the nodes showing them.
+     */
+    private static final class Entry {
 
-            for ( PathNodeFX nodeFX : pathS ) {
+        private final ConcurrentMap<String, Cached> hashM = new ConcurrentHashMap<>();
+        private final List<WeakReference<PathNodeFX>> nodeL = new ArrayList<>();
 
-                if ( !CACHE_MAP.containsKey( nodeFX ) ) {
+        private synchronized void attach( final PathNodeFX nodeFX ) {
+            nodeL.removeIf( ref -> null == ref.get() );
+            for ( final WeakReference<PathNodeFX> ref : nodeL ) {
+                if ( ref.get() == nodeFX ) {
+                    return;
+                }
+            }
+            nodeL.add( new WeakReference<>( nodeFX ) );
+        }
 
-                    Callable<Map.Entry<PathNodeFX, String>> hc = () -> Map.entry( nodeFX, Hex.encodeHexString( DigestUtils.digest( md, nodeFX.getPathNode().getValue() ) ) );
-                    // submit -> thread
-                    NODE_FX_HASH_CS.submit( hc );
-                    toCalc++;
-                } else {
-                    resultM.put( nodeFX, CACHE_MAP.get( nodeFX ) );
+        private synchronized List<PathNodeFX> nodes() {
+            final List<PathNodeFX> ret = new ArrayList<>( nodeL.size() );
+            for ( final WeakReference<PathNodeFX> ref : nodeL ) {
+                final PathNodeFX nodeFX = ref.get();
+                if ( null != nodeFX ) {
+                    ret.add( nodeFX );
                 }
             }
+            return ret;
+        }
+    }
 
-            LOG.info( "Calculating sha of " + toCalc + " path" );
-            // nothing added
-            if ( 0L == toCalc ) {
-                LOG.info( "Nothing todo..." );
+    /**
+     * Cached hash valid for size and modification time.
+     */
+    private static final class Cached {
+
+        private final long size;
+        private final long modified;
+        private final String hash;
 
-            } else {
+        private Cached( final BasicFileAttributes attrs, final String hash ) {
+            this.size = attrs.size();
+            this.modified = attrs.lastModifiedTime().toMillis();
+            this.hash = hash;
+        }
 
-                updateProgress( 0L, toCalc );
-                // here we can do something other
+        private boolean isValid( final BasicFileAttributes attrs ) {
+            return size == attrs.size() && modified == attrs.lastModifiedTime().toMillis();
+        }
+    }
 
+    private static class ChecksumTask extends Task<Map<PathNodeFX, String>> {
 
-                for ( int c = 0; c < toCalc; c++ ) {
+        private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( "ChecksumTask" );
 
-                    try {
-                        // blocking throws IE
-                        Future<Map.Entry<PathNodeFX, String>> result = NODE_FX_HASH_CS.take();
-                        // throws EE
-                        Map.Entry<PathNodeFX, String> me = result.get();
+        private final Set<PathNodeFX> pathS;
+        private final String mdAlgo;
+        private final int workers;
 
-                        PathNodeFX pathNode = me.getKey();
-                        String sha = me.getValue();
+        ChecksumTask( final Set<PathNodeFX> pathNodeSet, final String messageDigestAlgoStr, final int workers ) {
 
-                        LOG.info( "Path '" + pathNode.getPathNode().getValue() + "' hash '" + sha + "'" );
-                        // set hash
-                        // TODO: FX Thread?
-                        pathNode.fxPathHashProp( mdAlgo ).setValue( sha );
+            this.pathS = pathNodeSet;
+            this.mdAlgo = messageDigestAlgoStr;
+            this.workers = workers;
+        }
 
-                        // put to cache
-                        CACHE_MAP.put( pathNode, sha );
+        @Override
+        protected Map<PathNodeFX, String> call() throws InterruptedException {
+            // keep background recompute off while running
+            RUNNING.incrementAndGet();
+            try {
+                return compute();
+            } finally {
+                RUNNING.decrementAndGet();
+            }
+        }
 
+        private Map<PathNodeFX, String> compute() throws InterruptedException {
 
-                        updateProgress( c + 1, toCalc );
-                    } catch ( InterruptedException iE ) {
-                        Thread.currentThread().interrupt();
-                        LOG.warn( "Calc interrupted!", iE );
-                    } catch ( ExecutionException ee ) {
+            final Map<PathNodeFX, String> resultM = new ConcurrentHashMap<>();
+            final Map<Path, List<PathNodeFX>> todoM = new HashMap<>();
+            final Map<Path, BasicFileAttributes> attrM = new HashMap<>();
+            // properties are bound to the scene graph, set them in batches on the FX thread
+            final FxBatcher<Map.Entry<PathNodeFX, String>> batcher = FxBatcher.of( batchL -> {
+                for ( final Map.Entry<PathNodeFX, String> me : batchL ) {
+                    me.getKey().fxPathHashProp( mdAlgo ).setValue( me.getValue() );
+                }
+            } );
 
-                        LOG.warn( "Error occurs!", ee );
-                        setException( ee );
-                        failed();
+            for ( final PathNodeFX nodeFX : pathS ) {
+
+                final Path path = nodeFX.getPathNode().getValue();
+                try {
+                    final BasicFileAttributes attrs = Files.readAttributes( path, BasicFileAttributes.class );
+                    final Entry entry = CACHE_MAP.get( ChecksumCache.identity( path, attrs ) );
+                    final Cached cached = null == entry ? null : entry.hashM.get( mdAlgo );
+                    if ( null != cached && cached.isValid( attrs ) ) {
+                        entry.attach( nodeFX );
+                        resultM.put( nodeFX, cached.hash );
+                        batcher.offer( Map.entry( nodeFX, cached.hash ) );
+                    } else {
+                        todoM.computeIfAbsent( path, p -> new ArrayList<>() ).add( nodeFX );
+                        attrM.put( path, attrs );
                     }
+                } catch ( final IOException ioE ) {
+                    LOG.warn( "Can not read '" + path + "'", ioE );
+                    batcher.offer( Map.entry( nodeFX, ERROR_HASH ) );
                 }
             }
+
+            LOG.info( "Calculating " + mdAlgo + " of " + todoM.size() + " path" );
+            if ( todoM.isEmpty() ) {
+                LOG.info( "Nothing todo..." );
+                return resultM;
+            }
+
+            // small files batched per worker, progress in bytes
+            final ChecksumScheduler.Result result = ChecksumScheduler.of( mdAlgo )
+                    .executor( ExecutorRegistry.get( ExecutorRegistry.CHECKSUM ), workers )
+                    .onHash( ( path, hash ) -> {
+                        cache( path, attrM.get( path ), mdAlgo, hash, todoM.get( path ) );
+                        for ( final PathNodeFX nodeFX : todoM.get( path ) ) {
+                            resultM.put( nodeFX, hash );
+                            batcher.offer( Map.entry( nodeFX, hash ) );
+                        }
+                    } )
+                    .progress( new ITaskProgressUpdater() {
+                        @Override
+                        public TaskAction update( final long val, final long max ) {
+                            updateProgress( val, max );
+                            return isCancelled() ? TaskAction.BREAK : TaskAction.ON;
+                        }
+
+                        @Override
+                        public TaskAction update( final long val, final long max, final double bytesPerSecond, final Duration eta ) {
+                            updateMessage( String.format( "%.1f MB/s, %ds left", bytesPerSecond / 1E6D, eta.getSeconds() ) );
+                            return update( val, max );
+                        }
+
+                        @Override
+                        public TaskAction error( final long val, final Throwable throwable ) {
+                            LOG.warn( "Error occurs!", throwable );
+                            return TaskAction.ON;
+                        }
+                    } ).hash( todoM.keySet() );
+
+            result.getErrors().keySet().forEach( path -> todoM.get( path ).forEach( nodeFX -> batcher.offer( Map.entry( nodeFX, ERROR_HASH ) ) ) );
             return resultM;
         }
     }
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.fx;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Coalesce updates from worker threads into few {@link Platform#runLater(Runnable)} calls.
+ * <p>
+ * Items offered from any thread are queued. At most one drain is pending on the FX thread;
+ * it hands all items queued until it runs to the consumer as one batch. So a burst of
+ * 100k results costs a handful of runLater calls, roughly one per pulse, instead of 100k.
+ * </p>
+ *
+ * @param <T> type of item
+ * @author jTzipi
+ */
+public final class FxBatcher<T> {
+
+    private final Queue<T> itemQ = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final Consumer<? super List<T>> fxConsumer;
+
+    private FxBatcher( final Consumer<? super List<T>> fxConsumer ) {
+        this.fxConsumer = fxConsumer;
+    }
+
+    /**
+     * Create batcher.
+     *
+     * @param fxConsumer consumer called on the FX thread with each batch
+     * @param <T>        type of item
+     * @return batcher
+     * @throws NullPointerException if {@code fxConsumer} is null
+     */
+    public static <T> FxBatcher<T> of( final Consumer<? super List<T>> fxConsumer ) {
+        Objects.requireNonNull( fxConsumer );
+        return new FxBatcher<>( fxConsumer );
+    }
+
+    /**
+     * Queue item and schedule a drain if none is pending.
+     *
+     * @param item item
+     * @throws NullPointerException if {@code item} is null
+     */
+    public void offer( final T item ) {
+        itemQ.add( Objects.requireNonNull( item ) );
+        if ( pending.compareAndSet( false, true ) ) {
+            Platform.runLater( this::drain );
+        }
+    }
+
+    private void drain() {
+        // clear first so that items offered while draining schedule the next batch
+        pending.set( false );
+        final List<T> batchL = new ArrayList<>();
+        for ( T item = itemQ.poll(); null != item; item = itemQ.poll() ) {
+            batchL.add( item );
+        }
+        if ( !batchL.isEmpty() ) {
+            fxConsumer.accept( batchL );
+        }
+    }
+}
@@ -18,6 +18,7 @@ package earth.eu.jtzipi.modules.fx;
 
 
 import earth.eu.jtzipi.modules.io.task.PathCrawler;
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.ReadOnlyObjectWrapper;
@@ -146,7 +147,6 @@ public class SearchPathService extends Service<List<Path>> {
     private static final class SearchPathTask extends Task<List<Path>> {
 
         private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( "TaskSearch" );
-        private static final ExecutorService ES = Executors.newCachedThreadPool();
         private final Predicate<Path> predicate;
         private final List<Path> rootPathL;
 
@@ -170,7 +170,7 @@ public class SearchPathService extends Service<List<Path>> {
 
                 LOG.info( "Start search '" + root + "'" );
                 PathCrawler pc = PathCrawler.of( root, predicate, bQ );
-                futureTaskS.add( ES.submit( pc ) );
+                futureTaskS.add( ExecutorRegistry.blocking( ExecutorRegistry.SEARCH ).submit( pc ) );
             }
 
             while ( true ) {
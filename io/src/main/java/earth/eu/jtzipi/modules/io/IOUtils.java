@@ -17,8 +17,13 @@
 package earth.eu.jtzipi.modules.io;
 
 import earth.eu.jtzipi.modules.io.image.ImageType;
+import earth.eu.jtzipi.modules.io.jfr.DirReadEvent;
 import earth.eu.jtzipi.modules.utils.RegUs;
 import earth.eu.jtzipi.modules.utils.Utils;
+import earth.eu.jtzipi.modules.utils.exec.DeviceThrottle;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.ITimer;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
 import javafx.scene.image.Image;
 import javafx.scene.text.Font;
 import org.slf4j.LoggerFactory;
@@ -98,6 +103,8 @@ public final class IOUtils {
     private static final Map<String, Boolean> ZIP_FS_MAP = Collections.singletonMap( "create", true );
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( "IOUtils" );
+    private static final ITimer DIR_READ_TIMER = Metrics.timer( "io.dir.read" );
+    private static final ICounter DIR_ENTRIES = Metrics.counter( "io.dir.entries" );
 
 
 
@@ -113,10 +120,12 @@ public final class IOUtils {
      * @throws IOException          if loading failed
      * @throws NullPointerException if {@code path} is null
      */
+    @SuppressWarnings("try")
     public static Image loadImage( final Path path ) throws IOException {
         Objects.requireNonNull( path );
 
-        try ( final InputStream ips = Files.newInputStream( path ) ) {
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( path );
+              final InputStream ips = Files.newInputStream( path ) ) {
 
             return new Image( ips );
         } catch ( final IOException ioE ) {
@@ -136,11 +145,13 @@ public final class IOUtils {
      * @return Image
      * @throws IOException fail
      */
+    @SuppressWarnings("try")
     public static Image loadImage( final Path path, final double width, final double height, final boolean preserveAspectRatioProp, final boolean smoothProp ) throws IOException {
 
         Utils.clamp( width, IMAGE_MIN_SIZE, IMAGE_MAX_SIZE );
 
-        try ( final InputStream fis = Files.newInputStream( path ) ) {
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( path );
+              final InputStream fis = Files.newInputStream( path ) ) {
             return new Image( fis, width, height, preserveAspectRatioProp, smoothProp );
         } catch ( final IOException ioE ) {
             LOG.warn( "Can't read image for path " + path + "'" );
@@ -396,6 +407,11 @@ public final class IOUtils {
 
     /**
      * Stream zip dir.
+     * <p>
+     * The returned paths belong to the zip file system, which is pinned
+     * (see {@link ZipUtils#pin(Path)}) so they stay usable unless more than the max open bound
+     * of file systems are cached. Prefer {@link ZipUtils#acquire(Path)}.
+     * </p>
      *
      * @param zipRoot    path
      * @param zipDirPath relative zip path
@@ -403,13 +419,9 @@ public final class IOUtils {
      */
     public static List<Path> streamZip( final Path zipRoot, final Path zipDirPath ) {
 
-        final FileSystem zfs = ZipUtils.getZipFilesystem( zipRoot );
-        if ( null == zfs ) {
-            return Collections.emptyList();
-        }
         List<Path> pL;
-        try {
-            pL = Files.list( zfs.getPath( zipDirPath.toString() ) ).collect( toList() );
+        try ( final Stream<Path> ps = Files.list( ZipUtils.pin( zipRoot ).getPath( zipDirPath.toString() ) ) ) {
+            pL = ps.collect( toList() );
         } catch ( final IOException e ) {
 
             pL = Collections.emptyList();
@@ -501,15 +513,23 @@ public final class IOUtils {
         }
 
         final List<Path> nodeL = new ArrayList<>();
-
+        final DirReadEvent event = new DirReadEvent();
+        event.begin();
+        final long start = DIR_READ_TIMER.start();
         try ( final DirectoryStream<Path> ds = Files.newDirectoryStream( p, filter ) ) {
 
             for ( final Path path : ds ) {
-                System.out.println( "Gadi : [" + path + "]" );
                 nodeL.add( path );
             }
 
         }
+        DIR_READ_TIMER.stop( start );
+        DIR_ENTRIES.add( nodeL.size() );
+        if ( event.shouldCommit() ) {
+            event.path = p.toString();
+            event.entries = nodeL.size();
+            event.commit();
+        }
 
         return nodeL;
     }
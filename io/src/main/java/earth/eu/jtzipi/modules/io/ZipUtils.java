@@ -16,68 +16,400 @@
 
 package earth.eu.jtzipi.modules.io;
 
+import earth.eu.jtzipi.modules.io.jfr.ZipOpenEvent;
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
-import java.util.Map;
+import java.time.Duration;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utils to store and load zip files.
+ * <p>
+ * Open zip file systems are cached per archive and shared by all threads.
+ * Use {@link #acquire(Path)} with try-with-resources; a file system is only closed
+ * when no handle is open. Unused file systems are closed after an idle time and,
+ * least recently used first, when more than the max open bound are cached.
+ * See {@link #configure(int, Duration)}.
+ * </p>
+ * <p>
+ * File systems returned without a handle ({@link #pin(Path)}, {@link #getZipFilesystem(Path)})
+ * are pinned: they are not closed by idle time until {@link #unpin(Path)}. The max open bound
+ * still applies to them, unpinned file systems are evicted first; paths of an evicted file system
+ * fail with {@link java.nio.file.ClosedFileSystemException}.
+ * </p>
  * @author jTzipi
  */
 public final class ZipUtils {
 
-    final static Map<Path, FileSystem> zipMap = new HashMap<>();
+    /**
+     * Default max number of cached file systems.
+     */
+    public static final int DEFAULT_MAX_OPEN = 64;
+    /**
+     * Default idle time before an unused file system is closed.
+     */
+    public static final Duration DEFAULT_IDLE = Duration.ofSeconds( 60L );
 
-    private ZipUtils() {
+    private static final Logger LOG = LoggerFactory.getLogger( "ZipUtils" );
+    private static final ICounter HIT = Metrics.counter( "zip.fs.hit" );
+    private static final ICounter MISS = Metrics.counter( "zip.fs.miss" );
+    private static final ICounter EVICTED = Metrics.counter( "zip.fs.evicted" );
+    private static final ConcurrentMap<Path, Entry> ZIP_MAP = new ConcurrentHashMap<>();
+
+    private static volatile int maxOpen = DEFAULT_MAX_OPEN;
+    private static volatile Duration idle = DEFAULT_IDLE;
+    // idle sweep, guarded by class
+    private static ScheduledFuture<?> sweeper;
 
+    static {
+        Metrics.gauge( "zip.fs.open", ZIP_MAP::size );
+    }
+
+    private ZipUtils() {
+        throw new AssertionError();
     }
 
     /**
+     * Configure cache bounds.
      *
-     * @param pathToZip
-     * @return
+     * @param maxOpenFS max number of cached file systems; more may be open while in use
+     * @param idleTime  idle time before an unused file system is closed
+     * @throws IllegalArgumentException if {@code maxOpenFS} &lt; 1 or {@code idleTime} is not positive
+     * @throws NullPointerException     if {@code idleTime} is null
      */
-    public static FileSystem getZipFilesystem(final Path pathToZip )  {
-        Objects.requireNonNull(pathToZip);
-        if( Files.isReadable(pathToZip)) {
-            throw new IllegalArgumentException("Can not read '+pathToZip+'");
+    public static void configure( final int maxOpenFS, final Duration idleTime ) {
+        Objects.requireNonNull( idleTime );
+        if ( maxOpenFS < 1 || idleTime.isNegative() || idleTime.isZero() ) {
+            throw new IllegalArgumentException( "Max open[=" + maxOpenFS + "] < 1 or idle[=" + idleTime + "] not positive" );
+        }
+        maxOpen = maxOpenFS;
+        idle = idleTime;
+        synchronized ( ZipUtils.class ) {
+            if ( null != sweeper ) {
+                sweeper.cancel( false );
+                sweeper = null;
+            }
+        }
+        evictOverflow();
+        if ( !ZIP_MAP.isEmpty() ) {
+            ensureSweeper();
         }
+    }
 
+    /**
+     * Acquire the shared file system of a zip file.
+     * <p>
+     * The file system stays open until the handle is closed.
+     * </p>
+     *
+     * @param pathToZip path to zip
+     * @return handle
+     * @throws IOException          if {@code pathToZip} is not readable or not a zip
+     * @throws NullPointerException if {@code pathToZip} is null
+     */
+    public static ZipHandle acquire( final Path pathToZip ) throws IOException {
+        Objects.requireNonNull( pathToZip );
+        if ( !Files.isReadable( pathToZip ) ) {
+            throw new IOException( "Can not read '" + pathToZip + "'" );
+        }
+        final Path key = pathToZip.toAbsolutePath().normalize();
 
-        return zipMap.computeIfAbsent( pathToZip, p -> {
-            try {
-                return FileSystems.newFileSystem( p, ClassLoader.getPlatformClassLoader() );
-            } catch ( final IOException ioe ) {
-                return null;
+        for ( ; ; ) {
+            Entry entry = ZIP_MAP.get( key );
+            final boolean miss = null == entry;
+            if ( miss ) {
+                try {
+                    entry = ZIP_MAP.computeIfAbsent( key, ZipUtils::open );
+                } catch ( final UncheckedIOException uioE ) {
+                    throw uioE.getCause();
+                }
+            }
+            if ( entry.retain() ) {
+                if ( miss ) {
+                    MISS.inc();
+                    evictOverflow();
+                    ensureSweeper();
+                } else {
+                    HIT.inc();
+                }
+                return new ZipHandle( entry );
             }
-        } );
+            // closed by eviction meanwhile
+            ZIP_MAP.remove( key, entry );
+        }
+    }
 
+    /**
+     * Return the shared file system of a zip file and pin it.
+     * <p>
+     * For callers that keep paths of the file system without a handle.
+     * The file system is not closed by idle time until {@link #unpin(Path)}, but may be evicted
+     * if more than the max open bound are cached. Prefer {@link #acquire(Path)}.
+     * </p>
+     *
+     * @param pathToZip path to zip
+     * @return file system
+     * @throws IOException          if {@code pathToZip} is not readable or not a zip
+     * @throws NullPointerException if {@code pathToZip} is null
+     */
+    public static FileSystem pin( final Path pathToZip ) throws IOException {
+        try ( final ZipHandle zh = acquire( pathToZip ) ) {
+            zh.entry.pinned = true;
+            return zh.getFileSystem();
+        }
     }
 
-    public static BasicFileAttributes readZipAttributes( final Path root, final Path relPath ) throws IOException {
+    /**
+     * Release the pin of a zip file system so idle time applies again.
+     *
+     * @param pathToZip path to zip
+     * @return {@code true} if cached and pinned
+     * @throws NullPointerException if {@code pathToZip} is null
+     */
+    public static boolean unpin( final Path pathToZip ) {
+        Objects.requireNonNull( pathToZip );
+        final Entry entry = ZIP_MAP.get( pathToZip.toAbsolutePath().normalize() );
+        if ( null == entry || !entry.pinned ) {
+            return false;
+        }
+        entry.pinned = false;
+        entry.lastUsed = System.nanoTime();
+        return true;
+    }
 
-        final FileSystem zfs = getZipFilesystem( root );
-        return zfs.provider().readAttributes( relPath, BasicFileAttributes.class );
+    /**
+     * Return the shared file system of a zip file.
+     * <p>
+     * The file system is pinned, see {@link #pin(Path)}.
+     * Prefer {@link #acquire(Path)}.
+     * </p>
+     *
+     * @param pathToZip path to zip
+     * @return file system or {@code null} if {@code pathToZip} is not a zip
+     * @throws IllegalArgumentException if {@code pathToZip} is not readable
+     * @throws NullPointerException     if {@code pathToZip} is null
+     */
+    public static FileSystem getZipFilesystem( final Path pathToZip ) {
+        Objects.requireNonNull( pathToZip );
+        if ( !Files.isReadable( pathToZip ) ) {
+            throw new IllegalArgumentException( "Can not read '" + pathToZip + "'" );
+        }
 
+        try {
+            return pin( pathToZip );
+        } catch ( final IOException ioE ) {
+            LOG.warn( "Can not open zip '" + pathToZip + "'", ioE );
+            return null;
+        }
     }
 
-    void closeZipFS(final Path zipPath) {
-        if( !zipMap.containsKey( zipPath )) {
+    /**
+     * Read attributes of a path in a zip file.
+     *
+     * @param root    path to zip
+     * @param relPath path in zip
+     * @return attributes
+     * @throws IOException if {@code root} is not readable or {@code relPath} not found
+     */
+    public static BasicFileAttributes readZipAttributes( final Path root, final Path relPath ) throws IOException {
+
+        try ( final ZipHandle zh = acquire( root ) ) {
+            final FileSystem zfs = zh.getFileSystem();
+            // relPath may belong to an already closed file system
+            return zfs.provider().readAttributes( zfs.getPath( relPath.toString() ), BasicFileAttributes.class );
+        }
+    }
 
-            throw new IllegalStateException("");
+    /**
+     * Remove a zip file system from the cache.
+     * <p>
+     * It is closed now or, if in use, when the last handle is closed.
+     * </p>
+     *
+     * @param zipPath path to zip
+     * @return {@code true} if cached
+     * @throws NullPointerException if {@code zipPath} is null
+     */
+    public static boolean closeZipFS( final Path zipPath ) {
+        Objects.requireNonNull( zipPath );
+        final Path key = zipPath.toAbsolutePath().normalize();
+        final Entry entry = ZIP_MAP.remove( key );
+        if ( null == entry ) {
+            return false;
         }
+        entry.closeRequested = true;
+        entry.tryClose();
+        return true;
+    }
 
+    /**
+     * Remove all zip file systems from the cache.
+     */
+    public static void closeAll() {
+        ZIP_MAP.keySet().forEach( ZipUtils::closeZipFS );
+    }
+
+    private static Entry open( final Path p ) {
+        final ZipOpenEvent event = new ZipOpenEvent();
+        event.begin();
+        FileSystem zfs;
+        IOException error = null;
         try {
-            zipMap.get( zipPath ).close();
+            zfs = FileSystems.newFileSystem( p, ClassLoader.getPlatformClassLoader() );
         } catch ( final IOException ioe ) {
+            zfs = null;
+            error = ioe;
+        }
+        if ( event.shouldCommit() ) {
+            event.path = p.toString();
+            event.size = IOUtils.getFileSizeSafe( p );
+            event.success = null != zfs;
+            event.commit();
+        }
+        if ( null == zfs ) {
+            throw new UncheckedIOException( error );
+        }
+        return new Entry( p, zfs );
+    }
+
+    private static void evictOverflow() {
+        while ( ZIP_MAP.size() > maxOpen ) {
+            // least recently used of those not in use, unpinned first
+            Entry lru = null;
+            for ( final Entry entry : ZIP_MAP.values() ) {
+                if ( entry.isUnused() && ( null == lru || lru.pinned && !entry.pinned
+                        || lru.pinned == entry.pinned && entry.lastUsed < lru.lastUsed ) ) {
+                    lru = entry;
+                }
+            }
+            if ( null == lru ) {
+                return;
+            }
+            if ( lru.tryClose() ) {
+                EVICTED.inc();
+            }
+        }
+    }
+
+    private static void sweep() {
+        final long cutoff = System.nanoTime() - idle.toNanos();
+        for ( final Entry entry : ZIP_MAP.values() ) {
+            if ( !entry.pinned && entry.isUnused() && entry.lastUsed - cutoff < 0L && entry.tryClose() ) {
+                EVICTED.inc();
+            }
+        }
+    }
+
+    private static synchronized void ensureSweeper() {
+        if ( null == sweeper ) {
+            final long period = Math.max( 1000L, idle.toMillis() / 2L );
+            sweeper = ExecutorRegistry.scheduler().scheduleWithFixedDelay( ZipUtils::sweep, period, period, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Handle of a shared zip file system.
+     */
+    public static final class ZipHandle implements AutoCloseable {
+
+        private final Entry entry;
+        private final AtomicBoolean released = new AtomicBoolean();
 
+        private ZipHandle( final Entry entry ) {
+            this.entry = entry;
+        }
+
+        /**
+         * Zip file system.
+         *
+         * @return file system
+         */
+        public FileSystem getFileSystem() {
+            return entry.zfs;
+        }
+
+        /**
+         * Release the file system. Repeated calls are ignored.
+         */
+        @Override
+        public void close() {
+            if ( released.compareAndSet( false, true ) ) {
+                entry.release();
+            }
+        }
+    }
+
+    /**
+     * Cached file system with reference count.
+     */
+    private static final class Entry {
+
+        private final Path path;
+        private final FileSystem zfs;
+        // number of handles, -1 if closed
+        private final AtomicInteger refs = new AtomicInteger();
+        private volatile long lastUsed = System.nanoTime();
+        private volatile boolean closeRequested;
+        // paths handed out without handle, not closed by idle time
+        private volatile boolean pinned;
+
+        private Entry( final Path path, final FileSystem zfs ) {
+            this.path = path;
+            this.zfs = zfs;
+        }
 
+        private boolean retain() {
+            for ( ; ; ) {
+                final int r = refs.get();
+                if ( r < 0 ) {
+                    return false;
+                }
+                if ( refs.compareAndSet( r, r + 1 ) ) {
+                    lastUsed = System.nanoTime();
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            lastUsed = System.nanoTime();
+            if ( 0 == refs.decrementAndGet() && closeRequested ) {
+                tryClose();
+            }
+        }
+
+        private boolean isUnused() {
+            return 0 == refs.get();
+        }
+
+        private boolean tryClose() {
+            if ( !refs.compareAndSet( 0, -1 ) ) {
+                return false;
+            }
+            ZIP_MAP.remove( path, this );
+            try {
+                zfs.close();
+            } catch ( final IOException ioe ) {
+                LOG.warn( "Can not close zip '" + path + "'", ioe );
+            }
+            return true;
         }
     }
 }
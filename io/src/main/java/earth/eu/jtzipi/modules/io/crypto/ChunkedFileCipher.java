@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.crypto;
+
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import earth.eu.jtzipi.modules.utils.exec.ManagedExecutor;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.modes.AEADCipher;
+import org.bouncycastle.crypto.modes.ChaCha20Poly1305;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streaming file encryption in independent authenticated chunks using the BouncyCastle lightweight API.
+ * <p>
+ * Format (big endian):
+ * <pre>
+ * header  48 bytes: "JTZCHNK1" | version 1 | algorithm id | 0x0000 | int chunk size | long plain length | 24 byte salt
+ * chunk i:          ciphertext of min(chunk size, rest) bytes | 16 byte tag
+ * </pre>
+ * A file key is derived by HKDF-SHA256 from the master key and the random salt, so every file has its own key
+ * and the nonce of chunk {@code i} is simply {@code 0x00000000 || long i}.
+ * The additional data of each chunk is {@code header || long i || final flag}, which binds the header,
+ * detects reordered chunks and a truncated file. An empty file has one empty final chunk.
+ * </p>
+ * <p>
+ * Chunks are read and written with positional {@link FileChannel} IO and processed by several workers at once;
+ * the calling thread works too. Output is written to a {@code .part} file and moved into place only after every
+ * chunk succeeded, so a failed decryption never leaves unauthenticated plaintext behind.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ChunkedFileCipher {
+
+    /**
+     * Default plaintext chunk size.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    /**
+     * Minimal chunk size.
+     */
+    public static final int MIN_CHUNK_SIZE = 4096;
+    /**
+     * Maximal chunk size.
+     */
+    public static final int MAX_CHUNK_SIZE = 1 << 26;
+    /**
+     * Header length.
+     */
+    public static final int HEADER_SIZE = 48;
+    /**
+     * Tag length per chunk.
+     */
+    public static final int TAG_SIZE = 16;
+    private static final byte[] MAGIC = "JTZCHNK1".getBytes( StandardCharsets.US_ASCII );
+    private static final byte VERSION = 1;
+    private static final int SALT_SIZE = 24;
+    private static final byte[] INFO = "jtzipi chunked cipher v1".getBytes( StandardCharsets.US_ASCII );
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Logger LOG = LoggerFactory.getLogger( "ChunkedFileCipher" );
+    private static final ICounter CRYPTO_BYTES = Metrics.counter( "crypto.bytes" );
+
+    private final Algorithm algorithm;
+    private final int chunkSize;
+    private final Executor executor;
+    private final int workers;
+
+    private ChunkedFileCipher( final Algorithm algorithm, final int chunkSize, final Executor executor, final int workers ) {
+        this.algorithm = algorithm;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.workers = workers;
+    }
+
+    /**
+     * Create cipher on the {@link ExecutorRegistry#CRYPTO} pool.
+     *
+     * @param algorithm algorithm for encryption
+     * @return cipher
+     * @throws NullPointerException if {@code algorithm} is null
+     */
+    public static ChunkedFileCipher of( final Algorithm algorithm ) {
+        Objects.requireNonNull( algorithm );
+        final ManagedExecutor me = ExecutorRegistry.get( ExecutorRegistry.CRYPTO );
+        return new ChunkedFileCipher( algorithm, DEFAULT_CHUNK_SIZE, me, me.getMaximumPoolSize() );
+    }
+
+    /**
+     * Create random 256 bit key.
+     *
+     * @return key
+     */
+    public static byte[] newKey() {
+        final byte[] key = new byte[32];
+        RANDOM.nextBytes( key );
+        return key;
+    }
+
+    /**
+     * Return copy with chunk size used for encryption.
+     *
+     * @param size plaintext bytes per chunk
+     * @return cipher
+     * @throws IllegalArgumentException if {@code size} not in [{@link #MIN_CHUNK_SIZE}, {@link #MAX_CHUNK_SIZE}]
+     */
+    public ChunkedFileCipher chunkSize( final int size ) {
+        if ( size < MIN_CHUNK_SIZE || size > MAX_CHUNK_SIZE ) {
+            throw new IllegalArgumentException( "Chunk size[=" + size + "] invalid" );
+        }
+        return new ChunkedFileCipher( algorithm, size, executor, workers );
+    }
+
+    /**
+     * Return copy using executor.
+     *
+     * @param executor executor
+     * @param workers  workers besides the calling thread &ge; 0
+     * @return cipher
+     * @throws NullPointerException     if {@code executor} is null
+     * @throws IllegalArgumentException if {@code workers} &lt; 0
+     */
+    public ChunkedFileCipher parallel( final Executor executor, final int workers ) {
+        Objects.requireNonNull( executor );
+        if ( workers < 0 ) {
+            throw new IllegalArgumentException( "Workers[=" + workers + "] < 0" );
+        }
+        return new ChunkedFileCipher( algorithm, chunkSize, executor, workers );
+    }
+
+    /**
+     * Algorithm used to encrypt.
+     *
+     * @return algorithm
+     */
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Plaintext chunk size used to encrypt.
+     *
+     * @return size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Encrypt file.
+     *
+     * @param in  plaintext file
+     * @param out encrypted file, replaced if existing
+     * @param key master key of 16 to 64 bytes
+     * @return bytes written
+     * @throws IOException              if reading or writing failed
+     * @throws NullPointerException     if any argument is null
+     * @throws IllegalArgumentException if {@code key} length is invalid
+     */
+    public long encrypt( final Path in, final Path out, final byte[] key ) throws IOException {
+        Objects.requireNonNull( in );
+        Objects.requireNonNull( out );
+        checkKey( key );
+        final byte[] salt = new byte[SALT_SIZE];
+        RANDOM.nextBytes( salt );
+        final Path part = part( out );
+        try {
+            final long size;
+            try ( final FileChannel src = FileChannel.open( in, StandardOpenOption.READ );
+                  final FileChannel dst = FileChannel.open( part, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+                final Header header = new Header( algorithm, chunkSize, src.size(), salt );
+                writeFully( dst, ByteBuffer.wrap( header.bytes ), 0L );
+                run( new Job( header, deriveKey( key, header ), src, dst, true ) );
+                size = header.cipherLength();
+                dst.force( true );
+            }
+            Files.move( part, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            return size;
+        } finally {
+            Files.deleteIfExists( part );
+        }
+    }
+
+    /**
+     * Decrypt file. Algorithm and chunk size are read from the header.
+     *
+     * @param in  encrypted file
+     * @param out plaintext file, replaced if existing
+     * @param key master key used to encrypt
+     * @return plaintext bytes
+     * @throws CipherTamperedException  if the file is malformed, truncated, modified or the key is wrong
+     * @throws IOException              if reading or writing failed
+     * @throws NullPointerException     if any argument is null
+     * @throws IllegalArgumentException if {@code key} length is invalid
+     */
+    public long decrypt( final Path in, final Path out, final byte[] key ) throws IOException {
+        Objects.requireNonNull( in );
+        Objects.requireNonNull( out );
+        checkKey( key );
+        final Path part = part( out );
+        try ( final FileChannel src = FileChannel.open( in, StandardOpenOption.READ ) ) {
+            final Header header = Header.read( src );
+            if ( src.size() != header.cipherLength() ) {
+                throw new CipherTamperedException( "File '" + in + "' has wrong length" );
+            }
+            try ( final FileChannel dst = FileChannel.open( part, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+                run( new Job( header, deriveKey( key, header ), src, dst, false ) );
+                dst.force( true );
+            }
+            Files.move( part, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            return header.plainLength;
+        } finally {
+            Files.deleteIfExists( part );
+        }
+    }
+
+    private void run( final Job job ) throws IOException {
+        final int n = ( int ) Math.min( workers, job.chunks - 1L );
+        final CountDownLatch latch = new CountDownLatch( n );
+        for ( int i = 0; i < n; i++ ) {
+            try {
+                executor.execute( () -> {
+                    try {
+                        job.work();
+                    } finally {
+                        latch.countDown();
+                    }
+                } );
+            } catch ( final RejectedExecutionException reE ) {
+                latch.countDown();
+            }
+        }
+        job.work();
+        try {
+            latch.await();
+        } catch ( final InterruptedException iE ) {
+            Thread.currentThread().interrupt();
+            job.fail( new IOException( "Interrupted", iE ) );
+        }
+        final IOException ioE = job.failure.get();
+        if ( null != ioE ) {
+            throw ioE;
+        }
+        CRYPTO_BYTES.add( job.header.plainLength );
+    }
+
+    private static byte[] deriveKey( final byte[] key, final Header header ) {
+        final HKDFBytesGenerator hkdf = new HKDFBytesGenerator( new SHA256Digest() );
+        final byte[] info = Arrays.copyOf( INFO, INFO.length + 1 );
+        info[INFO.length] = header.algorithm.id;
+        hkdf.init( new HKDFParameters( key, header.salt, info ) );
+        final byte[] fileKey = new byte[32];
+        hkdf.generateBytes( fileKey, 0, fileKey.length );
+        return fileKey;
+    }
+
+    private static void checkKey( final byte[] key ) {
+        Objects.requireNonNull( key );
+        if ( key.length < 16 || key.length > 64 ) {
+            throw new IllegalArgumentException( "Key length[=" + key.length + "] not in [16, 64]" );
+        }
+    }
+
+    private static Path part( final Path out ) {
+        return out.resolveSibling( out.getFileName() + ".part" );
+    }
+
+    private static void readFully( final FileChannel fc, final ByteBuffer bb, final long pos ) throws IOException {
+        long p = pos;
+        while ( bb.hasRemaining() ) {
+            final int n = fc.read( bb, p );
+            if ( n < 0 ) {
+                throw new EOFException( "Unexpected end at " + p );
+            }
+            p += n;
+        }
+    }
+
+    private static void writeFully( final FileChannel fc, final ByteBuffer bb, final long pos ) throws IOException {
+        long p = pos;
+        while ( bb.hasRemaining() ) {
+            p += fc.write( bb, p );
+        }
+    }
+
+    /**
+     * Authenticated algorithm.
+     */
+    public enum Algorithm {
+        /**
+         * AES-256 in GCM mode.
+         */
+        AES_GCM( ( byte ) 1 ),
+        /**
+         * ChaCha20-Poly1305, fast without AES hardware.
+         */
+        CHACHA20_POLY1305( ( byte ) 2 );
+
+        private final byte id;
+
+        Algorithm( final byte id ) {
+            this.id = id;
+        }
+
+        AEADCipher newCipher() {
+            return AES_GCM == this ? new GCMBlockCipher( new AESEngine() ) : new ChaCha20Poly1305();
+        }
+
+        static Algorithm of( final byte id ) throws CipherTamperedException {
+            for ( final Algorithm algo : values() ) {
+                if ( algo.id == id ) {
+                    return algo;
+                }
+            }
+            throw new CipherTamperedException( "Unknown algorithm " + id );
+        }
+    }
+
+    private static final class Header {
+
+        private final Algorithm algorithm;
+        private final int chunkSize;
+        private final long plainLength;
+        private final byte[] salt;
+        private final byte[] bytes;
+        private final long chunks;
+
+        Header( final Algorithm algorithm, final int chunkSize, final long plainLength, final byte[] salt ) {
+            this.algorithm = algorithm;
+            this.chunkSize = chunkSize;
+            this.plainLength = plainLength;
+            this.salt = salt;
+            this.chunks = Math.max( 1L, ( plainLength + chunkSize - 1L ) / chunkSize );
+            this.bytes = ByteBuffer.allocate( HEADER_SIZE )
+                    .put( MAGIC ).put( VERSION ).put( algorithm.id ).putShort( ( short ) 0 )
+                    .putInt( chunkSize ).putLong( plainLength ).put( salt )
+                    .array();
+        }
+
+        static Header read( final FileChannel fc ) throws IOException {
+            final ByteBuffer bb = ByteBuffer.allocate( HEADER_SIZE );
+            try {
+                readFully( fc, bb, 0L );
+            } catch ( final EOFException eofE ) {
+                throw new CipherTamperedException( "Header truncated", eofE );
+            }
+            bb.flip();
+            final byte[] magic = new byte[MAGIC.length];
+            bb.get( magic );
+            if ( !Arrays.equals( MAGIC, magic ) || VERSION != bb.get() ) {
+                throw new CipherTamperedException( "Not an encrypted file" );
+            }
+            final Algorithm algorithm = Algorithm.of( bb.get() );
+            bb.getShort();
+            final int chunkSize = bb.getInt();
+            final long plainLength = bb.getLong();
+            if ( chunkSize < MIN_CHUNK_SIZE || chunkSize > MAX_CHUNK_SIZE || plainLength < 0L ) {
+                throw new CipherTamperedException( "Header corrupt" );
+            }
+            final byte[] salt = new byte[SALT_SIZE];
+            bb.get( salt );
+            return new Header( algorithm, chunkSize, plainLength, salt );
+        }
+
+        long cipherLength() {
+            return HEADER_SIZE + plainLength + chunks * TAG_SIZE;
+        }
+    }
+
+    /**
+     * One encryption or decryption shared by all workers.
+     */
+    private static final class Job {
+
+        private final Header header;
+        private final KeyParameter key;
+        private final FileChannel src;
+        private final FileChannel dst;
+        private final boolean encrypt;
+        private final long chunks;
+        private final AtomicLong next = new AtomicLong();
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Job( final Header header, final byte[] key, final FileChannel src, final FileChannel dst, final boolean encrypt ) {
+            this.header = header;
+            this.key = new KeyParameter( key );
+            this.src = src;
+            this.dst = dst;
+            this.encrypt = encrypt;
+            this.chunks = header.chunks;
+        }
+
+        void work() {
+            final AEADCipher cipher = header.algorithm.newCipher();
+            // a small file needs no buffer of a whole chunk
+            final int size = ( int ) Math.min( header.chunkSize, header.plainLength ) + TAG_SIZE;
+            final byte[] in = new byte[size];
+            final byte[] out = new byte[size];
+            final byte[] nonce = new byte[12];
+            final byte[] aad = Arrays.copyOf( header.bytes, HEADER_SIZE + 9 );
+            for ( long i = next.getAndIncrement(); i < chunks && null == failure.get(); i = next.getAndIncrement() ) {
+                try {
+                    chunk( cipher, i, in, out, nonce, aad );
+                } catch ( final IOException ioE ) {
+                    fail( ioE );
+                } catch ( final RuntimeException rE ) {
+                    LOG.warn( "Chunk " + i + " failed", rE );
+                    fail( new IOException( "Chunk " + i + " failed", rE ) );
+                }
+            }
+        }
+
+        void fail( final IOException ioE ) {
+            failure.compareAndSet( null, ioE );
+        }
+
+        private void chunk( final AEADCipher cipher, final long i, final byte[] in, final byte[] out, final byte[] nonce, final byte[] aad ) throws IOException {
+            final boolean last = i == chunks - 1L;
+            final int plainLen = ( int ) ( last ? header.plainLength - i * header.chunkSize : header.chunkSize );
+            final long plainPos = i * header.chunkSize;
+            final long cipherPos = HEADER_SIZE + i * ( header.chunkSize + ( long ) TAG_SIZE );
+            ByteBuffer.wrap( nonce, 4, 8 ).putLong( i );
+            ByteBuffer.wrap( aad, HEADER_SIZE, 9 ).putLong( i ).put( last ? ( byte ) 1 : ( byte ) 0 );
+            cipher.init( encrypt, new AEADParameters( key, TAG_SIZE * 8, nonce, aad ) );
+
+            final int inLen = encrypt ? plainLen : plainLen + TAG_SIZE;
+            readFully( src, ByteBuffer.wrap( in, 0, inLen ), encrypt ? plainPos : cipherPos );
+            final int outLen;
+            try {
+                final int len = cipher.processBytes( in, 0, inLen, out, 0 );
+                outLen = len + cipher.doFinal( out, len );
+            } catch ( final InvalidCipherTextException icE ) {
+                throw new CipherTamperedException( "Chunk " + i + " failed authentication", icE );
+            }
+            writeFully( dst, ByteBuffer.wrap( out, 0, outLen ), encrypt ? cipherPos : plainPos );
+        }
+    }
+}
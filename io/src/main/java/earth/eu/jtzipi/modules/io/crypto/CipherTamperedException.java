@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.crypto;
+
+import java.io.IOException;
+
+/**
+ * Encrypted file failed authentication or is malformed.
+ *
+ * @author jTzipi
+ */
+public class CipherTamperedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Create exception.
+     *
+     * @param message message
+     */
+    public CipherTamperedException( final String message ) {
+        super( message );
+    }
+
+    /**
+     * Create exception.
+     *
+     * @param message message
+     * @param cause   cause
+     */
+    public CipherTamperedException( final String message, final Throwable cause ) {
+        super( message, cause );
+    }
+}
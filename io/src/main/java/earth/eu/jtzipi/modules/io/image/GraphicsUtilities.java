@@ -16,6 +16,10 @@
 
 package earth.eu.jtzipi.modules.io.image;
 
+import earth.eu.jtzipi.modules.io.jfr.ImageDecodeEvent;
+import earth.eu.jtzipi.modules.utils.metrics.ITimer;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -59,6 +63,8 @@ public final class GraphicsUtilities {
             GraphicsEnvironment.getLocalGraphicsEnvironment().
                     getDefaultScreenDevice().getDefaultConfiguration();
 
+    private static final ITimer THUMBNAIL_TIMER = Metrics.timer( "image.thumbnail" );
+
     private GraphicsUtilities() {
     }
 
@@ -234,6 +240,9 @@ public final class GraphicsUtilities {
      */
     public static BufferedImage createThumbnailFast( final BufferedImage image,
                                                      final int newSize ) {
+        final ImageDecodeEvent event = new ImageDecodeEvent();
+        event.begin();
+        final long start = THUMBNAIL_TIMER.start();
         final float ratio;
         int width = image.getWidth();
         int height = image.getHeight();
@@ -271,6 +280,7 @@ public final class GraphicsUtilities {
         g2.drawImage( image, 0, 0, temp.getWidth(), temp.getHeight(), null );
         g2.dispose();
 
+        commitThumbnail( event, start, image, temp );
         return temp;
     }
 
@@ -298,6 +308,9 @@ public final class GraphicsUtilities {
      */
     public static BufferedImage createThumbnailFast( final BufferedImage image,
                                                      final int newWidth, final int newHeight ) {
+        final ImageDecodeEvent event = new ImageDecodeEvent();
+        event.begin();
+        final long start = THUMBNAIL_TIMER.start();
         if ( newWidth >= image.getWidth() ||
                 newHeight >= image.getHeight() ) {
             throw new IllegalArgumentException( "newWidth and newHeight cannot" +
@@ -315,6 +328,7 @@ public final class GraphicsUtilities {
         g2.drawImage( image, 0, 0, temp.getWidth(), temp.getHeight(), null );
         g2.dispose();
 
+        commitThumbnail( event, start, image, temp );
         return temp;
     }
 
@@ -341,6 +355,9 @@ public final class GraphicsUtilities {
      */
     public static BufferedImage createThumbnail( final BufferedImage image,
                                                  final int newSize ) {
+        final ImageDecodeEvent event = new ImageDecodeEvent();
+        event.begin();
+        final long start = THUMBNAIL_TIMER.start();
         int width = image.getWidth();
         int height = image.getHeight();
 
@@ -392,6 +409,7 @@ public final class GraphicsUtilities {
             thumb = temp;
         } while (newSize != (isWidthGreater ? width : height));
 
+        commitThumbnail( event, start, image, thumb );
         return thumb;
     }
 
@@ -417,6 +435,9 @@ public final class GraphicsUtilities {
      */
     public static BufferedImage createThumbnail( final BufferedImage image,
                                                  final int newWidth, final int newHeight ) {
+        final ImageDecodeEvent event = new ImageDecodeEvent();
+        event.begin();
+        final long start = THUMBNAIL_TIMER.start();
         int width = image.getWidth();
         int height = image.getHeight();
 
@@ -456,9 +477,22 @@ public final class GraphicsUtilities {
             thumb = temp;
         } while (width != newWidth || height != newHeight);
 
+        commitThumbnail( event, start, image, thumb );
         return thumb;
     }
 
+    private static void commitThumbnail( final ImageDecodeEvent event, final long start, final BufferedImage source, final BufferedImage thumb ) {
+        THUMBNAIL_TIMER.stop( start );
+        if ( event.shouldCommit() ) {
+            event.operation = ImageDecodeEvent.OP_THUMBNAIL;
+            event.width = source.getWidth();
+            event.height = source.getHeight();
+            event.targetWidth = thumb.getWidth();
+            event.targetHeight = thumb.getHeight();
+            event.commit();
+        }
+    }
+
     /**
      * <p>Returns an array of pixels, stored as integers, from a
      * <code>BufferedImage</code>. The pixels are grabbed from a rectangular
@@ -17,6 +17,10 @@
 package earth.eu.jtzipi.modules.io.image;
 
 import earth.eu.jtzipi.modules.io.IOUtils;
+import earth.eu.jtzipi.modules.io.jfr.ImageDecodeEvent;
+import earth.eu.jtzipi.modules.utils.exec.DeviceThrottle;
+import earth.eu.jtzipi.modules.utils.metrics.ITimer;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +45,7 @@ import java.util.WeakHashMap;
 public  final class ImageUtils {
 private static final Logger Log = LoggerFactory.getLogger( "ImageUtils" );
 
+    private static final ITimer DECODE_TIMER = Metrics.timer( "image.dimension" );
     // cache for image reader
     private static final WeakHashMap<String, ImageReader> IMG_READER_MAP = new WeakHashMap<>();
 
@@ -102,15 +107,28 @@ private static final Logger Log = LoggerFactory.getLogger( "ImageUtils" );
     }
 
 
+    @SuppressWarnings("try")
     private static ImageDimension tryReadDim( final File file, final ImageReader imgRead ) {
-        try ( final ImageInputStream iis = new FileImageInputStream( file ) ) {
+        final ImageDecodeEvent event = new ImageDecodeEvent();
+        event.begin();
+        final long start = DECODE_TIMER.start();
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( file.toPath() );
+              final ImageInputStream iis = new FileImageInputStream( file ) ) {
 
 
             imgRead.setInput( iis );
             final int minIdx = imgRead.getMinIndex();
             final int width = imgRead.getWidth( minIdx );
             final int height = imgRead.getHeight( minIdx );
-
+            DECODE_TIMER.stop( start );
+
+            if ( event.shouldCommit() ) {
+                event.path = file.toString();
+                event.operation = ImageDecodeEvent.OP_DIMENSION;
+                event.width = width;
+                event.height = height;
+                event.commit();
+            }
 
             return ImageDimension.of( width, height );
         } catch ( final IOException ioE ) {
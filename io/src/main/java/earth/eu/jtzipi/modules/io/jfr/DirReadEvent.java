@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for reading the entries of one directory.
+ * <p>
+ * Duration covers the directory stream only and not the recursion into sub dirs.
+ * </p>
+ *
+ * @author jTzipi
+ */
+@Name( "earth.eu.jtzipi.modules.DirRead" )
+@Label( "Directory Read" )
+@Category( { "Modules", "IO" } )
+@StackTrace( false )
+public final class DirReadEvent extends Event {
+
+    @Label( "Path" )
+    public String path;
+
+    @Label( "Entries" )
+    public int entries;
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for decoding an image or creating a thumbnail.
+ *
+ * @author jTzipi
+ */
+@Name( "earth.eu.jtzipi.modules.ImageDecode" )
+@Label( "Image Decode" )
+@Category( { "Modules", "Image" } )
+@StackTrace( false )
+public final class ImageDecodeEvent extends Event {
+
+    /**
+     * Operation reading the dimension of an image file.
+     */
+    public static final String OP_DIMENSION = "dimension";
+    /**
+     * Operation creating a thumbnail.
+     */
+    public static final String OP_THUMBNAIL = "thumbnail";
+
+    @Label( "Path" )
+    @Description( "Image path if read from file" )
+    public String path;
+
+    @Label( "Operation" )
+    public String operation;
+
+    @Label( "Source Width" )
+    public int width;
+
+    @Label( "Source Height" )
+    public int height;
+
+    @Label( "Target Width" )
+    public int targetWidth;
+
+    @Label( "Target Height" )
+    public int targetHeight;
+}
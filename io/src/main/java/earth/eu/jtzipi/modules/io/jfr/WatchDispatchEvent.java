@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for dispatching one watch event to its handler.
+ * <p>
+ * Duration is the time of one polled event from its start of dispatch until the handler returned,
+ * registering new sub dirs included. Waiting for the watch key is not part of it.
+ * </p>
+ *
+ * @author jTzipi
+ */
+@Name( "earth.eu.jtzipi.modules.WatchDispatch" )
+@Label( "Watch Event Dispatch" )
+@Category( { "Modules", "Watch" } )
+@StackTrace( false )
+public final class WatchDispatchEvent extends Event {
+
+    @Label( "Path" )
+    public String path;
+
+    @Label( "Kind" )
+    public String kind;
+
+    @Label( "Count" )
+    public int count;
+
+    @Label( "Action" )
+    public String action;
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.scale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generator for reproducible synthetic directory trees.
+ * <p>
+ * The tree is fully determined by its configuration and the seed.
+ * That is two runs with the same settings create the same names, sizes and content.
+ * Use a tmpfs root (like {@code /dev/shm}) to take disk latency out of the measurement.
+ * </p>
+ * <p>
+ * Beside plain files and dirs the generator can create
+ * <ul>
+ *     <li>symbolic links to siblings</li>
+ *     <li>unreadable dirs (POSIX only)</li>
+ *     <li>zip archives</li>
+ *     <li>duplicated file content (for dedupe workloads)</li>
+ * </ul>
+ *
+ * @author jTzipi
+ */
+public final class SyntheticTree {
+
+    /**
+     * Default seed.
+     */
+    public static final long DEFAULT_SEED = 0x5EEDL;
+    private static final Logger LOG = LoggerFactory.getLogger( "SyntheticTree" );
+    private static final Set<PosixFilePermission> NO_PERMISSION = PosixFilePermissions.fromString( "---------" );
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // number of distinct content seeds used for duplicates
+    private static final int DUPLICATE_POOL = 64;
+
+    private int fanOut = 8;
+    private int depth = 4;
+    private int filesPerDir = 16;
+    private SizeDistribution sizeDistribution = SizeDistribution.LOG_NORMAL;
+    private long meanFileSize = 16 * 1024L;
+    private long maxFileSize = 64L * 1024L * 1024L;
+    private double symlinkRatio = 0D;
+    private double unreadableRatio = 0D;
+    private double zipRatio = 0D;
+    private double duplicateRatio = 0D;
+    private long seed = DEFAULT_SEED;
+
+    private SyntheticTree() {
+
+    }
+
+    /**
+     * Create a new generator with default settings.
+     *
+     * @return generator
+     */
+    public static SyntheticTree create() {
+        return new SyntheticTree();
+    }
+
+    /**
+     * Number of sub dirs per dir.
+     *
+     * @param fanOut fan out &ge; 0
+     * @return {@code this}
+     */
+    public SyntheticTree fanOut( final int fanOut ) {
+        this.fanOut = Math.max( 0, fanOut );
+        return this;
+    }
+
+    /**
+     * Depth of tree.
+     *
+     * @param depth depth &ge; 0 where 0 means root only
+     * @return {@code this}
+     */
+    public SyntheticTree depth( final int depth ) {
+        this.depth = Math.max( 0, depth );
+        return this;
+    }
+
+    /**
+     * Number of files per dir.
+     *
+     * @param files files &ge; 0
+     * @return {@code this}
+     */
+    public SyntheticTree filesPerDir( final int files ) {
+        this.filesPerDir = Math.max( 0, files );
+        return this;
+    }
+
+    /**
+     * File size distribution.
+     *
+     * @param distribution distribution
+     * @param mean         mean file size in byte
+     * @param max          max file size in byte
+     * @return {@code this}
+     */
+    public SyntheticTree fileSize( final SizeDistribution distribution, final long mean, final long max ) {
+        this.sizeDistribution = null == distribution ? SizeDistribution.FIXED : distribution;
+        this.meanFileSize = Math.max( 0L, mean );
+        this.maxFileSize = Math.max( meanFileSize, max );
+        return this;
+    }
+
+    /**
+     * Ratio of files replaced by symbolic links.
+     *
+     * @param ratio [0,1]
+     * @return {@code this}
+     */
+    public SyntheticTree symlinkRatio( final double ratio ) {
+        this.symlinkRatio = ratio( ratio );
+        return this;
+    }
+
+    /**
+     * Ratio of dirs made unreadable.
+     *
+     * @param ratio [0,1]
+     * @return {@code this}
+     */
+    public SyntheticTree unreadableRatio( final double ratio ) {
+        this.unreadableRatio = ratio( ratio );
+        return this;
+    }
+
+    /**
+     * Ratio of files written as zip archive.
+     *
+     * @param ratio [0,1]
+     * @return {@code this}
+     */
+    public SyntheticTree zipRatio( final double ratio ) {
+        this.zipRatio = ratio( ratio );
+        return this;
+    }
+
+    /**
+     * Ratio of files sharing content with other files.
+     *
+     * @param ratio [0,1]
+     * @return {@code this}
+     */
+    public SyntheticTree duplicateRatio( final double ratio ) {
+        this.duplicateRatio = ratio( ratio );
+        return this;
+    }
+
+    /**
+     * Seed.
+     *
+     * @param seed seed
+     * @return {@code this}
+     */
+    public SyntheticTree seed( final long seed ) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Expected number of entries (dirs and files) without creating them.
+     *
+     * @return entries
+     */
+    public long expectedEntries() {
+        long dirs = 0L;
+        long level = 1L;
+        for ( int d = 0; d <= depth; d++ ) {
+            dirs += level;
+            level *= fanOut;
+        }
+        return dirs + dirs * filesPerDir;
+    }
+
+    /**
+     * Create the tree below {@code root}.
+     *
+     * @param root root dir (created if missing)
+     * @return statistic of created tree
+     * @throws IOException          if writing failed
+     * @throws NullPointerException if {@code root} is null
+     */
+    public Stats generate( final Path root ) throws IOException {
+        Objects.requireNonNull( root );
+        Files.createDirectories( root );
+
+        final SplittableRandom rand = new SplittableRandom( seed );
+        final Stats stats = new Stats();
+        final ByteBuffer buf = ByteBuffer.allocateDirect( BUFFER_SIZE );
+
+        LOG.info( "Generate ~" + expectedEntries() + " entries below '" + root + "'" );
+        createDir( root, 0, rand, buf, stats );
+        LOG.info( "Generated " + stats );
+        return stats;
+    }
+
+    private void createDir( final Path dir, final int level, final SplittableRandom rand, final ByteBuffer buf, final Stats stats ) throws IOException {
+        stats.dirs++;
+        Path lastFile = null;
+        for ( int f = 0; f < filesPerDir; f++ ) {
+
+            final double kind = rand.nextDouble();
+            final long drawnSize = nextSize( rand );
+            final boolean pooled = rand.nextDouble() < duplicateRatio;
+            final long contentSeed = pooled ? rand.nextInt( DUPLICATE_POOL ) : rand.nextLong();
+            // duplicates need the same size too, so a pooled seed decides it
+            final long size = pooled ? nextSize( new SplittableRandom( contentSeed ) ) : drawnSize;
+
+            if ( null != lastFile && kind < symlinkRatio ) {
+                final Path link = dir.resolve( "link_" + f );
+                try {
+                    Files.createSymbolicLink( link, lastFile.getFileName() );
+                    stats.links++;
+                    continue;
+                } catch ( final UnsupportedOperationException | IOException ioE ) {
+                    LOG.debug( "Can not create link '" + link + "'", ioE );
+                }
+            }
+            if ( kind >= 1D - zipRatio ) {
+                lastFile = dir.resolve( "archive_" + f + ".zip" );
+                writeZip( lastFile, size, contentSeed, buf );
+                stats.zips++;
+            } else {
+                lastFile = dir.resolve( "file_" + f + ".dat" );
+                writeFile( lastFile, size, contentSeed, buf );
+            }
+            stats.files++;
+            stats.bytes += size;
+        }
+
+        if ( level >= depth ) {
+            return;
+        }
+        for ( int d = 0; d < fanOut; d++ ) {
+            final Path sub = dir.resolve( "dir_" + level + "_" + d );
+            Files.createDirectories( sub );
+            // split so the sub tree is independent of the number of draws made inside siblings
+            createDir( sub, level + 1, rand.split(), buf, stats );
+            if ( rand.nextDouble() < unreadableRatio && lockDir( sub ) ) {
+                stats.unreadable++;
+            }
+        }
+    }
+
+    private static double ratio( final double ratio ) {
+        return Math.min( 1D, Math.max( 0D, ratio ) );
+    }
+
+    private long nextSize( final SplittableRandom rand ) {
+        final long size;
+        switch ( sizeDistribution ) {
+            case UNIFORM:
+                size = 0L == meanFileSize ? 0L : rand.nextLong( 2L * meanFileSize + 1L );
+                break;
+            case LOG_NORMAL:
+                // sigma 1 gives a long tail of large files with most files small
+                final double mu = Math.log( Math.max( 1D, meanFileSize ) ) - 0.5D;
+                size = ( long ) Math.exp( mu + nextGaussian( rand ) );
+                break;
+            case FIXED:
+            default:
+                size = meanFileSize;
+        }
+        return Math.min( maxFileSize, Math.max( 0L, size ) );
+    }
+
+    private static double nextGaussian( final SplittableRandom rand ) {
+        // Box Muller
+        final double u = 1D - rand.nextDouble();
+        final double v = rand.nextDouble();
+        return Math.sqrt( -2D * Math.log( u ) ) * Math.cos( 2D * Math.PI * v );
+    }
+
+    private static void writeFile( final Path path, final long size, final long contentSeed, final ByteBuffer buf ) throws IOException {
+        try ( final FileChannel fc = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ) ) {
+            final SplittableRandom content = new SplittableRandom( contentSeed );
+            long left = size;
+            while ( left > 0L ) {
+                fill( buf, content, ( int ) Math.min( left, buf.capacity() ) );
+                while ( buf.hasRemaining() ) {
+                    left -= fc.write( buf );
+                }
+            }
+        }
+    }
+
+    private static void writeZip( final Path path, final long size, final long contentSeed, final ByteBuffer buf ) throws IOException {
+        final SplittableRandom content = new SplittableRandom( contentSeed );
+        final byte[] chunk = new byte[buf.capacity()];
+        try ( final OutputStream out = Files.newOutputStream( path ); final ZipOutputStream zos = new ZipOutputStream( out ) ) {
+            // a few entries with a sub dir to make archive browsing non trivial
+            final int entries = 1 + content.nextInt( 4 );
+            for ( int e = 0; e < entries; e++ ) {
+                zos.putNextEntry( new ZipEntry( ( e % 2 == 0 ? "" : "sub/" ) + "entry_" + e + ".bin" ) );
+                long left = size / entries;
+                while ( left > 0L ) {
+                    final int len = ( int ) Math.min( left, chunk.length );
+                    fill( buf, content, len );
+                    buf.get( chunk, 0, len );
+                    zos.write( chunk, 0, len );
+                    left -= len;
+                }
+                zos.closeEntry();
+            }
+        }
+    }
+
+    private static void fill( final ByteBuffer buf, final SplittableRandom content, final int len ) {
+        buf.clear();
+        // half random half zero so compression and dedupe have something to find
+        final int rnd = len / 2;
+        int i = 0;
+        for ( ; i + Long.BYTES <= rnd; i += Long.BYTES ) {
+            buf.putLong( content.nextLong() );
+        }
+        for ( ; i < len; i++ ) {
+            buf.put( ( byte ) 0 );
+        }
+        buf.flip();
+    }
+
+    private static boolean lockDir( final Path dir ) {
+        try {
+            Files.setPosixFilePermissions( dir, NO_PERMISSION );
+            return true;
+        } catch ( final UnsupportedOperationException | IOException ioE ) {
+            LOG.debug( "Can not lock dir '" + dir + "'", ioE );
+            return false;
+        }
+    }
+
+    /**
+     * Remove a generated tree.
+     * <p>
+     * Unreadable dirs fail to open during the walk; they are made accessible and deleted then.
+     *
+     * @param root root
+     * @throws IOException if delete failed
+     */
+    public static void delete( final Path root ) throws IOException {
+        Objects.requireNonNull( root );
+        if ( !Files.exists( root, LinkOption.NOFOLLOW_LINKS ) ) {
+            return;
+        }
+        Files.walkFileTree( root, new SimpleFileVisitor<>() {
+
+            @Override
+            public FileVisitResult visitFileFailed( final Path file, final IOException exc ) throws IOException {
+                // unreadable dirs are reported here, not to preVisitDirectory
+                if ( !( exc instanceof AccessDeniedException ) || !Files.isDirectory( file, LinkOption.NOFOLLOW_LINKS ) ) {
+                    throw exc;
+                }
+                try {
+                    Files.setPosixFilePermissions( file, PosixFilePermissions.fromString( "rwx------" ) );
+                } catch ( final UnsupportedOperationException | IOException chmodE ) {
+                    exc.addSuppressed( chmodE );
+                    throw exc;
+                }
+                if ( !Files.isReadable( file ) ) {
+                    throw exc;
+                }
+                delete( file );
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile( final Path file, final java.nio.file.attribute.BasicFileAttributes attrs ) throws IOException {
+                Files.delete( file );
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory( final Path dir, final IOException exc ) throws IOException {
+                Files.delete( dir );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    /**
+     * File size distribution.
+     */
+    public enum SizeDistribution {
+        /**
+         * All files have mean size.
+         */
+        FIXED,
+        /**
+         * Uniform in [0, 2 * mean].
+         */
+        UNIFORM,
+        /**
+         * Log normal with many small and few large files.
+         */
+        LOG_NORMAL
+    }
+
+    /**
+     * Statistic of generated tree.
+     */
+    public static final class Stats {
+
+        private long dirs;
+        private long files;
+        private long bytes;
+        private long links;
+        private long zips;
+        private long unreadable;
+
+        Stats() {
+        }
+
+        public long getDirs() {
+            return dirs;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getLinks() {
+            return links;
+        }
+
+        public long getZips() {
+            return zips;
+        }
+
+        public long getUnreadable() {
+            return unreadable;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "dirs=" + dirs +
+                    ", files=" + files +
+                    ", bytes=" + bytes +
+                    ", links=" + links +
+                    ", zips=" + zips +
+                    ", unreadable=" + unreadable +
+                    '}';
+        }
+    }
+}
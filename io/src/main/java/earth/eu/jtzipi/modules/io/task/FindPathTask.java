@@ -17,6 +17,12 @@
 package earth.eu.jtzipi.modules.io.task;
 
 import earth.eu.jtzipi.modules.io.IOUtils;
+import earth.eu.jtzipi.modules.io.jfr.DirReadEvent;
+import earth.eu.jtzipi.modules.utils.ProgressAggregator;
+import earth.eu.jtzipi.modules.utils.exec.DeviceThrottle;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.ITimer;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,20 +54,24 @@ public class FindPathTask implements Callable<List<Path>> {
 
 
     private static final Logger Log = LoggerFactory.getLogger( "FindPath" );
+    private static final ITimer DIR_READ_TIMER = Metrics.timer( "io.dir.read" );
+    private static final ICounter DIR_ENTRIES = Metrics.counter( "io.dir.entries" );
 
     //private long matches;
     private final Path path;      // root path
     private final List<Path> foundPathL;
     private final Predicate<Path> criteria;   // predicate
+    private final ProgressAggregator progress; // optional
 
 
     FindPathTask( final Path rootPath,
-                  final Predicate<Path> pathPredicate ) {
+                  final Predicate<Path> pathPredicate,
+                  final ProgressAggregator progressAggregator ) {
 
         this.path = rootPath;
         this.foundPathL = new ArrayList<>();
         this.criteria = pathPredicate;
-
+        this.progress = progressAggregator;
 
     }
 
@@ -74,6 +84,23 @@ public class FindPathTask implements Callable<List<Path>> {
      * @throws IOException if
      */
     public static FindPathTask of( final Path root, Predicate<Path> pathCriteria ) throws IOException {
+        return of( root, pathCriteria, null );
+    }
+
+    /**
+     * Create FindPathTask reporting to a shared progress.
+     * <p>
+     * Total and done count directories, metrics {@code entries} and {@code found} count paths.
+     * The task stops early if the progress answers BREAK.
+     * </p>
+     *
+     * @param root         root dir
+     * @param pathCriteria path predicate (optional)
+     * @param progress     shared progress (optional)
+     * @return FindPathTask
+     * @throws IOException if {@code root} is not readable
+     */
+    public static FindPathTask of( final Path root, Predicate<Path> pathCriteria, final ProgressAggregator progress ) throws IOException {
         Objects.requireNonNull( root, "root path is null" );
 
 
@@ -89,13 +116,16 @@ public class FindPathTask implements Callable<List<Path>> {
             pathCriteria = IOUtils.PATH_ACCEPT_ALL;
         }
 
-        return new FindPathTask( root, pathCriteria );
+        return new FindPathTask( root, pathCriteria, progress );
     }
 
     @Override
     public List<Path> call()  {
 
         Log.warn( "Start" );
+        if ( null != progress ) {
+            progress.addTotal( 1L );
+        }
         search( path );
 
 
@@ -105,27 +135,42 @@ public class FindPathTask implements Callable<List<Path>> {
         return foundPathL;
     }
 
+    @SuppressWarnings("try")
     private void search( final Path path ) {
+        if ( null != progress && progress.isBreak() ) {
+            return;
+        }
         // path not readable return
         if ( !Files.isReadable( path ) ) {
             Log.warn( "Can not read dir '" + path + "'" );
-
+            if ( null != progress ) {
+                progress.add( 1L );
+            }
             return;
         }
 
 
-        try ( final DirectoryStream<Path> ds = Files.newDirectoryStream( path ) ) {
+        // collect sub dirs and descend after the stream is closed
+        // so only one dir handle is open at a time
+        final List<Path> subDirL = new ArrayList<>();
+        final DirReadEvent event = new DirReadEvent();
+        event.begin();
+        final long start = DIR_READ_TIMER.start();
+        int entries = 0;
+        int found = 0;
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( path );
+              final DirectoryStream<Path> ds = Files.newDirectoryStream( path ) ) {
             for ( final Path pn : ds ) {
 
-
-                //System.out.println(pn);
+                entries++;
                 if ( Files.isDirectory( pn ) ) {
-                    search( pn );
+                    subDirL.add( pn );
                 }
 
                 if ( criteria.test( pn ) ) {
 
                     foundPathL.add( pn );
+                    found++;
 
                 }
             }
@@ -133,7 +178,26 @@ public class FindPathTask implements Callable<List<Path>> {
         } catch( final IOException ioE ) {
 
             Log.warn("Error reading dir", ioE  );
+            if ( null != progress ) {
+                progress.error( ioE );
+            }
+        }
+        DIR_READ_TIMER.stop( start );
+        DIR_ENTRIES.add( entries );
+        if ( null != progress ) {
+            progress.addTotal( subDirL.size() );
+            progress.add( 1L );
+            progress.add( "entries", entries );
+            progress.add( "found", found );
+        }
+        if ( event.shouldCommit() ) {
+            event.path = path.toString();
+            event.entries = entries;
+            event.commit();
         }
 
+        for ( final Path subDir : subDirL ) {
+            search( subDir );
+        }
     }
 }
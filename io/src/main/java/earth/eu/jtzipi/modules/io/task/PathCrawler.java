@@ -16,6 +16,12 @@
 
 package earth.eu.jtzipi.modules.io.task;
 
+import earth.eu.jtzipi.modules.io.jfr.DirReadEvent;
+import earth.eu.jtzipi.modules.utils.ProgressAggregator;
+import earth.eu.jtzipi.modules.utils.exec.DeviceThrottle;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.ITimer;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,6 +30,8 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
@@ -44,16 +52,20 @@ public class PathCrawler implements Callable<Void> {
     public static final Path __NULL__ = Paths.get("/null");
 
     private static final Logger LOG = LoggerFactory.getLogger( "" );
+    private static final ITimer DIR_READ_TIMER = Metrics.timer( "io.dir.read" );
+    private static final ICounter DIR_ENTRIES = Metrics.counter( "io.dir.entries" );
 
     private final Path root;
     private final Predicate<? super Path> pred;
     private final BlockingQueue<Path> foundPathBQ;    // shared path
+    private final ProgressAggregator progress;        // optional
 
 
-    private PathCrawler( final Path dir, final Predicate<? super Path> predicate, final BlockingQueue<Path> sharedBQ ) {
+    private PathCrawler( final Path dir, final Predicate<? super Path> predicate, final BlockingQueue<Path> sharedBQ, final ProgressAggregator progressAggregator ) {
         this.root = dir;
         this.pred = predicate;
         this.foundPathBQ = sharedBQ;
+        this.progress = progressAggregator;
     }
 
     /**
@@ -68,6 +80,26 @@ public class PathCrawler implements Callable<Void> {
      */
     public static PathCrawler of( final Path rootDir, final Predicate<? super Path> pathPred, final BlockingQueue<Path> sharedBlockingQ ) {
 
+        return of( rootDir, pathPred, sharedBlockingQ, null );
+    }
+
+    /**
+     * Create a path crawler reporting to a shared progress.
+     * <p>
+     * Total and done count directories, metrics {@code entries} and {@code found} count paths.
+     * The crawler stops early if the progress answers BREAK.
+     * </p>
+     *
+     * @param rootDir         root directory
+     * @param pathPred        path pattern
+     * @param sharedBlockingQ shared blocking queue
+     * @param progress        shared progress (optional)
+     * @return path crawler
+     * @throws IllegalArgumentException if {@code pathPred} is null
+     * @throws NullPointerException     if {@code rootDir} or {@code sharedBlockingQ} are null
+     */
+    public static PathCrawler of( final Path rootDir, final Predicate<? super Path> pathPred, final BlockingQueue<Path> sharedBlockingQ, final ProgressAggregator progress ) {
+
         Objects.requireNonNull( rootDir );
         Objects.requireNonNull( sharedBlockingQ );
         if ( null == pathPred ) {
@@ -75,30 +107,46 @@ public class PathCrawler implements Callable<Void> {
         }
 
 
-        return new PathCrawler( rootDir, pathPred, sharedBlockingQ );
+        return new PathCrawler( rootDir, pathPred, sharedBlockingQ, progress );
     }
 
     public Void call() {
 
+        if ( null != progress ) {
+            progress.addTotal( 1L );
+        }
         search( root ); // crawl
         foundPathBQ.add( __NULL__ ); // put null
         return null;
     }
 
+    @SuppressWarnings("try")
     private void search( final Path path ) {
 
-        if ( !Files.isReadable( path ) ) {
+        if ( Thread.currentThread().isInterrupted() || null != progress && progress.isBreak() ) {
 
             return;
         }
-        try ( final DirectoryStream<Path> ds = Files.newDirectoryStream( path ) ) {
+        if ( !Files.isReadable( path ) ) {
+            if ( null != progress ) {
+                progress.add( 1L );
+            }
+            return;
+        }
+        final List<Path> subDirL = new ArrayList<>();
+        final DirReadEvent event = new DirReadEvent();
+        event.begin();
+        final long start = DIR_READ_TIMER.start();
+        int entries = 0;
+        int found = 0;
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( path );
+              final DirectoryStream<Path> ds = Files.newDirectoryStream( path ) ) {
 
             for ( Path pn : ds ) {
 
-
-                //System.out.println(pn);
+                entries++;
                 if ( Files.isDirectory( pn ) ) {
-                    search( pn );
+                    subDirL.add( pn );
                 }
 
                 // found
@@ -108,16 +156,37 @@ public class PathCrawler implements Callable<Void> {
 
                     try {
                         foundPathBQ.put( pn );
+                        found++;
                     } catch ( final InterruptedException iE ) {
 
                         Thread.currentThread().interrupt();
+                        return;
                     }
                 }
             }
 
         } catch( final IOException ioE ) {
 LOG.warn("Warn ", ioE );
+            if ( null != progress ) {
+                progress.error( ioE );
+            }
+        }
+        DIR_READ_TIMER.stop( start );
+        DIR_ENTRIES.add( entries );
+        if ( null != progress ) {
+            progress.addTotal( subDirL.size() );
+            progress.add( 1L );
+            progress.add( "entries", entries );
+            progress.add( "found", found );
+        }
+        if ( event.shouldCommit() ) {
+            event.path = path.toString();
+            event.entries = entries;
+            event.commit();
         }
 
+        for ( final Path subDir : subDirL ) {
+            search( subDir );
+        }
     }
 }
\ No newline at end of file
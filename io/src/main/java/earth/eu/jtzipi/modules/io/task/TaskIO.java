@@ -16,6 +16,8 @@
 
 package earth.eu.jtzipi.modules.io.task;
 
+import earth.eu.jtzipi.modules.utils.ProgressAggregator;
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,7 +26,6 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.function.Predicate;
 
@@ -39,10 +40,6 @@ public final class TaskIO {
     public static final int CPUS = Runtime.getRuntime().availableProcessors();
 
     private static final Logger Log = LoggerFactory.getLogger( "TaskIO" );
-    /**
-     * Default Executor.
-     */
-    private static final ExecutorService FIXED_THREAD = Executors.newFixedThreadPool( CPUS );
 
     private TaskIO() { throw new AssertionError(""); }
     /**
@@ -53,20 +50,33 @@ public final class TaskIO {
      *
      * @param rootPathList directories to start
      * @param pathPred     predicate
-     * @param ser          Executor service
+     * @param ser          Executor service (optional, default is {@link ExecutorRegistry#blocking(String)} for {@link ExecutorRegistry#IO})
      * @return map with path keys and Futures of async computation of path
      */
     public static Map<Path, Future<List<Path>>> searchAsFuture( final List<Path> rootPathList, final Predicate<Path> pathPred, ExecutorService ser ) {
+        return searchAsFuture( rootPathList, pathPred, ser, null );
+    }
+
+    /**
+     * Start a file search with all tasks reporting to one shared progress.
+     *
+     * @param rootPathList directories to start
+     * @param pathPred     predicate
+     * @param ser          Executor service (optional, default is {@link ExecutorRegistry#blocking(String)} for {@link ExecutorRegistry#IO})
+     * @param progress     shared progress (optional)
+     * @return map with path keys and Futures of async computation of path
+     */
+    public static Map<Path, Future<List<Path>>> searchAsFuture( final List<Path> rootPathList, final Predicate<Path> pathPred, ExecutorService ser, final ProgressAggregator progress ) {
         Objects.requireNonNull( rootPathList, "root path" );
 
         if ( null == ser ) {
-            ser = FIXED_THREAD;
+            ser = ExecutorRegistry.blocking( ExecutorRegistry.IO );
         }
 
         final Map<Path, Future<List<Path>>> futureLM = new HashMap<>();
         for ( final Path dir : rootPathList ) {
             try {
-                final FindPathTask fpt = FindPathTask.of( dir, pathPred );
+                final FindPathTask fpt = FindPathTask.of( dir, pathPred, progress );
                 futureLM.put( dir, ser.submit( fpt ) );
             } catch ( final IOException ioE ) {
                 futureLM.put( dir, null );
@@ -87,16 +97,33 @@ public final class TaskIO {
      * @param rootPathList
      * @param pathPred
      * @param sharedQ
-     * @param ser
+     * @param ser      Executor service (optional, default is {@link ExecutorRegistry#blocking(String)} for {@link ExecutorRegistry#IO})
      * @return
      */
-    public static List<Future<?>> search( final Iterable<Path> rootPathList, final Predicate<Path> pathPred, final BlockingQueue<Path> sharedQ, final ExecutorService ser ) {
+    public static List<Future<?>> search( final Iterable<Path> rootPathList, final Predicate<Path> pathPred, final BlockingQueue<Path> sharedQ, ExecutorService ser ) {
+        return search( rootPathList, pathPred, sharedQ, ser, null );
+    }
 
+    /**
+     * Start a search for files found in list of root dirs with all crawlers reporting to one shared progress.
+     *
+     * @param rootPathList root dirs
+     * @param pathPred     predicate
+     * @param sharedQ      queue for found paths
+     * @param ser          Executor service (optional, default is {@link ExecutorRegistry#blocking(String)} for {@link ExecutorRegistry#IO})
+     * @param progress     shared progress (optional)
+     * @return futures of crawlers
+     */
+    public static List<Future<?>> search( final Iterable<Path> rootPathList, final Predicate<Path> pathPred, final BlockingQueue<Path> sharedQ, ExecutorService ser, final ProgressAggregator progress ) {
+
+        if ( null == ser ) {
+            ser = ExecutorRegistry.blocking( ExecutorRegistry.IO );
+        }
 
         final List<Future<?>> ret = new ArrayList<>();
         for ( final Path path : rootPathList ) {
 
-            final PathCrawler pc = PathCrawler.of( path, pathPred, sharedQ );
+            final PathCrawler pc = PathCrawler.of( path, pathPred, sharedQ, progress );
             ret.add( ser.submit( pc ) );
 
         }
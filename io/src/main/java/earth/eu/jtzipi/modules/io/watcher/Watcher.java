@@ -16,6 +16,10 @@
 
 package earth.eu.jtzipi.modules.io.watcher;
 
+import earth.eu.jtzipi.modules.io.jfr.WatchDispatchEvent;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.ITimer;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +41,8 @@ import static java.nio.file.StandardWatchEventKinds.*;
 public final class Watcher {
 
     private static final Logger Log = LoggerFactory.getLogger( "Watcher" );
+    private static final ITimer DISPATCH_TIMER = Metrics.timer( "watch.dispatch" );
+    private static final ICounter WATCH_EVENTS = Metrics.counter( "watch.events" );
 
     /**
      * Watchkeys for all events.
@@ -220,6 +226,9 @@ public final class Watcher {
                 }
                 // poll events
                 for ( final WatchEvent<?> event : key.pollEvents() ) {
+                    final WatchDispatchEvent dispatchEvent = new WatchDispatchEvent();
+                    dispatchEvent.begin();
+                    final long start = DISPATCH_TIMER.start();
                     @SuppressWarnings("unchecked") final WatchEvent<Path> wat = ( WatchEvent<Path> ) event;  // cast
                     final WatchEvent.Kind<?> kind = wat.kind();               //
                     final int ce = wat.count();                               //
@@ -260,6 +269,16 @@ public final class Watcher {
                         break;
                     }
 
+                    DISPATCH_TIMER.stop( start );
+                    WATCH_EVENTS.inc();
+                    if ( dispatchEvent.shouldCommit() ) {
+                        dispatchEvent.path = abs.toString();
+                        dispatchEvent.kind = kind.name();
+                        dispatchEvent.count = ce;
+                        dispatchEvent.action = String.valueOf( eventAction );
+                        dispatchEvent.commit();
+                    }
+
                     // user action on event
                     //
 
@@ -0,0 +1,459 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.zip;
+
+import earth.eu.jtzipi.modules.utils.ITaskProgressUpdater;
+import earth.eu.jtzipi.modules.utils.ProgressAggregator;
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import earth.eu.jtzipi.modules.utils.exec.ManagedExecutor;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Zip extractor inflating entries in parallel.
+ * <p>
+ * Entries are taken from the {@link ZipIndex} and shared by several workers, largest first,
+ * the calling thread works too. Each worker reads the compressed range of its entry with positional reads
+ * from one shared {@link FileChannel}. Output files are sized before writing; STORED entries are copied
+ * with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, never passing
+ * user space and so not CRC checked. DEFLATED entries are checked against their CRC and size.
+ * </p>
+ * <p>
+ * Before anything is written all names are checked: an entry resolving outside the target dir
+ * fails the extraction. Symbolic link entries are skipped and a link at an output path is not followed.
+ * Dirs are created one level at a time; an existing dir or link whose real path leaves the target dir
+ * fails the extraction. Of entries resolving to the same path (like {@code a/./b} and {@code a/b})
+ * the first is extracted, like {@link ZipIndex#get(String)}.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ParallelZipExtractor {
+
+    private static final Logger LOG = LoggerFactory.getLogger( "ParallelZipExtractor" );
+    private static final ICounter UNZIP_BYTES = Metrics.counter( "zip.extract.bytes" );
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int LOC_SIZE = 30;
+    private static final int BUF_SIZE = 256 * 1024;
+
+    private final Executor executor;
+    private final int workers;
+    private final ITaskProgressUpdater updater;
+    private final ProgressAggregator shared;
+
+    private ParallelZipExtractor( final Executor executor, final int workers, final ITaskProgressUpdater updater, final ProgressAggregator shared ) {
+        this.executor = executor;
+        this.workers = workers;
+        this.updater = updater;
+        this.shared = shared;
+    }
+
+    /**
+     * Create extractor on the {@link ExecutorRegistry#COMPRESS} pool.
+     *
+     * @return extractor
+     */
+    public static ParallelZipExtractor create() {
+        final ManagedExecutor me = ExecutorRegistry.get( ExecutorRegistry.COMPRESS );
+        return new ParallelZipExtractor( me, me.getMaximumPoolSize(), null, null );
+    }
+
+    /**
+     * Return copy using executor.
+     *
+     * @param executor executor
+     * @param workers  workers besides the calling thread &ge; 0
+     * @return extractor
+     * @throws NullPointerException     if {@code executor} is null
+     * @throws IllegalArgumentException if {@code workers} &lt; 0
+     */
+    public ParallelZipExtractor parallel( final Executor executor, final int workers ) {
+        Objects.requireNonNull( executor );
+        if ( workers < 0 ) {
+            throw new IllegalArgumentException( "Workers[=" + workers + "] < 0" );
+        }
+        return new ParallelZipExtractor( executor, workers, updater, shared );
+    }
+
+    /**
+     * Return copy reporting progress in uncompressed bytes.
+     * <p>
+     * Answering {@link ITaskProgressUpdater.TaskAction#BREAK} stops the extraction.
+     * </p>
+     *
+     * @param progressUpdater updater
+     * @return extractor
+     * @throws NullPointerException if {@code progressUpdater} is null
+     */
+    public ParallelZipExtractor progress( final ITaskProgressUpdater progressUpdater ) {
+        Objects.requireNonNull( progressUpdater );
+        return new ParallelZipExtractor( executor, workers, progressUpdater, null );
+    }
+
+    /**
+     * Return copy adding progress in uncompressed bytes to a progress shared with other tasks.
+     * Metric {@code entries} counts extracted entries.
+     *
+     * @param aggregator shared progress
+     * @return extractor
+     * @throws NullPointerException if {@code aggregator} is null
+     */
+    public ParallelZipExtractor progress( final ProgressAggregator aggregator ) {
+        Objects.requireNonNull( aggregator );
+        return new ParallelZipExtractor( executor, workers, null, aggregator );
+    }
+
+    /**
+     * Extract all entries of a zip.
+     *
+     * @param zip    zip file
+     * @param target target dir, created if missing; existing files are replaced
+     * @return uncompressed bytes written
+     * @throws IOException             if an entry escapes {@code target}, is encrypted or compressed with an
+     *                                 unsupported method, is corrupt or if reading or writing failed
+     * @throws InterruptedIOException  if progress answered BREAK or the calling thread is interrupted
+     * @throws NullPointerException    if any argument is null
+     */
+    public long extract( final Path zip, final Path target ) throws IOException {
+        Objects.requireNonNull( zip );
+        Objects.requireNonNull( target );
+        final ZipIndex index = ZipIndex.of( zip );
+        final Path root = target.toAbsolutePath().normalize();
+
+        // check all first so a malicious archive writes nothing
+        final List<Task> fileL = new ArrayList<>();
+        final List<Path> dirL = new ArrayList<>();
+        final Set<Path> outS = new HashSet<>();
+        long total = 0L;
+        for ( final ZipIndexEntry entry : index.getEntries() ) {
+            final Path out = resolve( root, entry );
+            if ( !outS.add( out ) ) {
+                LOG.warn( "Skip duplicate '" + entry.getName() + "'" );
+            } else if ( entry.isSymbolicLink() ) {
+                LOG.warn( "Skip symbolic link '" + entry.getName() + "'" );
+            } else if ( entry.isDirectory() ) {
+                dirL.add( out );
+            } else {
+                if ( entry.isEncrypted() ) {
+                    throw new IOException( "Entry '" + entry.getName() + "' is encrypted" );
+                }
+                if ( ZipIndexEntry.STORED != entry.getMethod() && ZipIndexEntry.DEFLATED != entry.getMethod() ) {
+                    throw new IOException( "Entry '" + entry.getName() + "' method[=" + entry.getMethod() + "] not supported" );
+                }
+                fileL.add( new Task( entry, out ) );
+                total += entry.getSize();
+            }
+        }
+        // largest first to balance workers
+        fileL.sort( Comparator.comparingLong( ( Task t ) -> t.entry.getSize() ).reversed() );
+
+        Files.createDirectories( root );
+        final Path realRoot = root.toRealPath();
+        final Set<Path> dirS = new HashSet<>();
+        for ( final Path dir : dirL ) {
+            createDirs( root, realRoot, dir, dirS );
+        }
+        for ( final Task task : fileL ) {
+            createDirs( root, realRoot, task.out.getParent(), dirS );
+        }
+
+        final ProgressAggregator progress = null != shared ? shared : null != updater ? ProgressAggregator.of( updater ) : null;
+        try ( final FileChannel src = FileChannel.open( zip, StandardOpenOption.READ ) ) {
+            if ( null != progress ) {
+                progress.addTotal( total );
+            }
+            new Job( src, fileL, progress ).run();
+        } finally {
+            if ( null != progress && progress != shared ) {
+                progress.close();
+            }
+        }
+        UNZIP_BYTES.add( total );
+        return total;
+    }
+
+    private static Path resolve( final Path root, final ZipIndexEntry entry ) throws IOException {
+        final String name = entry.getName();
+        // no drive letters or backslash separators on windows, no parent steps anywhere
+        final boolean windows = "\\".equals( root.getFileSystem().getSeparator() );
+        if ( name.indexOf( '\0' ) >= 0 || windows && ( name.indexOf( '\\' ) >= 0 || name.indexOf( ':' ) >= 0 ) ) {
+            throw new IOException( "Entry '" + name + "' has illegal name" );
+        }
+        final Path out;
+        try {
+            out = root.resolve( name ).normalize();
+        } catch ( final InvalidPathException ipE ) {
+            throw new IOException( "Entry '" + name + "' has illegal name", ipE );
+        }
+        if ( !out.startsWith( root ) || out.equals( root ) ) {
+            throw new IOException( "Entry '" + name + "' escapes target dir" );
+        }
+        return out;
+    }
+
+    // create dir level by level and check that no existing level leads out of root
+    private static void createDirs( final Path root, final Path realRoot, final Path dir, final Set<Path> dirS ) throws IOException {
+        Path p = root;
+        for ( final Path name : root.relativize( dir ) ) {
+            p = p.resolve( name );
+            if ( dirS.contains( p ) ) {
+                continue;
+            }
+            try {
+                Files.createDirectory( p );
+            } catch ( final FileAlreadyExistsException faeE ) {
+                if ( !p.toRealPath().startsWith( realRoot ) ) {
+                    throw new IOException( "Dir '" + p + "' links out of target dir" );
+                }
+                if ( !Files.isDirectory( p ) ) {
+                    throw new IOException( "Path '" + p + "' is no dir" );
+                }
+            }
+            dirS.add( p );
+        }
+    }
+
+    private static void readFully( final FileChannel fc, final ByteBuffer bb, final long pos ) throws IOException {
+        long p = pos;
+        while ( bb.hasRemaining() ) {
+            final int n = fc.read( bb, p );
+            if ( n < 0 ) {
+                throw new EOFException( "Unexpected end at " + p );
+            }
+            p += n;
+        }
+    }
+
+    private static void writeFully( final FileChannel fc, final ByteBuffer bb, final long pos ) throws IOException {
+        long p = pos;
+        while ( bb.hasRemaining() ) {
+            p += fc.write( bb, p );
+        }
+    }
+
+    /**
+     * One file entry.
+     */
+    private static final class Task {
+
+        private final ZipIndexEntry entry;
+        private final Path out;
+
+        Task( final ZipIndexEntry entry, final Path out ) {
+            this.entry = entry;
+            this.out = out;
+        }
+    }
+
+    /**
+     * One extraction shared by all workers.
+     */
+    private final class Job {
+
+        private final FileChannel src;
+        private final List<Task> taskL;
+        private final ProgressAggregator progress;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Job( final FileChannel src, final List<Task> taskL, final ProgressAggregator progress ) {
+            this.src = src;
+            this.taskL = taskL;
+            this.progress = progress;
+        }
+
+        void run() throws IOException {
+            final int n = Math.min( workers, taskL.size() - 1 );
+            final CountDownLatch latch = new CountDownLatch( Math.max( 0, n ) );
+            for ( int i = 0; i < n; i++ ) {
+                try {
+                    executor.execute( () -> {
+                        try {
+                            work();
+                        } finally {
+                            latch.countDown();
+                        }
+                    } );
+                } catch ( final RejectedExecutionException reE ) {
+                    latch.countDown();
+                }
+            }
+            work();
+            try {
+                latch.await();
+            } catch ( final InterruptedException iE ) {
+                Thread.currentThread().interrupt();
+                fail( new InterruptedIOException( "Interrupted" ) );
+            }
+            final IOException ioE = failure.get();
+            if ( null != ioE ) {
+                throw ioE;
+            }
+        }
+
+        private void work() {
+            for ( int i = next.getAndIncrement(); i < taskL.size(); i = next.getAndIncrement() ) {
+                if ( null != failure.get() ) {
+                    return;
+                }
+                if ( null != progress && progress.isBreak() ) {
+                    fail( new InterruptedIOException( "Extraction aborted" ) );
+                    return;
+                }
+                final Task task = taskL.get( i );
+                try {
+                    extract( task );
+                    if ( null != progress ) {
+                        progress.add( "entries", 1L );
+                    }
+                } catch ( final IOException ioE ) {
+                    fail( ioE );
+                    try {
+                        Files.deleteIfExists( task.out );
+                    } catch ( final IOException delE ) {
+                        ioE.addSuppressed( delE );
+                    }
+                } catch ( final RuntimeException rE ) {
+                    fail( new IOException( "Can not extract '" + task.entry.getName() + "'", rE ) );
+                }
+            }
+        }
+
+        private void fail( final IOException ioE ) {
+            failure.compareAndSet( null, ioE );
+        }
+
+        private void extract( final Task task ) throws IOException {
+            final ZipIndexEntry entry = task.entry;
+            final long data = dataOffset( entry );
+            final long size = entry.getSize();
+            try ( final FileChannel out = FileChannel.open( task.out, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, LinkOption.NOFOLLOW_LINKS ) ) {
+                if ( size > 0L ) {
+                    // size file once instead of growing it on each write
+                    writeFully( out, ByteBuffer.allocate( 1 ), size - 1L );
+                }
+                if ( ZipIndexEntry.STORED == entry.getMethod() ) {
+                    if ( entry.getCompressedSize() != size ) {
+                        throw new IOException( "Entry '" + entry.getName() + "' STORED with different sizes" );
+                    }
+                    long pos = 0L;
+                    while ( pos < size ) {
+                        out.position( pos );
+                        final long n = src.transferTo( data + pos, size - pos, out );
+                        if ( n <= 0L ) {
+                            throw new EOFException( "Entry '" + entry.getName() + "' truncated" );
+                        }
+                        pos += n;
+                        if ( null != progress ) {
+                            progress.add( n );
+                        }
+                    }
+                } else {
+                    inflate( entry, data, out );
+                }
+            }
+            Files.setLastModifiedTime( task.out, entry.getLastModified() );
+        }
+
+        private void inflate( final ZipIndexEntry entry, final long data, final FileChannel out ) throws IOException {
+            final Inflater inflater = new Inflater( true );
+            final CRC32 crc32 = new CRC32();
+            final byte[] in = new byte[( int ) Math.min( BUF_SIZE, Math.max( 1L, entry.getCompressedSize() ) )];
+            final byte[] buf = new byte[( int ) Math.min( BUF_SIZE, Math.max( 1L, entry.getSize() ) )];
+            long read = 0L;
+            long written = 0L;
+            try {
+                while ( !inflater.finished() ) {
+                    if ( inflater.needsInput() ) {
+                        final int len = ( int ) Math.min( in.length, entry.getCompressedSize() - read );
+                        if ( len <= 0 ) {
+                            throw new EOFException( "Entry '" + entry.getName() + "' truncated" );
+                        }
+                        readFully( src, ByteBuffer.wrap( in, 0, len ), data + read );
+                        read += len;
+                        inflater.setInput( in, 0, len );
+                    }
+                    final int n = inflater.inflate( buf );
+                    if ( n > 0 ) {
+                        if ( written + n > entry.getSize() ) {
+                            throw new IOException( "Entry '" + entry.getName() + "' larger than declared" );
+                        }
+                        crc32.update( buf, 0, n );
+                        writeFully( out, ByteBuffer.wrap( buf, 0, n ), written );
+                        written += n;
+                        if ( null != progress ) {
+                            progress.add( n );
+                        }
+                    } else if ( inflater.needsDictionary() ) {
+                        throw new IOException( "Entry '" + entry.getName() + "' needs dictionary" );
+                    }
+                }
+            } catch ( final DataFormatException dfE ) {
+                throw new IOException( "Entry '" + entry.getName() + "' corrupt", dfE );
+            } finally {
+                inflater.end();
+            }
+            if ( written != entry.getSize() || crc32.getValue() != entry.getCrc() ) {
+                throw new IOException( "Entry '" + entry.getName() + "' failed CRC or size check" );
+            }
+        }
+
+        private long dataOffset( final ZipIndexEntry entry ) throws IOException {
+            final ByteBuffer loc = ByteBuffer.allocate( LOC_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+            readFully( src, loc, entry.getLocalHeaderOffset() );
+            if ( LOC_SIG != loc.getInt( 0 ) ) {
+                throw new IOException( "Entry '" + entry.getName() + "' has no local header at " + entry.getLocalHeaderOffset() );
+            }
+            final long data = entry.getLocalHeaderOffset() + LOC_SIZE
+                    + Short.toUnsignedInt( loc.getShort( 26 ) ) + Short.toUnsignedInt( loc.getShort( 28 ) );
+            if ( data + entry.getCompressedSize() > src.size() ) {
+                throw new EOFException( "Entry '" + entry.getName() + "' exceeds archive" );
+            }
+            return data;
+        }
+    }
+}
@@ -0,0 +1,677 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.zip;
+
+import earth.eu.jtzipi.modules.utils.RegUs;
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import earth.eu.jtzipi.modules.utils.exec.ManagedExecutor;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Zip writer deflating entries in parallel.
+ * <p>
+ * Files are split in blocks of {@link #getBlockSize()} bytes which are deflated by several workers at once,
+ * the calling thread writes them in order. Each block is primed with the last 32 KiB of the block before
+ * and ends with a sync flush, so the blocks of one entry form one deflate stream and compress almost as
+ * well as a single stream. CRCs of blocks are combined.
+ * Entries matching the stored predicate, by default already compressed types of
+ * {@link RegUs#COMPRESSED_TYPE_PATTERN}, are STORED. ZIP64 is written where needed.
+ * </p>
+ * <p>
+ * The archive is written to a {@code .part} file and moved into place when complete.
+ * At most a few blocks per worker are held in memory.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ParallelZipWriter {
+
+    /**
+     * Default block size.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    /**
+     * Minimal block size.
+     */
+    public static final int MIN_BLOCK_SIZE = 64 * 1024;
+    private static final ICounter ZIP_BYTES = Metrics.counter( "zip.write.bytes" );
+    private static final int DICT_SIZE = 32 * 1024;
+    private static final int LOC_SIG = 0x04034b50;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final long MAGIC32 = 0xFFFFFFFFL;
+    private static final int MAGIC16 = 0xFFFF;
+    // local headers get a ZIP64 extra above this, leaves room for deflate overhead
+    private static final long ZIP64_LOCAL_THRESHOLD = 0xFF000000L;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 1 << 11;
+    private static final int DOS_EPOCH = ( 1 << 21 ) | ( 1 << 16 );
+
+    private final int level;
+    private final int blockSize;
+    private final Executor executor;
+    private final int workers;
+    private final Predicate<String> stored;
+
+    private ParallelZipWriter( final int level, final int blockSize, final Executor executor, final int workers, final Predicate<String> stored ) {
+        this.level = level;
+        this.blockSize = blockSize;
+        this.executor = executor;
+        this.workers = workers;
+        this.stored = stored;
+    }
+
+    /**
+     * Create writer on the {@link ExecutorRegistry#COMPRESS} pool with default level.
+     *
+     * @return writer
+     */
+    public static ParallelZipWriter create() {
+        final ManagedExecutor me = ExecutorRegistry.get( ExecutorRegistry.COMPRESS );
+        return new ParallelZipWriter( Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE, me, me.getMaximumPoolSize(),
+                RegUs.COMPRESSED_TYPE_PATTERN.asPredicate() );
+    }
+
+    /**
+     * Return copy with compression level.
+     *
+     * @param level {@link Deflater#DEFAULT_COMPRESSION} or 0 to 9; 0 stores all entries
+     * @return writer
+     * @throws IllegalArgumentException if {@code level} is invalid
+     */
+    public ParallelZipWriter level( final int level ) {
+        if ( level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION ) {
+            throw new IllegalArgumentException( "Level[=" + level + "] invalid" );
+        }
+        return new ParallelZipWriter( level, blockSize, executor, workers, stored );
+    }
+
+    /**
+     * Return copy with block size.
+     *
+     * @param size bytes per block
+     * @return writer
+     * @throws IllegalArgumentException if {@code size} &lt; {@link #MIN_BLOCK_SIZE}
+     */
+    public ParallelZipWriter blockSize( final int size ) {
+        if ( size < MIN_BLOCK_SIZE || size > Integer.MAX_VALUE / 2 ) {
+            throw new IllegalArgumentException( "Block size[=" + size + "] invalid" );
+        }
+        return new ParallelZipWriter( level, size, executor, workers, stored );
+    }
+
+    /**
+     * Return copy using executor.
+     *
+     * @param executor executor
+     * @param workers  workers besides the calling thread &ge; 0
+     * @return writer
+     * @throws NullPointerException     if {@code executor} is null
+     * @throws IllegalArgumentException if {@code workers} &lt; 0
+     */
+    public ParallelZipWriter parallel( final Executor executor, final int workers ) {
+        Objects.requireNonNull( executor );
+        if ( workers < 0 ) {
+            throw new IllegalArgumentException( "Workers[=" + workers + "] < 0" );
+        }
+        return new ParallelZipWriter( level, blockSize, executor, workers, stored );
+    }
+
+    /**
+     * Return copy storing entries whose name matches.
+     *
+     * @param storedPred predicate on entry name
+     * @return writer
+     * @throws NullPointerException if {@code storedPred} is null
+     */
+    public ParallelZipWriter stored( final Predicate<String> storedPred ) {
+        Objects.requireNonNull( storedPred );
+        return new ParallelZipWriter( level, blockSize, executor, workers, storedPred );
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Zip a dir and all of its sub dirs.
+     * <p>
+     * Entry names are relative to {@code dir}. Symbolic links are not followed.
+     * </p>
+     *
+     * @param target zip file, replaced if existing
+     * @param dir    dir to zip
+     * @return size of zip
+     * @throws IOException          if reading or writing failed
+     * @throws NullPointerException if any argument is null
+     */
+    public long write( final Path target, final Path dir ) throws IOException {
+        Objects.requireNonNull( target );
+        Objects.requireNonNull( dir );
+        final Map<String, Path> entryM = new LinkedHashMap<>();
+        try ( final Stream<Path> ps = Files.walk( dir ) ) {
+            for ( final Path path : ps.sorted().collect( Collectors.toList() ) ) {
+                if ( !path.equals( dir ) ) {
+                    entryM.put( dir.relativize( path ).toString(), path );
+                }
+            }
+        }
+        return write( target, entryM );
+    }
+
+    /**
+     * Zip files.
+     * <p>
+     * Entries are written in map order. A dir path creates a dir entry.
+     * </p>
+     *
+     * @param target  zip file, replaced if existing
+     * @param entries entry name to path
+     * @return size of zip
+     * @throws IOException          if reading or writing failed
+     * @throws NullPointerException if any argument is null
+     */
+    public long write( final Path target, final Map<String, Path> entries ) throws IOException {
+        Objects.requireNonNull( target );
+        Objects.requireNonNull( entries );
+
+        final List<Entry> entryL = new ArrayList<>( entries.size() );
+        final List<Block> blockL = new ArrayList<>();
+        for ( final Map.Entry<String, Path> me : entries.entrySet() ) {
+            final Path path = Objects.requireNonNull( me.getValue() );
+            final BasicFileAttributes attrs = Files.readAttributes( path, BasicFileAttributes.class );
+            final String name = name( me.getKey(), attrs.isDirectory() );
+            final boolean store = 0 == level || attrs.isDirectory() || stored.test( name );
+            final Entry entry = new Entry( name, path, attrs, store );
+            entryL.add( entry );
+            if ( !attrs.isDirectory() ) {
+                final long size = attrs.size();
+                long off = 0L;
+                do {
+                    final int len = ( int ) Math.min( blockSize, size - off );
+                    blockL.add( new Block( entry, off, len, off + len >= size ) );
+                    off += len;
+                } while ( off < size );
+            }
+        }
+
+        final Path part = target.resolveSibling( target.getFileName() + ".part" );
+        try {
+            final long size;
+            try ( final FileChannel out = FileChannel.open( part, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+                size = new Job( entryL, blockL, out ).run();
+                out.force( true );
+            }
+            Files.move( part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            return size;
+        } finally {
+            Files.deleteIfExists( part );
+        }
+    }
+
+    private static String name( final String name, final boolean dir ) {
+        String n = name.replace( '\\', '/' );
+        while ( n.startsWith( "/" ) ) {
+            n = n.substring( 1 );
+        }
+        if ( n.isEmpty() ) {
+            throw new IllegalArgumentException( "Empty entry name" );
+        }
+        return dir && !n.endsWith( "/" ) ? n + '/' : n;
+    }
+
+    private static int dosTime( final long millis ) {
+        final LocalDateTime ldt = LocalDateTime.ofInstant( Instant.ofEpochMilli( millis ), ZoneId.systemDefault() );
+        if ( ldt.getYear() < 1980 ) {
+            return DOS_EPOCH;
+        }
+        return ( ldt.getYear() - 1980 ) << 25 | ldt.getMonthValue() << 21 | ldt.getDayOfMonth() << 16
+                | ldt.getHour() << 11 | ldt.getMinute() << 5 | ldt.getSecond() >> 1;
+    }
+
+    private static void readFully( final FileChannel fc, final ByteBuffer bb, final long pos ) throws IOException {
+        long p = pos;
+        while ( bb.hasRemaining() ) {
+            final int n = fc.read( bb, p );
+            if ( n < 0 ) {
+                throw new EOFException( "Unexpected end at " + p );
+            }
+            p += n;
+        }
+    }
+
+    private static void writeFully( final FileChannel fc, final ByteBuffer bb, final long pos ) throws IOException {
+        long p = pos;
+        while ( bb.hasRemaining() ) {
+            p += fc.write( bb, p );
+        }
+    }
+
+    // crc32_combine of zlib: crc of A || B from crc(A), crc(B) and len(B)
+    private static long crc32Combine( final long crc1, final long crc2, final long len2 ) {
+        if ( len2 <= 0L ) {
+            return crc1;
+        }
+        final long[] even = new long[32];
+        final long[] odd = new long[32];
+        odd[0] = 0xEDB88320L;
+        long row = 1L;
+        for ( int n = 1; n < 32; n++ ) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2Square( even, odd );
+        gf2Square( odd, even );
+        long c = crc1;
+        long len = len2;
+        do {
+            gf2Square( even, odd );
+            if ( 0L != ( len & 1L ) ) {
+                c = gf2Times( even, c );
+            }
+            len >>>= 1;
+            if ( 0L == len ) {
+                break;
+            }
+            gf2Square( odd, even );
+            if ( 0L != ( len & 1L ) ) {
+                c = gf2Times( odd, c );
+            }
+            len >>>= 1;
+        } while ( 0L != len );
+        return c ^ crc2;
+    }
+
+    private static long gf2Times( final long[] mat, final long vec ) {
+        long sum = 0L;
+        long v = vec;
+        for ( int i = 0; 0L != v; i++, v >>>= 1 ) {
+            if ( 0L != ( v & 1L ) ) {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2Square( final long[] square, final long[] mat ) {
+        for ( int n = 0; n < 32; n++ ) {
+            square[n] = gf2Times( mat, mat[n] );
+        }
+    }
+
+    /**
+     * One entry.
+     */
+    private static final class Entry {
+
+        private final String name;
+        private final byte[] nameBytes;
+        private final Path path;
+        private final boolean dir;
+        private final boolean store;
+        private final long size;
+        private final int dosTime;
+        private final boolean zip64Local;
+        private long crc;
+        private long compressedSize;
+        private long offset;
+
+        Entry( final String name, final Path path, final BasicFileAttributes attrs, final boolean store ) {
+            this.name = name;
+            this.nameBytes = name.getBytes( StandardCharsets.UTF_8 );
+            this.path = path;
+            this.dir = attrs.isDirectory();
+            this.store = store;
+            this.size = dir ? 0L : attrs.size();
+            this.dosTime = ParallelZipWriter.dosTime( attrs.lastModifiedTime().toMillis() );
+            this.zip64Local = size >= ZIP64_LOCAL_THRESHOLD;
+        }
+
+        int method() {
+            return store ? ZipIndexEntry.STORED : ZipIndexEntry.DEFLATED;
+        }
+
+        int version() {
+            return zip64Local || offset >= MAGIC32 ? VERSION_ZIP64 : VERSION_DEFAULT;
+        }
+
+        ByteBuffer localHeader() {
+            final ByteBuffer bb = ByteBuffer.allocate( 30 + nameBytes.length + ( zip64Local ? 20 : 0 ) ).order( ByteOrder.LITTLE_ENDIAN );
+            bb.putInt( LOC_SIG ).putShort( ( short ) ( zip64Local ? VERSION_ZIP64 : VERSION_DEFAULT ) ).putShort( ( short ) FLAG_UTF8 )
+                    .putShort( ( short ) method() ).putInt( dosTime ).putInt( ( int ) crc );
+            if ( zip64Local ) {
+                bb.putInt( ( int ) MAGIC32 ).putInt( ( int ) MAGIC32 );
+            } else {
+                bb.putInt( ( int ) compressedSize ).putInt( ( int ) size );
+            }
+            bb.putShort( ( short ) nameBytes.length ).putShort( ( short ) ( zip64Local ? 20 : 0 ) ).put( nameBytes );
+            if ( zip64Local ) {
+                bb.putShort( ( short ) 1 ).putShort( ( short ) 16 ).putLong( size ).putLong( compressedSize );
+            }
+            return bb.flip();
+        }
+
+        ByteBuffer centralHeader() {
+            final boolean bigSize = size >= MAGIC32 || compressedSize >= MAGIC32;
+            final boolean bigOffset = offset >= MAGIC32;
+            final int extraLen = ( bigSize ? 16 : 0 ) + ( bigOffset ? 8 : 0 );
+            final ByteBuffer bb = ByteBuffer.allocate( 46 + nameBytes.length + ( extraLen > 0 ? 4 + extraLen : 0 ) ).order( ByteOrder.LITTLE_ENDIAN );
+            final int version = bigSize || bigOffset ? VERSION_ZIP64 : version();
+            bb.putInt( CEN_SIG ).putShort( ( short ) version ).putShort( ( short ) version ).putShort( ( short ) FLAG_UTF8 )
+                    .putShort( ( short ) method() ).putInt( dosTime ).putInt( ( int ) crc )
+                    .putInt( ( int ) ( bigSize ? MAGIC32 : compressedSize ) ).putInt( ( int ) ( bigSize ? MAGIC32 : size ) )
+                    .putShort( ( short ) nameBytes.length ).putShort( ( short ) ( extraLen > 0 ? 4 + extraLen : 0 ) ).putShort( ( short ) 0 )
+                    .putShort( ( short ) 0 ).putShort( ( short ) 0 ).putInt( dir ? 0x10 : 0 )
+                    .putInt( ( int ) ( bigOffset ? MAGIC32 : offset ) ).put( nameBytes );
+            if ( extraLen > 0 ) {
+                bb.putShort( ( short ) 1 ).putShort( ( short ) extraLen );
+                if ( bigSize ) {
+                    bb.putLong( size ).putLong( compressedSize );
+                }
+                if ( bigOffset ) {
+                    bb.putLong( offset );
+                }
+            }
+            return bb.flip();
+        }
+    }
+
+    /**
+     * Block of an entry, compressed by one worker.
+     */
+    private static final class Block {
+
+        private final Entry entry;
+        private final long offset;
+        private final int length;
+        private final boolean last;
+        private final CountDownLatch done = new CountDownLatch( 1 );
+        private boolean permit;
+        private byte[] data;
+        private int dataLen;
+        private long crc;
+
+        Block( final Entry entry, final long offset, final int length, final boolean last ) {
+            this.entry = entry;
+            this.offset = offset;
+            this.length = length;
+            this.last = last;
+        }
+    }
+
+    /**
+     * One archive shared by all workers.
+     */
+    private final class Job {
+
+        private final List<Entry> entryL;
+        private final List<Block> blockL;
+        private final FileChannel out;
+        private final AtomicInteger next = new AtomicInteger();
+        // bounds blocks compressed but not yet written
+        private final Semaphore window;
+        private final Queue<Deflater> deflaterQ = new ConcurrentLinkedQueue<>();
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Thread writer = Thread.currentThread();
+
+        Job( final List<Entry> entryL, final List<Block> blockL, final FileChannel out ) {
+            this.entryL = entryL;
+            this.blockL = blockL;
+            this.out = out;
+            this.window = new Semaphore( 2 * ( workers + 1 ) );
+        }
+
+        long run() throws IOException {
+            final int n = Math.min( workers, blockL.size() );
+            for ( int i = 0; i < n; i++ ) {
+                try {
+                    executor.execute( this::work );
+                } catch ( final RejectedExecutionException reE ) {
+                    // caller compresses what no worker takes
+                    break;
+                }
+            }
+            try {
+                return write();
+            } finally {
+                closed.set( true );
+                // wake workers waiting for the window
+                window.release( workers + 1 );
+                Deflater def;
+                while ( null != ( def = deflaterQ.poll() ) ) {
+                    def.end();
+                }
+            }
+        }
+
+        private void work() {
+            // run by a caller runs executor: the writer must not block on the window it alone releases
+            if ( Thread.currentThread() == writer ) {
+                return;
+            }
+            while ( !closed.get() && null == failure.get() ) {
+                try {
+                    window.acquire();
+                } catch ( final InterruptedException iE ) {
+                    return;
+                }
+                if ( closed.get() ) {
+                    window.release();
+                    return;
+                }
+                final int i = next.getAndIncrement();
+                if ( i >= blockL.size() ) {
+                    window.release();
+                    return;
+                }
+                final Block block = blockL.get( i );
+                block.permit = true;
+                compress( block );
+            }
+        }
+
+        private long write() throws IOException {
+            long pos = 0L;
+            int b = 0;
+            for ( final Entry entry : entryL ) {
+                entry.offset = pos;
+                final ByteBuffer header = entry.localHeader();
+                final int headerLen = header.remaining();
+                writeFully( out, header, pos );
+                pos += headerLen;
+                if ( entry.dir ) {
+                    continue;
+                }
+                long crc = 0L;
+                long csize = 0L;
+                for ( ; b < blockL.size() && blockL.get( b ).entry == entry; b++ ) {
+                    final Block block = await( b );
+                    writeFully( out, ByteBuffer.wrap( block.data, 0, block.dataLen ), pos );
+                    pos += block.dataLen;
+                    csize += block.dataLen;
+                    crc = crc32Combine( crc, block.crc, block.length );
+                    block.data = null;
+                    if ( block.permit ) {
+                        window.release();
+                    }
+                }
+                entry.crc = crc;
+                entry.compressedSize = csize;
+                if ( !entry.zip64Local && csize >= MAGIC32 ) {
+                    throw new IOException( "Entry '" + entry.name + "' compressed larger than its ZIP64 threshold" );
+                }
+                // sizes and crc are known now
+                writeFully( out, entry.localHeader(), entry.offset );
+                ZIP_BYTES.add( entry.size );
+            }
+
+            final long cenOffset = pos;
+            for ( final Entry entry : entryL ) {
+                final ByteBuffer cen = entry.centralHeader();
+                final int len = cen.remaining();
+                writeFully( out, cen, pos );
+                pos += len;
+            }
+            final long cenSize = pos - cenOffset;
+            final boolean zip64 = entryL.size() >= MAGIC16 || cenOffset >= MAGIC32 || cenSize >= MAGIC32;
+            final ByteBuffer end = ByteBuffer.allocate( 56 + 20 + 22 ).order( ByteOrder.LITTLE_ENDIAN );
+            if ( zip64 ) {
+                end.putInt( ZIP64_EOCD_SIG ).putLong( 44L ).putShort( ( short ) VERSION_ZIP64 ).putShort( ( short ) VERSION_ZIP64 )
+                        .putInt( 0 ).putInt( 0 ).putLong( entryL.size() ).putLong( entryL.size() ).putLong( cenSize ).putLong( cenOffset );
+                end.putInt( ZIP64_LOCATOR_SIG ).putInt( 0 ).putLong( pos ).putInt( 1 );
+            }
+            end.putInt( EOCD_SIG ).putShort( ( short ) 0 ).putShort( ( short ) 0 )
+                    .putShort( ( short ) Math.min( entryL.size(), MAGIC16 ) ).putShort( ( short ) Math.min( entryL.size(), MAGIC16 ) )
+                    .putInt( ( int ) Math.min( cenSize, MAGIC32 ) ).putInt( ( int ) Math.min( cenOffset, MAGIC32 ) ).putShort( ( short ) 0 );
+            end.flip();
+            final int endLen = end.remaining();
+            writeFully( out, end, pos );
+            return pos + endLen;
+        }
+
+        private Block await( final int b ) throws IOException {
+            final Block block = blockL.get( b );
+            // compress the head block if no worker took it yet
+            if ( next.compareAndSet( b, b + 1 ) ) {
+                compress( block );
+            }
+            try {
+                block.done.await();
+            } catch ( final InterruptedException iE ) {
+                Thread.currentThread().interrupt();
+                throw new IOException( "Interrupted", iE );
+            }
+            final IOException ioE = failure.get();
+            if ( null != ioE ) {
+                throw ioE;
+            }
+            return block;
+        }
+
+        private void compress( final Block block ) {
+            try {
+                if ( null == failure.get() ) {
+                    compress0( block );
+                }
+            } catch ( final IOException ioE ) {
+                failure.compareAndSet( null, ioE );
+            } catch ( final RuntimeException rE ) {
+                failure.compareAndSet( null, new IOException( "Can not compress '" + block.entry.path + "'", rE ) );
+            } finally {
+                block.done.countDown();
+            }
+        }
+
+        private void compress0( final Block block ) throws IOException {
+            final Entry entry = block.entry;
+            // previous bytes prime the dictionary
+            final int dict = entry.store ? 0 : ( int ) Math.min( DICT_SIZE, block.offset );
+            final byte[] in = new byte[dict + block.length];
+            try ( final FileChannel src = FileChannel.open( entry.path, StandardOpenOption.READ ) ) {
+                readFully( src, ByteBuffer.wrap( in ), block.offset - dict );
+            } catch ( final EOFException eofE ) {
+                throw new IOException( "File '" + entry.path + "' changed while zipping", eofE );
+            }
+            final CRC32 crc32 = new CRC32();
+            crc32.update( in, dict, block.length );
+            block.crc = crc32.getValue();
+            if ( entry.store ) {
+                block.data = in;
+                block.dataLen = block.length;
+                return;
+            }
+
+            Deflater def = deflaterQ.poll();
+            if ( null == def ) {
+                def = new Deflater( level, true );
+            }
+            try {
+                if ( dict > 0 ) {
+                    def.setDictionary( in, 0, dict );
+                }
+                def.setInput( in, dict, block.length );
+                byte[] buf = new byte[block.length + ( block.length >>> 3 ) + 64];
+                int len = 0;
+                if ( block.last ) {
+                    def.finish();
+                    while ( !def.finished() ) {
+                        if ( len == buf.length ) {
+                            buf = Arrays.copyOf( buf, buf.length * 2 );
+                        }
+                        len += def.deflate( buf, len, buf.length - len );
+                    }
+                } else {
+                    // sync flush ends byte aligned so the next block continues the stream
+                    for ( ; ; ) {
+                        if ( len == buf.length ) {
+                            buf = Arrays.copyOf( buf, buf.length * 2 );
+                        }
+                        final int space = buf.length - len;
+                        final int n = def.deflate( buf, len, space, Deflater.SYNC_FLUSH );
+                        len += n;
+                        if ( n < space && def.needsInput() ) {
+                            break;
+                        }
+                    }
+                }
+                block.data = buf;
+                block.dataLen = len;
+            } finally {
+                def.reset();
+                deflaterQ.add( def );
+            }
+        }
+    }
+}
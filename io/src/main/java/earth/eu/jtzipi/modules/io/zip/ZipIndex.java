@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.zip;
+
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.ITimer;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable index of a zip archive read from its central directory.
+ * <p>
+ * Only the end of central directory record (ZIP64 too) and the central directory are read,
+ * the latter through a mapped {@link FileChannel}. No {@link java.nio.file.FileSystem} is opened
+ * and no entry data is touched, so listing an archive of 100k entries takes milliseconds.
+ * Data prepended to the archive, e.g. by self extracting stubs, is accounted for.
+ * </p>
+ * <p>
+ * {@link #of(Path)} shares one index per archive while its size and modification time are
+ * unchanged. The shared indices are softly referenced.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ZipIndex {
+
+    private static final ITimer READ_TIMER = Metrics.timer( "zip.index.read" );
+    private static final ICounter HIT = Metrics.counter( "zip.index.hit" );
+    private static final ConcurrentMap<Path, SoftReference<ZipIndex>> INDEX_MAP = new ConcurrentHashMap<>();
+
+    private static final int EOCD_SIG = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIG = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    // bound of searched extensible data
+    private static final int MAX_ZIP64_EXTENSIBLE = 0xFFFF;
+    private static final int CEN_SIG = 0x02014b50;
+    private static final int CEN_SIZE = 46;
+    private static final int MAX_COMMENT = 0xFFFF;
+    private static final long MAGIC32 = 0xFFFFFFFFL;
+    private static final int MAGIC16 = 0xFFFF;
+    private static final int EXTRA_ZIP64 = 0x0001;
+    private static final int EXTRA_TIMESTAMP = 0x5455;
+    private static final int HOST_UNIX = 3;
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFLNK = 0120000;
+
+    private final Path path;
+    private final long archiveSize;
+    private final long archiveModified;
+    private final List<ZipIndexEntry> entryL;
+    private final Map<String, ZipIndexEntry> entryM;
+    private final Map<String, List<ZipIndexEntry>> childM;
+
+    private ZipIndex( final Path path, final BasicFileAttributes attrs, final List<ZipIndexEntry> entryL ) {
+        this.path = path;
+        this.archiveSize = attrs.size();
+        this.archiveModified = attrs.lastModifiedTime().toMillis();
+        this.entryL = Collections.unmodifiableList( entryL );
+
+        final Map<String, ZipIndexEntry> em = new HashMap<>( entryL.size() * 2 );
+        final Map<String, List<ZipIndexEntry>> cm = new HashMap<>();
+        em.put( "", ZipIndexEntry.implicitDir( "" ) );
+        for ( final ZipIndexEntry entry : entryL ) {
+            // first wins like java.util.zip
+            if ( null == em.putIfAbsent( entry.getName(), entry ) ) {
+                cm.computeIfAbsent( entry.getParentName(), p -> new ArrayList<>() ).add( entry );
+            }
+        }
+        // add dirs implied by names
+        for ( final ZipIndexEntry entry : entryL ) {
+            String parent = entry.getParentName();
+            while ( !em.containsKey( parent ) ) {
+                final ZipIndexEntry dir = ZipIndexEntry.implicitDir( parent );
+                em.put( parent, dir );
+                cm.computeIfAbsent( dir.getParentName(), p -> new ArrayList<>() ).add( dir );
+                parent = dir.getParentName();
+            }
+        }
+        cm.replaceAll( ( dir, l ) -> Collections.unmodifiableList( l ) );
+        this.entryM = em;
+        this.childM = cm;
+    }
+
+    /**
+     * Return the shared index of an archive, reading it if absent or outdated.
+     *
+     * @param zip path to zip
+     * @return index
+     * @throws IOException          if {@code zip} is not readable or not a zip
+     * @throws NullPointerException if {@code zip} is null
+     */
+    public static ZipIndex of( final Path zip ) throws IOException {
+        Objects.requireNonNull( zip );
+        final Path key = zip.toAbsolutePath().normalize();
+        final BasicFileAttributes attrs = Files.readAttributes( key, BasicFileAttributes.class );
+        final SoftReference<ZipIndex> ref = INDEX_MAP.get( key );
+        final ZipIndex cached = null == ref ? null : ref.get();
+        if ( null != cached && cached.archiveSize == attrs.size() && cached.archiveModified == attrs.lastModifiedTime().toMillis() ) {
+            HIT.inc();
+            return cached;
+        }
+        final ZipIndex index = read( key, attrs );
+        INDEX_MAP.put( key, new SoftReference<>( index ) );
+        return index;
+    }
+
+    /**
+     * Read the index of an archive.
+     *
+     * @param zip path to zip
+     * @return index, not shared
+     * @throws IOException          if {@code zip} is not readable or not a zip
+     * @throws NullPointerException if {@code zip} is null
+     */
+    public static ZipIndex read( final Path zip ) throws IOException {
+        Objects.requireNonNull( zip );
+        return read( zip, Files.readAttributes( zip, BasicFileAttributes.class ) );
+    }
+
+    /**
+     * Drop the shared index of an archive.
+     *
+     * @param zip path to zip
+     * @throws NullPointerException if {@code zip} is null
+     */
+    public static void evict( final Path zip ) {
+        Objects.requireNonNull( zip );
+        INDEX_MAP.remove( zip.toAbsolutePath().normalize() );
+    }
+
+    private static ZipIndex read( final Path zip, final BasicFileAttributes attrs ) throws IOException {
+        final long start = READ_TIMER.start();
+        try ( final FileChannel fc = FileChannel.open( zip, StandardOpenOption.READ ) ) {
+            return new ZipIndex( zip, attrs, readCentralDirectory( fc ) );
+        } finally {
+            READ_TIMER.stop( start );
+        }
+    }
+
+    private static List<ZipIndexEntry> readCentralDirectory( final FileChannel fc ) throws IOException {
+        final long size = fc.size();
+        if ( size < EOCD_SIZE ) {
+            throw new IOException( "No zip, too small[=" + size + "]" );
+        }
+        // end of central directory is in the tail, before a comment
+        final int tailLen = ( int ) Math.min( size, EOCD_SIZE + MAX_COMMENT + ZIP64_LOCATOR_SIZE );
+        final long tailPos = size - tailLen;
+        final ByteBuffer tail = readFully( fc, tailPos, tailLen );
+        int eocd = -1;
+        for ( int i = tailLen - EOCD_SIZE; i >= 0; i-- ) {
+            if ( EOCD_SIG == tail.getInt( i ) && i + EOCD_SIZE + u16( tail, i + 20 ) <= tailLen ) {
+                eocd = i;
+                break;
+            }
+        }
+        if ( eocd < 0 ) {
+            throw new IOException( "No zip, end of central directory not found" );
+        }
+
+        long total = u16( tail, eocd + 10 );
+        long cenSize = u32( tail, eocd + 12 );
+        long cenOffset = u32( tail, eocd + 16 );
+        long cenEnd = tailPos + eocd;
+
+        final int loc = eocd - ZIP64_LOCATOR_SIZE;
+        if ( loc >= 0 && ZIP64_LOCATOR_SIG == tail.getInt( loc ) ) {
+            final long eocd64Pos = findZip64Eocd( fc, tailPos + loc, tail.getLong( loc + 8 ) );
+            final ByteBuffer eocd64 = readFully( fc, eocd64Pos, ZIP64_EOCD_SIZE );
+            total = eocd64.getLong( 32 );
+            cenSize = eocd64.getLong( 40 );
+            cenOffset = eocd64.getLong( 48 );
+            cenEnd = eocd64Pos;
+        }
+        // offsets are relative to the archive start, which is later if data is prepended
+        final long base = cenEnd - cenSize - cenOffset;
+        if ( cenSize < 0L || cenOffset < 0L || base < 0L || total < 0L ) {
+            throw new IOException( "Corrupt zip, central directory size[=" + cenSize + "] offset[=" + cenOffset + "]" );
+        }
+        if ( cenSize > Integer.MAX_VALUE ) {
+            throw new IOException( "Central directory too large[=" + cenSize + "]" );
+        }
+
+        final MappedByteBuffer cen = fc.map( FileChannel.MapMode.READ_ONLY, base + cenOffset, cenSize );
+        cen.order( ByteOrder.LITTLE_ENDIAN );
+        final List<ZipIndexEntry> entryL = new ArrayList<>( ( int ) Math.min( total, cenSize / CEN_SIZE ) );
+        final ByteBuffer nameBuf = cen.duplicate();
+        byte[] nameBytes = new byte[256];
+        int pos = 0;
+        while ( pos + CEN_SIZE <= cenSize ) {
+            if ( CEN_SIG != cen.getInt( pos ) ) {
+                throw new IOException( "Corrupt zip, bad central header at " + pos );
+            }
+            final int madeBy = u16( cen, pos + 4 );
+            final int flags = u16( cen, pos + 8 );
+            final int method = u16( cen, pos + 10 );
+            final int time = u16( cen, pos + 12 );
+            final int date = u16( cen, pos + 14 );
+            final long crc = u32( cen, pos + 16 );
+            long csize = u32( cen, pos + 20 );
+            long usize = u32( cen, pos + 24 );
+            final int nameLen = u16( cen, pos + 28 );
+            final int extraLen = u16( cen, pos + 30 );
+            final int commentLen = u16( cen, pos + 32 );
+            final long extAttr = u32( cen, pos + 38 );
+            long lho = u32( cen, pos + 42 );
+            final int namePos = pos + CEN_SIZE;
+            final int extraPos = namePos + nameLen;
+            final int next = extraPos + extraLen + commentLen;
+            if ( next > cenSize ) {
+                throw new IOException( "Corrupt zip, central header exceeds directory at " + pos );
+            }
+
+            if ( nameLen > nameBytes.length ) {
+                nameBytes = new byte[Math.max( nameLen, 2 * nameBytes.length )];
+            }
+            nameBuf.position( namePos );
+            nameBuf.get( nameBytes, 0, nameLen );
+            String name = new String( nameBytes, 0, nameLen, StandardCharsets.UTF_8 );
+            final boolean dir = name.endsWith( "/" );
+            name = trim( name );
+
+            long mtime = -1L;
+            for ( int x = extraPos; x + 4 <= extraPos + extraLen; ) {
+                final int tag = u16( cen, x );
+                final int len = u16( cen, x + 2 );
+                final int data = x + 4;
+                if ( data + len > extraPos + extraLen ) {
+                    break;
+                }
+                if ( EXTRA_ZIP64 == tag ) {
+                    // only fields saturated in the header are present, in this order
+                    int off = data;
+                    if ( MAGIC32 == usize && off + 8 <= data + len ) {
+                        usize = cen.getLong( off );
+                        off += 8;
+                    }
+                    if ( MAGIC32 == csize && off + 8 <= data + len ) {
+                        csize = cen.getLong( off );
+                        off += 8;
+                    }
+                    if ( MAGIC32 == lho && off + 8 <= data + len ) {
+                        lho = cen.getLong( off );
+                    }
+                } else if ( EXTRA_TIMESTAMP == tag && len >= 5 && 0 != ( cen.get( data ) & 1 ) ) {
+                    mtime = u32( cen, data + 1 ) * 1000L;
+                }
+                x = data + len;
+            }
+
+            final boolean link = HOST_UNIX == madeBy >>> 8 && S_IFLNK == ( ( int ) ( extAttr >>> 16 ) & S_IFMT );
+            if ( !name.isEmpty() ) {
+                entryL.add( new ZipIndexEntry( name, dir, link, method, flags, crc, csize, usize, base + lho, mtime, ( long ) date << 16 | time ) );
+            }
+            pos = next;
+        }
+        return entryL;
+    }
+
+    // the locator offset is relative to the archive start, with prepended data the record is found before the locator
+    private static long findZip64Eocd( final FileChannel fc, final long locPos, final long offset ) throws IOException {
+        if ( offset >= 0L && offset <= locPos - ZIP64_EOCD_SIZE && ZIP64_EOCD_SIG == readFully( fc, offset, 4 ).getInt( 0 ) ) {
+            return offset;
+        }
+        final long from = Math.max( 0L, locPos - ZIP64_EOCD_SIZE - MAX_ZIP64_EXTENSIBLE );
+        final int len = ( int ) ( locPos - from );
+        if ( len >= ZIP64_EOCD_SIZE ) {
+            final ByteBuffer buf = readFully( fc, from, len );
+            for ( int i = len - ZIP64_EOCD_SIZE; i >= 0; i-- ) {
+                // record size excludes signature and size field
+                if ( ZIP64_EOCD_SIG == buf.getInt( i ) && from + i + 12L + buf.getLong( i + 4 ) == locPos ) {
+                    return from + i;
+                }
+            }
+        }
+        throw new IOException( "Corrupt zip, ZIP64 end of central directory not found at " + offset );
+    }
+
+    private static ByteBuffer readFully( final FileChannel fc, final long pos, final int len ) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate( len ).order( ByteOrder.LITTLE_ENDIAN );
+        while ( buf.hasRemaining() ) {
+            if ( fc.read( buf, pos + buf.position() ) < 0 ) {
+                throw new EOFException( "Unexpected end of zip at " + ( pos + buf.position() ) );
+            }
+        }
+        return buf;
+    }
+
+    private static int u16( final ByteBuffer buf, final int pos ) {
+        return Short.toUnsignedInt( buf.getShort( pos ) );
+    }
+
+    private static long u32( final ByteBuffer buf, final int pos ) {
+        return Integer.toUnsignedLong( buf.getInt( pos ) );
+    }
+
+    private static String trim( final String name ) {
+        int from = 0;
+        int to = name.length();
+        while ( from < to && '/' == name.charAt( from ) ) {
+            from++;
+        }
+        while ( to > from && '/' == name.charAt( to - 1 ) ) {
+            to--;
+        }
+        return name.substring( from, to );
+    }
+
+    /**
+     * Path of the archive.
+     *
+     * @return path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Entries in central directory order, without implicit dirs.
+     *
+     * @return unmodifiable list
+     */
+    public List<ZipIndexEntry> getEntries() {
+        return entryL;
+    }
+
+    /**
+     * Number of entries in the central directory.
+     *
+     * @return entries
+     */
+    public int size() {
+        return entryL.size();
+    }
+
+    /**
+     * Look up an entry.
+     *
+     * @param name name, leading and trailing {@code /} are ignored; {@code ""} or {@code "/"} is the root dir
+     * @return entry or empty
+     * @throws NullPointerException if {@code name} is null
+     */
+    public Optional<ZipIndexEntry> get( final String name ) {
+        Objects.requireNonNull( name );
+        return Optional.ofNullable( entryM.get( trim( name ) ) );
+    }
+
+    /**
+     * Direct children of a dir.
+     *
+     * @param dir name of dir, {@code ""} or {@code "/"} is the root dir
+     * @return unmodifiable list, empty if {@code dir} is unknown or no dir
+     * @throws NullPointerException if {@code dir} is null
+     */
+    public List<ZipIndexEntry> list( final String dir ) {
+        Objects.requireNonNull( dir );
+        return childM.getOrDefault( trim( dir ), Collections.emptyList() );
+    }
+
+    @Override
+    public String toString() {
+        return "ZipIndex['" + path + "', " + entryL.size() + " entries]";
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.zip;
+
+import java.nio.file.attribute.FileTime;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Entry of a {@link ZipIndex} as read from the central directory.
+ * <p>
+ * Names use {@code /} as separator, have no leading or trailing {@code /} and are
+ * relative to the archive root {@code ""}. Dirs only implied by the names of their
+ * entries have {@link #isImplicit()} set and no local header.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ZipIndexEntry {
+
+    /**
+     * Method STORED.
+     */
+    public static final int STORED = 0;
+    /**
+     * Method DEFLATED.
+     */
+    public static final int DEFLATED = 8;
+
+    private final String name;
+    private final boolean dir;
+    private final boolean link;
+    private final int method;
+    private final int flags;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+    // unix millis or -1 to use dos time, converted on demand since that is costly
+    private final long modified;
+    private final long dosTime;
+
+    ZipIndexEntry( final String name,
+                   final boolean dir,
+                   final boolean link,
+                   final int method,
+                   final int flags,
+                   final long crc,
+                   final long compressedSize,
+                   final long size,
+                   final long localHeaderOffset,
+                   final long modified,
+                   final long dosTime ) {
+        this.name = name;
+        this.dir = dir;
+        this.link = link;
+        this.method = method;
+        this.flags = flags;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.localHeaderOffset = localHeaderOffset;
+        this.modified = modified;
+        this.dosTime = dosTime;
+    }
+
+    static ZipIndexEntry implicitDir( final String name ) {
+        return new ZipIndexEntry( name, true, false, STORED, 0, 0L, 0L, 0L, -1L, 0L, 0L );
+    }
+
+    /**
+     * Full name.
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Last name element.
+     *
+     * @return file name
+     */
+    public String getFileName() {
+        return name.substring( name.lastIndexOf( '/' ) + 1 );
+    }
+
+    /**
+     * Name of parent dir.
+     *
+     * @return parent name, {@code ""} for the archive root
+     */
+    public String getParentName() {
+        final int idx = name.lastIndexOf( '/' );
+        return idx < 0 ? "" : name.substring( 0, idx );
+    }
+
+    public boolean isDirectory() {
+        return dir;
+    }
+
+    /**
+     * Unix symbolic link.
+     *
+     * @return {@code true} if the entry mode is a symbolic link
+     */
+    public boolean isSymbolicLink() {
+        return link;
+    }
+
+    /**
+     * Dir without entry of its own.
+     *
+     * @return {@code true} if implicit
+     */
+    public boolean isImplicit() {
+        return localHeaderOffset < 0L;
+    }
+
+    /**
+     * Entry is encrypted.
+     *
+     * @return {@code true} if general purpose flag bit 0 is set
+     */
+    public boolean isEncrypted() {
+        return 0 != ( flags & 1 );
+    }
+
+    /**
+     * Compression method, e.g. {@link #STORED} or {@link #DEFLATED}.
+     *
+     * @return method
+     */
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * General purpose flags.
+     *
+     * @return flags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Absolute offset of the local header in the archive file.
+     *
+     * @return offset or -1 if implicit
+     */
+    public long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    public FileTime getLastModified() {
+        return FileTime.fromMillis( modified >= 0L ? modified : dosToMillis( dosTime ) );
+    }
+
+    private static long dosToMillis( final long dosTime ) {
+        final int date = ( int ) ( dosTime >>> 16 );
+        final int time = ( int ) ( dosTime & 0xFFFF );
+        try {
+            return LocalDateTime.of( ( ( date >> 9 ) & 0x7f ) + 1980,
+                    ( date >> 5 ) & 0x0f,
+                    date & 0x1f,
+                    ( time >> 11 ) & 0x1f,
+                    ( time >> 5 ) & 0x3f,
+                    ( time << 1 ) & 0x3e ).atZone( ZoneId.systemDefault() ).toInstant().toEpochMilli();
+        } catch ( final DateTimeException dtE ) {
+            return 0L;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZipIndexEntry{" +
+                "name='" + name + '\'' +
+                ", dir=" + dir +
+                ", method=" + method +
+                ", compressedSize=" + compressedSize +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.crypto;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests of {@link ChunkedFileCipher}.
+ *
+ * @author jTzipi
+ */
+class ChunkedFileCipherTest {
+
+    private static final int CHUNK = ChunkedFileCipher.MIN_CHUNK_SIZE;
+    private static final int CHUNK_SIZE_POS = 12;
+    private static ExecutorService pool;
+
+    @TempDir
+    Path tmp;
+
+    private final byte[] key = bytes( 32, 1L );
+
+    @BeforeAll
+    static void startPool() {
+        pool = Executors.newFixedThreadPool( 3 );
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @ParameterizedTest
+    @EnumSource( ChunkedFileCipher.Algorithm.class )
+    void roundTrip( final ChunkedFileCipher.Algorithm algorithm ) throws IOException {
+        final ChunkedFileCipher cipher = cipher( algorithm );
+        for ( final int size : new int[] { 0, 1, CHUNK, 5 * CHUNK + 77 } ) {
+            final byte[] plain = bytes( size, size );
+            final Path in = Files.write( tmp.resolve( "plain" + size ), plain );
+            final Path enc = tmp.resolve( "enc" + size );
+            final Path dec = tmp.resolve( "dec" + size );
+
+            final long encLen = cipher.encrypt( in, enc, key );
+            assertEquals( Files.size( enc ), encLen );
+            assertEquals( size, cipher.decrypt( enc, dec, key ) );
+            assertArrayEquals( plain, Files.readAllBytes( dec ) );
+        }
+    }
+
+    @Test
+    void roundTripOnCallingThread() throws IOException {
+        final ChunkedFileCipher cipher = ChunkedFileCipher.of( ChunkedFileCipher.Algorithm.AES_GCM ).chunkSize( CHUNK ).parallel( Runnable::run, 2 );
+        final byte[] plain = bytes( 3 * CHUNK + 5, 9L );
+        final Path enc = tmp.resolve( "enc" );
+        cipher.encrypt( Files.write( tmp.resolve( "plain" ), plain ), enc, key );
+        cipher.decrypt( enc, tmp.resolve( "dec" ), key );
+        assertArrayEquals( plain, Files.readAllBytes( tmp.resolve( "dec" ) ) );
+    }
+
+    @Test
+    void rejectsFlippedByte() throws IOException {
+        final byte[] enc = encrypt( 4 * CHUNK );
+        enc[ChunkedFileCipher.HEADER_SIZE + 2 * CHUNK + 100] ^= 1;
+        assertTampered( enc );
+    }
+
+    @Test
+    void rejectsFlippedTag() throws IOException {
+        final byte[] enc = encrypt( 4 * CHUNK );
+        enc[enc.length - 1] ^= 1;
+        assertTampered( enc );
+    }
+
+    @Test
+    void rejectsChangedHeader() throws IOException {
+        final byte[] enc = encrypt( 4 * CHUNK );
+        // salt is bound by the file key and the additional data
+        enc[ChunkedFileCipher.HEADER_SIZE - 1] ^= 1;
+        assertTampered( enc );
+    }
+
+    @Test
+    void rejectsSwappedChunks() throws IOException {
+        final byte[] enc = encrypt( 4 * CHUNK );
+        final int len = CHUNK + ChunkedFileCipher.TAG_SIZE;
+        final int first = ChunkedFileCipher.HEADER_SIZE;
+        final byte[] chunk = Arrays.copyOfRange( enc, first, first + len );
+        System.arraycopy( enc, first + len, enc, first, len );
+        System.arraycopy( chunk, 0, enc, first + len, len );
+        assertTampered( enc );
+    }
+
+    @Test
+    void rejectsTruncated() throws IOException {
+        final byte[] enc = encrypt( 4 * CHUNK + 10 );
+        // without the last chunk, cut in a tag and cut in the header
+        assertTampered( Arrays.copyOf( enc, enc.length - 10 - ChunkedFileCipher.TAG_SIZE ) );
+        assertTampered( Arrays.copyOf( enc, enc.length - 3 ) );
+        assertTampered( Arrays.copyOf( enc, ChunkedFileCipher.HEADER_SIZE - 5 ) );
+        assertTampered( new byte[0] );
+    }
+
+    @Test
+    void rejectsWrongKey() throws IOException {
+        final byte[] enc = encrypt( CHUNK + 1 );
+        final Path in = Files.write( tmp.resolve( "enc" ), enc );
+        final Path out = tmp.resolve( "dec" );
+        assertThrows( CipherTamperedException.class, () -> cipher( ChunkedFileCipher.Algorithm.AES_GCM ).decrypt( in, out, bytes( 32, 2L ) ) );
+        assertFalse( Files.exists( out ) );
+    }
+
+    @Test
+    void rejectsHugeChunkSize() throws IOException {
+        // a small file claiming a chunk size near 2 GiB must fail before buffers are allocated
+        final byte[] enc = encrypt( 10 );
+        ByteBuffer.wrap( enc ).putInt( CHUNK_SIZE_POS, Integer.MAX_VALUE - ChunkedFileCipher.TAG_SIZE );
+        assertTampered( enc );
+        ByteBuffer.wrap( enc ).putInt( CHUNK_SIZE_POS, ChunkedFileCipher.MAX_CHUNK_SIZE + 1 );
+        assertTampered( enc );
+    }
+
+    @Test
+    void rejectsInvalidChunkSize() {
+        final ChunkedFileCipher cipher = ChunkedFileCipher.of( ChunkedFileCipher.Algorithm.AES_GCM );
+        assertThrows( IllegalArgumentException.class, () -> cipher.chunkSize( ChunkedFileCipher.MIN_CHUNK_SIZE - 1 ) );
+        assertThrows( IllegalArgumentException.class, () -> cipher.chunkSize( ChunkedFileCipher.MAX_CHUNK_SIZE + 1 ) );
+    }
+
+    private ChunkedFileCipher cipher( final ChunkedFileCipher.Algorithm algorithm ) {
+        return ChunkedFileCipher.of( algorithm ).chunkSize( CHUNK ).parallel( pool, 3 );
+    }
+
+    private byte[] encrypt( final int size ) throws IOException {
+        final Path in = Files.write( tmp.resolve( "plain" ), bytes( size, 3L ) );
+        final Path enc = tmp.resolve( "enc" );
+        cipher( ChunkedFileCipher.Algorithm.AES_GCM ).encrypt( in, enc, key );
+        return Files.readAllBytes( enc );
+    }
+
+    private void assertTampered( final byte[] enc ) throws IOException {
+        final Path in = Files.write( tmp.resolve( "tampered" ), enc );
+        final Path out = tmp.resolve( "dec" );
+        assertThrows( CipherTamperedException.class, () -> cipher( ChunkedFileCipher.Algorithm.AES_GCM ).decrypt( in, out, key ) );
+        // no unauthenticated plaintext left behind
+        assertFalse( Files.exists( out ) );
+    }
+
+    private static byte[] bytes( final int size, final long seed ) {
+        final byte[] data = new byte[size];
+        new Random( seed ).nextBytes( data );
+        return data;
+    }
+}
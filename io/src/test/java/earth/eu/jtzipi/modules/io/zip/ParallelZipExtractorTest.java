@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.zip;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link ParallelZipExtractor}.
+ *
+ * @author jTzipi
+ */
+class ParallelZipExtractorTest {
+
+    private static ExecutorService pool;
+
+    @TempDir
+    Path tmp;
+
+    @BeforeAll
+    static void startPool() {
+        pool = Executors.newFixedThreadPool( 3 );
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void extractsZipOutputStreamArchive() throws IOException {
+        final byte[] text = "some text, some text, some text".getBytes( StandardCharsets.UTF_8 );
+        final byte[] noise = new byte[200_000];
+        new Random( 3L ).nextBytes( noise );
+        final Path zip = tmp.resolve( "a.zip" );
+        try ( final ZipOutputStream zos = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+            zos.putNextEntry( new ZipEntry( "dir/" ) );
+            zos.closeEntry();
+            put( zos, "dir/text.txt", text, false );
+            put( zos, "a/b/noise.bin", noise, true );
+            put( zos, "empty", new byte[0], false );
+        }
+
+        final Path out = tmp.resolve( "out" );
+        final long bytes = ParallelZipExtractor.create().parallel( pool, 3 ).extract( zip, out );
+
+        assertEquals( text.length + noise.length, bytes );
+        assertArrayEquals( text, Files.readAllBytes( out.resolve( "dir/text.txt" ) ) );
+        assertArrayEquals( noise, Files.readAllBytes( out.resolve( "a/b/noise.bin" ) ) );
+        assertEquals( 0L, Files.size( out.resolve( "empty" ) ) );
+        assertTrue( Files.isDirectory( out.resolve( "dir" ) ) );
+    }
+
+    @Test
+    void roundTripWithWriter() throws IOException {
+        final Path dir = ParallelZipWriterTest.tree( tmp.resolve( "in" ) );
+        final Path zip = tmp.resolve( "out.zip" );
+        ParallelZipWriter.create().blockSize( ParallelZipWriter.MIN_BLOCK_SIZE ).parallel( pool, 3 ).write( zip, dir );
+
+        final Path out = tmp.resolve( "out" );
+        ParallelZipExtractor.create().parallel( pool, 3 ).extract( zip, out );
+
+        for ( final Path file : ParallelZipWriterTest.files( dir ) ) {
+            assertArrayEquals( Files.readAllBytes( file ), Files.readAllBytes( out.resolve( dir.relativize( file ) ) ), file.toString() );
+        }
+        assertTrue( Files.isDirectory( out.resolve( "sub/empty" ) ) );
+    }
+
+    @Test
+    void extractsOnCallingThread() throws IOException {
+        final Path dir = ParallelZipWriterTest.tree( tmp.resolve( "in" ) );
+        final Path zip = tmp.resolve( "out.zip" );
+        ParallelZipWriter.create().parallel( pool, 1 ).write( zip, dir );
+
+        final Path out = tmp.resolve( "out" );
+        ParallelZipExtractor.create().parallel( Runnable::run, 2 ).extract( zip, out );
+
+        for ( final Path file : ParallelZipWriterTest.files( dir ) ) {
+            assertArrayEquals( Files.readAllBytes( file ), Files.readAllBytes( out.resolve( dir.relativize( file ) ) ), file.toString() );
+        }
+    }
+
+    @Test
+    void rejectsParentSteps() throws IOException {
+        for ( final String name : new String[] { "../evil.txt", "a/../../evil.txt" } ) {
+            final Path zip = tmp.resolve( "evil.zip" );
+            try ( final ZipOutputStream zos = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+                put( zos, "good.txt", new byte[] { 1 }, false );
+                put( zos, name, new byte[] { 2 }, false );
+            }
+            ZipIndex.evict( zip );
+
+            final Path out = tmp.resolve( "x" ).resolve( "out" );
+            final IOException ioE = assertThrows( IOException.class, () -> ParallelZipExtractor.create().parallel( pool, 2 ).extract( zip, out ) );
+            assertTrue( ioE.getMessage().contains( name ), ioE.getMessage() );
+            // checked before anything is written
+            assertFalse( Files.exists( tmp.resolve( "x/evil.txt" ) ) );
+            assertFalse( Files.exists( out.resolve( "good.txt" ) ) );
+        }
+    }
+
+    @Test
+    void rejectsCorruptDeflatedData() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 5_000; i++ ) {
+            sb.append( i ).append( ' ' );
+        }
+        final Path zip = tmp.resolve( "a.zip" );
+        try ( final ZipOutputStream zos = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+            put( zos, "data.txt", sb.toString().getBytes( StandardCharsets.US_ASCII ), true );
+        }
+        // flip a byte in the middle of the deflated data behind the first local header
+        final long csize = ZipIndex.read( zip ).get( "data.txt" ).orElseThrow().getCompressedSize();
+        final byte[] raw = Files.readAllBytes( zip );
+        final ByteBuffer loc = ByteBuffer.wrap( raw ).order( ByteOrder.LITTLE_ENDIAN );
+        raw[30 + loc.getShort( 26 ) + loc.getShort( 28 ) + ( int ) csize / 2] ^= 0x55;
+        final Path bad = Files.write( tmp.resolve( "bad.zip" ), raw );
+
+        final Path out = tmp.resolve( "out" );
+        assertThrows( IOException.class, () -> ParallelZipExtractor.create().parallel( pool, 1 ).extract( bad, out ) );
+        assertFalse( Files.exists( out.resolve( "data.txt" ) ) );
+    }
+
+    private static void put( final ZipOutputStream zos, final String name, final byte[] data, final boolean deflate ) throws IOException {
+        final ZipEntry entry = new ZipEntry( name );
+        if ( !deflate ) {
+            final CRC32 crc = new CRC32();
+            crc.update( data );
+            entry.setMethod( ZipEntry.STORED );
+            entry.setSize( data.length );
+            entry.setCompressedSize( data.length );
+            entry.setCrc( crc.getValue() );
+        }
+        zos.putNextEntry( entry );
+        zos.write( data );
+        zos.closeEntry();
+    }
+}
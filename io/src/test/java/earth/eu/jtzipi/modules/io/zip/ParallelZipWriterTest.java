@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.zip;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link ParallelZipWriter} read back with {@link ZipFile}.
+ *
+ * @author jTzipi
+ */
+class ParallelZipWriterTest {
+
+    private static ExecutorService pool;
+
+    @TempDir
+    Path tmp;
+
+    @BeforeAll
+    static void startPool() {
+        pool = Executors.newFixedThreadPool( 3 );
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void roundTripParallel() throws IOException {
+        final Path dir = tree( tmp.resolve( "in" ) );
+        final Path zip = tmp.resolve( "out.zip" );
+        ParallelZipWriter.create().blockSize( ParallelZipWriter.MIN_BLOCK_SIZE ).parallel( pool, 3 ).write( zip, dir );
+
+        assertSameContent( dir, zip );
+        try ( final ZipFile zf = new ZipFile( zip.toFile() ) ) {
+            assertEquals( ZipEntry.DEFLATED, zf.getEntry( "text.txt" ).getMethod() );
+            assertEquals( ZipEntry.STORED, zf.getEntry( "sub/photo.jpg" ).getMethod() );
+            assertTrue( zf.getEntry( "sub/empty/" ).isDirectory() );
+            // blocks of one entry must deflate about as well as one stream
+            assertTrue( zf.getEntry( "text.txt" ).getCompressedSize() < zf.getEntry( "text.txt" ).getSize() / 10L );
+        }
+    }
+
+    @Test
+    void roundTripOnCallingThread() throws IOException {
+        final Path dir = tree( tmp.resolve( "in" ) );
+        final Path zip = tmp.resolve( "out.zip" );
+        ParallelZipWriter.create().blockSize( ParallelZipWriter.MIN_BLOCK_SIZE ).parallel( Runnable::run, 2 ).write( zip, dir );
+
+        assertSameContent( dir, zip );
+    }
+
+    @Test
+    void levelZeroStoresAll() throws IOException {
+        final Path dir = tree( tmp.resolve( "in" ) );
+        final Path zip = tmp.resolve( "out.zip" );
+        ParallelZipWriter.create().level( 0 ).parallel( pool, 2 ).write( zip, dir );
+
+        assertSameContent( dir, zip );
+        try ( final ZipFile zf = new ZipFile( zip.toFile() ) ) {
+            assertTrue( Collections.list( zf.entries() ).stream().allMatch( entry -> ZipEntry.STORED == entry.getMethod() ) );
+        }
+    }
+
+    @Test
+    void writesEntriesOfMap() throws IOException {
+        final Path file = Files.write( tmp.resolve( "a.txt" ), "abc".getBytes( StandardCharsets.UTF_8 ) );
+        final Map<String, Path> entryM = new LinkedHashMap<>();
+        entryM.put( "x/one.txt", file );
+        entryM.put( "two.txt", file );
+        final Path zip = tmp.resolve( "out.zip" );
+        ParallelZipWriter.create().parallel( pool, 1 ).write( zip, entryM );
+
+        try ( final ZipFile zf = new ZipFile( zip.toFile() ) ) {
+            assertEquals( 2, zf.size() );
+            assertArrayEquals( Files.readAllBytes( file ), read( zf, zf.getEntry( "x/one.txt" ) ) );
+            assertArrayEquals( Files.readAllBytes( file ), read( zf, zf.getEntry( "two.txt" ) ) );
+        }
+        assertFalse( Files.exists( tmp.resolve( "out.zip.part" ) ) );
+    }
+
+    // files of several blocks, incompressible, empty and already compressed plus an empty dir
+    static Path tree( final Path dir ) throws IOException {
+        final Random rand = new Random( 7L );
+        Files.createDirectories( dir.resolve( "sub/empty" ) );
+        final StringBuilder sb = new StringBuilder();
+        for ( int i = 0; sb.length() < 5 * ParallelZipWriter.MIN_BLOCK_SIZE + 123; i++ ) {
+            sb.append( "line " ).append( i ).append( " of some very compressible text\n" );
+        }
+        Files.write( dir.resolve( "text.txt" ), sb.toString().getBytes( StandardCharsets.UTF_8 ) );
+        final byte[] noise = new byte[3 * ParallelZipWriter.MIN_BLOCK_SIZE - 17];
+        rand.nextBytes( noise );
+        Files.write( dir.resolve( "noise.bin" ), noise );
+        Files.write( dir.resolve( "empty.txt" ), new byte[0] );
+        final byte[] photo = new byte[1000];
+        rand.nextBytes( photo );
+        Files.write( dir.resolve( "sub/photo.jpg" ), photo );
+        return dir;
+    }
+
+    // every file of dir is an entry with equal bytes and CRC
+    static void assertSameContent( final Path dir, final Path zip ) throws IOException {
+        try ( final ZipFile zf = new ZipFile( zip.toFile() ) ) {
+            for ( final Path file : files( dir ) ) {
+                final String name = dir.relativize( file ).toString().replace( '\\', '/' );
+                final ZipEntry entry = zf.getEntry( name );
+                assertNotNull( entry, name );
+                final byte[] expected = Files.readAllBytes( file );
+                final CRC32 crc = new CRC32();
+                crc.update( expected );
+                assertEquals( crc.getValue(), entry.getCrc(), name );
+                assertArrayEquals( expected, read( zf, entry ), name );
+            }
+        }
+    }
+
+    static List<Path> files( final Path dir ) throws IOException {
+        try ( final Stream<Path> ps = Files.walk( dir ) ) {
+            return ps.filter( Files::isRegularFile ).collect( Collectors.toList() );
+        }
+    }
+
+    private static byte[] read( final ZipFile zf, final ZipEntry entry ) throws IOException {
+        try ( final InputStream is = zf.getInputStream( entry ) ) {
+            return is.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.io.zip;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests of {@link ZipIndex}.
+ *
+ * @author jTzipi
+ */
+class ZipIndexTest {
+
+    private static final int LOC_SIG = 0x04034b50;
+    // more entries than the 16 bit count of the end record forces ZIP64
+    private static final int ZIP64_ENTRIES = 0x10000 + 16;
+
+    @TempDir
+    static Path shared;
+    private static Path zip64;
+
+    @TempDir
+    Path tmp;
+
+    @BeforeAll
+    static void createZip64() throws IOException {
+        zip64 = shared.resolve( "big.zip" );
+        try ( final ZipOutputStream zos = new ZipOutputStream( new BufferedOutputStream( Files.newOutputStream( zip64 ) ) ) ) {
+            for ( int i = 0; i < ZIP64_ENTRIES; i++ ) {
+                put( zos, "d/" + i, "data" );
+            }
+        }
+    }
+
+    @Test
+    void listsEntriesAndImplicitDirs() throws IOException {
+        final Path zip = tmp.resolve( "a.zip" );
+        try ( final ZipOutputStream zos = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+            put( zos, "a/b/c.txt", "hello" );
+            put( zos, "a/d.txt", "world!" );
+            zos.putNextEntry( new ZipEntry( "e/" ) );
+            zos.closeEntry();
+        }
+
+        final ZipIndex index = ZipIndex.read( zip );
+        assertEquals( 3, index.size() );
+        assertEquals( 6L, index.get( "a/d.txt" ).orElseThrow().getSize() );
+        assertTrue( index.get( "a/b" ).orElseThrow().isImplicit() );
+        assertTrue( index.get( "e" ).orElseThrow().isDirectory() );
+        assertFalse( index.get( "e" ).orElseThrow().isImplicit() );
+        assertEquals( Arrays.asList( "a/b", "a/d.txt" ), names( index, "a" ) );
+        assertEquals( Arrays.asList( "a", "e" ), names( index, "" ) );
+        assertLocalHeaders( zip, index );
+    }
+
+    @Test
+    void readsZip64() throws IOException {
+        final ZipIndex index = ZipIndex.read( zip64 );
+        assertEquals( ZIP64_ENTRIES, index.size() );
+        assertEquals( ZIP64_ENTRIES, index.list( "d" ).size() );
+        assertEquals( 4L, index.get( "d/" + ( ZIP64_ENTRIES - 1 ) ).orElseThrow().getSize() );
+        assertLocalHeaders( zip64, index );
+    }
+
+    @Test
+    void readsArchiveWithPrependedStub() throws IOException {
+        final Path zip = tmp.resolve( "a.zip" );
+        try ( final ZipOutputStream zos = new ZipOutputStream( Files.newOutputStream( zip ) ) ) {
+            put( zos, "x.txt", "x" );
+            put( zos, "y/z.txt", "zz" );
+        }
+        final Path sfx = prepend( zip, tmp.resolve( "a.exe" ) );
+
+        final ZipIndex index = ZipIndex.read( sfx );
+        assertEquals( 2, index.size() );
+        assertEquals( 2L, index.get( "y/z.txt" ).orElseThrow().getSize() );
+        assertLocalHeaders( sfx, index );
+    }
+
+    @Test
+    void readsZip64WithPrependedStub() throws IOException {
+        final Path sfx = prepend( zip64, tmp.resolve( "big.exe" ) );
+
+        final ZipIndex index = ZipIndex.read( sfx );
+        assertEquals( ZIP64_ENTRIES, index.size() );
+        assertLocalHeaders( sfx, index );
+    }
+
+    @Test
+    void rejectsNoZip() throws IOException {
+        final Path file = Files.write( tmp.resolve( "no.zip" ), "no zip at all".getBytes( StandardCharsets.US_ASCII ) );
+        assertThrows( IOException.class, () -> ZipIndex.read( file ) );
+    }
+
+    // copy zip behind some bytes like a self extracting stub
+    private static Path prepend( final Path zip, final Path target ) throws IOException {
+        final byte[] stub = new byte[4099];
+        Arrays.fill( stub, ( byte ) 'S' );
+        try ( final OutputStream os = Files.newOutputStream( target ) ) {
+            os.write( stub );
+            Files.copy( zip, os );
+        }
+        return target;
+    }
+
+    private static void put( final ZipOutputStream zos, final String name, final String text ) throws IOException {
+        zos.putNextEntry( new ZipEntry( name ) );
+        zos.write( text.getBytes( StandardCharsets.UTF_8 ) );
+        zos.closeEntry();
+    }
+
+    private static List<String> names( final ZipIndex index, final String dir ) {
+        return index.list( dir ).stream().map( ZipIndexEntry::getName ).sorted().collect( Collectors.toList() );
+    }
+
+    // offsets must point at the local header in the file, stub included
+    private static void assertLocalHeaders( final Path zip, final ZipIndex index ) throws IOException {
+        try ( final FileChannel fc = FileChannel.open( zip, StandardOpenOption.READ ) ) {
+            final ByteBuffer sig = ByteBuffer.allocate( 4 ).order( ByteOrder.LITTLE_ENDIAN );
+            for ( final ZipIndexEntry entry : index.getEntries() ) {
+                if ( entry.isImplicit() ) {
+                    continue;
+                }
+                sig.clear();
+                fc.read( sig, entry.getLocalHeaderOffset() );
+                assertEquals( LOC_SIG, sig.getInt( 0 ), entry.getName() );
+            }
+        }
+    }
+}
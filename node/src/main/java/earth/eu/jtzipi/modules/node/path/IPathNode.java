@@ -16,6 +16,7 @@
 
 package earth.eu.jtzipi.modules.node.path;
 
+import earth.eu.jtzipi.modules.io.IOUtils;
 import earth.eu.jtzipi.modules.node.INode;
 
 import java.nio.file.Path;
@@ -199,7 +200,7 @@ public interface IPathNode extends INode<Path>, Comparable<IPathNode> {
     @Override
     default List<IPathNode> getSubnodes() {
 
-        return getSubnodes( path -> true, false );
+        return getSubnodes( IOUtils.PATH_ACCEPT_ALL, false );
     }
 
     /**
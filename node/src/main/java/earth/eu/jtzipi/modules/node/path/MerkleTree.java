@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.node.path;
+
+import earth.eu.jtzipi.modules.utils.ChecksumUtils;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Merkle hashes of {@link IPathNode} trees.
+ * <p>
+ * A file hashes to the SHA-256 of its content. A directory hashes to
+ * {@code SHA-256( "jtzipi-merkle-v1" || child* )} with children sorted by file name
+ * and each child encoded as {@code type byte || int name length || UTF-8 name || 32 byte hash}.
+ * Types are {@code 'f'} file, {@code 'd'} directory, {@code 'l'} link (hash of link target text, never followed)
+ * and {@code 'u'} not readable (zero hash).
+ * </p>
+ * <p>
+ * Hashes are cached per path. After a file changed call {@link #invalidate(Path)} which evicts
+ * the file and its ancestors only, so the next {@link #hash(IPathNode)} rehashes just that path to the root.
+ * Sub nodes are taken from {@link IPathNode#getSubnodes()}, so added or removed files are seen only by new nodes.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class MerkleTree {
+
+    /**
+     * Hash length in bytes.
+     */
+    public static final int HASH_LENGTH = 32;
+    private static final byte[] DOMAIN = "jtzipi-merkle-v1".getBytes( StandardCharsets.US_ASCII );
+    private static final byte[] ZERO = new byte[HASH_LENGTH];
+    private static final ICounter DIRS = Metrics.counter( "merkle.dirs.hashed" );
+    private static final ICounter FILES = Metrics.counter( "merkle.files.hashed" );
+    private static final ICounter HITS = Metrics.counter( "merkle.hit" );
+    private static final Comparator<IPathNode> BY_NAME = Comparator.comparing( MerkleTree::nameOf );
+
+    private final Map<Path, byte[]> hashM = new ConcurrentHashMap<>();
+
+    private MerkleTree() {
+    }
+
+    /**
+     * Create empty tree cache.
+     *
+     * @return tree
+     */
+    public static MerkleTree create() {
+        return new MerkleTree();
+    }
+
+    /**
+     * Return Merkle hash of node, computing only what is not cached.
+     *
+     * @param node file or directory node
+     * @return 32 byte hash
+     * @throws IOException          if a readable file can not be hashed
+     * @throws NullPointerException if {@code node} is null
+     */
+    public byte[] hash( final IPathNode node ) throws IOException {
+        Objects.requireNonNull( node );
+        return hashNode( node ).clone();
+    }
+
+    /**
+     * Return Merkle hash of node as hex.
+     *
+     * @param node node
+     * @return hex
+     * @throws IOException          if a readable file can not be hashed
+     * @throws NullPointerException if {@code node} is null
+     */
+    public String hashHex( final IPathNode node ) throws IOException {
+        Objects.requireNonNull( node );
+        return Hex.encodeHexString( hashNode( node ) );
+    }
+
+    /**
+     * Return cached hash without computing.
+     *
+     * @param path path
+     * @return hash or null
+     */
+    public byte[] getCached( final Path path ) {
+        final byte[] hash = hashM.get( key( path ) );
+        return null == hash ? null : hash.clone();
+    }
+
+    /**
+     * Evict path and all its ancestors.
+     *
+     * @param path changed path
+     * @throws NullPointerException if {@code path} is null
+     */
+    public void invalidate( final Path path ) {
+        Objects.requireNonNull( path );
+        for ( Path p = key( path ); null != p; p = p.getParent() ) {
+            hashM.remove( p );
+        }
+    }
+
+    /**
+     * Evict node and all its ancestors.
+     *
+     * @param node changed node
+     * @throws NullPointerException if {@code node} is null
+     */
+    public void invalidate( final IPathNode node ) {
+        Objects.requireNonNull( node );
+        for ( final IPathNode pn : IPathNode.getPathToRoot( node ) ) {
+            hashM.remove( key( pn.getValue() ) );
+        }
+    }
+
+    /**
+     * Remove all cached hashes.
+     */
+    public void clear() {
+        hashM.clear();
+    }
+
+    /**
+     * Number of cached hashes.
+     *
+     * @return size
+     */
+    public int size() {
+        return hashM.size();
+    }
+
+    /**
+     * Compare two trees descending only into directories whose hash differs.
+     *
+     * @param left  left tree
+     * @param right right tree
+     * @return changes of {@code right} relative to {@code left} with paths relative to the roots
+     * @throws IOException          if a readable file can not be hashed
+     * @throws NullPointerException if {@code left} or {@code right} is null
+     */
+    public List<Change> diff( final IPathNode left, final IPathNode right ) throws IOException {
+        Objects.requireNonNull( left );
+        Objects.requireNonNull( right );
+        final List<Change> changeL = new ArrayList<>();
+        diff( left, right, "", changeL );
+        return changeL;
+    }
+
+    private void diff( final IPathNode left, final IPathNode right, final String rel, final List<Change> changeL ) throws IOException {
+        if ( Arrays.equals( hashNode( left ), hashNode( right ) ) ) {
+            return;
+        }
+        if ( type( left ) != 'd' || type( right ) != 'd' ) {
+            changeL.add( new Change( rel, Kind.MODIFIED ) );
+            return;
+        }
+        final Map<String, IPathNode> leftM = children( left );
+        final Map<String, IPathNode> rightM = children( right );
+        for ( final Map.Entry<String, IPathNode> me : leftM.entrySet() ) {
+            final String childRel = rel.isEmpty() ? me.getKey() : rel + '/' + me.getKey();
+            final IPathNode other = rightM.get( me.getKey() );
+            if ( null == other ) {
+                changeL.add( new Change( childRel, Kind.REMOVED ) );
+            } else {
+                diff( me.getValue(), other, childRel, changeL );
+            }
+        }
+        for ( final String name : rightM.keySet() ) {
+            if ( !leftM.containsKey( name ) ) {
+                changeL.add( new Change( rel.isEmpty() ? name : rel + '/' + name, Kind.ADDED ) );
+            }
+        }
+    }
+
+    private byte[] hashNode( final IPathNode node ) throws IOException {
+        final Path key = key( node.getValue() );
+        final byte[] cached = hashM.get( key );
+        if ( null != cached ) {
+            HITS.inc();
+            return cached;
+        }
+        final byte[] hash;
+        switch ( type( node ) ) {
+            case 'u':
+                hash = ZERO;
+                break;
+            case 'l':
+                hash = DigestUtils.sha256( Files.readSymbolicLink( node.getValue() ).toString() );
+                break;
+            case 'f':
+                try {
+                    hash = Hex.decodeHex( ChecksumUtils.calcHash( node.getValue(), null ) );
+                } catch ( final DecoderException dE ) {
+                    throw new IllegalStateException( dE );
+                }
+                FILES.inc();
+                break;
+            default:
+                hash = hashDir( node );
+                DIRS.inc();
+        }
+        hashM.put( key, hash );
+        return hash;
+    }
+
+    private byte[] hashDir( final IPathNode dir ) throws IOException {
+        final List<IPathNode> subL = new ArrayList<>( dir.getSubnodes() );
+        subL.sort( BY_NAME );
+        final MessageDigest md = ChecksumUtils.getDigest( "SHA-256" );
+        md.update( DOMAIN );
+        for ( final IPathNode sub : subL ) {
+            final byte[] name = nameOf( sub ).getBytes( StandardCharsets.UTF_8 );
+            md.update( ( byte ) type( sub ) );
+            md.update( ByteBuffer.allocate( 4 ).putInt( 0, name.length ) );
+            md.update( name );
+            md.update( hashNode( sub ) );
+        }
+        return md.digest();
+    }
+
+    private static Map<String, IPathNode> children( final IPathNode dir ) {
+        final Map<String, IPathNode> childM = new TreeMap<>();
+        for ( final IPathNode sub : dir.getSubnodes() ) {
+            childM.put( nameOf( sub ), sub );
+        }
+        return childM;
+    }
+
+    private static char type( final IPathNode node ) {
+        if ( !node.isReadable() ) {
+            return 'u';
+        }
+        if ( node.isLink() ) {
+            return 'l';
+        }
+        return node.isDir() ? 'd' : 'f';
+    }
+
+    private static String nameOf( final IPathNode node ) {
+        final Path name = node.getValue().getFileName();
+        return null == name ? node.getValue().toString() : name.toString();
+    }
+
+    private static Path key( final Path path ) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Kind of change.
+     */
+    public enum Kind {
+        /**
+         * Only in right tree.
+         */
+        ADDED,
+        /**
+         * Only in left tree.
+         */
+        REMOVED,
+        /**
+         * In both with different content or type.
+         */
+        MODIFIED
+    }
+
+    /**
+     * Change found by {@link #diff(IPathNode, IPathNode)}.
+     */
+    public static final class Change {
+
+        private final String path;
+        private final Kind kind;
+
+        private Change( final String path, final Kind kind ) {
+            this.path = path;
+            this.kind = kind;
+        }
+
+        /**
+         * Path relative to the compared roots, separated by {@code /}.
+         *
+         * @return path
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Kind of change.
+         *
+         * @return kind
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        @Override
+        public String toString() {
+            return kind + " " + path;
+        }
+    }
+}
@@ -18,14 +18,18 @@ package earth.eu.jtzipi.modules.node.path;
 
 import earth.eu.jtzipi.modules.io.IOUtils;
 import earth.eu.jtzipi.modules.io.ZipUtils;
+import earth.eu.jtzipi.modules.io.zip.ZipIndex;
+import earth.eu.jtzipi.modules.io.zip.ZipIndexEntry;
 import earth.eu.jtzipi.modules.node.INode;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -38,7 +42,12 @@ import static java.util.stream.Collectors.toList;
  * <p>
  * <p>
  * Zip path node is a directory wrapper for a zip archive.
- *
+ * All nodes of one archive share one {@link ZipIndex} read from the central directory,
+ * attributes and sub nodes are taken from it.
+ * Listing with {@link IOUtils#PATH_ACCEPT_ALL} never opens the zip file system; other predicates are
+ * tested on paths of the file system acquired once per listing.
+ * Values are paths of the zip file system, pinned (see {@link ZipUtils#pin(Path)}) on the first call
+ * to {@link #getValue()}. Use {@link #getEntry()} to inspect a node without opening the file system.
  * </p>
  */
 public class ZipPathNode implements IPathNode {
@@ -48,16 +57,24 @@ public class ZipPathNode implements IPathNode {
      */
     IPathNode parent;
     /**
-     * relative path .
+     * name of entry, {@code ""} for the root.
      */
-    Path relPath;
+    String entryName;
     /**
      * Path to zip file.
      */
     Path zip;
+    /**
+     * Shared index of zip or null if not readable.
+     */
+    ZipIndex index;
 
     List<IPathNode> subNodeL;
 
+    private ZipIndexEntry entry;
+    // path in zip file system, created lazily
+    private Path value;
+
     private boolean subNodesCreated;
 
     private String name;
@@ -75,13 +92,15 @@ public class ZipPathNode implements IPathNode {
      * ZipPathNode main.
      *
      * @param rootPath       root path of zip
-     * @param relPath        relative path to root
+     * @param entryName      name of entry in zip
      * @param parentPathNode parent
+     * @param zipIndex       index of zip (optional)
      */
-    ZipPathNode( final Path rootPath, final Path relPath, final IPathNode parentPathNode ) {
+    ZipPathNode( final Path rootPath, final String entryName, final IPathNode parentPathNode, final ZipIndex zipIndex ) {
         this.zip = rootPath;
-        this.relPath = relPath;
+        this.entryName = entryName;
         this.parent = parentPathNode;
+        this.index = zipIndex;
         this.subNodesCreated = false;
     }
 
@@ -89,25 +108,32 @@ public class ZipPathNode implements IPathNode {
     public static ZipPathNode of( final Path path, final IPathNode parentNode ) {
         Objects.requireNonNull( path );
         final Path zipRoot;
-        final Path relPath;
+        final String name;
+        ZipIndex zipIndex;
         // if paren is zip path too forward zip root
         if ( parentNode instanceof ZipPathNode ) {
 
             final ZipPathNode zipParent = ( ZipPathNode ) parentNode;
             zipRoot = zipParent.getZipRoot();
-            relPath = path;
+            name = entryName( path );
+            zipIndex = zipParent.index;
         } else {
             // This is zip root file
             zipRoot = path;
-            relPath = Paths.get( "/" );
+            name = "";
+            try {
+                zipIndex = ZipIndex.of( zipRoot );
+            } catch ( final IOException ioE ) {
+                zipIndex = null;
+            }
         }
 
 
 
         // create new instance
-        final ZipPathNode zpn = new ZipPathNode( zipRoot, relPath, parentNode );
+        final ZipPathNode zpn = new ZipPathNode( zipRoot, name, parentNode, zipIndex );
         // init
-        zpn.init( path, relPath );
+        zpn.init( null == zipIndex ? null : zipIndex.get( name ).orElse( null ) );
         return zpn;
     }
 
@@ -118,26 +144,56 @@ public class ZipPathNode implements IPathNode {
     }
 
     /**
-     * Init this node.
+     * Name of entry in zip index.
      *
-     * @param zipPath path to zip file
-     * @param relPath relative path to this node
+     * @param relPath relative path
+     * @return name with {@code /} separator and without leading or trailing {@code /}
      */
-    private void init( final Path zipPath, final Path relPath ) {
+    static String entryName( final Path relPath ) {
+        String name = relPath.toString().replace( File.separatorChar, '/' );
+        while ( name.startsWith( "/" ) ) {
+            name = name.substring( 1 );
+        }
+        while ( name.endsWith( "/" ) ) {
+            name = name.substring( 0, name.length() - 1 );
+        }
+        return name;
+    }
 
+    /**
+     * Index entry of this node.
+     *
+     * @return entry or empty if not found in the index
+     */
+    public Optional<ZipIndexEntry> getEntry() {
+        return Optional.ofNullable( entry );
+    }
 
-        this.name = relPath.getFileName().toString();
+    /**
+     * Init this node.
+     *
+     * @param entry index entry of this node or null if not found
+     */
+    private void init( final ZipIndexEntry entry ) {
+
+        this.entry = entry;
+        // the root has no file name
+        if ( entryName.isEmpty() ) {
+            final Path fileName = zip.getFileName();
+            this.name = null == fileName ? "" : fileName.toString();
+        } else {
+            this.name = entryName.substring( entryName.lastIndexOf( '/' ) + 1 );
+        }
         this.desc = "";
-        try {
-            final BasicFileAttributes bfa = ZipUtils.readZipAttributes( zipPath, relPath );
-            this.dir = bfa.isDirectory();
+        if ( null != entry ) {
+            this.dir = entry.isDirectory();
             this.leaf = !dir;
-            this.length = bfa.size();
-            this.symlink = bfa.isSymbolicLink();
+            this.length = entry.getSize();
+            this.symlink = entry.isSymbolicLink();
             this.readable = true;
-            this.hidden = Files.isHidden(relPath);
+            this.hidden = name.startsWith( "." );
 
-        } catch ( final IOException ioE ) {
+        } else {
             this.dir = false;
             this.leaf = true;
             this.length = 0L;
@@ -207,17 +263,38 @@ public class ZipPathNode implements IPathNode {
 
         if ( !isCreatedSubNode() ) {
 
-            this.subNodeL = IOUtils.streamZip( getZipRoot(), getValue() )
-                    .stream()
-                    .filter( predicate )
-                    .sorted()
-                    .map( zipp -> of( zipp, ZipPathNode.this ) )
-                    .collect( toList() );
+            if ( null == index ) {
+                this.subNodeL = Collections.emptyList();
+            } else if ( IOUtils.PATH_ACCEPT_ALL == predicate ) {
+                this.subNodeL = createSubnodes( entry -> true );
+            } else {
+                // one file system for the whole listing, values of the nodes stay lazy
+                try ( final ZipUtils.ZipHandle zh = ZipUtils.acquire( zip ) ) {
+                    final FileSystem zfs = zh.getFileSystem();
+                    this.subNodeL = createSubnodes( entry -> predicate.test( zfs.getPath( "/" + entry.getName() ) ) );
+                } catch ( final IOException ioE ) {
+                    // zip file system not readable
+                    this.subNodeL = Collections.emptyList();
+                }
+            }
             this.subNodesCreated = true;
         }
         return subNodeL;
     }
 
+    private List<IPathNode> createSubnodes( final Predicate<ZipIndexEntry> filter ) {
+        return index.list( entryName )
+                .stream()
+                .filter( filter )
+                .sorted( Comparator.comparing( ZipIndexEntry::getName ) )
+                .map( child -> {
+                    final ZipPathNode zpn = new ZipPathNode( zip, child.getName(), this, index );
+                    zpn.init( child );
+                    return zpn;
+                } )
+                .collect( toList() );
+    }
+
     @Override
     public Optional<FileTime> getCreated() {
         return Optional.empty();
@@ -233,10 +310,23 @@ public class ZipPathNode implements IPathNode {
         return leaf;
     }
 
+    /**
+     * Path of this node in the zip file system.
+     *
+     * @return path
+     * @throws UncheckedIOException if the zip file system can not be opened
+     */
     @Override
     public Path getValue() {
 
-        return relPath;
+        if ( null == value ) {
+            try {
+                value = ZipUtils.pin( zip ).getPath( "/" + entryName );
+            } catch ( final IOException ioE ) {
+                throw new UncheckedIOException( ioE );
+            }
+        }
+        return value;
     }
 
 
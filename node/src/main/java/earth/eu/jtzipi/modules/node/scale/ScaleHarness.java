@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.node.scale;
+
+import earth.eu.jtzipi.modules.io.IOUtils;
+import earth.eu.jtzipi.modules.io.scale.SyntheticTree;
+import earth.eu.jtzipi.modules.io.task.TaskIO;
+import earth.eu.jtzipi.modules.node.path.IPathNode;
+import earth.eu.jtzipi.modules.node.path.RegularPathNode;
+import earth.eu.jtzipi.modules.utils.ChecksumUtils;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * End to end scale harness.
+ * <p>
+ * Runs crawl, node tree expansion, checksum and dedupe workloads against a (synthetic) tree
+ * and checks each against a wall time and peak heap budget.
+ * While a workload runs a JFR recording collects allocation and GC pause data.
+ * </p>
+ * <p>
+ * Usage
+ * <pre>
+ *     java ... ScaleHarness root=/dev/shm/scale fanOut=10 depth=5 files=20 wallMs=60000 heapMb=512
+ * </pre>
+ * If {@code generate=false} the existing tree below {@code root} is used.
+ * The process exits with 1 if any budget is exceeded.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ScaleHarness {
+
+    private static final Logger LOG = LoggerFactory.getLogger( "ScaleHarness" );
+
+    private final Path root;
+    private final Budget budget;
+
+    private ScaleHarness( final Path root, final Budget budget ) {
+        this.root = root;
+        this.budget = budget;
+    }
+
+    /**
+     * Create harness for a tree.
+     *
+     * @param root   root of tree
+     * @param budget budget for each workload
+     * @return harness
+     * @throws NullPointerException if {@code root} or {@code budget} is null
+     */
+    public static ScaleHarness of( final Path root, final Budget budget ) {
+        Objects.requireNonNull( root );
+        Objects.requireNonNull( budget );
+        return new ScaleHarness( root, budget );
+    }
+
+    /**
+     * Run all workloads.
+     *
+     * @param workloads workloads to run
+     * @return one report per workload
+     */
+    public List<Report> run( final Workload... workloads ) {
+        final List<Report> reportL = new ArrayList<>();
+        for ( final Workload wl : workloads ) {
+            reportL.add( run( wl ) );
+        }
+        return reportL;
+    }
+
+    /**
+     * Run one workload.
+     *
+     * @param workload workload
+     * @return report
+     */
+    public Report run( final Workload workload ) {
+        Objects.requireNonNull( workload );
+        LOG.info( "Run '" + workload + "' on '" + root + "'" );
+
+        System.gc();
+        final List<MemoryPoolMXBean> heapPoolL = ManagementFactory.getMemoryPoolMXBeans()
+                .stream()
+                .filter( pool -> pool.getType() == MemoryType.HEAP )
+                .collect( Collectors.toList() );
+        heapPoolL.forEach( MemoryPoolMXBean::resetPeakUsage );
+
+        long items = -1L;
+        Throwable error = null;
+        final long start;
+        final long end;
+        Path jfr = null;
+        try ( final Recording rec = new Recording() ) {
+            rec.enable( "jdk.GarbageCollection" );
+            // a TLAB event per new TLAB is far more overhead than the throttled sample event of JDK 16+
+            if ( hasEvent( "jdk.ObjectAllocationSample" ) ) {
+                rec.enable( "jdk.ObjectAllocationSample" ).withoutStackTrace();
+            } else {
+                rec.enable( "jdk.ObjectAllocationInNewTLAB" ).withoutStackTrace();
+                rec.enable( "jdk.ObjectAllocationOutsideTLAB" ).withoutStackTrace();
+            }
+            rec.start();
+            start = System.nanoTime();
+            try {
+                items = workload.run( root );
+            } catch ( final Exception e ) {
+                LOG.warn( "Workload '" + workload + "' failed", e );
+                error = e;
+            }
+            end = System.nanoTime();
+            rec.stop();
+            jfr = Files.createTempFile( "scale_" + workload, ".jfr" );
+            rec.dump( jfr );
+        } catch ( final IOException ioE ) {
+            throw new IllegalStateException( "Can not write JFR recording", ioE );
+        }
+
+        // sum of pool peaks is an upper bound since pools peak at different times
+        final long peakHeap = heapPoolL.stream().mapToLong( pool -> pool.getPeakUsage().getUsed() ).sum();
+        final Report report = new Report( workload, items, end - start, peakHeap, budget, error );
+        try {
+            report.readJfr( jfr );
+            Files.deleteIfExists( jfr );
+        } catch ( final IOException ioE ) {
+            LOG.warn( "Can not read JFR recording '" + jfr + "'", ioE );
+        }
+        LOG.info( report.toString() );
+        return report;
+    }
+
+    /**
+     * Start harness.
+     *
+     * @param args {@code key=value} pairs
+     * @throws IOException if tree generation failed
+     */
+    public static void main( final String[] args ) throws IOException {
+
+        final Map<String, String> argM = new HashMap<>();
+        for ( final String arg : args ) {
+            final int eq = arg.indexOf( '=' );
+            if ( eq > 0 ) {
+                argM.put( arg.substring( 0, eq ), arg.substring( eq + 1 ) );
+            }
+        }
+
+        final Path root = Paths.get( argM.getOrDefault( "root", System.getProperty( "java.io.tmpdir" ) + "/modules_scale" ) );
+        if ( Boolean.parseBoolean( argM.getOrDefault( "generate", "true" ) ) ) {
+            SyntheticTree.delete( root );
+            SyntheticTree.create()
+                    .fanOut( Integer.parseInt( argM.getOrDefault( "fanOut", "8" ) ) )
+                    .depth( Integer.parseInt( argM.getOrDefault( "depth", "4" ) ) )
+                    .filesPerDir( Integer.parseInt( argM.getOrDefault( "files", "16" ) ) )
+                    .fileSize( SyntheticTree.SizeDistribution.valueOf( argM.getOrDefault( "dist", "LOG_NORMAL" ) ),
+                            Long.parseLong( argM.getOrDefault( "meanSize", "16384" ) ),
+                            Long.parseLong( argM.getOrDefault( "maxSize", "67108864" ) ) )
+                    .symlinkRatio( Double.parseDouble( argM.getOrDefault( "links", "0.02" ) ) )
+                    .unreadableRatio( Double.parseDouble( argM.getOrDefault( "unreadable", "0.01" ) ) )
+                    .zipRatio( Double.parseDouble( argM.getOrDefault( "zips", "0.01" ) ) )
+                    .duplicateRatio( Double.parseDouble( argM.getOrDefault( "duplicates", "0.1" ) ) )
+                    .seed( Long.parseLong( argM.getOrDefault( "seed", String.valueOf( SyntheticTree.DEFAULT_SEED ) ) ) )
+                    .generate( root );
+        }
+
+        final Budget budget = Budget.of( Duration.ofMillis( Long.parseLong( argM.getOrDefault( "wallMs", "600000" ) ) ),
+                Long.parseLong( argM.getOrDefault( "heapMb", "1024" ) ) * 1024L * 1024L );
+
+        final Workload[] wls = argM.containsKey( "workloads" )
+                ? Stream.of( argM.get( "workloads" ).split( "," ) ).map( Workload::valueOf ).toArray( Workload[]::new )
+                : Workload.values();
+
+        final List<Report> reportL = of( root, budget ).run( wls );
+        reportL.forEach( System.out::println );
+
+        if ( Boolean.parseBoolean( argM.getOrDefault( "cleanup", "false" ) ) ) {
+            SyntheticTree.delete( root );
+        }
+        // exit code tells whether all workloads kept their budget
+        System.exit( reportL.stream().allMatch( Report::isWithinBudget ) ? 0 : 1 );
+    }
+
+    private static boolean hasEvent( final String name ) {
+        return FlightRecorder.getFlightRecorder().getEventTypes().stream().anyMatch( type -> name.equals( type.getName() ) );
+    }
+
+    // visit all regular files below root not following links, without collecting their paths
+    private static void forEachFile( final Path root, final FileAction action ) throws IOException {
+        Files.walkFileTree( root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile( final Path file, final BasicFileAttributes attrs ) throws IOException {
+                if ( attrs.isRegularFile() ) {
+                    action.accept( file, attrs );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed( final Path file, final IOException ioE ) {
+                LOG.debug( "Skip '" + file + "'", ioE );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    private static long expand( final IPathNode node ) {
+        long cnt = 1L;
+        if ( node.isLeaf() ) {
+            return cnt;
+        }
+        final List<IPathNode> subL = node.getSubnodes();
+        if ( null == subL ) {
+            return cnt;
+        }
+        for ( final IPathNode sub : subL ) {
+            // do not follow linked dirs to avoid cycles
+            cnt += sub.isLink() ? 1L : expand( sub );
+        }
+        return cnt;
+    }
+
+    /**
+     * Workload.
+     */
+    public enum Workload {
+        /**
+         * Crawl all dirs in parallel and count matches.
+         */
+        CRAWL {
+            @Override
+            long run( final Path root ) throws Exception {
+                // one task per top level dir plus the files of root itself
+                final List<Path> rootL = IOUtils.getSubDirsOf( root );
+                long cnt = IOUtils.lookupDir( root, Files::isRegularFile ).size();
+                for ( final Future<List<Path>> f : TaskIO.searchAsFuture( rootL, p -> true, null ).values() ) {
+                    if ( null != f ) {
+                        cnt += f.get().size();
+                    }
+                }
+                return cnt;
+            }
+        },
+        /**
+         * Expand the node tree completely.
+         */
+        NODE_EXPAND {
+            @Override
+            long run( final Path root ) {
+                return expand( RegularPathNode.of( root, null ) );
+            }
+        },
+        /**
+         * Hash every regular file.
+         */
+        CHECKSUM {
+            @Override
+            long run( final Path root ) throws IOException {
+                final AtomicLong cnt = new AtomicLong();
+                forEachFile( root, ( file, attrs ) -> {
+                    if ( Files.isReadable( file ) ) {
+                        ChecksumUtils.calcHash( file, null );
+                        cnt.incrementAndGet();
+                    }
+                } );
+                return cnt.get();
+            }
+        },
+        /**
+         * Find duplicates by grouping size then hash.
+         */
+        DEDUPE {
+            @Override
+            long run( final Path root ) throws IOException {
+                final Map<Long, List<Path>> sizeM = new HashMap<>();
+                forEachFile( root, ( file, attrs ) -> sizeM.computeIfAbsent( attrs.size(), s -> new ArrayList<>() ).add( file ) );
+                long dupes = 0L;
+                for ( final List<Path> sameSizeL : sizeM.values() ) {
+                    if ( sameSizeL.size() < 2 ) {
+                        continue;
+                    }
+                    final Set<String> hashS = new HashSet<>();
+                    for ( final Path file : sameSizeL ) {
+                        if ( Files.isReadable( file ) && !hashS.add( ChecksumUtils.calcHash( file, null ) ) ) {
+                            dupes++;
+                        }
+                    }
+                }
+                return dupes;
+            }
+        };
+
+        abstract long run( Path root ) throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface FileAction {
+
+        void accept( Path file, BasicFileAttributes attrs ) throws IOException;
+    }
+
+    /**
+     * Wall time and peak heap budget.
+     */
+    public static final class Budget {
+
+        private final Duration wall;
+        private final long peakHeap;
+
+        private Budget( final Duration wall, final long peakHeap ) {
+            this.wall = wall;
+            this.peakHeap = peakHeap;
+        }
+
+        /**
+         * Create budget.
+         *
+         * @param wall     max wall time
+         * @param peakHeap max peak heap in byte
+         * @return budget
+         * @throws NullPointerException if {@code wall} is null
+         */
+        public static Budget of( final Duration wall, final long peakHeap ) {
+            Objects.requireNonNull( wall );
+            return new Budget( wall, peakHeap );
+        }
+
+        public Duration getWall() {
+            return wall;
+        }
+
+        public long getPeakHeap() {
+            return peakHeap;
+        }
+    }
+
+    /**
+     * Result of one workload.
+     */
+    public static final class Report {
+
+        private final Workload workload;
+        private final long items;
+        private final long wallNanos;
+        private final long peakHeap;
+        private final Budget budget;
+        private final Throwable error;
+        private long allocatedBytes;
+        private long gcCount;
+        private long gcPauseNanos;
+        private long gcMaxPauseNanos;
+
+        Report( final Workload workload, final long items, final long wallNanos, final long peakHeap, final Budget budget, final Throwable error ) {
+            this.workload = workload;
+            this.items = items;
+            this.wallNanos = wallNanos;
+            this.peakHeap = peakHeap;
+            this.budget = budget;
+            this.error = error;
+        }
+
+        private void readJfr( final Path jfr ) throws IOException {
+            long sampled = 0L;
+            long tlab = 0L;
+            try ( final RecordingFile rf = new RecordingFile( jfr ) ) {
+                while ( rf.hasMoreEvents() ) {
+                    final RecordedEvent ev = rf.readEvent();
+                    switch ( ev.getEventType().getName() ) {
+                    case "jdk.GarbageCollection":
+                        gcCount++;
+                        final long pause = ev.getDuration( "sumOfPauses" ).toNanos();
+                        gcPauseNanos += pause;
+                        gcMaxPauseNanos = Math.max( gcMaxPauseNanos, ev.getDuration( "longestPause" ).toNanos() );
+                        break;
+                    case "jdk.ObjectAllocationSample":
+                        sampled += ev.getLong( "weight" );
+                        break;
+                    case "jdk.ObjectAllocationInNewTLAB":
+                        tlab += ev.getLong( "tlabSize" );
+                        break;
+                    case "jdk.ObjectAllocationOutsideTLAB":
+                        tlab += ev.getLong( "allocationSize" );
+                        break;
+                    default:
+                    }
+                }
+            }
+            // only one of both was recorded
+            this.allocatedBytes = sampled > 0L ? sampled : tlab;
+        }
+
+        public Workload getWorkload() {
+            return workload;
+        }
+
+        public long getItems() {
+            return items;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getPeakHeap() {
+            return peakHeap;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * Allocation rate.
+         *
+         * @return byte per second
+         */
+        public double getAllocationRate() {
+            return 0L == wallNanos ? 0D : allocatedBytes * 1E9D / wallNanos;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        public long getGcPauseNanos() {
+            return gcPauseNanos;
+        }
+
+        public long getGcMaxPauseNanos() {
+            return gcMaxPauseNanos;
+        }
+
+        public Optional<Throwable> getError() {
+            return Optional.ofNullable( error );
+        }
+
+        /**
+         * Return whether workload finished without error in budget.
+         *
+         * @return {@code true} if in budget
+         */
+        public boolean isWithinBudget() {
+            return null == error
+                    && wallNanos <= budget.getWall().toNanos()
+                    && peakHeap <= budget.getPeakHeap();
+        }
+
+        @Override
+        public String toString() {
+            return String.format( "%-12s %s items=%d wall=%dms peakHeap=%dMiB alloc=%.1fMiB/s gc=%d pause=%dms maxPause=%dms%s",
+                    workload,
+                    isWithinBudget() ? "OK  " : "FAIL",
+                    items,
+                    TimeUnit.NANOSECONDS.toMillis( wallNanos ),
+                    peakHeap >> 20,
+                    getAllocationRate() / ( 1 << 20 ),
+                    gcCount,
+                    TimeUnit.NANOSECONDS.toMillis( gcPauseNanos ),
+                    TimeUnit.NANOSECONDS.toMillis( gcMaxPauseNanos ),
+                    null == error ? "" : " error=" + error );
+        }
+    }
+}
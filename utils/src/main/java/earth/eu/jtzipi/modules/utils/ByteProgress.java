@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Throttled byte level progress for one thread.
+ * <p>
+ * Bytes are counted with {@link #advance(long)}; the updater is called with bytes,
+ * throughput and eta at most once per interval and always on {@link #finish()}.
+ * Between calls the last action of the updater is returned so that loops can react to
+ * {@link ITaskProgressUpdater.TaskAction#SKIP} or {@link ITaskProgressUpdater.TaskAction#BREAK} promptly.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ByteProgress {
+
+    /**
+     * Default update interval.
+     */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis( 100L );
+
+    private final ITaskProgressUpdater updater;
+    private final long total;
+    private final long intervalNanos;
+    private final long start;
+    private long done;
+    private long next;
+    private ITaskProgressUpdater.TaskAction action = ITaskProgressUpdater.TaskAction.ON;
+
+    private ByteProgress( final ITaskProgressUpdater updater, final long total, final long intervalNanos, final long done ) {
+        this.updater = updater;
+        this.total = total;
+        this.intervalNanos = intervalNanos;
+        this.start = System.nanoTime();
+        this.done = done;
+        this.next = start;
+    }
+
+    /**
+     * Create progress with {@link #DEFAULT_INTERVAL}.
+     *
+     * @param updater updater
+     * @param total   bytes total
+     * @return progress
+     * @throws NullPointerException if {@code updater} is null
+     */
+    public static ByteProgress of( final ITaskProgressUpdater updater, final long total ) {
+        return of( updater, total, DEFAULT_INTERVAL );
+    }
+
+    /**
+     * Create progress.
+     *
+     * @param updater  updater
+     * @param total    bytes total
+     * @param interval min time between updates
+     * @return progress
+     * @throws NullPointerException     if {@code updater} or {@code interval} is null
+     * @throws IllegalArgumentException if {@code interval} is negative
+     */
+    public static ByteProgress of( final ITaskProgressUpdater updater, final long total, final Duration interval ) {
+        Objects.requireNonNull( updater );
+        if ( interval.isNegative() ) {
+            throw new IllegalArgumentException( "Interval[=" + interval + "] < 0" );
+        }
+        return new ByteProgress( updater, total, interval.toNanos(), 0L );
+    }
+
+    /**
+     * Count bytes and update if interval elapsed.
+     *
+     * @param bytes bytes done since last call
+     * @return last action of updater
+     */
+    public ITaskProgressUpdater.TaskAction advance( final long bytes ) {
+        done += bytes;
+        final long now = System.nanoTime();
+        if ( now - next >= 0L ) {
+            next = now + intervalNanos;
+            publish( now );
+        }
+        return action;
+    }
+
+    /**
+     * Update now regardless of interval.
+     *
+     * @return action of updater
+     */
+    public ITaskProgressUpdater.TaskAction finish() {
+        publish( System.nanoTime() );
+        return action;
+    }
+
+    /**
+     * Report error to updater.
+     *
+     * @param throwable error
+     * @return action of updater
+     */
+    public ITaskProgressUpdater.TaskAction error( final Throwable throwable ) {
+        action = updater.error( done, throwable );
+        return action;
+    }
+
+    /**
+     * Bytes done.
+     *
+     * @return bytes
+     */
+    public long getDone() {
+        return done;
+    }
+
+    /**
+     * Bytes total.
+     *
+     * @return bytes
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Average throughput since creation.
+     *
+     * @return bytes per second
+     */
+    public double getBytesPerSecond() {
+        final long nanos = System.nanoTime() - start;
+        return nanos <= 0L ? 0D : done * 1E9D / nanos;
+    }
+
+    private void publish( final long now ) {
+        final long nanos = now - start;
+        final double rate = nanos <= 0L ? 0D : done * 1E9D / nanos;
+        final Duration eta = rate <= 0D || done >= total ? Duration.ZERO : Duration.ofNanos( ( long ) ( ( total - done ) / rate * 1E9D ) );
+        final ITaskProgressUpdater.TaskAction ta = updater.update( done, total, rate, eta );
+        action = null == ta ? ITaskProgressUpdater.TaskAction.ON : ta;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils;
+
+/**
+ * Immutable byte range.
+ *
+ * @author jTzipi
+ */
+public final class ByteRange implements IRange {
+
+    private final long offset;
+    private final long length;
+
+    private ByteRange( final long offset, final long length ) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Create range.
+     *
+     * @param offset start
+     * @param length length
+     * @return range
+     * @throws IllegalArgumentException if {@code offset} or {@code length} &lt; 0 or end overflows
+     */
+    public static ByteRange of( final long offset, final long length ) {
+        if ( offset < 0L || length < 0L || offset + length < 0L ) {
+            throw new IllegalArgumentException( "Range[offset=" + offset + ", length=" + length + "] invalid" );
+        }
+        return new ByteRange( offset, length );
+    }
+
+    /**
+     * Create range from start and end.
+     *
+     * @param offset start
+     * @param end    end exclusive
+     * @return range
+     * @throws IllegalArgumentException if {@code end < offset} or {@code offset} &lt; 0
+     */
+    public static ByteRange ofEnd( final long offset, final long end ) {
+        return of( offset, end - offset );
+    }
+
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+        if ( this == o ) {
+            return true;
+        }
+        if ( !( o instanceof ByteRange ) ) {
+            return false;
+        }
+        final ByteRange that = ( ByteRange ) o;
+        return offset == that.offset && length == that.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode( offset ) + Long.hashCode( length );
+    }
+
+    @Override
+    public String toString() {
+        return "[" + offset + ", " + getEnd() + ")";
+    }
+}
@@ -16,22 +16,39 @@
 
 package earth.eu.jtzipi.modules.utils;
 
+import earth.eu.jtzipi.modules.utils.exec.DeviceThrottle;
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import earth.eu.jtzipi.modules.utils.hash.ChecksumCache;
+import earth.eu.jtzipi.modules.utils.hash.DigestPool;
+import earth.eu.jtzipi.modules.utils.hash.FingerprintProvider;
+import earth.eu.jtzipi.modules.utils.hash.HashAbortedException;
+import earth.eu.jtzipi.modules.utils.hash.HashEngine;
+import earth.eu.jtzipi.modules.utils.hash.IncrementalHash;
+import earth.eu.jtzipi.modules.utils.hash.MultiDigest;
+import earth.eu.jtzipi.modules.utils.hash.TreeDigest;
+import earth.eu.jtzipi.modules.utils.hash.TreeHash;
+import earth.eu.jtzipi.modules.utils.jfr.FileHashEvent;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.ITimer;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.codec.digest.MessageDigestAlgorithms;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.AccessControlException;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 /**
  * Utils for calc checksum or md.
@@ -48,9 +65,19 @@ public final class ChecksumUtils {
      * Large file size.
      */
     public static final long SIZE_FILE_LARGE = 12_000_000L;
+    /**
+     * Property for the file of the persistent checksum cache.
+     */
+    public static final String PROP_CACHE = "earth.eu.jtzipi.modules.checksum.cache";
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger( "ChecksumUtils" );
-    private static final int BUFFER_SIZE_1024 = 1024;
-    private static final int BUFFER_SIZE_LARGE = 1_024_000;
+    private static final ICounter HASH_FILES = Metrics.counter( "hash.files" );
+    private static final ICounter HASH_BYTES = Metrics.counter( "hash.bytes" );
+    private static final ITimer HASH_TIMER = Metrics.timer( "hash.file" );
+    private static volatile ChecksumCache cache = initCache();
+
+    static {
+        FingerprintProvider.install();
+    }
 
 
     private ChecksumUtils() {
@@ -58,157 +85,363 @@ public final class ChecksumUtils {
         throw new AccessControlException( "" );
     }
 
+    /**
+     * Return message digest for algorithm.
+     * <p>
+     * Besides the JDK algorithms the fingerprints {@link FingerprintProvider#XXH64} and
+     * {@link FingerprintProvider#CRC32C} are available. Prefer them for change detection
+     * and dedupe pre-filtering where no cryptographic strength is needed.
+     * </p>
+     *
+     * @param algorithm algorithm name
+     * @return new digest
+     * @throws NullPointerException     if {@code algorithm} is null
+     * @throws IllegalArgumentException if {@code algorithm} is unknown
+     */
+    public static MessageDigest getDigest( final String algorithm ) {
+        Objects.requireNonNull( algorithm );
+        return DigestUtils.getDigest( algorithm );
+    }
+
     /**
      * Calculate digest of path.
      * <p>
-     * This should work for large files since we use a random access file.
+     * This should work for large files since we stream through a pooled direct buffer.
      *
      * @param path          path [not null , must be a file]
-     * @param messageDigest digest
+     * @param messageDigest digest (optional, default is a pooled SHA-256)
      * @return hex hash code
      * @throws IOException              I/O or {@code path} is not readable
      * @throws NullPointerException     if {@code path} is null
      * @throws IllegalArgumentException if path is dir
      */
-    public static String calcHash( final Path path, MessageDigest messageDigest ) throws IOException {
+    public static String calcHash( final Path path, final MessageDigest messageDigest ) throws IOException {
+        return calcHashCommonCodec( path, messageDigest );
+    }
 
-        Objects.requireNonNull( path );
-        if ( null == messageDigest ) {
+    /**
+     * Try to compute hash value of a file.
+     *
+     * @param path path to file . Should be no dir
+     * @param md   message digest (optional, default is a pooled SHA-256)
+     * @return hex hash
+     * @throws IOException              if {@code path} is not readable or reading failed
+     * @throws NullPointerException     if {@code path} is null
+     * @throws IllegalArgumentException if {@code path} is not a file
+     */
+    public static String calcHashCommonCodec( final Path path, final MessageDigest md ) throws IOException {
+        return hash( path, md, null, null );
+    }
 
-            messageDigest = DigestUtils.getSha256Digest();
-        }
+    /**
+     * Calculate digest of path reporting byte level progress every {@link ByteProgress#DEFAULT_INTERVAL}.
+     *
+     * @param path            path to file
+     * @param messageDigest   digest (optional, default is a pooled SHA-256)
+     * @param progressUpdater updater for bytes, throughput and eta
+     * @return hex hash
+     * @throws HashAbortedException     if the updater answered SKIP or BREAK
+     * @throws IOException              if {@code path} is not readable or reading failed
+     * @throws NullPointerException     if {@code path} or {@code progressUpdater} is null
+     * @throws IllegalArgumentException if {@code path} is a dir
+     */
+    public static String calcHash( final Path path, final MessageDigest messageDigest, final ITaskProgressUpdater progressUpdater ) throws IOException {
+        return calcHash( path, messageDigest, progressUpdater, ByteProgress.DEFAULT_INTERVAL );
+    }
+
+    /**
+     * Calculate digest of path reporting byte level progress.
+     * <p>
+     * The updater is called at most once per {@code interval} from the hashing loop and once at the end.
+     * If it answers {@link ITaskProgressUpdater.TaskAction#SKIP} or {@link ITaskProgressUpdater.TaskAction#BREAK}
+     * hashing stops with {@link HashAbortedException} before the next buffer is read.
+     * </p>
+     *
+     * @param path            path to file
+     * @param messageDigest   digest (optional, default is a pooled SHA-256)
+     * @param progressUpdater updater for bytes, throughput and eta
+     * @param interval        min time between updates
+     * @return hex hash
+     * @throws HashAbortedException     if the updater answered SKIP or BREAK
+     * @throws IOException              if {@code path} is not readable or reading failed
+     * @throws NullPointerException     if {@code path}, {@code progressUpdater} or {@code interval} is null
+     * @throws IllegalArgumentException if {@code path} is a dir
+     */
+    public static String calcHash( final Path path, final MessageDigest messageDigest, final ITaskProgressUpdater progressUpdater, final Duration interval ) throws IOException {
+        Objects.requireNonNull( progressUpdater );
+        Objects.requireNonNull( interval );
+        return hash( path, messageDigest, progressUpdater, interval );
+    }
 
+    /**
+     * Compute parallel tree hash of a large file with default chunk size.
+     *
+     * @param path path to file
+     * @return tree digest
+     * @throws IOException              if {@code path} is not readable or reading failed
+     * @throws NullPointerException     if {@code path} is null
+     * @throws IllegalArgumentException if {@code path} is a dir
+     * @see TreeHash
+     */
+    public static TreeDigest calcTreeHash( final Path path ) throws IOException {
+        return calcTreeHash( path, TreeHash.DEFAULT_CHUNK_SIZE );
+    }
+
+    /**
+     * Compute parallel tree hash of a large file.
+     * <p>
+     * Chunks are hashed on the {@link earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry#CHECKSUM} pool.
+     * The result differs from a plain SHA-256 of the file, see {@link TreeHash} for the format.
+     * </p>
+     *
+     * @param path      path to file
+     * @param chunkSize chunk size in bytes
+     * @return tree digest
+     * @throws IOException              if {@code path} is not readable or reading failed
+     * @throws NullPointerException     if {@code path} is null
+     * @throws IllegalArgumentException if {@code path} is a dir or {@code chunkSize} too small
+     */
+    @SuppressWarnings("try")
+    public static TreeDigest calcTreeHash( final Path path, final int chunkSize ) throws IOException {
+        Objects.requireNonNull( path );
         if ( Files.isDirectory( path ) ) {
             throw new IllegalArgumentException( "Path '" + path + "' seem to be a dir" );
         }
         if ( !Files.isReadable( path ) ) {
             throw new IOException( "File '" + path + "' is not readable" );
         }
-
-        final long fileSize = Files.size( path );
-
-
-        /*final byte[] hash = fileSize <= SIZE_FILE_SMALL
-                ? hashSmall( path, messageDigest )
-                :  fileSize > SIZE_FILE_LARGE
-                ? hashLarge( path, messageDigest )
-                : hash( path, messageDigest );*/
-        // return Hex.encodeHexString( hash );
-        return calcHashCommonCodec( path, messageDigest );
+        final TreeHash treeHash = TreeHash.of( chunkSize );
+        final String algo = TreeDigest.PREFIX + ":" + chunkSize;
+        final ChecksumCache cc = cache;
+        final BasicFileAttributes attrs = null == cc ? null : Files.readAttributes( path, BasicFileAttributes.class );
+        if ( null != cc ) {
+            final Optional<String> hit = cc.get( path, attrs, algo );
+            if ( hit.isPresent() ) {
+                return TreeDigest.parse( algo + ":" + hit.get() );
+            }
+        }
+        final FileHashEvent event = new FileHashEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        final TreeDigest digest;
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( path ) ) {
+            digest = treeHash.digest( path );
+        }
+        record( event, path, TreeDigest.PREFIX, System.nanoTime() - start );
+        store( cc, path, attrs, algo, digest.getRootHex() );
+        return digest;
     }
 
     /**
-     * Try to compute hash value of a file.
+     * Compute SHA-256 of a growing file hashing only the bytes appended since the last call.
+     * <p>
+     * The digest state is stored in {@code stateDir}. Whether the stored prefix is still valid is decided
+     * by a heuristic: the file must not have shrunk, its first and last 4 KiB of the prefix must be unchanged
+     * and, if its length is unchanged, its modification time too. Otherwise it is hashed completely.
+     * An edit between head and tail of the prefix together with an append is not detected and returns a stale hash;
+     * use {@link #calcHash(Path, MessageDigest)} where that matters.
+     * </p>
      *
-     * @param path path to file . Should be no dir
-     * @param md   message digest
-     * @return
-     * @throws IOException
-     * @throws NullPointerException     if {@code path} is null
-     * @throws IllegalArgumentException if {@code path} is not a file
+     * @param path     path to file
+     * @param stateDir directory for digest state
+     * @return hex SHA-256
+     * @throws IOException              if {@code path} is not readable or reading failed
+     * @throws NullPointerException     if {@code path} or {@code stateDir} is null
+     * @throws IllegalArgumentException if {@code path} is a dir
+     * @see IncrementalHash
      */
-    public static String calcHashCommonCodec( final Path path, MessageDigest md ) throws IOException {
-
+    @SuppressWarnings("try")
+    public static String calcHashIncremental( final Path path, final Path stateDir ) throws IOException {
         Objects.requireNonNull( path );
-        if ( null == md ) {
-
-            md = DigestUtils.getSha256Digest();
-        }
+        Objects.requireNonNull( stateDir );
         if ( Files.isDirectory( path ) ) {
             throw new IllegalArgumentException( "Path '" + path + "' seem to be a dir" );
         }
         if ( !Files.isReadable( path ) ) {
             throw new IOException( "File '" + path + "' is not readable" );
         }
-        byte[] hash = DigestUtils.digest( md, path.toFile() );
-        return Hex.encodeHexString( hash );
-    }
-
-    private static byte[] hashSmall( final Path file, final MessageDigest md ) throws IOException {
-
-
-        final byte[] fbyte = Files.readAllBytes( file );
-
-        return md.digest( fbyte );
-
+        final IncrementalHash incHash = IncrementalHash.of( stateDir );
+        final FileHashEvent event = new FileHashEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        final String hex;
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( path ) ) {
+            hex = incHash.digestHex( path );
+        }
+        record( event, path, "SHA-256+incremental", System.nanoTime() - start );
+        return hex;
     }
 
-    private static byte[] streamHashFile( final File file, int bufSize, MessageDigest md ) throws IOException {
-
-        byte[] buf = new byte[bufSize];
-        try ( DigestInputStream dis = new DigestInputStream( new FileInputStream( file ), md ) ) {
-
-            for ( int read = dis.read( buf, 0, bufSize ); read > -1; read = dis.read( buf, 0, bufSize ) ) {
-                // here we don't need anything
+    /**
+     * Compute several digests of a file reading it only once.
+     * <p>
+     * Files larger than {@link #SIZE_FILE_LARGE} feed each digest on its own worker of the
+     * {@link earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry#CHECKSUM} pool.
+     * </p>
+     *
+     * @param path       path to file
+     * @param algorithms digest algorithm names like {@code MD5}, {@code SHA-1}, {@code SHA-256}
+     * @return map of algorithm to hex hash in order of {@code algorithms}
+     * @throws IOException              if {@code path} is not readable or reading failed
+     * @throws NullPointerException     if {@code path} or {@code algorithms} is null
+     * @throws IllegalArgumentException if {@code path} is a dir or an algorithm is unknown
+     * @see MultiDigest
+     */
+    @SuppressWarnings("try")
+    public static Map<String, String> calcHashes( final Path path, final String... algorithms ) throws IOException {
+        Objects.requireNonNull( path );
+        MultiDigest multi = MultiDigest.of( algorithms );
+        if ( Files.isDirectory( path ) ) {
+            throw new IllegalArgumentException( "Path '" + path + "' seem to be a dir" );
+        }
+        if ( !Files.isReadable( path ) ) {
+            throw new IOException( "File '" + path + "' is not readable" );
+        }
+        final ChecksumCache cc = cache;
+        final BasicFileAttributes attrs = Files.readAttributes( path, BasicFileAttributes.class );
+        if ( null != cc ) {
+            final Map<String, String> hitM = new LinkedHashMap<>();
+            for ( final String algo : multi.getAlgorithms() ) {
+                cc.get( path, attrs, algo ).ifPresent( hex -> hitM.put( algo, hex ) );
             }
-
-            md = dis.getMessageDigest();
-            return md.digest();
+            if ( hitM.size() == multi.getAlgorithms().size() ) {
+                return hitM;
+            }
+        }
+        if ( attrs.size() > SIZE_FILE_LARGE ) {
+            multi = multi.parallel( ExecutorRegistry.get( ExecutorRegistry.CHECKSUM ) );
         }
+        final FileHashEvent event = new FileHashEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        final Map<String, byte[]> hashM;
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( path ) ) {
+            hashM = multi.digest( path );
+        }
+        record( event, path, String.join( "+", multi.getAlgorithms() ), System.nanoTime() - start );
+        final Map<String, String> hexM = new LinkedHashMap<>();
+        for ( final Map.Entry<String, byte[]> me : hashM.entrySet() ) {
+            final String hex = Hex.encodeHexString( me.getValue() );
+            hexM.put( me.getKey(), hex );
+            store( cc, path, attrs, me.getKey(), hex );
+        }
+        return hexM;
     }
 
-    private static byte[] hashFile( final File file, final MessageDigest md ) {
-
-        final ByteBuffer byteBuffer = ByteBuffer.allocate( 1_000_000 );
-        byte[] digest;
-        try ( final RandomAccessFile raf = new RandomAccessFile( file, "r" ); final FileChannel fch = raf.getChannel() ) {
-            while ( fch.read( byteBuffer ) > 0 ) {
-                md.update( byteBuffer );
-                byteBuffer.clear();
+    @SuppressWarnings("try")
+    private static String hash( final Path path, final MessageDigest md, final ITaskProgressUpdater updater, final Duration interval ) throws IOException {
+        Objects.requireNonNull( path );
+        if ( Files.isDirectory( path ) ) {
+            throw new IllegalArgumentException( "Path '" + path + "' seem to be a dir" );
+        }
+        if ( !Files.isReadable( path ) ) {
+            throw new IOException( "File '" + path + "' is not readable" );
+        }
+        final String algo = null == md ? MessageDigestAlgorithms.SHA_256 : md.getAlgorithm();
+        final ChecksumCache cc = cache;
+        final BasicFileAttributes attrs = null == cc ? null : Files.readAttributes( path, BasicFileAttributes.class );
+        if ( null != cc ) {
+            final Optional<String> hit = cc.get( path, attrs, algo );
+            if ( hit.isPresent() ) {
+                if ( null != updater ) {
+                    updater.update( attrs.size(), attrs.size(), 0D, Duration.ZERO );
+                }
+                return hit.get();
             }
-            digest = md.digest();
-            return digest;
-        } catch ( final IOException ioE ) {
-            LOG.error( "Can not calculate hash", ioE );
-
-            digest = new byte[0];
         }
-
-        return digest;
+        final FileHashEvent event = new FileHashEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        final byte[] hash;
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( path ) ) {
+            if ( null == updater ) {
+                hash = null == md ? HashEngine.digest( path, algo ) : digest( path, md, null );
+            } else {
+                final ByteProgress progress = ByteProgress.of( updater, Files.size( path ), interval );
+                hash = null == md ? pooled( path, algo, progress ) : digest( path, md, progress );
+                progress.finish();
+            }
+        }
+        record( event, path, algo, System.nanoTime() - start );
+        final String hex = Hex.encodeHexString( hash );
+        store( cc, path, attrs, algo, hex );
+        return hex;
     }
 
-    private static byte[] hashLarge( final Path file, final MessageDigest md ) throws IOException {
-
-        final long size = Files.size( file );
-
-        final ByteBuffer buf = ByteBuffer.allocate( BUFFER_SIZE_LARGE );
-
-        try ( final RandomAccessFile raf = new RandomAccessFile( file.toFile(), "r" );
-              final FileChannel ch = raf.getChannel() ) {
-
+    private static byte[] digest( final Path path, final MessageDigest md, final ByteProgress progress ) throws IOException {
+        HashEngine.update( path, md, progress );
+        return md.digest();
+    }
 
-            // read the first 'BUFFER_SIZE_LARGE' bytes
-            ch.read( buf );
-            // update md
-            md.update( buf );
-            // reset buffer
-            buf.clear();
-            // move file pointer
-            ch.position( size - BUFFER_SIZE_LARGE );
-            // read last byte
-            ch.read( buf );
-            md.update( buf );
+    private static byte[] pooled( final Path path, final String algo, final ByteProgress progress ) throws IOException {
+        final DigestPool pool = DigestPool.of( algo );
+        final MessageDigest md = pool.acquire();
+        try {
+            return digest( path, md, progress );
+        } finally {
+            pool.release( md );
         }
+    }
 
-        return md.digest();
+    /**
+     * Set persistent cache consulted before hashing.
+     * <p>
+     * Initially the cache is opened from system property {@value #PROP_CACHE} if set.
+     * </p>
+     *
+     * @param checksumCache cache or null to disable
+     */
+    public static void setCache( final ChecksumCache checksumCache ) {
+        cache = checksumCache;
     }
 
-    private static byte[] hash( final Path file, final MessageDigest messageDigest ) throws IOException {
-        // close random acc file close file also close file ch.
-        try ( final RandomAccessFile rand = new RandomAccessFile( file.toFile(), "r" ); final FileChannel fileChannel = rand.getChannel() ) {
+    /**
+     * Return persistent cache.
+     *
+     * @return cache or null
+     */
+    public static ChecksumCache getCache() {
+        return cache;
+    }
 
-            final ByteBuffer byteBuffer = ByteBuffer.allocate( BUFFER_SIZE_LARGE );
+    private static ChecksumCache initCache() {
+        final String file = System.getProperty( PROP_CACHE );
+        if ( null == file || file.isBlank() ) {
+            return null;
+        }
+        try {
+            return ChecksumCache.open( Paths.get( file ) );
+        } catch ( final IOException | InvalidPathException e ) {
+            LOG.warn( "Can not open checksum cache '" + file + "'", e );
+            return null;
+        }
+    }
 
+    private static void store( final ChecksumCache cc, final Path path, final BasicFileAttributes attrs, final String algo, final String hex ) {
+        if ( null == cc ) {
+            return;
+        }
+        try {
+            cc.put( path, attrs, algo, hex );
+        } catch ( final IOException ioE ) {
+            LOG.warn( "Can not cache hash of '" + path + "'", ioE );
+        }
+    }
 
-            while ( fileChannel.read( byteBuffer ) > 0 ) {
-                messageDigest.update( byteBuffer );
-                byteBuffer.clear();
+    private static void record( final FileHashEvent event, final Path path, final String algorithm, final long nanos ) throws IOException {
+        HASH_TIMER.record( nanos );
+        HASH_FILES.inc();
+        final boolean commit = event.shouldCommit();
+        if ( commit || Metrics.isEnabled() ) {
+            final long bytes = Files.size( path );
+            HASH_BYTES.add( bytes );
+            if ( commit ) {
+                event.path = path.toString();
+                event.bytes = bytes;
+                event.algorithm = algorithm;
+                event.mbPerSecond = 0L == nanos ? 0D : bytes * 1E3D / nanos;
+                event.commit();
             }
-
-            // byte[] digest =
-
         }
-
-        return messageDigest.digest();
     }
 }
@@ -16,5 +16,53 @@
 
 package earth.eu.jtzipi.modules.utils;
 
+/**
+ * Range of bytes {@code [offset, offset + length)}.
+ *
+ * @author jTzipi
+ */
 public interface IRange {
+
+    /**
+     * Start of range.
+     *
+     * @return offset &ge; 0
+     */
+    long getOffset();
+
+    /**
+     * Length of range.
+     *
+     * @return length &ge; 0
+     */
+    long getLength();
+
+    /**
+     * End of range exclusive.
+     *
+     * @return offset + length
+     */
+    default long getEnd() {
+        return getOffset() + getLength();
+    }
+
+    /**
+     * Return whether position is in range.
+     *
+     * @param pos position
+     * @return {@code true} if {@code offset <= pos < end}
+     */
+    default boolean contains( final long pos ) {
+        return pos >= getOffset() && pos < getEnd();
+    }
+
+    /**
+     * Return whether ranges share at least one byte.
+     *
+     * @param other other range
+     * @return {@code true} if overlapping
+     */
+    default boolean overlaps( final IRange other ) {
+        return getOffset() < other.getEnd() && other.getOffset() < getEnd();
+    }
 }
@@ -16,6 +16,8 @@
 
 package earth.eu.jtzipi.modules.utils;
 
+import java.time.Duration;
+
 public interface ITaskProgressUpdater {
 
 
@@ -23,6 +25,22 @@ public interface ITaskProgressUpdater {
 
     TaskAction error( long val, Throwable throwable );
 
+    /**
+     * Update progress with throughput.
+     * <p>
+     * Called by byte level progress like {@link ByteProgress}. Default ignores rate and eta.
+     * </p>
+     *
+     * @param val            bytes done
+     * @param max            bytes total
+     * @param bytesPerSecond average throughput since start
+     * @param eta            estimated time left or {@link Duration#ZERO} if unknown
+     * @return action
+     */
+    default TaskAction update( final long val, final long max, final double bytesPerSecond, final Duration eta ) {
+        return update( val, max );
+    }
+
     enum TaskAction {
         ON,
         SKIP,
@@ -0,0 +1,309 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils;
+
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress shared by many parallel workers.
+ * <p>
+ * Workers add to {@link LongAdder} counters without contention. A periodic job on
+ * {@link ExecutorRegistry#scheduler()} calls the downstream {@link ITaskProgressUpdater}
+ * with the sums, throughput and eta at most once per interval, so the updater is never
+ * called concurrently. Errors reported in one interval are merged into one call.
+ * The last answer of the updater is visible to workers through {@link #getAction()}.
+ * </p>
+ * <p>
+ * Workers that only know absolute values can use {@link #worker()}.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ProgressAggregator implements AutoCloseable {
+
+    /**
+     * Default update interval.
+     */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis( 100L );
+    private static final int MAX_SUPPRESSED = 16;
+    private static final Logger LOG = LoggerFactory.getLogger( "ProgressAggregator" );
+
+    private final ITaskProgressUpdater downstream;
+    private final LongAdder done = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final Map<String, LongAdder> metricM = new ConcurrentHashMap<>();
+    private final Queue<Throwable> errorQ = new ConcurrentLinkedQueue<>();
+    private final long start = System.nanoTime();
+    private final ScheduledFuture<?> future;
+    private volatile ITaskProgressUpdater.TaskAction action = ITaskProgressUpdater.TaskAction.ON;
+    private boolean closed;
+
+    private ProgressAggregator( final ITaskProgressUpdater downstream, final long intervalNanos ) {
+        this.downstream = downstream;
+        this.future = ExecutorRegistry.scheduler().scheduleWithFixedDelay( this::publish, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * Create and start aggregator with {@link #DEFAULT_INTERVAL}.
+     *
+     * @param downstream updater
+     * @return aggregator
+     * @throws NullPointerException if {@code downstream} is null
+     */
+    public static ProgressAggregator of( final ITaskProgressUpdater downstream ) {
+        return of( downstream, DEFAULT_INTERVAL );
+    }
+
+    /**
+     * Create and start aggregator.
+     *
+     * @param downstream updater
+     * @param interval   time between updates
+     * @return aggregator
+     * @throws NullPointerException     if {@code downstream} or {@code interval} is null
+     * @throws IllegalArgumentException if {@code interval} is not positive
+     */
+    public static ProgressAggregator of( final ITaskProgressUpdater downstream, final Duration interval ) {
+        Objects.requireNonNull( downstream );
+        if ( interval.isNegative() || interval.isZero() ) {
+            throw new IllegalArgumentException( "Interval[=" + interval + "] <= 0" );
+        }
+        return new ProgressAggregator( downstream, interval.toNanos() );
+    }
+
+    /**
+     * Add done work.
+     *
+     * @param n amount
+     */
+    public void add( final long n ) {
+        done.add( n );
+    }
+
+    /**
+     * Add expected work.
+     *
+     * @param n amount
+     */
+    public void addTotal( final long n ) {
+        total.add( n );
+    }
+
+    /**
+     * Add to named metric like {@code dirs} or {@code files}.
+     *
+     * @param metric name
+     * @param n      amount
+     * @throws NullPointerException if {@code metric} is null
+     */
+    public void add( final String metric, final long n ) {
+        metricM.computeIfAbsent( metric, m -> new LongAdder() ).add( n );
+    }
+
+    /**
+     * Report error. Merged with other errors of the same interval.
+     *
+     * @param throwable error
+     * @throws NullPointerException if {@code throwable} is null
+     */
+    public void error( final Throwable throwable ) {
+        errorQ.add( Objects.requireNonNull( throwable ) );
+    }
+
+    /**
+     * Last action of downstream updater, {@link ITaskProgressUpdater.TaskAction#BREAK} once answered.
+     *
+     * @return action
+     */
+    public ITaskProgressUpdater.TaskAction getAction() {
+        return action;
+    }
+
+    /**
+     * Return whether downstream answered {@link ITaskProgressUpdater.TaskAction#BREAK}.
+     * Once answered this stays {@code true}.
+     *
+     * @return {@code true} if workers should stop
+     */
+    public boolean isBreak() {
+        return ITaskProgressUpdater.TaskAction.BREAK == action;
+    }
+
+    /**
+     * Done work so far.
+     *
+     * @return sum
+     */
+    public long getDone() {
+        return done.sum();
+    }
+
+    /**
+     * Expected work so far.
+     *
+     * @return sum
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Snapshot of named metrics.
+     *
+     * @return metric to sum sorted by name
+     */
+    public Map<String, Long> getMetrics() {
+        final Map<String, Long> snapM = new TreeMap<>();
+        metricM.forEach( ( name, adder ) -> snapM.put( name, adder.sum() ) );
+        return snapM;
+    }
+
+    /**
+     * Updater for one worker thread reporting absolute values.
+     * <p>
+     * The differences to the previous call are added; the answer is {@link #getAction()}.
+     * </p>
+     *
+     * @return updater for a single thread
+     */
+    public ITaskProgressUpdater worker() {
+        return new ITaskProgressUpdater() {
+            private long lastVal;
+            private long lastMax;
+
+            @Override
+            public TaskAction update( final long val, final long max ) {
+                done.add( val - lastVal );
+                total.add( max - lastMax );
+                lastVal = val;
+                lastMax = max;
+                return action;
+            }
+
+            @Override
+            public TaskAction error( final long val, final Throwable throwable ) {
+                update( val, lastMax );
+                ProgressAggregator.this.error( throwable );
+                return action;
+            }
+        };
+    }
+
+    /**
+     * Stop periodic updates and send the final state.
+     */
+    @Override
+    public void close() {
+        future.cancel( false );
+        synchronized ( this ) {
+            publish();
+            closed = true;
+        }
+    }
+
+    private synchronized void publish() {
+        if ( closed ) {
+            return;
+        }
+        final long d = done.sum();
+        final long t = total.sum();
+        Throwable merged = null;
+        int errors = 0;
+        for ( Throwable th = errorQ.poll(); null != th; th = errorQ.poll() ) {
+            errors++;
+            if ( null == merged ) {
+                merged = th;
+            } else {
+                if ( !( merged instanceof MergedException ) ) {
+                    final MergedException me = new MergedException();
+                    me.addSuppressed( merged );
+                    merged = me;
+                }
+                if ( merged.getSuppressed().length < MAX_SUPPRESSED ) {
+                    merged.addSuppressed( th );
+                }
+                ( ( MergedException ) merged ).count = errors;
+            }
+        }
+        ITaskProgressUpdater.TaskAction ta = ITaskProgressUpdater.TaskAction.ON;
+        ITaskProgressUpdater.TaskAction up;
+        try {
+            if ( null != merged ) {
+                ta = downstream.error( d, merged );
+            }
+            final long nanos = System.nanoTime() - start;
+            final double rate = nanos <= 0L ? 0D : d * 1E9D / nanos;
+            final Duration eta = rate <= 0D || d >= t ? Duration.ZERO : Duration.ofNanos( ( long ) ( ( t - d ) / rate * 1E9D ) );
+            up = downstream.update( d, t, rate, eta );
+        } catch ( final RuntimeException rE ) {
+            // thrown out of the periodic job it would cancel all later updates silently
+            LOG.warn( "Progress updater failed, stop", rE );
+            ta = ITaskProgressUpdater.TaskAction.BREAK;
+            up = ITaskProgressUpdater.TaskAction.BREAK;
+        }
+        // BREAK is sticky, a later ON must not resume stopped workers
+        if ( ITaskProgressUpdater.TaskAction.BREAK == action ) {
+            return;
+        }
+        // a BREAK from either call wins
+        if ( ITaskProgressUpdater.TaskAction.BREAK == ta || null == up ) {
+            action = null == ta ? ITaskProgressUpdater.TaskAction.ON : ta;
+        } else {
+            action = up;
+        }
+    }
+
+    /**
+     * Several errors of one interval. The first are attached as suppressed.
+     */
+    public static final class MergedException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+        private int count;
+
+        private MergedException() {
+            super( null, null, true, false );
+        }
+
+        /**
+         * Number of merged errors.
+         *
+         * @return count
+         */
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String getMessage() {
+            return count + " errors";
+        }
+    }
+}
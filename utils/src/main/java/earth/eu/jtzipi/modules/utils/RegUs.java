@@ -66,13 +66,18 @@ public enum RegUs implements Supplier<Pattern> {
     /**
      * Vector image file.
      */
-    public static final Pattern IMAGE_VECTOR_TYPE_PATTERN = Pattern.compile( "^.*\\.(svg)" );
-    public static final Pattern BIN_WIN_SYS_TYPE_PATTERN = Pattern.compile( "^.*\\.(sys|dll).$" );
-    public static final Pattern BIN_WIN_EXEC_PATTERN = Pattern.compile( "^.*\\.(bat|com|exe|msi).$" );
-    public static final Pattern BIN_MAC_TYPE_PATTERN = Pattern.compile( "(sys|dll).$" );
-    public static final Pattern BIN_LINUX_SYS_TYPE_PATTERN = Pattern.compile( "^.*\\.(so|rc|rpm|bundle).$" );
-    public static final Pattern BIN_LINUX_EXEC_TYPE_PATTERN = Pattern.compile( "^.*\\.(run|sh).$" );
-    public static final Pattern BIN_ARC_TYPE_PATTERN = Pattern.compile( "^.*\\.(arj|zip|7z|gzip|bzip|tar|rar).$" );
+    public static final Pattern IMAGE_VECTOR_TYPE_PATTERN = Pattern.compile( "^.*\\.(svg)$" );
+    public static final Pattern BIN_WIN_SYS_TYPE_PATTERN = Pattern.compile( "^.*\\.(sys|dll)$" );
+    public static final Pattern BIN_WIN_EXEC_PATTERN = Pattern.compile( "^.*\\.(bat|com|exe|msi)$" );
+    public static final Pattern BIN_MAC_TYPE_PATTERN = Pattern.compile( "^.*\\.(dylib|bundle)$" );
+    public static final Pattern BIN_LINUX_SYS_TYPE_PATTERN = Pattern.compile( "^.*\\.(so|rc|rpm|bundle)$" );
+    public static final Pattern BIN_LINUX_EXEC_TYPE_PATTERN = Pattern.compile( "^.*\\.(run|sh)$" );
+    public static final Pattern BIN_ARC_TYPE_PATTERN = Pattern.compile( "^.*\\.(arj|zip|7z|gzip|bzip|tar|rar)$" );
+    /**
+     * Already compressed file, not worth to deflate again. Ignoring case.
+     */
+    public static final Pattern COMPRESSED_TYPE_PATTERN = Pattern.compile( "^.*\\.(arj|zip|7z|gz|gzip|tgz|bz2|bzip|xz|lz|lz4|lzma|zst|rar|cab|jar|war|ear|apk|jmod|docx|xlsx|pptx|odt|ods|odp|epub"
+            + "|jpeg|jpg|png|gif|webp|heic|avif|mp3|ogg|opus|flac|m4a|aac|mp4|m4v|mkv|webm|mov|avi|flv|wmv)$", Pattern.CASE_INSENSITIVE );
     public static final Pattern TEXT_TYPE_PATTERN = Pattern.compile( "^.*\\.(txt|dat|rtf)$" );
     public static final Pattern MARKUP_TYPE_PATTERN = Pattern.compile( "^.*\\.(xml|fxml|md|yaml)$" );
     public static final Pattern HTML_TYPE_PATTERN = Pattern.compile( "^.*\\.(xhtml|html|htm)$" );
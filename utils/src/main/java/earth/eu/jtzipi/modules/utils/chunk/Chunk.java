@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.chunk;
+
+import earth.eu.jtzipi.modules.utils.IRange;
+import org.apache.commons.codec.binary.Hex;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Content defined chunk of a file with strong hash.
+ * <p>
+ * Two chunks are equal if length and hash are equal; the offset is ignored
+ * so that shifted content is recognized.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class Chunk implements IRange {
+
+    private final long offset;
+    private final int length;
+    private final byte[] hash;
+
+    private Chunk( final long offset, final int length, final byte[] hash ) {
+        this.offset = offset;
+        this.length = length;
+        this.hash = hash;
+    }
+
+    /**
+     * Create chunk.
+     *
+     * @param offset offset in file
+     * @param length length
+     * @param hash   strong hash
+     * @return chunk
+     * @throws NullPointerException     if {@code hash} is null
+     * @throws IllegalArgumentException if {@code offset} or {@code length} &lt; 0
+     */
+    public static Chunk of( final long offset, final int length, final byte[] hash ) {
+        Objects.requireNonNull( hash );
+        if ( offset < 0L || length < 0 ) {
+            throw new IllegalArgumentException( "Chunk[offset=" + offset + ", length=" + length + "] invalid" );
+        }
+        return new Chunk( offset, length, hash.clone() );
+    }
+
+    @Override
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Strong hash.
+     *
+     * @return copy of hash
+     */
+    public byte[] getHash() {
+        return hash.clone();
+    }
+
+    /**
+     * Strong hash as hex.
+     *
+     * @return hex
+     */
+    public String getHashHex() {
+        return Hex.encodeHexString( hash );
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+        if ( this == o ) {
+            return true;
+        }
+        if ( !( o instanceof Chunk ) ) {
+            return false;
+        }
+        final Chunk that = ( Chunk ) o;
+        return length == that.length && Arrays.equals( hash, that.hash );
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * length + Arrays.hashCode( hash );
+    }
+
+    @Override
+    public String toString() {
+        return "Chunk[" + offset + ", " + getEnd() + ") " + getHashHex();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.chunk;
+
+import earth.eu.jtzipi.modules.utils.ByteRange;
+import earth.eu.jtzipi.modules.utils.IRange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Difference of two chunk lists.
+ * <p>
+ * Chunks of the target whose content is not found anywhere in the base are changed.
+ * Adjacent changed chunks are merged into one range.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ChunkDiff {
+
+    private final List<IRange> changedL;
+    private final long changedBytes;
+    private final long reusedBytes;
+
+    private ChunkDiff( final List<IRange> changedL, final long changedBytes, final long reusedBytes ) {
+        this.changedL = changedL;
+        this.changedBytes = changedBytes;
+        this.reusedBytes = reusedBytes;
+    }
+
+    /**
+     * Compare chunks of {@code target} with {@code base}.
+     * <p>
+     * Both lists must be created by chunkers with equal settings.
+     * </p>
+     *
+     * @param base   chunks of old version
+     * @param target chunks of new version in file order
+     * @return diff
+     * @throws NullPointerException if {@code base} or {@code target} is null
+     */
+    public static ChunkDiff of( final List<Chunk> base, final List<Chunk> target ) {
+        Objects.requireNonNull( base );
+        Objects.requireNonNull( target );
+        final Set<Chunk> baseS = new HashSet<>( base );
+        final List<IRange> changedL = new ArrayList<>();
+        long changed = 0L;
+        long reused = 0L;
+        long runStart = -1L;
+        long runEnd = -1L;
+        for ( final Chunk chunk : target ) {
+            if ( baseS.contains( chunk ) ) {
+                reused += chunk.getLength();
+                continue;
+            }
+            changed += chunk.getLength();
+            if ( runEnd == chunk.getOffset() ) {
+                runEnd = chunk.getEnd();
+            } else {
+                if ( runStart >= 0L ) {
+                    changedL.add( ByteRange.ofEnd( runStart, runEnd ) );
+                }
+                runStart = chunk.getOffset();
+                runEnd = chunk.getEnd();
+            }
+        }
+        if ( runStart >= 0L ) {
+            changedL.add( ByteRange.ofEnd( runStart, runEnd ) );
+        }
+        return new ChunkDiff( Collections.unmodifiableList( changedL ), changed, reused );
+    }
+
+    /**
+     * Changed byte ranges of target in ascending order.
+     *
+     * @return ranges
+     */
+    public List<IRange> getChangedRanges() {
+        return changedL;
+    }
+
+    /**
+     * Bytes of target not found in base.
+     *
+     * @return bytes
+     */
+    public long getChangedBytes() {
+        return changedBytes;
+    }
+
+    /**
+     * Bytes of target found in base.
+     *
+     * @return bytes
+     */
+    public long getReusedBytes() {
+        return reusedBytes;
+    }
+
+    /**
+     * Return whether target has no new content.
+     *
+     * @return {@code true} if unchanged
+     */
+    public boolean isUnchanged() {
+        return changedL.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkDiff[changed=" + changedBytes + ", reused=" + reusedBytes + ", ranges=" + changedL + "]";
+    }
+}
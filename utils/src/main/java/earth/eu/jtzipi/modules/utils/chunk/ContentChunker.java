@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.chunk;
+
+import earth.eu.jtzipi.modules.utils.hash.DigestPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Content defined chunker using a Gear rolling hash with normalized chunking (FastCDC).
+ * <p>
+ * Cut points depend only on the content near them, so an insert or delete changes
+ * only the chunks around the edit and the others keep their hash.
+ * The file is streamed through mapped {@link FileChannel} windows and each chunk is
+ * hashed with a strong digest (default SHA-256).
+ * </p>
+ * <p>
+ * The Gear table is generated by SplitMix64 from a fixed seed so that boundaries are stable
+ * across machines and versions. Chunk lists are only comparable for equal sizes and algorithm.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ContentChunker {
+
+    /**
+     * Default minimal chunk size.
+     */
+    public static final int DEFAULT_MIN = 2 * 1024;
+    /**
+     * Default average chunk size.
+     */
+    public static final int DEFAULT_AVG = 8 * 1024;
+    /**
+     * Default maximal chunk size.
+     */
+    public static final int DEFAULT_MAX = 64 * 1024;
+    /**
+     * Default strong hash.
+     */
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+    private static final long WINDOW = 64L * 1024L * 1024L;
+    private static final long[] GEAR = gear();
+
+    private final int min;
+    private final int avg;
+    private final int max;
+    private final long maskS;
+    private final long maskL;
+    private final String algorithm;
+
+    private ContentChunker( final int min, final int avg, final int max, final String algorithm ) {
+        this.min = min;
+        this.avg = avg;
+        this.max = max;
+        this.algorithm = algorithm;
+        final int bits = 31 - Integer.numberOfLeadingZeros( avg );
+        // harder to cut below average, easier above
+        this.maskS = topBits( bits + 2 );
+        this.maskL = topBits( bits - 2 );
+    }
+
+    /**
+     * Create chunker with default sizes.
+     *
+     * @return chunker
+     */
+    public static ContentChunker of() {
+        return of( DEFAULT_MIN, DEFAULT_AVG, DEFAULT_MAX );
+    }
+
+    /**
+     * Create chunker.
+     *
+     * @param min minimal chunk size &gt; 0
+     * @param avg average chunk size, power of 2 &gt; {@code min}
+     * @param max maximal chunk size &gt; {@code avg}, at most 64 MiB
+     * @return chunker
+     * @throws IllegalArgumentException if sizes are invalid
+     */
+    public static ContentChunker of( final int min, final int avg, final int max ) {
+        if ( min < 1 || avg <= min || max <= avg || max > WINDOW || Integer.bitCount( avg ) != 1 || avg < 64 ) {
+            throw new IllegalArgumentException( "Sizes[min=" + min + ", avg=" + avg + ", max=" + max + "] invalid" );
+        }
+        return new ContentChunker( min, avg, max, DEFAULT_ALGORITHM );
+    }
+
+    /**
+     * Return copy using strong hash {@code algorithm}.
+     *
+     * @param algorithm digest algorithm
+     * @return chunker
+     * @throws NullPointerException     if {@code algorithm} is null
+     * @throws IllegalArgumentException if {@code algorithm} is unknown
+     */
+    public ContentChunker algorithm( final String algorithm ) {
+        DigestPool.of( algorithm );
+        return new ContentChunker( min, avg, max, algorithm );
+    }
+
+    /**
+     * Minimal chunk size.
+     *
+     * @return size
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * Average chunk size.
+     *
+     * @return size
+     */
+    public int getAvg() {
+        return avg;
+    }
+
+    /**
+     * Maximal chunk size.
+     *
+     * @return size
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Strong hash algorithm.
+     *
+     * @return algorithm
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Split file into chunks.
+     *
+     * @param path file
+     * @return chunks in file order
+     * @throws IOException          if reading failed
+     * @throws NullPointerException if {@code path} is null
+     */
+    public List<Chunk> chunk( final Path path ) throws IOException {
+        final List<Chunk> chunkL = new ArrayList<>();
+        chunk( path, chunkL::add );
+        return chunkL;
+    }
+
+    /**
+     * Split file into chunks passing each to {@code consumer} as soon as it is complete.
+     *
+     * @param path     file
+     * @param consumer chunk consumer
+     * @throws IOException          if reading failed
+     * @throws NullPointerException if {@code path} or {@code consumer} is null
+     */
+    public void chunk( final Path path, final Consumer<? super Chunk> consumer ) throws IOException {
+        Objects.requireNonNull( path );
+        Objects.requireNonNull( consumer );
+        final DigestPool pool = DigestPool.of( algorithm );
+        final MessageDigest md = pool.acquire();
+        try ( final FileChannel fc = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            final long size = fc.size();
+            long pos = 0L;
+            while ( pos < size ) {
+                // window always starts at a chunk start and holds at least one max chunk unless at eof
+                final long len = Math.min( WINDOW, size - pos );
+                final MappedByteBuffer mbb = fc.map( FileChannel.MapMode.READ_ONLY, pos, len );
+                final boolean last = pos + len == size;
+                int start = 0;
+                while ( start < len ) {
+                    final int remain = ( int ) len - start;
+                    if ( !last && remain < max ) {
+                        break;
+                    }
+                    final int cut = cut( mbb, start, Math.min( remain, max ) );
+                    final ByteBuffer slice = mbb.duplicate();
+                    slice.limit( start + cut ).position( start );
+                    md.update( slice );
+                    consumer.accept( Chunk.of( pos + start, cut, md.digest() ) );
+                    start += cut;
+                }
+                pos += start;
+            }
+        } finally {
+            pool.release( md );
+        }
+    }
+
+    /**
+     * Split content of buffer into chunks.
+     *
+     * @param data     data from position to limit, offsets are relative to position
+     * @param consumer chunk consumer
+     * @throws NullPointerException if {@code data} or {@code consumer} is null
+     */
+    public void chunk( final ByteBuffer data, final Consumer<? super Chunk> consumer ) {
+        Objects.requireNonNull( consumer );
+        final ByteBuffer bb = data.slice();
+        final DigestPool pool = DigestPool.of( algorithm );
+        final MessageDigest md = pool.acquire();
+        try {
+            int start = 0;
+            while ( start < bb.limit() ) {
+                final int cut = cut( bb, start, Math.min( bb.limit() - start, max ) );
+                final ByteBuffer slice = bb.duplicate();
+                slice.limit( start + cut ).position( start );
+                md.update( slice );
+                consumer.accept( Chunk.of( start, cut, md.digest() ) );
+                start += cut;
+            }
+        } finally {
+            pool.release( md );
+        }
+    }
+
+    /**
+     * Find length of chunk starting at {@code start}.
+     */
+    private int cut( final ByteBuffer bb, final int start, final int len ) {
+        if ( len <= min ) {
+            return len;
+        }
+        final int normal = Math.min( avg, len );
+        long fp = 0L;
+        int i = min;
+        for ( ; i < normal; i++ ) {
+            fp = ( fp << 1 ) + GEAR[bb.get( start + i ) & 0xFF];
+            if ( 0L == ( fp & maskS ) ) {
+                return i + 1;
+            }
+        }
+        for ( ; i < len; i++ ) {
+            fp = ( fp << 1 ) + GEAR[bb.get( start + i ) & 0xFF];
+            if ( 0L == ( fp & maskL ) ) {
+                return i + 1;
+            }
+        }
+        return len;
+    }
+
+    private static long topBits( final int n ) {
+        final int bits = Math.max( 1, Math.min( 63, n ) );
+        return -1L << ( 64 - bits );
+    }
+
+    private static long[] gear() {
+        final long[] table = new long[256];
+        long seed = 0x6a7a6970_69434443L;
+        for ( int i = 0; i < table.length; i++ ) {
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = ( z ^ ( z >>> 30 ) ) * 0xBF58476D1CE4E5B9L;
+            z = ( z ^ ( z >>> 27 ) ) * 0x94D049BB133111EBL;
+            table[i] = z ^ ( z >>> 31 );
+        }
+        return table;
+    }
+}
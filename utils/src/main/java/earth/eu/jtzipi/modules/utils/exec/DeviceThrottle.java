@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.exec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bound concurrent blocking IO per storage device.
+ * <p>
+ * With virtual threads there is no pool size limiting how many threads hit a disk at once.
+ * Blocking IO tasks therefore take a permit for the device of the path they read.
+ * The device is the {@code unix:dev} attribute or the path root on other systems.
+ * </p>
+ * <p>
+ * Permits are only taken in {@link ExecutorRegistry.Mode#VIRTUAL} mode.
+ * In platform mode the pool size already bounds the IO and {@link #acquire(Path)} is free.
+ * Permits per device can be set with system property {@value #PROP_PERMITS} (default {@value #DEFAULT_PERMITS}).
+ * </p>
+ * <pre>
+ *     try ( DeviceThrottle.Permit permit = DeviceThrottle.acquire( path ) ) {
+ *         // read path
+ *     }
+ * </pre>
+ *
+ * @author jTzipi
+ */
+public final class DeviceThrottle {
+
+    /**
+     * Property for permits per device.
+     */
+    public static final String PROP_PERMITS = "earth.eu.jtzipi.modules.exec.device.permits";
+    /**
+     * Default permits per device.
+     */
+    public static final int DEFAULT_PERMITS = 32;
+
+    private static final Logger LOG = LoggerFactory.getLogger( "DeviceThrottle" );
+    private static final Permit NO_PERMIT = () -> {
+    };
+    private static final ConcurrentMap<Object, Semaphore> DEVICE_M = new ConcurrentHashMap<>();
+    private static final int PERMITS = Math.max( 1, Integer.getInteger( PROP_PERMITS, DEFAULT_PERMITS ) );
+
+    private DeviceThrottle() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Acquire permit for the device of {@code path}.
+     *
+     * @param path path to read
+     * @return permit to close after IO
+     * @throws NullPointerException if {@code path} is null
+     */
+    public static Permit acquire( final Path path ) {
+        Objects.requireNonNull( path );
+        if ( ExecutorRegistry.getMode() != ExecutorRegistry.Mode.VIRTUAL ) {
+            return NO_PERMIT;
+        }
+        final Semaphore sem = DEVICE_M.computeIfAbsent( device( path ), dev -> new Semaphore( PERMITS ) );
+        sem.acquireUninterruptibly();
+        // closing twice must not release a permit of another reader
+        final AtomicBoolean open = new AtomicBoolean( true );
+        return () -> {
+            if ( open.compareAndSet( true, false ) ) {
+                sem.release();
+            }
+        };
+    }
+
+    private static Object device( final Path path ) {
+        try {
+            return Files.getAttribute( path, "unix:dev", LinkOption.NOFOLLOW_LINKS );
+        } catch ( final UnsupportedOperationException | IllegalArgumentException | IOException e ) {
+            LOG.trace( "No device for '" + path + "'", e );
+            final Path root = path.toAbsolutePath().getRoot();
+            return null == root ? path.getFileSystem() : root;
+        }
+    }
+
+    /**
+     * Permit for one device.
+     */
+    @FunctionalInterface
+    public interface Permit extends AutoCloseable {
+
+        /**
+         * Release permit, closing again has no effect.
+         */
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.exec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+
+/**
+ * Registry of all thread pools used by the modules.
+ * <p>
+ * Pools are created lazily by name and sized by
+ * <ol>
+ *     <li>{@link #configure(String, int, int)} called before first use</li>
+ *     <li>system properties {@code earth.eu.jtzipi.modules.exec.<name>.threads} and {@code .queue}</li>
+ *     <li>defaults of this class</li>
+ * </ol>
+ * All threads are daemon threads. A shutdown hook drains the pools on JVM exit;
+ * call {@link #shutdownAll(Duration)} for an orderly shutdown earlier.
+ * </p>
+ * <p>
+ * Blocking IO tasks should be submitted to {@link #blocking(String)}.
+ * In {@link Mode#VIRTUAL} mode (Java 21+) this runs each task on its own virtual thread
+ * and bounds IO per device with {@link DeviceThrottle} instead of by pool size.
+ * Mode is set with {@link #setMode(Mode)} or system property {@code earth.eu.jtzipi.modules.exec.mode=virtual}.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ExecutorRegistry {
+
+    /**
+     * Pool for directory crawling.
+     */
+    public static final String IO = "io";
+    /**
+     * Pool for hashing.
+     */
+    public static final String CHECKSUM = "checksum";
+    /**
+     * Pool for path search services.
+     */
+    public static final String SEARCH = "search";
+    /**
+     * Pool for encryption.
+     */
+    public static final String CRYPTO = "crypto";
+    /**
+     * Pool for compression.
+     */
+    public static final String COMPRESS = "compress";
+    /**
+     * Number of CPU's.
+     */
+    public static final int CPUS = Runtime.getRuntime().availableProcessors();
+    /**
+     * Default queue capacity.
+     */
+    public static final int DEFAULT_QUEUE = 1024;
+
+    private static final String PROP_PREFIX = "earth.eu.jtzipi.modules.exec.";
+    private static final Logger LOG = LoggerFactory.getLogger( "ExecutorRegistry" );
+    private static final Map<String, ManagedExecutor> POOL_M = new ConcurrentHashMap<>();
+    private static final Map<String, int[]> CONFIG_M = new ConcurrentHashMap<>();
+    private static final Map<String, ExecutorService> VIRTUAL_M = new ConcurrentHashMap<>();
+    private static volatile ScheduledExecutorService scheduler;
+    private static volatile Mode mode = initialMode();
+
+    static {
+        Runtime.getRuntime().addShutdownHook( new Thread( () -> shutdownAll( Duration.ofSeconds( 2L ) ), "executor-registry-shutdown" ) );
+    }
+
+    private ExecutorRegistry() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Set size of pool before first use.
+     *
+     * @param name          name of pool
+     * @param threads       threads &gt; 0
+     * @param queueCapacity queue capacity &gt; 0
+     * @throws IllegalStateException    if pool is already created
+     * @throws IllegalArgumentException if {@code threads} or {@code queueCapacity} &lt; 1
+     */
+    public static void configure( final String name, final int threads, final int queueCapacity ) {
+        Objects.requireNonNull( name );
+        if ( threads < 1 || queueCapacity < 1 ) {
+            throw new IllegalArgumentException( "threads[=" + threads + "] and queue[=" + queueCapacity + "] must be > 0" );
+        }
+        if ( POOL_M.containsKey( name ) ) {
+            throw new IllegalStateException( "Pool '" + name + "' is already in use" );
+        }
+        CONFIG_M.put( name, new int[]{threads, queueCapacity} );
+    }
+
+    /**
+     * Return pool for name. Create if not existing.
+     *
+     * @param name name of pool
+     * @return managed pool
+     * @throws NullPointerException if {@code name} is null
+     */
+    public static ManagedExecutor get( final String name ) {
+        Objects.requireNonNull( name );
+        return POOL_M.computeIfAbsent( name, ExecutorRegistry::create );
+    }
+
+    /**
+     * Return executor for blocking IO tasks.
+     * <p>
+     * In {@link Mode#VIRTUAL} mode a virtual thread per task executor, else {@link #get(String)}.
+     * </p>
+     *
+     * @param name name of pool
+     * @return executor
+     * @throws NullPointerException if {@code name} is null
+     */
+    public static ExecutorService blocking( final String name ) {
+        Objects.requireNonNull( name );
+        if ( Mode.VIRTUAL == mode ) {
+            return VIRTUAL_M.computeIfAbsent( name, VirtualThreads::newPerTaskExecutor );
+        }
+        return get( name );
+    }
+
+    /**
+     * Return execution mode for blocking tasks.
+     *
+     * @return mode
+     */
+    public static Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Set execution mode for blocking tasks.
+     * <p>
+     * If virtual threads are not supported by the runtime {@link Mode#PLATFORM} is kept.
+     * Tasks already submitted are not moved.
+     * </p>
+     *
+     * @param newMode mode
+     * @return mode in effect
+     * @throws NullPointerException if {@code newMode} is null
+     */
+    public static Mode setMode( final Mode newMode ) {
+        Objects.requireNonNull( newMode );
+        if ( Mode.VIRTUAL == newMode && !VirtualThreads.isSupported() ) {
+            LOG.warn( "Virtual threads not supported by Java " + Runtime.version() + ". Keep platform threads." );
+            mode = Mode.PLATFORM;
+        } else {
+            mode = newMode;
+        }
+        return mode;
+    }
+
+    /**
+     * Return whether the runtime supports {@link Mode#VIRTUAL}.
+     *
+     * @return {@code true} on Java 21+
+     */
+    public static boolean isVirtualSupported() {
+        return VirtualThreads.isSupported();
+    }
+
+    /**
+     * Shared scheduler for periodic work like metric export or progress updates.
+     *
+     * @return scheduler with one daemon thread
+     */
+    public static ScheduledExecutorService scheduler() {
+        ScheduledExecutorService ses = scheduler;
+        if ( null == ses ) {
+            synchronized ( ExecutorRegistry.class ) {
+                ses = scheduler;
+                if ( null == ses ) {
+                    final ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor( 1, new ManagedExecutor.NamedThreadFactory( "scheduler" ) );
+                    stpe.setRemoveOnCancelPolicy( true );
+                    scheduler = ses = stpe;
+                }
+            }
+        }
+        return ses;
+    }
+
+    /**
+     * All created pools.
+     *
+     * @return pools
+     */
+    public static List<ManagedExecutor> getPools() {
+        return new ArrayList<>( POOL_M.values() );
+    }
+
+    /**
+     * Shutdown all pools and wait for running tasks.
+     * <p>
+     * Tasks still running after {@code timeout} are interrupted.
+     * Pools requested after shutdown are created new.
+     * </p>
+     *
+     * @param timeout time to wait
+     * @return {@code true} if all pools terminated in time
+     */
+    public static boolean shutdownAll( final Duration timeout ) {
+        final List<ExecutorService> esL = new ArrayList<>( POOL_M.values() );
+        POOL_M.clear();
+        esL.addAll( VIRTUAL_M.values() );
+        VIRTUAL_M.clear();
+        synchronized ( ExecutorRegistry.class ) {
+            if ( null != scheduler ) {
+                esL.add( scheduler );
+                scheduler = null;
+            }
+        }
+        esL.forEach( ExecutorService::shutdown );
+
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        boolean terminated = true;
+        for ( final ExecutorService es : esL ) {
+            try {
+                if ( !es.awaitTermination( Math.max( 0L, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS ) ) {
+                    LOG.warn( "Pool '" + es + "' did not terminate. Interrupt." );
+                    es.shutdownNow();
+                    terminated = false;
+                }
+            } catch ( final InterruptedException iE ) {
+                Thread.currentThread().interrupt();
+                es.shutdownNow();
+                terminated = false;
+            }
+        }
+        return terminated;
+    }
+
+    private static ManagedExecutor create( final String name ) {
+        final int[] conf = CONFIG_M.get( name );
+        final int threads = null != conf ? conf[0] : Integer.getInteger( PROP_PREFIX + name + ".threads", defaultThreads( name ) );
+        final int queue = null != conf ? conf[1] : Integer.getInteger( PROP_PREFIX + name + ".queue", DEFAULT_QUEUE );
+        LOG.info( "Create pool '" + name + "' threads=" + threads + " queue=" + queue );
+        return ManagedExecutor.of( name, threads, queue );
+    }
+
+    private static Mode initialMode() {
+        if ( "virtual".equalsIgnoreCase( System.getProperty( PROP_PREFIX + "mode" ) ) ) {
+            if ( VirtualThreads.isSupported() ) {
+                return Mode.VIRTUAL;
+            }
+            LOG.warn( "Virtual threads not supported by Java " + Runtime.version() + ". Use platform threads." );
+        }
+        return Mode.PLATFORM;
+    }
+
+    private static int defaultThreads( final String name ) {
+        switch ( name ) {
+            case IO:
+            case SEARCH:
+                // dominated by blocking syscalls
+                return Math.max( 2, CPUS * 2 );
+            case CHECKSUM:
+            case CRYPTO:
+            case COMPRESS:
+            default:
+                return CPUS;
+        }
+    }
+
+    /**
+     * Execution mode for blocking tasks.
+     */
+    public enum Mode {
+        /**
+         * Bounded platform thread pools.
+         */
+        PLATFORM,
+        /**
+         * Virtual thread per task, IO bounded per device.
+         */
+        VIRTUAL
+    }
+}
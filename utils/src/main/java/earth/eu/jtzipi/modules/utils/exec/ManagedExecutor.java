@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.exec;
+
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Named bounded thread pool.
+ * <p>
+ * Threads are daemon threads named {@code <name>-<n>}.
+ * The work queue is bounded. If it is full the submitting thread runs the task itself,
+ * which slows down producers instead of piling up tasks.
+ * After shutdown tasks are rejected with {@link RejectedExecutionException} instead of being dropped.
+ * Queue depth, active threads and completed tasks are published as gauges,
+ * rejections as counter below {@code exec.<name>}.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ManagedExecutor extends ThreadPoolExecutor {
+
+    private final String name;
+    private final ICounter rejected;
+
+    private ManagedExecutor( final String name, final int threads, final int queueCapacity, final ICounter rejectCounter ) {
+        super( threads, threads, 30L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>( queueCapacity ),
+                new NamedThreadFactory( name ),
+                new CountingCallerRuns( rejectCounter ) );
+        this.name = name;
+        this.rejected = rejectCounter;
+        // idle pools should not hold threads
+        allowCoreThreadTimeOut( true );
+    }
+
+    /**
+     * Create managed pool.
+     *
+     * @param name          name of pool
+     * @param threads       number of threads &gt; 0
+     * @param queueCapacity capacity of queue &gt; 0
+     * @return executor
+     * @throws IllegalArgumentException if {@code threads} or {@code queueCapacity} &lt; 1
+     */
+    static ManagedExecutor of( final String name, final int threads, final int queueCapacity ) {
+        if ( threads < 1 || queueCapacity < 1 ) {
+            throw new IllegalArgumentException( "threads[=" + threads + "] and queue[=" + queueCapacity + "] must be > 0" );
+        }
+        final ManagedExecutor me = new ManagedExecutor( name, threads, queueCapacity, Metrics.counter( "exec." + name + ".rejected" ) );
+        Metrics.gauge( "exec." + name + ".queue", () -> me.getQueue().size() );
+        Metrics.gauge( "exec." + name + ".active", me::getActiveCount );
+        Metrics.gauge( "exec." + name + ".completed", me::getCompletedTaskCount );
+        return me;
+    }
+
+    /**
+     * Name of pool.
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of tasks run by the caller since the queue was full.
+     *
+     * @return rejections
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Tasks waiting in queue.
+     *
+     * @return queue depth
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    @Override
+    public String toString() {
+        return "ManagedExecutor{" +
+                "name='" + name + '\'' +
+                ", threads=" + getMaximumPoolSize() +
+                ", active=" + getActiveCount() +
+                ", queue=" + getQueueDepth() +
+                ", rejected=" + getRejectedCount() +
+                '}';
+    }
+
+    private static final class CountingCallerRuns extends ThreadPoolExecutor.CallerRunsPolicy {
+
+        private final ICounter counter;
+
+        private CountingCallerRuns( final ICounter counter ) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void rejectedExecution( final Runnable r, final ThreadPoolExecutor e ) {
+            counter.inc();
+            // caller runs would silently drop the task and leave waiters hanging
+            if ( e.isShutdown() ) {
+                throw new RejectedExecutionException( "Pool '" + ( ( ManagedExecutor ) e ).name + "' is shut down" );
+            }
+            super.rejectedExecution( r, e );
+        }
+    }
+
+    static final class NamedThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger cnt = new AtomicInteger();
+
+        NamedThreadFactory( final String prefix ) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread( final Runnable runnable ) {
+            final Thread t = new Thread( runnable, prefix + "-" + cnt.incrementAndGet() );
+            t.setDaemon( true );
+            return t;
+        }
+    }
+}
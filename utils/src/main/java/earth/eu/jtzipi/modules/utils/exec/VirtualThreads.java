@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.exec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads without compiling against Java 21.
+ * <p>
+ * The API is looked up once via method handles. On older runtimes
+ * {@link #isSupported()} returns {@code false} and callers fall back to platform pools.
+ * </p>
+ *
+ * @author jTzipi
+ */
+final class VirtualThreads {
+
+    private static final Logger LOG = LoggerFactory.getLogger( "VirtualThreads" );
+    // Thread.ofVirtual().name( prefix, 0 ).factory()
+    private static final MethodHandle OF_VIRTUAL;
+    private static final MethodHandle NAME;
+    private static final MethodHandle FACTORY;
+    // Executors.newThreadPerTaskExecutor( factory )
+    private static final MethodHandle PER_TASK;
+
+    static {
+        MethodHandle ofVirtual = null;
+        MethodHandle name = null;
+        MethodHandle factory = null;
+        MethodHandle perTask = null;
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            final Class<?> builder = Class.forName( "java.lang.Thread$Builder" );
+            final Class<?> ofVirtualBuilder = Class.forName( "java.lang.Thread$Builder$OfVirtual" );
+            ofVirtual = lookup.findStatic( Thread.class, "ofVirtual", MethodType.methodType( ofVirtualBuilder ) );
+            name = lookup.findVirtual( builder, "name", MethodType.methodType( builder, String.class, long.class ) );
+            factory = lookup.findVirtual( builder, "factory", MethodType.methodType( ThreadFactory.class ) );
+            perTask = lookup.findStatic( java.util.concurrent.Executors.class, "newThreadPerTaskExecutor", MethodType.methodType( ExecutorService.class, ThreadFactory.class ) );
+            // Java 19 and 20 have the API as preview only
+            ofVirtual.invoke();
+        } catch ( final Throwable t ) {
+            LOG.debug( "No virtual threads on this runtime", t );
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        PER_TASK = perTask;
+    }
+
+    private VirtualThreads() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Return whether the runtime has virtual threads.
+     *
+     * @return {@code true} if Java 21+
+     */
+    static boolean isSupported() {
+        return null != OF_VIRTUAL;
+    }
+
+    /**
+     * Create an executor starting a new named virtual thread per task.
+     *
+     * @param prefix thread name prefix
+     * @return executor
+     * @throws UnsupportedOperationException if not supported
+     */
+    static ExecutorService newPerTaskExecutor( final String prefix ) {
+        if ( !isSupported() ) {
+            throw new UnsupportedOperationException( "Virtual threads need Java 21+" );
+        }
+        try {
+            final Object builder = NAME.invoke( OF_VIRTUAL.invoke(), prefix + "-v", 0L );
+            final ThreadFactory tf = ( ThreadFactory ) FACTORY.invoke( builder );
+            return ( ExecutorService ) PER_TASK.invoke( tf );
+        } catch ( final RuntimeException | Error e ) {
+            throw e;
+        } catch ( final Throwable t ) {
+            throw new IllegalStateException( "Can not create virtual thread executor", t );
+        }
+    }
+}
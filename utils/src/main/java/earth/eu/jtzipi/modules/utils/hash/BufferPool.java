@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pool of direct byte buffers of one size.
+ * <p>
+ * Direct buffers are read into by the OS without an extra copy, but are expensive to allocate and
+ * are freed late by the GC. Pooling them keeps hashing allocation free.
+ * Buffers over the pool capacity are dropped to the GC on release.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class BufferPool {
+
+    /**
+     * Size of buffers of the default pool (256 KiB).
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private static final int SHARED_CAPACITY = Math.max( 8, 4 * Runtime.getRuntime().availableProcessors() );
+    private static final ConcurrentMap<Integer, BufferPool> SHARED_M = new ConcurrentHashMap<>();
+    private static final BufferPool DEFAULT = shared( DEFAULT_BUFFER_SIZE );
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> freeQ;
+
+    private BufferPool( final int bufferSize, final int capacity ) {
+        this.bufferSize = bufferSize;
+        this.freeQ = new ArrayBlockingQueue<>( capacity );
+    }
+
+    /**
+     * Shared pool of {@link #DEFAULT_BUFFER_SIZE} buffers.
+     *
+     * @return default pool
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Shared pool of buffers of one size.
+     *
+     * @param bufferSize size of buffers
+     * @return pool shared by all callers asking for {@code bufferSize}
+     * @throws IllegalArgumentException if {@code bufferSize} &lt; 1
+     */
+    public static BufferPool shared( final int bufferSize ) {
+        if ( bufferSize < 1 ) {
+            throw new IllegalArgumentException( "Buffer size[=" + bufferSize + "] < 1" );
+        }
+        return SHARED_M.computeIfAbsent( bufferSize, size -> new BufferPool( size, SHARED_CAPACITY ) );
+    }
+
+    /**
+     * Create pool.
+     *
+     * @param bufferSize size of buffers
+     * @param capacity   max pooled buffers
+     * @return pool
+     * @throws IllegalArgumentException if {@code bufferSize} or {@code capacity} &lt; 1
+     */
+    public static BufferPool of( final int bufferSize, final int capacity ) {
+        if ( bufferSize < 1 || capacity < 1 ) {
+            throw new IllegalArgumentException( "Buffer size[=" + bufferSize + "] and capacity[=" + capacity + "] must be > 0" );
+        }
+        return new BufferPool( bufferSize, capacity );
+    }
+
+    /**
+     * Size of buffers.
+     *
+     * @return size in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Borrow a cleared direct buffer.
+     *
+     * @return buffer
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buf = freeQ.poll();
+        return null != buf ? buf.clear() : ByteBuffer.allocateDirect( bufferSize );
+    }
+
+    /**
+     * Return buffer.
+     *
+     * @param buf buffer from {@link #acquire()}
+     * @throws NullPointerException     if {@code buf} is null
+     * @throws IllegalArgumentException if {@code buf} is not from a pool of this size
+     */
+    public void release( final ByteBuffer buf ) {
+        Objects.requireNonNull( buf );
+        if ( buf.capacity() != bufferSize || !buf.isDirect() ) {
+            throw new IllegalArgumentException( "Buffer of " + buf.capacity() + " bytes is not from this pool" );
+        }
+        freeQ.offer( buf );
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Persistent cache of file hashes keyed by file identity.
+ * <p>
+ * A file is identified by its {@code fileKey} (device and inode on unix), or its absolute path
+ * if the file system has no file keys. An entry is valid as long as size and last modified time
+ * of the file are unchanged; otherwise it is dropped on lookup.
+ * </p>
+ * <p>
+ * Entries live in memory and in an append-only log. Each record is
+ * {@code [int length][payload][int crc32c]} with payload
+ * {@code identity(UTF) algorithm(UTF) size(long) mtime nanos(long) hash length(short) hash}.
+ * A torn last record is ignored and cut on the next exclusive lock.
+ * The log is rewritten with live entries only when it grew twice as large as needed.
+ * </p>
+ * <p>
+ * Several JVMs can share one log: appends and compaction take an exclusive {@link FileLock},
+ * a miss reads records appended by others, and a log replaced by another JVM's compaction is reopened.
+ * A miss only checks the log size without locking; whether the log file was replaced is checked
+ * at most every {@value #REPLACED_CHECK_MILLIS} ms.
+ * Use one instance per log file and JVM, {@link #open(Path)} returns the instance already open.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ChecksumCache implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger( "ChecksumCache" );
+    private static final Map<Path, ChecksumCache> OPEN_M = new ConcurrentHashMap<>();
+    private static final long COMPACT_MIN_BYTES = 4L * 1024L * 1024L;
+    // int length + int crc
+    private static final int RECORD_OVERHEAD = 8;
+    private static final int MAX_RECORD = 64 * 1024;
+    private static final long REPLACED_CHECK_MILLIS = 1000L;
+    private static final ICounter HIT = Metrics.counter( "checksum.cache.hit" );
+    private static final ICounter MISS = Metrics.counter( "checksum.cache.miss" );
+
+    private final Path file;
+    private final AtomicLong liveBytes = new AtomicLong();
+    // replaced as a whole on reopen, so lookups never see a half loaded map
+    private volatile Map<String, Entry> entryM = new ConcurrentHashMap<>();
+    private volatile FileChannel channel;
+    private Object channelKey;
+    // bytes of the log read so far, written under the monitor
+    private volatile long offset;
+    private volatile long replacedChecked;
+    private volatile boolean closed;
+
+    private ChecksumCache( final Path file ) {
+        this.file = file;
+    }
+
+    /**
+     * Open or create cache log.
+     *
+     * @param file log file
+     * @return cache
+     * @throws IOException          if the log can not be opened
+     * @throws NullPointerException if {@code file} is null
+     */
+    public static ChecksumCache open( final Path file ) throws IOException {
+        Objects.requireNonNull( file );
+        final Path abs = file.toAbsolutePath().normalize();
+        try {
+            return OPEN_M.computeIfAbsent( abs, p -> {
+                final ChecksumCache cache = new ChecksumCache( p );
+                try {
+                    cache.reopen();
+                } catch ( final IOException ioE ) {
+                    throw new UncheckedIOException( ioE );
+                }
+                return cache;
+            } );
+        } catch ( final UncheckedIOException uioE ) {
+            throw uioE.getCause();
+        }
+    }
+
+    /**
+     * Identity of a file.
+     *
+     * @param path  path
+     * @param attrs attributes of path
+     * @return file key or absolute path
+     */
+    public static String identity( final Path path, final BasicFileAttributes attrs ) {
+        final Object key = attrs.fileKey();
+        return null != key ? key.toString() : path.toAbsolutePath().normalize().toString();
+    }
+
+    private static String key( final String identity, final String algorithm ) {
+        return algorithm + '\u0000' + identity;
+    }
+
+    /**
+     * Lookup hash.
+     *
+     * @param path      file
+     * @param algorithm algorithm name
+     * @return hex hash if cached and file unchanged
+     * @throws IOException          if attributes of {@code path} can not be read
+     * @throws NullPointerException if {@code path} or {@code algorithm} is null
+     */
+    public Optional<String> get( final Path path, final String algorithm ) throws IOException {
+        return get( path, Files.readAttributes( path, BasicFileAttributes.class ), algorithm );
+    }
+
+    /**
+     * Lookup hash with known attributes.
+     *
+     * @param path      file
+     * @param attrs     current attributes of {@code path}
+     * @param algorithm algorithm name
+     * @return hex hash if cached and file unchanged
+     * @throws NullPointerException if any argument is null
+     */
+    public Optional<String> get( final Path path, final BasicFileAttributes attrs, final String algorithm ) {
+        Objects.requireNonNull( algorithm );
+        final String key = key( identity( path, attrs ), algorithm );
+        Map<String, Entry> em = entryM;
+        Entry entry = em.get( key );
+        if ( null == entry && refreshIfGrown() ) {
+            em = entryM;
+            entry = em.get( key );
+        }
+        if ( null == entry ) {
+            MISS.inc();
+            return Optional.empty();
+        }
+        if ( entry.size != attrs.size() || entry.mtime != attrs.lastModifiedTime().to( TimeUnit.NANOSECONDS ) ) {
+            if ( em.remove( key, entry ) ) {
+                liveBytes.addAndGet( -entry.recordBytes );
+            }
+            MISS.inc();
+            return Optional.empty();
+        }
+        HIT.inc();
+        return Optional.of( Hex.encodeHexString( entry.hash ) );
+    }
+
+    /**
+     * Store hash.
+     * <p>
+     * {@code attrs} should be read <em>before</em> hashing, so a file changed while hashing is recomputed later.
+     * </p>
+     *
+     * @param path      file
+     * @param attrs     attributes of {@code path} before hashing
+     * @param algorithm algorithm name
+     * @param hex       hex hash
+     * @throws IOException              if the log can not be written
+     * @throws NullPointerException     if any argument is null
+     * @throws IllegalArgumentException if {@code hex} is no hex
+     */
+    public void put( final Path path, final BasicFileAttributes attrs, final String algorithm, final String hex ) throws IOException {
+        Objects.requireNonNull( algorithm );
+        Objects.requireNonNull( hex );
+        final byte[] hash;
+        try {
+            hash = Hex.decodeHex( hex );
+        } catch ( final DecoderException dE ) {
+            throw new IllegalArgumentException( "Not hex '" + hex + "'", dE );
+        }
+        final String id = identity( path, attrs );
+        final long mtime = attrs.lastModifiedTime().to( TimeUnit.NANOSECONDS );
+        final byte[] record = encode( id, algorithm, attrs.size(), mtime, hash );
+        final Entry entry = new Entry( attrs.size(), mtime, hash, record.length );
+        final Entry old = entryM.put( key( id, algorithm ), entry );
+        liveBytes.addAndGet( record.length - ( null == old ? 0 : old.recordBytes ) );
+        append( record );
+    }
+
+    /**
+     * Number of cached entries.
+     *
+     * @return entries
+     */
+    public int size() {
+        return entryM.size();
+    }
+
+    /**
+     * Log file.
+     *
+     * @return path of log
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Rewrite log with live entries only.
+     *
+     * @throws IOException if writing failed
+     */
+    public synchronized void compact() throws IOException {
+        ensureOpen();
+        final FileLock lock = lockCurrent( false );
+        try {
+            final Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+            long written = 0L;
+            try ( final FileChannel out = FileChannel.open( tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+                for ( final Map.Entry<String, Entry> me : entryM.entrySet() ) {
+                    final int sep = me.getKey().indexOf( '\u0000' );
+                    final Entry e = me.getValue();
+                    final byte[] record = encode( me.getKey().substring( sep + 1 ), me.getKey().substring( 0, sep ), e.size, e.mtime, e.hash );
+                    written += writeFully( out, ByteBuffer.wrap( record ), written );
+                }
+                out.force( false );
+            }
+            Files.move( tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+            LOG.info( "Compacted '" + file + "' to " + written + " bytes" );
+        } finally {
+            release( lock );
+        }
+        reopen();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if ( !closed ) {
+            closed = true;
+            OPEN_M.remove( file, this );
+            channel.close();
+        }
+    }
+
+    private static byte[] encode( final String id, final String algo, final long size, final long mtime, final byte[] hash ) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream( 96 );
+        try ( final DataOutputStream dos = new DataOutputStream( bos ) ) {
+            dos.writeInt( 0 );
+            dos.writeUTF( id );
+            dos.writeUTF( algo );
+            dos.writeLong( size );
+            dos.writeLong( mtime );
+            dos.writeShort( hash.length );
+            dos.write( hash );
+            dos.writeInt( 0 );
+        } catch ( final IOException ioE ) {
+            throw new UncheckedIOException( ioE );
+        }
+        final ByteBuffer bb = ByteBuffer.wrap( bos.toByteArray() );
+        final int payload = bb.capacity() - RECORD_OVERHEAD;
+        bb.putInt( 0, payload );
+        final CRC32C crc = new CRC32C();
+        crc.update( bb.array(), 4, payload );
+        bb.putInt( 4 + payload, ( int ) crc.getValue() );
+        return bb.array();
+    }
+
+    private static long writeFully( final FileChannel fc, final ByteBuffer bb, final long pos ) throws IOException {
+        final int n = bb.remaining();
+        while ( bb.hasRemaining() ) {
+            fc.write( bb, pos + n - bb.remaining() );
+        }
+        return n;
+    }
+
+    private synchronized void append( final byte[] record ) throws IOException {
+        ensureOpen();
+        final FileLock lock = lockCurrent( false );
+        try {
+            offset += writeFully( channel, ByteBuffer.wrap( record ), offset );
+        } finally {
+            release( lock );
+        }
+        if ( offset > COMPACT_MIN_BYTES && offset > 2L * liveBytes.get() ) {
+            compact();
+        }
+    }
+
+    // read records appended by other JVMs, return true if any
+    private boolean refreshIfGrown() {
+        if ( closed ) {
+            return false;
+        }
+        try {
+            if ( channel.size() <= offset && System.currentTimeMillis() - replacedChecked < REPLACED_CHECK_MILLIS ) {
+                return false;
+            }
+        } catch ( final IOException ioE ) {
+            // channel closed by a concurrent reopen, check again under the monitor
+        }
+        return refresh();
+    }
+
+    private synchronized boolean refresh() {
+        if ( closed ) {
+            return false;
+        }
+        try {
+            if ( channel.size() <= offset && Objects.equals( channelKey, currentKey() ) ) {
+                replacedChecked = System.currentTimeMillis();
+                return false;
+            }
+            release( lockCurrent( true ) );
+            replacedChecked = System.currentTimeMillis();
+            return true;
+        } catch ( final IOException ioE ) {
+            LOG.warn( "Can not refresh '" + file + "'", ioE );
+            return false;
+        }
+    }
+
+    // lock the current log, follow a compaction of other JVMs and read their appends
+    private FileLock lockCurrent( final boolean shared ) throws IOException {
+        while ( true ) {
+            final FileLock lock = channel.lock( 0L, Long.MAX_VALUE, shared );
+            if ( Objects.equals( channelKey, currentKey() ) ) {
+                offset = read( channel, entryM, liveBytes, offset, !shared );
+                return lock;
+            }
+            // closing the old channel releases the lock
+            reopen();
+        }
+    }
+
+    private static void release( final FileLock lock ) throws IOException {
+        if ( lock.isValid() ) {
+            lock.release();
+        }
+    }
+
+    // load the log into a new map and swap it in, lookups keep using the old map meanwhile
+    @SuppressWarnings("try")
+    private synchronized void reopen() throws IOException {
+        final FileChannel fc = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+        final Object key = currentKey();
+        if ( null != channel ) {
+            // releases a lock held on the old log
+            channel.close();
+        }
+        final Map<String, Entry> em = new ConcurrentHashMap<>();
+        final AtomicLong live = new AtomicLong();
+        final long end;
+        try ( final FileLock lock = fc.lock() ) {
+            end = read( fc, em, live, 0L, true );
+        } catch ( final IOException | RuntimeException e ) {
+            fc.close();
+            throw e;
+        }
+        channel = fc;
+        channelKey = key;
+        entryM = em;
+        liveBytes.set( live.get() );
+        offset = end;
+        replacedChecked = System.currentTimeMillis();
+        LOG.debug( "Loaded " + em.size() + " entries from '" + file + "'" );
+    }
+
+    private Object currentKey() throws IOException {
+        return Files.exists( file ) ? Files.readAttributes( file, BasicFileAttributes.class ).fileKey() : null;
+    }
+
+    // read records from 'from' into map; cut a broken tail if exclusive; return new offset
+    private long read( final FileChannel fc, final Map<String, Entry> em, final AtomicLong live, final long from, final boolean exclusive ) throws IOException {
+        final long end = fc.size();
+        final ByteBuffer head = ByteBuffer.allocate( 4 );
+        long pos = from;
+        while ( pos < end ) {
+            head.clear();
+            if ( fc.read( head, pos ) < 4 || head.flip().remaining() < 4 ) {
+                break;
+            }
+            final int payload = head.getInt();
+            if ( payload < 0 || payload > MAX_RECORD || pos + RECORD_OVERHEAD + payload > end ) {
+                break;
+            }
+            final ByteBuffer body = ByteBuffer.allocate( payload + 4 );
+            while ( body.hasRemaining() && fc.read( body, pos + 4 + body.position() ) > 0 ) {
+                // fill
+            }
+            body.flip();
+            final CRC32C crc = new CRC32C();
+            crc.update( body.array(), 0, payload );
+            if ( body.getInt( payload ) != ( int ) crc.getValue() ) {
+                break;
+            }
+            decode( em, live, body.limit( payload ), payload + RECORD_OVERHEAD );
+            pos += payload + RECORD_OVERHEAD;
+        }
+        if ( pos < end && exclusive ) {
+            LOG.warn( "Cut broken tail of '" + file + "' at " + pos );
+            fc.truncate( pos );
+        }
+        return pos;
+    }
+
+    private static void decode( final Map<String, Entry> em, final AtomicLong live, final ByteBuffer bb, final int recordBytes ) throws IOException {
+        final DataInputStream dis = new DataInputStream( new ByteArrayInputStream( bb.array(), 0, bb.limit() ) );
+        final String id = dis.readUTF();
+        final String algo = dis.readUTF();
+        final long size = dis.readLong();
+        final long mtime = dis.readLong();
+        final byte[] hash = new byte[dis.readUnsignedShort()];
+        dis.readFully( hash );
+        final Entry old = em.put( key( id, algo ), new Entry( size, mtime, hash, recordBytes ) );
+        live.addAndGet( recordBytes - ( null == old ? 0 : old.recordBytes ) );
+    }
+
+    private void ensureOpen() throws IOException {
+        if ( closed ) {
+            throw new IOException( "Cache '" + file + "' is closed" );
+        }
+    }
+
+    private static final class Entry {
+
+        private final long size;
+        private final long mtime;
+        private final byte[] hash;
+        private final int recordBytes;
+
+        Entry( final long size, final long mtime, final byte[] hash, final int recordBytes ) {
+            this.size = size;
+            this.mtime = mtime;
+            this.hash = hash;
+            this.recordBytes = recordBytes;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checksum manifest in GNU {@code sha256sum} or BSD ({@code --tag}) format.
+ * <p>
+ * GNU lines are {@code <hex>  <name>} (text) or {@code <hex> *<name>} (binary).
+ * BSD lines are {@code SHA256 (<name>) = <hex>}. Names with backslash or newline are escaped
+ * and the line starts with a backslash, like coreutils does. Reading detects the format per line,
+ * blank lines and {@code #} comments are skipped. For GNU lines the algorithm is taken from
+ * the digest length unless given.
+ * </p>
+ * <p>
+ * Names are relative to the base dir, usually the dir of the manifest, with {@code /} as separator.
+ * </p>
+ *
+ * @author jTzipi
+ * @see ManifestVerifier
+ */
+public final class ChecksumManifest {
+
+    private static final Pattern BSD_LINE = Pattern.compile( "^(\\\\?)([A-Za-z0-9-]+) \\((.*)\\) = ([0-9a-fA-F]+)$" );
+    private static final Pattern GNU_LINE = Pattern.compile( "^(\\\\?)([0-9a-fA-F]+) ([ *])(.*)$" );
+    // BSD tag <-> JDK algorithm
+    private static final Map<String, String> TAG_M = Map.of(
+            "MD5", "MD5",
+            "SHA1", "SHA-1",
+            "SHA224", "SHA-224",
+            "SHA256", "SHA-256",
+            "SHA384", "SHA-384",
+            "SHA512", "SHA-512",
+            "XXH64", FingerprintProvider.XXH64,
+            "CRC32C", FingerprintProvider.CRC32C );
+
+    private final Path baseDir;
+    private final List<Entry> entryL;
+
+    private ChecksumManifest( final Path baseDir, final List<Entry> entryL ) {
+        this.baseDir = baseDir;
+        this.entryL = Collections.unmodifiableList( entryL );
+    }
+
+    /**
+     * Create manifest from entries.
+     *
+     * @param baseDir base dir of names
+     * @param entries entries
+     * @return manifest
+     * @throws NullPointerException if any argument is null
+     */
+    public static ChecksumManifest of( final Path baseDir, final Collection<Entry> entries ) {
+        Objects.requireNonNull( baseDir );
+        return new ChecksumManifest( baseDir, new ArrayList<>( entries ) );
+    }
+
+    /**
+     * Hash files and create manifest.
+     * <p>
+     * Files are hashed by a {@link ChecksumScheduler}. Entries are sorted by name.
+     * </p>
+     *
+     * @param baseDir   base dir, all files must be below
+     * @param files     files
+     * @param algorithm digest algorithm
+     * @return manifest
+     * @throws IOException              if a file could not be hashed
+     * @throws InterruptedException     if interrupted
+     * @throws NullPointerException     if any argument is null
+     * @throws IllegalArgumentException if a file is not below {@code baseDir} or algorithm is a tree digest
+     */
+    public static ChecksumManifest create( final Path baseDir, final Collection<Path> files, final String algorithm ) throws IOException, InterruptedException {
+        Objects.requireNonNull( baseDir );
+        Objects.requireNonNull( files );
+        if ( TreeDigest.PREFIX.equals( algorithm ) ) {
+            throw new IllegalArgumentException( "Tree digests have no manifest format" );
+        }
+        final Path base = baseDir.toAbsolutePath().normalize();
+        final ChecksumScheduler.Result result = ChecksumScheduler.of( algorithm ).hash( files );
+        if ( !result.getErrors().isEmpty() ) {
+            final Map.Entry<Path, IOException> first = result.getErrors().entrySet().iterator().next();
+            throw new IOException( "Failed to hash '" + first.getKey() + "'", first.getValue() );
+        }
+        final List<Entry> entryL = new ArrayList<>();
+        for ( final Map.Entry<Path, String> me : result.getHashes().entrySet() ) {
+            final Path abs = me.getKey().toAbsolutePath().normalize();
+            if ( !abs.startsWith( base ) ) {
+                throw new IllegalArgumentException( "File '" + abs + "' is not below '" + base + "'" );
+            }
+            final String name = base.relativize( abs ).toString().replace( abs.getFileSystem().getSeparator(), "/" );
+            entryL.add( Entry.of( name, algorithm, me.getValue() ) );
+        }
+        entryL.sort( Comparator.comparing( Entry::getName ) );
+        return new ChecksumManifest( base, entryL );
+    }
+
+    /**
+     * Read manifest file. Names are resolved against its dir.
+     *
+     * @param manifest manifest file
+     * @return manifest
+     * @throws IOException              if reading failed
+     * @throws IllegalArgumentException if a line is malformed
+     * @throws NullPointerException     if {@code manifest} is null
+     */
+    public static ChecksumManifest read( final Path manifest ) throws IOException {
+        Objects.requireNonNull( manifest );
+        final Path baseDir = manifest.toAbsolutePath().normalize().getParent();
+        try ( final BufferedReader br = Files.newBufferedReader( manifest, StandardCharsets.UTF_8 ) ) {
+            return parse( br, baseDir, null );
+        }
+    }
+
+    /**
+     * Parse manifest.
+     *
+     * @param reader    reader
+     * @param baseDir   base dir of names
+     * @param algorithm algorithm for GNU lines or null to guess by digest length
+     * @return manifest
+     * @throws IOException              if reading failed
+     * @throws IllegalArgumentException if a line is malformed
+     * @throws NullPointerException     if {@code reader} or {@code baseDir} is null
+     */
+    public static ChecksumManifest parse( final BufferedReader reader, final Path baseDir, final String algorithm ) throws IOException {
+        Objects.requireNonNull( reader );
+        Objects.requireNonNull( baseDir );
+        final List<Entry> entryL = new ArrayList<>();
+        int no = 0;
+        for ( String line = reader.readLine(); null != line; line = reader.readLine() ) {
+            no++;
+            if ( line.isBlank() || line.startsWith( "#" ) ) {
+                continue;
+            }
+            final Matcher bsd = BSD_LINE.matcher( line );
+            if ( bsd.matches() ) {
+                final String algo = TAG_M.get( bsd.group( 2 ).toUpperCase( Locale.ROOT ) );
+                if ( null == algo ) {
+                    throw new IllegalArgumentException( "Line " + no + ": unknown algorithm '" + bsd.group( 2 ) + "'" );
+                }
+                entryL.add( Entry.of( name( bsd.group( 3 ), !bsd.group( 1 ).isEmpty() ), algo, bsd.group( 4 ) ) );
+                continue;
+            }
+            final Matcher gnu = GNU_LINE.matcher( line );
+            if ( !gnu.matches() ) {
+                throw new IllegalArgumentException( "Line " + no + ": not a checksum line" );
+            }
+            final String hex = gnu.group( 2 );
+            final String algo = null != algorithm ? algorithm : algorithmOf( hex, no );
+            entryL.add( Entry.of( name( gnu.group( 4 ), !gnu.group( 1 ).isEmpty() ), algo, hex ) );
+        }
+        return new ChecksumManifest( baseDir.toAbsolutePath().normalize(), entryL );
+    }
+
+    private static String algorithmOf( final String hex, final int no ) {
+        switch ( hex.length() ) {
+            case 32:
+                return "MD5";
+            case 40:
+                return "SHA-1";
+            case 56:
+                return "SHA-224";
+            case 64:
+                return "SHA-256";
+            case 96:
+                return "SHA-384";
+            case 128:
+                return "SHA-512";
+            default:
+                throw new IllegalArgumentException( "Line " + no + ": can not guess algorithm of " + hex.length() + " hex digits" );
+        }
+    }
+
+    private static String tagOf( final String algorithm ) {
+        for ( final Map.Entry<String, String> me : TAG_M.entrySet() ) {
+            if ( me.getValue().equalsIgnoreCase( algorithm ) ) {
+                return me.getKey();
+            }
+        }
+        return algorithm.replace( "-", "" ).toUpperCase( Locale.ROOT );
+    }
+
+    private static String name( final String raw, final boolean escaped ) {
+        if ( !escaped ) {
+            return raw;
+        }
+        final StringBuilder sb = new StringBuilder( raw.length() );
+        for ( int i = 0; i < raw.length(); i++ ) {
+            final char c = raw.charAt( i );
+            if ( '\\' == c && i + 1 < raw.length() ) {
+                final char n = raw.charAt( ++i );
+                sb.append( 'n' == n ? '\n' : 'r' == n ? '\r' : n );
+            } else {
+                sb.append( c );
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean needsEscape( final String name ) {
+        return name.indexOf( '\\' ) >= 0 || name.indexOf( '\n' ) >= 0 || name.indexOf( '\r' ) >= 0;
+    }
+
+    private static String escape( final String name ) {
+        return name.replace( "\\", "\\\\" ).replace( "\n", "\\n" ).replace( "\r", "\\r" );
+    }
+
+    /**
+     * Base dir of names.
+     *
+     * @return absolute base dir
+     */
+    public Path getBaseDir() {
+        return baseDir;
+    }
+
+    /**
+     * Entries in manifest order.
+     *
+     * @return entries
+     */
+    public List<Entry> getEntries() {
+        return entryL;
+    }
+
+    /**
+     * Resolve name of entry against base dir.
+     *
+     * @param entry entry
+     * @return path
+     */
+    public Path resolve( final Entry entry ) {
+        return baseDir.resolve( entry.getName() );
+    }
+
+    /**
+     * Write manifest atomically.
+     *
+     * @param file   target
+     * @param format format
+     * @throws IOException          if writing failed
+     * @throws NullPointerException if any argument is null
+     */
+    public void write( final Path file, final Format format ) throws IOException {
+        Objects.requireNonNull( file );
+        Objects.requireNonNull( format );
+        final Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        try ( final BufferedWriter bw = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) ) {
+            for ( final Entry entry : entryL ) {
+                bw.write( format( entry, format ) );
+                bw.write( '\n' );
+            }
+        }
+        Files.move( tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Format one entry as line without line feed.
+     *
+     * @param entry  entry
+     * @param format format
+     * @return line
+     */
+    public static String format( final Entry entry, final Format format ) {
+        final String name = entry.getName();
+        final boolean esc = needsEscape( name );
+        final String prefix = esc ? "\\" : "";
+        final String escName = esc ? escape( name ) : name;
+        return Format.GNU == format
+                ? prefix + entry.getHash() + "  " + escName
+                : prefix + tagOf( entry.getAlgorithm() ) + " (" + escName + ") = " + entry.getHash();
+    }
+
+    /**
+     * Manifest format.
+     */
+    public enum Format {
+        /**
+         * {@code <hex>  <name>}.
+         */
+        GNU,
+        /**
+         * {@code SHA256 (<name>) = <hex>}.
+         */
+        BSD
+    }
+
+    /**
+     * One line of a manifest.
+     */
+    public static final class Entry {
+
+        private final String name;
+        private final String algorithm;
+        private final String hash;
+
+        private Entry( final String name, final String algorithm, final String hash ) {
+            this.name = name;
+            this.algorithm = algorithm;
+            this.hash = hash;
+        }
+
+        /**
+         * Create entry.
+         *
+         * @param name      relative name
+         * @param algorithm algorithm
+         * @param hash      hex hash
+         * @return entry
+         * @throws NullPointerException if any argument is null
+         */
+        public static Entry of( final String name, final String algorithm, final String hash ) {
+            return new Entry( Objects.requireNonNull( name ), Objects.requireNonNull( algorithm ), Objects.requireNonNull( hash ).toLowerCase( Locale.ROOT ) );
+        }
+
+        /**
+         * Relative name.
+         *
+         * @return name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Algorithm.
+         *
+         * @return algorithm name
+         */
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        /**
+         * Lower case hex hash.
+         *
+         * @return hash
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return format( this, Format.BSD );
+        }
+    }
+}
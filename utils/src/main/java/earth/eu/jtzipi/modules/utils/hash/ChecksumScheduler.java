@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import earth.eu.jtzipi.modules.utils.ChecksumUtils;
+import earth.eu.jtzipi.modules.utils.ITaskProgressUpdater;
+import earth.eu.jtzipi.modules.utils.ProgressAggregator;
+import earth.eu.jtzipi.modules.utils.exec.DeviceThrottle;
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import earth.eu.jtzipi.modules.utils.exec.ManagedExecutor;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Hash many files with few tasks.
+ * <p>
+ * Files are sorted by size. Files up to the split size are packed into batches
+ * (by bytes and count). A fixed number of workers drain the batches, each with one reused
+ * digest and buffer, so 500k tiny files cost a handful of tasks and digests.
+ * Files above the split size are scheduled first, one per unit. With algorithm
+ * {@link TreeDigest#PREFIX} their chunks are spread over all workers by {@link TreeHash};
+ * a plain digest like SHA-256 is sequential by definition and runs on one worker.
+ * </p>
+ * <p>
+ * The calling thread waits and reports progress in bytes to an {@link ITaskProgressUpdater}
+ * every 100 ms, so the updater is only called from one thread. {@code BREAK} stops all workers
+ * after their current read. The {@link ChecksumUtils#getCache() checksum cache} is consulted
+ * and filled.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ChecksumScheduler {
+
+    /**
+     * Files larger are scheduled alone.
+     */
+    public static final long DEFAULT_SPLIT_SIZE = 64L * 1024L * 1024L;
+    /**
+     * Max bytes of a batch of small files.
+     */
+    public static final long DEFAULT_BATCH_BYTES = 16L * 1024L * 1024L;
+    /**
+     * Max files of a batch.
+     */
+    public static final int DEFAULT_BATCH_FILES = 256;
+
+    private static final Logger LOG = LoggerFactory.getLogger( "ChecksumScheduler" );
+    private static final long UPDATE_MILLIS = 100L;
+    private static final ICounter HASH_FILES = Metrics.counter( "hash.files" );
+    private static final ICounter HASH_BYTES = Metrics.counter( "hash.bytes" );
+
+    private final String algorithm;
+    private final boolean tree;
+    private final Executor executor;
+    private final int workers;
+    private final long splitSize;
+    private final long batchBytes;
+    private final int batchFiles;
+    private final ITaskProgressUpdater updater;
+    private final BiConsumer<Path, String> listener;
+
+    private ChecksumScheduler( final String algorithm, final Executor executor, final int workers, final long splitSize, final long batchBytes, final int batchFiles, final ITaskProgressUpdater updater, final BiConsumer<Path, String> listener ) {
+        this.algorithm = algorithm;
+        this.tree = TreeDigest.PREFIX.equals( algorithm );
+        this.executor = executor;
+        this.workers = workers;
+        this.splitSize = splitSize;
+        this.batchBytes = batchBytes;
+        this.batchFiles = batchFiles;
+        this.updater = updater;
+        this.listener = listener;
+    }
+
+    /**
+     * Create scheduler on the {@link ExecutorRegistry#CHECKSUM} pool.
+     *
+     * @param algorithm digest algorithm or {@link TreeDigest#PREFIX} for tree hashes
+     * @return scheduler
+     * @throws NullPointerException     if {@code algorithm} is null
+     * @throws IllegalArgumentException if {@code algorithm} is unknown
+     */
+    public static ChecksumScheduler of( final String algorithm ) {
+        Objects.requireNonNull( algorithm );
+        if ( !TreeDigest.PREFIX.equals( algorithm ) ) {
+            ChecksumUtils.getDigest( algorithm );
+        }
+        final ManagedExecutor me = ExecutorRegistry.get( ExecutorRegistry.CHECKSUM );
+        return new ChecksumScheduler( algorithm, me, me.getMaximumPoolSize(), DEFAULT_SPLIT_SIZE, DEFAULT_BATCH_BYTES, DEFAULT_BATCH_FILES, null, null );
+    }
+
+    /**
+     * Return copy using executor.
+     *
+     * @param executor executor
+     * @param workers  number of workers &gt; 0
+     * @return scheduler
+     * @throws NullPointerException     if {@code executor} is null
+     * @throws IllegalArgumentException if {@code workers} &lt; 1
+     */
+    public ChecksumScheduler executor( final Executor executor, final int workers ) {
+        Objects.requireNonNull( executor );
+        if ( workers < 1 ) {
+            throw new IllegalArgumentException( "Workers[=" + workers + "] < 1" );
+        }
+        return new ChecksumScheduler( algorithm, executor, workers, splitSize, batchBytes, batchFiles, updater, listener );
+    }
+
+    /**
+     * Return copy with split size and batch limits.
+     *
+     * @param split files larger are scheduled alone
+     * @param bytes max bytes of a batch
+     * @param files max files of a batch
+     * @return scheduler
+     * @throws IllegalArgumentException if any value &lt; 1
+     */
+    public ChecksumScheduler batch( final long split, final long bytes, final int files ) {
+        if ( split < 1L || bytes < 1L || files < 1 ) {
+            throw new IllegalArgumentException( "Split[=" + split + "], bytes[=" + bytes + "] and files[=" + files + "] must be > 0" );
+        }
+        return new ChecksumScheduler( algorithm, executor, workers, split, bytes, files, updater, listener );
+    }
+
+    /**
+     * Return copy reporting progress in bytes.
+     *
+     * @param progressUpdater updater
+     * @return scheduler
+     * @throws NullPointerException if {@code progressUpdater} is null
+     */
+    public ChecksumScheduler progress( final ITaskProgressUpdater progressUpdater ) {
+        Objects.requireNonNull( progressUpdater );
+        return new ChecksumScheduler( algorithm, executor, workers, splitSize, batchBytes, batchFiles, progressUpdater, listener );
+    }
+
+    /**
+     * Return copy adding progress in bytes to a progress shared with other tasks.
+     *
+     * @param aggregator shared progress
+     * @return scheduler
+     * @throws NullPointerException if {@code aggregator} is null
+     */
+    public ChecksumScheduler progress( final ProgressAggregator aggregator ) {
+        Objects.requireNonNull( aggregator );
+        return progress( aggregator.worker() );
+    }
+
+    /**
+     * Return copy calling {@code consumer} with every hash as soon as it is known.
+     * <p>
+     * The consumer is called from worker threads and must be thread safe.
+     * </p>
+     *
+     * @param consumer path and hex hash (or tree digest string)
+     * @return scheduler
+     * @throws NullPointerException if {@code consumer} is null
+     */
+    public ChecksumScheduler onHash( final BiConsumer<Path, String> consumer ) {
+        Objects.requireNonNull( consumer );
+        return new ChecksumScheduler( algorithm, executor, workers, splitSize, batchBytes, batchFiles, updater, consumer );
+    }
+
+    /**
+     * Hash files and wait for all.
+     *
+     * @param paths files
+     * @return result
+     * @throws InterruptedException if interrupted while waiting, workers are stopped
+     * @throws NullPointerException if {@code paths} is null
+     */
+    public Result hash( final Collection<Path> paths ) throws InterruptedException {
+        Objects.requireNonNull( paths );
+        final Run run = new Run();
+        final ChecksumCache cc = ChecksumUtils.getCache();
+        final List<Item> itemL = new ArrayList<>( paths.size() );
+        long total = 0L;
+        for ( final Path path : paths ) {
+            try {
+                final BasicFileAttributes attrs = Files.readAttributes( path, BasicFileAttributes.class );
+                if ( attrs.isDirectory() ) {
+                    throw new IOException( "Path '" + path + "' seem to be a dir" );
+                }
+                total += attrs.size();
+                final Optional<String> hit = null == cc ? Optional.empty() : cc.get( path, attrs, cacheAlgorithm() );
+                if ( hit.isPresent() ) {
+                    run.done( path, tree ? cacheAlgorithm() + ":" + hit.get() : hit.get() );
+                    run.bytes.addAndGet( attrs.size() );
+                } else {
+                    itemL.add( new Item( path, attrs ) );
+                }
+            } catch ( final IOException ioE ) {
+                run.fail( path, ioE );
+            }
+        }
+        itemL.sort( Comparator.comparingLong( ( final Item item ) -> item.attrs.size() ).reversed() );
+
+        final List<List<Item>> unitL = new ArrayList<>();
+        List<Item> batch = new ArrayList<>();
+        long batchSize = 0L;
+        for ( final Item item : itemL ) {
+            if ( item.attrs.size() > splitSize ) {
+                unitL.add( Collections.singletonList( item ) );
+                continue;
+            }
+            if ( !batch.isEmpty() && ( batchSize + item.attrs.size() > batchBytes || batch.size() >= batchFiles ) ) {
+                unitL.add( batch );
+                batch = new ArrayList<>();
+                batchSize = 0L;
+            }
+            batch.add( item );
+            batchSize += item.attrs.size();
+        }
+        if ( !batch.isEmpty() ) {
+            unitL.add( batch );
+        }
+        LOG.debug( itemL.size() + " files in " + unitL.size() + " units" );
+
+        run.start( unitL, total );
+        return run.result();
+    }
+
+    private String cacheAlgorithm() {
+        return tree ? TreeDigest.PREFIX + ":" + TreeHash.DEFAULT_CHUNK_SIZE : algorithm;
+    }
+
+    /**
+     * Result of a run.
+     */
+    public static final class Result {
+
+        private final Map<Path, String> hashM;
+        private final Map<Path, IOException> errorM;
+        private final long bytes;
+        private final boolean cancelled;
+
+        Result( final Map<Path, String> hashM, final Map<Path, IOException> errorM, final long bytes, final boolean cancelled ) {
+            this.hashM = Collections.unmodifiableMap( hashM );
+            this.errorM = Collections.unmodifiableMap( errorM );
+            this.bytes = bytes;
+            this.cancelled = cancelled;
+        }
+
+        /**
+         * Hashes of files.
+         *
+         * @return path to hex hash
+         */
+        public Map<Path, String> getHashes() {
+            return hashM;
+        }
+
+        /**
+         * Errors.
+         *
+         * @return path to error
+         */
+        public Map<Path, IOException> getErrors() {
+            return errorM;
+        }
+
+        /**
+         * Bytes hashed or found in cache.
+         *
+         * @return bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Whether the run was stopped by the updater or interrupt.
+         *
+         * @return cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private static final class Item {
+
+        private final Path path;
+        private final BasicFileAttributes attrs;
+
+        Item( final Path path, final BasicFileAttributes attrs ) {
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+
+    /**
+     * State of one {@link #hash(Collection)} call.
+     */
+    private final class Run {
+
+        private final Map<Path, String> hashM = new ConcurrentHashMap<>();
+        private final Map<Path, IOException> errorM = new ConcurrentHashMap<>();
+        private final Queue<Map.Entry<Path, IOException>> errorQ = new ConcurrentLinkedQueue<>();
+        private final Queue<List<Item>> workQ = new ConcurrentLinkedQueue<>();
+        private final AtomicLong bytes = new AtomicLong();
+        private CountDownLatch doneLatch;
+        private final long startNanos = System.nanoTime();
+        private long total;
+        private volatile boolean cancelled;
+
+        void start( final List<List<Item>> unitL, final long total ) throws InterruptedException {
+            this.total = total;
+            workQ.addAll( unitL );
+            doneLatch = new CountDownLatch( unitL.size() );
+            final int n = Math.min( workers, unitL.size() );
+            int started = 0;
+            for ( int i = 0; i < n; i++ ) {
+                try {
+                    executor.execute( this::drain );
+                    started++;
+                } catch ( final RejectedExecutionException reE ) {
+                    LOG.warn( "Worker rejected", reE );
+                }
+            }
+            if ( 0 == started ) {
+                drain();
+            }
+            try {
+                while ( !doneLatch.await( UPDATE_MILLIS, TimeUnit.MILLISECONDS ) ) {
+                    report();
+                }
+            } catch ( final InterruptedException iE ) {
+                cancelled = true;
+                throw iE;
+            }
+            report();
+        }
+
+        Result result() {
+            return new Result( hashM, errorM, bytes.get(), cancelled );
+        }
+
+        void done( final Path path, final String hash ) {
+            hashM.put( path, hash );
+            if ( null != listener ) {
+                listener.accept( path, hash );
+            }
+        }
+
+        void fail( final Path path, final IOException ioE ) {
+            errorM.put( path, ioE );
+            errorQ.add( Map.entry( path, ioE ) );
+        }
+
+        private void report() {
+            if ( null == updater ) {
+                errorQ.clear();
+                return;
+            }
+            for ( Map.Entry<Path, IOException> me = errorQ.poll(); null != me; me = errorQ.poll() ) {
+                if ( ITaskProgressUpdater.TaskAction.BREAK == updater.error( bytes.get(), me.getValue() ) ) {
+                    cancelled = true;
+                }
+            }
+            final long done = bytes.get();
+            final long nanos = System.nanoTime() - startNanos;
+            final double rate = nanos <= 0L ? 0D : done * 1E9D / nanos;
+            final Duration eta = rate <= 0D || done >= total ? Duration.ZERO : Duration.ofNanos( ( long ) ( ( total - done ) / rate * 1E9D ) );
+            if ( ITaskProgressUpdater.TaskAction.BREAK == updater.update( done, total, rate, eta ) ) {
+                cancelled = true;
+            }
+        }
+
+        private void drain() {
+            final Worker worker = new Worker();
+            try {
+                for ( List<Item> unit = workQ.poll(); null != unit; unit = workQ.poll() ) {
+                    try {
+                        for ( final Item item : unit ) {
+                            if ( cancelled || Thread.currentThread().isInterrupted() ) {
+                                break;
+                            }
+                            worker.hash( this, item );
+                        }
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            } finally {
+                worker.release();
+            }
+        }
+    }
+
+    /**
+     * Digest and buffer reused for all files of one worker.
+     */
+    private final class Worker {
+
+        private MessageDigest md;
+        private ByteBuffer buf;
+        private BufferPool bufPool;
+
+        void release() {
+            if ( null != md ) {
+                DigestPool.of( md.getAlgorithm() ).release( md );
+            }
+            if ( null != buf ) {
+                bufPool.release( buf );
+            }
+        }
+
+        @SuppressWarnings("try")
+        void hash( final Run run, final Item item ) {
+            final Path path = item.path;
+            try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( path ) ) {
+                final String hash;
+                try {
+                    hash = tree ? treeHash( run, item ) : digest( run, path );
+                } catch ( final CancellationException cE ) {
+                    return;
+                }
+                if ( null == hash ) {
+                    return;
+                }
+                HASH_FILES.inc();
+                HASH_BYTES.add( item.attrs.size() );
+                final ChecksumCache cc = ChecksumUtils.getCache();
+                if ( null != cc ) {
+                    cc.put( path, item.attrs, cacheAlgorithm(), tree ? TreeDigest.parse( hash ).getRootHex() : hash );
+                }
+                run.done( path, hash );
+            } catch ( final IOException ioE ) {
+                run.fail( path, ioE );
+            }
+        }
+
+        // null if cancelled
+        private String digest( final Run run, final Path path ) throws IOException {
+            if ( null == md ) {
+                md = DigestPool.of( algorithm ).acquire();
+                bufPool = BufferPool.getDefault();
+                buf = bufPool.acquire();
+            }
+            md.reset();
+            try ( final FileChannel fc = FileChannel.open( path, StandardOpenOption.READ ) ) {
+                buf.clear();
+                for ( int n = fc.read( buf ); n >= 0; n = fc.read( buf ) ) {
+                    if ( run.cancelled ) {
+                        return null;
+                    }
+                    buf.flip();
+                    md.update( buf );
+                    run.bytes.addAndGet( n );
+                    buf.clear();
+                }
+            }
+            return Hex.encodeHexString( md.digest() );
+        }
+
+        private String treeHash( final Run run, final Item item ) throws IOException {
+            if ( item.attrs.size() > splitSize ) {
+                return TreeHash.of( TreeHash.DEFAULT_CHUNK_SIZE, executor, workers + 1 ).digest( item.path, run.bytes::addAndGet, () -> run.cancelled ).toString();
+            }
+            if ( null == md ) {
+                md = DigestPool.of( "SHA-256" ).acquire();
+                bufPool = BufferPool.shared( TreeHash.DEFAULT_CHUNK_SIZE );
+                buf = bufPool.acquire();
+            }
+            return TreeHash.of( TreeHash.DEFAULT_CHUNK_SIZE, executor, 1 ).digestSequential( item.path, md, buf, run.bytes::addAndGet, () -> run.cancelled ).toString();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigestSpi;
+import java.util.zip.CRC32C;
+
+/**
+ * JDK {@link CRC32C} as message digest.
+ * <p>
+ * Uses the hardware CRC instructions where the JVM has intrinsics for them.
+ * The 4 byte digest is the CRC value in big endian order.
+ * Not a cryptographic hash. Get it with {@code MessageDigest.getInstance( "CRC32C" )}
+ * after {@link FingerprintProvider#install()}.
+ * </p>
+ * <p>
+ * {@link CRC32C} can not be copied, so a clone starts a new CRC and keeps the value so far as prefix;
+ * both are combined on digest like zlib's {@code crc32_combine}.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class Crc32cSpi extends MessageDigestSpi implements Cloneable {
+
+    // reversed Castagnoli polynomial
+    private static final long POLY = 0x82F63B78L;
+
+    private CRC32C crc = new CRC32C();
+    // value of data before a clone, combined with crc on digest
+    private boolean hasPrefix;
+    private long prefix;
+    // bytes in crc
+    private long length;
+
+    /**
+     * Create digest.
+     */
+    public Crc32cSpi() {
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 4;
+    }
+
+    @Override
+    protected void engineUpdate( final byte input ) {
+        crc.update( input );
+        length++;
+    }
+
+    @Override
+    protected void engineUpdate( final byte[] input, final int offset, final int len ) {
+        crc.update( input, offset, len );
+        length += len;
+    }
+
+    @Override
+    protected void engineUpdate( final ByteBuffer input ) {
+        length += input.remaining();
+        crc.update( input );
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final long v = value();
+        engineReset();
+        return new byte[]{( byte ) ( v >>> 24 ), ( byte ) ( v >>> 16 ), ( byte ) ( v >>> 8 ), ( byte ) v};
+    }
+
+    @Override
+    protected void engineReset() {
+        crc.reset();
+        hasPrefix = false;
+        prefix = 0L;
+        length = 0L;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final Crc32cSpi copy = ( Crc32cSpi ) super.clone();
+        copy.crc = new CRC32C();
+        copy.hasPrefix = true;
+        copy.prefix = value();
+        copy.length = 0L;
+        return copy;
+    }
+
+    private long value() {
+        return hasPrefix ? combine( prefix, crc.getValue(), length ) : crc.getValue();
+    }
+
+    // CRC of A||B from CRC of A, CRC of B and length of B
+    private static long combine( final long crc1, final long crc2, final long len2 ) {
+        if ( len2 <= 0L ) {
+            return crc1;
+        }
+        final long[] even = new long[32];
+        final long[] odd = new long[32];
+        odd[0] = POLY;
+        long row = 1L;
+        for ( int n = 1; n < 32; n++ ) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2Square( even, odd );
+        gf2Square( odd, even );
+        long c = crc1;
+        long len = len2;
+        do {
+            gf2Square( even, odd );
+            if ( 0L != ( len & 1L ) ) {
+                c = gf2Times( even, c );
+            }
+            len >>>= 1;
+            if ( 0L == len ) {
+                break;
+            }
+            gf2Square( odd, even );
+            if ( 0L != ( len & 1L ) ) {
+                c = gf2Times( odd, c );
+            }
+            len >>>= 1;
+        } while ( 0L != len );
+        return c ^ crc2;
+    }
+
+    private static long gf2Times( final long[] mat, final long vec ) {
+        long sum = 0L;
+        long v = vec;
+        for ( int i = 0; 0L != v; i++, v >>>= 1 ) {
+            if ( 0L != ( v & 1L ) ) {
+                sum ^= mat[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2Square( final long[] square, final long[] mat ) {
+        for ( int n = 0; n < 32; n++ ) {
+            square[n] = gf2Times( mat, mat[n] );
+        }
+    }
+}
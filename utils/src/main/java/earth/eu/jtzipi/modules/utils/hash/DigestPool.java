@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pool of reset message digests per algorithm.
+ * <p>
+ * Digests are created by cloning a prototype, which skips the provider lookup of
+ * {@link MessageDigest#getInstance(String)}. Pooled digests are kept in an array based queue,
+ * so borrowing and returning allocates nothing. Unlike a thread local this also works
+ * for short living virtual threads.
+ * </p>
+ * <pre>
+ *     DigestPool pool = DigestPool.of( "SHA-256" );
+ *     MessageDigest md = pool.acquire();
+ *     try {
+ *         ...
+ *     } finally {
+ *         pool.release( md );
+ *     }
+ * </pre>
+ *
+ * @author jTzipi
+ */
+public final class DigestPool {
+
+    private static final Map<String, DigestPool> POOL_M = new ConcurrentHashMap<>();
+    private static final int CAPACITY = Math.max( 8, 4 * Runtime.getRuntime().availableProcessors() );
+
+    static {
+        FingerprintProvider.install();
+    }
+
+    private final String algorithm;
+    private final MessageDigest prototype;
+    private final boolean cloneable;
+    private final BlockingQueue<MessageDigest> freeQ = new ArrayBlockingQueue<>( CAPACITY );
+
+    private DigestPool( final String algorithm, final MessageDigest prototype ) {
+        this.algorithm = algorithm;
+        this.prototype = prototype;
+        this.cloneable = isCloneable( prototype );
+    }
+
+    /**
+     * Return pool for algorithm.
+     *
+     * @param algorithm algorithm name
+     * @return pool
+     * @throws NullPointerException     if {@code algorithm} is null
+     * @throws IllegalArgumentException if {@code algorithm} is unknown
+     */
+    public static DigestPool of( final String algorithm ) {
+        Objects.requireNonNull( algorithm );
+        final DigestPool pool = POOL_M.get( algorithm );
+        return null != pool ? pool : POOL_M.computeIfAbsent( algorithm, algo -> new DigestPool( algo, newInstance( algo ) ) );
+    }
+
+    private static MessageDigest newInstance( final String algo ) {
+        try {
+            return MessageDigest.getInstance( algo );
+        } catch ( final NoSuchAlgorithmException nsaE ) {
+            throw new IllegalArgumentException( "Unknown digest '" + algo + "'", nsaE );
+        }
+    }
+
+    private static boolean isCloneable( final MessageDigest md ) {
+        try {
+            md.clone();
+            return true;
+        } catch ( final CloneNotSupportedException cnsE ) {
+            return false;
+        }
+    }
+
+    /**
+     * Algorithm of pool.
+     *
+     * @return algorithm name
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Borrow a reset digest.
+     *
+     * @return digest
+     */
+    public MessageDigest acquire() {
+        final MessageDigest md = freeQ.poll();
+        if ( null != md ) {
+            return md;
+        }
+        if ( cloneable ) {
+            try {
+                return ( MessageDigest ) prototype.clone();
+            } catch ( final CloneNotSupportedException cnsE ) {
+                throw new IllegalStateException( cnsE );
+            }
+        }
+        return newInstance( algorithm );
+    }
+
+    /**
+     * Reset and return digest. Dropped if the pool is full.
+     *
+     * @param md digest from {@link #acquire()}
+     * @throws NullPointerException     if {@code md} is null
+     * @throws IllegalArgumentException if {@code md} has another algorithm
+     */
+    public void release( final MessageDigest md ) {
+        Objects.requireNonNull( md );
+        if ( !algorithm.equals( md.getAlgorithm() ) ) {
+            throw new IllegalArgumentException( "Digest '" + md.getAlgorithm() + "' is not '" + algorithm + "'" );
+        }
+        md.reset();
+        freeQ.offer( md );
+    }
+}
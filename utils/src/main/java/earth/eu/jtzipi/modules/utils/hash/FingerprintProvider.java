@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import java.security.Provider;
+import java.security.Security;
+import java.util.List;
+
+/**
+ * Security provider for fast non-cryptographic fingerprints.
+ * <p>
+ * After {@link #install()} the fingerprints can be used by name wherever a
+ * {@link java.security.MessageDigest} algorithm is accepted:
+ * <ul>
+ *     <li>{@value #XXH64} (alias {@code XXHASH64}) via {@link XxHash64Spi}</li>
+ *     <li>{@value #CRC32C} via {@link Crc32cSpi}</li>
+ * </ul>
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class FingerprintProvider extends Provider {
+
+    /**
+     * Provider name.
+     */
+    public static final String NAME = "JTzipiFingerprint";
+    /**
+     * xxHash64 algorithm name.
+     */
+    public static final String XXH64 = "XXH64";
+    /**
+     * CRC32C algorithm name.
+     */
+    public static final String CRC32C = "CRC32C";
+
+    private static final long serialVersionUID = 1L;
+
+    private FingerprintProvider() {
+        super( NAME, "1.0", "xxHash64 and CRC32C fingerprints" );
+        putService( new Service( this, "MessageDigest", XXH64, XxHash64Spi.class.getName(), List.of( "XXHASH64" ), null ) );
+        putService( new Service( this, "MessageDigest", CRC32C, Crc32cSpi.class.getName(), null, null ) );
+    }
+
+    /**
+     * Install provider at lowest preference if not installed yet.
+     */
+    public static synchronized void install() {
+        if ( null == Security.getProvider( NAME ) ) {
+            Security.addProvider( new FingerprintProvider() );
+        }
+    }
+
+    /**
+     * Return whether algorithm is a non-cryptographic fingerprint.
+     *
+     * @param algorithm algorithm name
+     * @return {@code true} if fingerprint
+     */
+    public static boolean isFingerprint( final String algorithm ) {
+        return XXH64.equalsIgnoreCase( algorithm ) || "XXHASH64".equalsIgnoreCase( algorithm ) || CRC32C.equalsIgnoreCase( algorithm );
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import earth.eu.jtzipi.modules.utils.ITaskProgressUpdater;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Hashing was stopped by a progress updater.
+ *
+ * @author jTzipi
+ */
+public class HashAbortedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ITaskProgressUpdater.TaskAction action;
+
+    /**
+     * Create exception.
+     *
+     * @param path   file
+     * @param action {@link ITaskProgressUpdater.TaskAction#SKIP} or {@link ITaskProgressUpdater.TaskAction#BREAK}
+     */
+    public HashAbortedException( final Path path, final ITaskProgressUpdater.TaskAction action ) {
+        super( "Hashing of '" + path + "' stopped by " + action );
+        this.action = action;
+    }
+
+    /**
+     * Action that stopped hashing.
+     *
+     * @return action
+     */
+    public ITaskProgressUpdater.TaskAction getAction() {
+        return action;
+    }
+}
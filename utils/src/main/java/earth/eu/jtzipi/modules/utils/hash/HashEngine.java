@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import earth.eu.jtzipi.modules.utils.ByteProgress;
+import earth.eu.jtzipi.modules.utils.ITaskProgressUpdater;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Objects;
+
+/**
+ * Allocation free file hashing with {@link DigestPool} and {@link BufferPool}.
+ * <p>
+ * In steady state only the file channel is allocated per file.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class HashEngine {
+
+    private HashEngine() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Feed file content to digest using a pooled direct buffer.
+     *
+     * @param path file
+     * @param md   digest to update
+     * @return bytes read
+     * @throws IOException          if reading failed
+     * @throws NullPointerException if {@code path} or {@code md} is null
+     */
+    public static long update( final Path path, final MessageDigest md ) throws IOException {
+        Objects.requireNonNull( path );
+        Objects.requireNonNull( md );
+        return update( path, md, null );
+    }
+
+    /**
+     * Feed file content to digest reporting bytes to {@code progress} after every buffer.
+     * <p>
+     * If the updater answers {@link ITaskProgressUpdater.TaskAction#SKIP} or
+     * {@link ITaskProgressUpdater.TaskAction#BREAK} reading stops and the digest is reset.
+     * </p>
+     *
+     * @param path     file
+     * @param md       digest to update
+     * @param progress progress or null
+     * @return bytes read
+     * @throws HashAbortedException if stopped by the updater
+     * @throws IOException          if reading failed
+     * @throws NullPointerException if {@code path} or {@code md} is null
+     */
+    public static long update( final Path path, final MessageDigest md, final ByteProgress progress ) throws IOException {
+        Objects.requireNonNull( path );
+        Objects.requireNonNull( md );
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final ByteBuffer buf = bufferPool.acquire();
+        long bytes = 0L;
+        try ( final FileChannel fc = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            for ( int n = fc.read( buf ); n >= 0; n = fc.read( buf ) ) {
+                buf.flip();
+                md.update( buf );
+                bytes += n;
+                buf.clear();
+                if ( null != progress ) {
+                    final ITaskProgressUpdater.TaskAction action = progress.advance( n );
+                    if ( ITaskProgressUpdater.TaskAction.SKIP == action || ITaskProgressUpdater.TaskAction.BREAK == action ) {
+                        md.reset();
+                        throw new HashAbortedException( path, action );
+                    }
+                }
+            }
+        } finally {
+            bufferPool.release( buf );
+        }
+        return bytes;
+    }
+
+    /**
+     * Hash file into {@code out}.
+     *
+     * @param path      file
+     * @param algorithm algorithm name
+     * @param out       destination
+     * @param off       offset in {@code out}
+     * @return digest length
+     * @throws IOException              if reading failed
+     * @throws NullPointerException     if any argument is null
+     * @throws IllegalArgumentException if {@code algorithm} is unknown or {@code out} too short
+     */
+    public static int digest( final Path path, final String algorithm, final byte[] out, final int off ) throws IOException {
+        Objects.requireNonNull( out );
+        final DigestPool pool = DigestPool.of( algorithm );
+        final MessageDigest md = pool.acquire();
+        try {
+            update( path, md );
+            return md.digest( out, off, md.getDigestLength() );
+        } catch ( final DigestException dE ) {
+            throw new IllegalArgumentException( "Output too short", dE );
+        } finally {
+            pool.release( md );
+        }
+    }
+
+    /**
+     * Hash file.
+     *
+     * @param path      file
+     * @param algorithm algorithm name
+     * @return digest
+     * @throws IOException              if reading failed
+     * @throws NullPointerException     if any argument is null
+     * @throws IllegalArgumentException if {@code algorithm} is unknown
+     */
+    public static byte[] digest( final Path path, final String algorithm ) throws IOException {
+        final DigestPool pool = DigestPool.of( algorithm );
+        final MessageDigest md = pool.acquire();
+        try {
+            update( path, md );
+            return md.digest();
+        } finally {
+            pool.release( md );
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+
+/**
+ * Append aware SHA-256 of growing files like logs or journals.
+ * <p>
+ * After hashing a file the {@link ResumableSha256} state is stored together with the hashed length,
+ * the modification time and xxHash64 fingerprints of the first and last {@value #FINGERPRINT_SIZE} bytes
+ * of the hashed prefix. A later call on the same file (same file key) reuses the state if
+ * <ul>
+ *     <li>the file grew and both fingerprints still match, then only the appended bytes are hashed, or</li>
+ *     <li>length and modification time are unchanged and both fingerprints still match.</li>
+ * </ul>
+ * Otherwise the file is hashed from the start, in particular if the length is equal but the
+ * modification time changed.
+ * </p>
+ * <p>
+ * State is kept in one small file per identity in a state directory, replaced atomically.
+ * This is a heuristic for append only files: only the head and tail {@value #FINGERPRINT_SIZE} bytes
+ * of the prefix are compared, so an edit in the middle of the prefix combined with an append
+ * (or with a restored modification time) is not detected and yields a stale hash.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class IncrementalHash {
+
+    /**
+     * Bytes covered by head and tail fingerprint.
+     */
+    public static final int FINGERPRINT_SIZE = 4096;
+    // version 2 with modification time
+    private static final int MAGIC = 0x494e4332;
+    private static final String SUFFIX = ".sha256state";
+    private static final Logger LOG = LoggerFactory.getLogger( "IncrementalHash" );
+    private static final ICounter RESUMED = Metrics.counter( "hash.incremental.resumed" );
+    private static final ICounter SKIPPED = Metrics.counter( "hash.incremental.bytes.skipped" );
+
+    static {
+        FingerprintProvider.install();
+    }
+
+    private final Path stateDir;
+
+    private IncrementalHash( final Path stateDir ) {
+        this.stateDir = stateDir;
+    }
+
+    /**
+     * Create incremental hasher storing state in {@code stateDir}.
+     *
+     * @param stateDir state directory, created if missing
+     * @return hasher
+     * @throws IOException          if the directory can not be created
+     * @throws NullPointerException if {@code stateDir} is null
+     */
+    public static IncrementalHash of( final Path stateDir ) throws IOException {
+        Objects.requireNonNull( stateDir );
+        Files.createDirectories( stateDir );
+        return new IncrementalHash( stateDir );
+    }
+
+    /**
+     * Return state directory.
+     *
+     * @return directory
+     */
+    public Path getStateDir() {
+        return stateDir;
+    }
+
+    /**
+     * Compute SHA-256 of file reusing stored state if the file only grew or is unchanged.
+     * <p>
+     * The file is hashed up to the size read at the start of the call.
+     * See the class doc for when the state is reused.
+     * </p>
+     *
+     * @param path file
+     * @return SHA-256
+     * @throws IOException          if reading failed
+     * @throws NullPointerException if {@code path} is null
+     */
+    public byte[] digest( final Path path ) throws IOException {
+        Objects.requireNonNull( path );
+        final BasicFileAttributes attrs = Files.readAttributes( path, BasicFileAttributes.class );
+        final String identity = ChecksumCache.identity( path, attrs );
+        final Path stateFile = stateFile( identity );
+        final long size = attrs.size();
+        final long modified = attrs.lastModifiedTime().toMillis();
+
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final ByteBuffer buf = bufferPool.acquire();
+        try ( final FileChannel fc = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            final State old = read( stateFile, identity );
+            ResumableSha256 sha = null;
+            long pos = 0L;
+            // same length with new mtime may be an edit between head and tail
+            if ( null != old && ( old.length < size || old.length == size && old.modified == modified )
+                    && old.head == fingerprint( fc, 0L, old.length, buf )
+                    && old.tail == fingerprint( fc, tailStart( old.length ), old.length, buf ) ) {
+                try {
+                    sha = ResumableSha256.restore( old.sha );
+                    pos = old.length;
+                    RESUMED.inc();
+                    SKIPPED.add( pos );
+                } catch ( final IllegalArgumentException iaE ) {
+                    LOG.warn( "Corrupt state '" + stateFile + "'", iaE );
+                }
+            }
+            if ( null == sha ) {
+                sha = ResumableSha256.create();
+                pos = 0L;
+            }
+            while ( pos < size ) {
+                buf.clear().limit( ( int ) Math.min( buf.capacity(), size - pos ) );
+                final int n = fc.read( buf, pos );
+                if ( n < 0 ) {
+                    throw new IOException( "File '" + path + "' shrunk while hashing" );
+                }
+                buf.flip();
+                sha.update( buf );
+                pos += n;
+            }
+            final State now = new State( identity, size, modified,
+                    fingerprint( fc, 0L, size, buf ), fingerprint( fc, tailStart( size ), size, buf ), sha.exportState() );
+            write( stateFile, now );
+            return sha.digest();
+        } finally {
+            bufferPool.release( buf );
+        }
+    }
+
+    /**
+     * Compute SHA-256 of file as hex.
+     *
+     * @param path file
+     * @return hex hash
+     * @throws IOException          if reading failed
+     * @throws NullPointerException if {@code path} is null
+     * @see #digest(Path)
+     */
+    public String digestHex( final Path path ) throws IOException {
+        return Hex.encodeHexString( digest( path ) );
+    }
+
+    /**
+     * Remove stored state of file.
+     *
+     * @param path file
+     * @throws IOException          if deleting failed
+     * @throws NullPointerException if {@code path} is null
+     */
+    public void forget( final Path path ) throws IOException {
+        Objects.requireNonNull( path );
+        final BasicFileAttributes attrs = Files.readAttributes( path, BasicFileAttributes.class );
+        final String identity = ChecksumCache.identity( path, attrs );
+        Files.deleteIfExists( stateFile( identity ) );
+    }
+
+    private Path stateFile( final String identity ) {
+        final DigestPool pool = DigestPool.of( "SHA-256" );
+        final MessageDigest md = pool.acquire();
+        try {
+            return stateDir.resolve( Hex.encodeHexString( md.digest( identity.getBytes( StandardCharsets.UTF_8 ) ) ) + SUFFIX );
+        } finally {
+            pool.release( md );
+        }
+    }
+
+    private static long tailStart( final long length ) {
+        return Math.max( 0L, length - FINGERPRINT_SIZE );
+    }
+
+    private static long fingerprint( final FileChannel fc, final long from, final long length, final ByteBuffer buf ) throws IOException {
+        final DigestPool pool = DigestPool.of( FingerprintProvider.XXH64 );
+        final MessageDigest md = pool.acquire();
+        try {
+            final long to = Math.min( length, from + FINGERPRINT_SIZE );
+            long pos = from;
+            while ( pos < to ) {
+                buf.clear().limit( ( int ) Math.min( buf.capacity(), to - pos ) );
+                final int n = fc.read( buf, pos );
+                if ( n < 0 ) {
+                    break;
+                }
+                buf.flip();
+                md.update( buf );
+                pos += n;
+            }
+            return ByteBuffer.wrap( md.digest() ).getLong();
+        } finally {
+            pool.release( md );
+        }
+    }
+
+    private State read( final Path stateFile, final String identity ) {
+        final byte[] raw;
+        try {
+            raw = Files.readAllBytes( stateFile );
+        } catch ( final NoSuchFileException nsfE ) {
+            return null;
+        } catch ( final IOException ioE ) {
+            LOG.warn( "Can not read state '" + stateFile + "'", ioE );
+            return null;
+        }
+        if ( raw.length < 8 ) {
+            return null;
+        }
+        final CRC32C crc = new CRC32C();
+        crc.update( raw, 0, raw.length - 4 );
+        if ( ( int ) crc.getValue() != ByteBuffer.wrap( raw, raw.length - 4, 4 ).getInt() ) {
+            LOG.warn( "Checksum of state '" + stateFile + "' wrong" );
+            return null;
+        }
+        try ( final DataInputStream dis = new DataInputStream( new ByteArrayInputStream( raw, 0, raw.length - 4 ) ) ) {
+            if ( MAGIC != dis.readInt() ) {
+                return null;
+            }
+            final String id = dis.readUTF();
+            if ( !identity.equals( id ) ) {
+                return null;
+            }
+            final long length = dis.readLong();
+            final long modified = dis.readLong();
+            final long head = dis.readLong();
+            final long tail = dis.readLong();
+            final byte[] sha = new byte[dis.readInt()];
+            dis.readFully( sha );
+            return new State( id, length, modified, head, tail, sha );
+        } catch ( final IOException | NegativeArraySizeException e ) {
+            LOG.warn( "Corrupt state '" + stateFile + "'", e );
+            return null;
+        }
+    }
+
+    private void write( final Path stateFile, final State state ) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream( 256 );
+        try ( final DataOutputStream dos = new DataOutputStream( bos ) ) {
+            dos.writeInt( MAGIC );
+            dos.writeUTF( state.identity );
+            dos.writeLong( state.length );
+            dos.writeLong( state.modified );
+            dos.writeLong( state.head );
+            dos.writeLong( state.tail );
+            dos.writeInt( state.sha.length );
+            dos.write( state.sha );
+            final CRC32C crc = new CRC32C();
+            crc.update( bos.toByteArray() );
+            dos.writeInt( ( int ) crc.getValue() );
+        } catch ( final IOException ioE ) {
+            throw new AssertionError( ioE );
+        }
+        try {
+            final Path tmp = Files.createTempFile( stateDir, stateFile.getFileName().toString(), ".tmp" );
+            try {
+                Files.write( tmp, bos.toByteArray() );
+                Files.move( tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            } finally {
+                Files.deleteIfExists( tmp );
+            }
+        } catch ( final IOException ioE ) {
+            LOG.warn( "Can not write state '" + stateFile + "'", ioE );
+        }
+    }
+
+    private static final class State {
+
+        private final String identity;
+        private final long length;
+        private final long modified;
+        private final long head;
+        private final long tail;
+        private final byte[] sha;
+
+        private State( final String identity, final long length, final long modified, final long head, final long tail, final byte[] sha ) {
+            this.identity = identity;
+            this.length = length;
+            this.modified = modified;
+            this.head = head;
+            this.tail = tail;
+            this.sha = sha;
+        }
+    }
+}
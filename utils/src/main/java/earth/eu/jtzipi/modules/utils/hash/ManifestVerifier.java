@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import earth.eu.jtzipi.modules.utils.exec.DeviceThrottle;
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import earth.eu.jtzipi.modules.utils.exec.ManagedExecutor;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Parallel verification of a {@link ChecksumManifest}.
+ * <p>
+ * Entries are ordered by inode ({@code unix:ino}) before hashing. Java has no access to the
+ * physical block layout, but on most file systems inode order follows creation order and
+ * is a good proxy that cuts seeks on spinning disks. Without inodes the manifest order is kept.
+ * Workers take entries in that order and hash them with {@link HashEngine}; the checksum cache is
+ * deliberately not used, verification always reads the data.
+ * </p>
+ * <p>
+ * Results are streamed to a consumer on the calling thread as they complete. While no result is ready the
+ * calling thread checks one entry itself, so it works along and still hands out results between entries.
+ * With fail fast the run stops at the first mismatch, missing file or error.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ManifestVerifier {
+
+    private static final Logger LOG = LoggerFactory.getLogger( "ManifestVerifier" );
+
+    private final Executor executor;
+    private final int workers;
+    private final boolean failFast;
+
+    private ManifestVerifier( final Executor executor, final int workers, final boolean failFast ) {
+        this.executor = executor;
+        this.workers = workers;
+        this.failFast = failFast;
+    }
+
+    /**
+     * Verifier on the {@link ExecutorRegistry#CHECKSUM} pool, not failing fast.
+     *
+     * @return verifier
+     */
+    public static ManifestVerifier create() {
+        final ManagedExecutor me = ExecutorRegistry.get( ExecutorRegistry.CHECKSUM );
+        return new ManifestVerifier( me, me.getMaximumPoolSize(), false );
+    }
+
+    /**
+     * Return copy with fail fast.
+     *
+     * @param stopOnFirst stop on first failed entry
+     * @return verifier
+     */
+    public ManifestVerifier failFast( final boolean stopOnFirst ) {
+        return new ManifestVerifier( executor, workers, stopOnFirst );
+    }
+
+    /**
+     * Return copy using executor.
+     *
+     * @param exec    executor
+     * @param threads workers &gt; 0
+     * @return verifier
+     * @throws NullPointerException     if {@code exec} is null
+     * @throws IllegalArgumentException if {@code threads} &lt; 1
+     */
+    public ManifestVerifier executor( final Executor exec, final int threads ) {
+        Objects.requireNonNull( exec );
+        if ( threads < 1 ) {
+            throw new IllegalArgumentException( "Workers[=" + threads + "] < 1" );
+        }
+        return new ManifestVerifier( exec, threads, failFast );
+    }
+
+    /**
+     * Verify all entries.
+     *
+     * @param manifest manifest
+     * @param consumer called on the calling thread for each result
+     * @return summary
+     * @throws InterruptedException if interrupted, workers are stopped
+     * @throws NullPointerException if any argument is null
+     */
+    public Summary verify( final ChecksumManifest manifest, final Consumer<Result> consumer ) throws InterruptedException {
+        Objects.requireNonNull( manifest );
+        Objects.requireNonNull( consumer );
+        final List<Job> jobL = new ArrayList<>();
+        for ( final ChecksumManifest.Entry entry : manifest.getEntries() ) {
+            final Path path = manifest.resolve( entry );
+            jobL.add( new Job( entry, path, inode( path ) ) );
+        }
+        jobL.sort( Comparator.comparingLong( job -> job.inode ) );
+
+        final Queue<Job> jobQ = new ConcurrentLinkedQueue<>( jobL );
+        final BlockingQueue<Result> resultQ = new LinkedBlockingQueue<>();
+        final Run run = new Run( jobQ, resultQ );
+        for ( int i = 0; i < Math.min( workers, jobL.size() ); i++ ) {
+            try {
+                executor.execute( run::work );
+            } catch ( final RejectedExecutionException reE ) {
+                LOG.warn( "Worker rejected", reE );
+            }
+        }
+
+        final Summary summary = new Summary();
+        try {
+            for ( int i = 0; i < jobL.size(); i++ ) {
+                Result result = resultQ.poll();
+                if ( null == result ) {
+                    result = run.step() ? resultQ.poll() : resultQ.take();
+                }
+                summary.add( result );
+                consumer.accept( result );
+                if ( failFast && Status.OK != result.getStatus() ) {
+                    summary.stopped = i + 1 < jobL.size();
+                    break;
+                }
+            }
+        } finally {
+            run.stop = true;
+        }
+        return summary;
+    }
+
+    // entries without inode keep manifest order
+    private static long inode( final Path path ) {
+        try {
+            final Object ino = Files.getAttribute( path, "unix:ino", LinkOption.NOFOLLOW_LINKS );
+            return ino instanceof Number ? ( ( Number ) ino ).longValue() : Long.MAX_VALUE;
+        } catch ( final IOException | UnsupportedOperationException | IllegalArgumentException e ) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Status of an entry.
+     */
+    public enum Status {
+        /**
+         * Hash matches.
+         */
+        OK,
+        /**
+         * Hash differs.
+         */
+        MISMATCH,
+        /**
+         * File not found.
+         */
+        MISSING,
+        /**
+         * Read error or unknown algorithm.
+         */
+        ERROR
+    }
+
+    private static final class Job {
+
+        private final ChecksumManifest.Entry entry;
+        private final Path path;
+        private final long inode;
+
+        Job( final ChecksumManifest.Entry entry, final Path path, final long inode ) {
+            this.entry = entry;
+            this.path = path;
+            this.inode = inode;
+        }
+    }
+
+    private static final class Run {
+
+        private final Queue<Job> jobQ;
+        private final BlockingQueue<Result> resultQ;
+        private final Thread caller = Thread.currentThread();
+        private volatile boolean stop;
+
+        Run( final Queue<Job> jobQ, final BlockingQueue<Result> resultQ ) {
+            this.jobQ = jobQ;
+            this.resultQ = resultQ;
+        }
+
+        void work() {
+            // caller runs, the calling thread takes single jobs between results
+            if ( Thread.currentThread() == caller ) {
+                return;
+            }
+            while ( !stop ) {
+                if ( !step() ) {
+                    return;
+                }
+            }
+        }
+
+        // check one job, false if none left
+        boolean step() {
+            final Job job = jobQ.poll();
+            if ( null == job ) {
+                return false;
+            }
+            resultQ.add( check( job ) );
+            return true;
+        }
+
+        @SuppressWarnings("try")
+        private static Result check( final Job job ) {
+            try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( job.path ) ) {
+                final String actual = Hex.encodeHexString( HashEngine.digest( job.path, job.entry.getAlgorithm() ) );
+                return new Result( job.entry, job.path, actual.equals( job.entry.getHash() ) ? Status.OK : Status.MISMATCH, actual, null );
+            } catch ( final NoSuchFileException nsfE ) {
+                return new Result( job.entry, job.path, Status.MISSING, null, nsfE );
+            } catch ( final IOException | RuntimeException e ) {
+                return new Result( job.entry, job.path, Status.ERROR, null, e );
+            }
+        }
+    }
+
+    /**
+     * Result of one entry.
+     */
+    public static final class Result {
+
+        private final ChecksumManifest.Entry entry;
+        private final Path path;
+        private final Status status;
+        private final String actual;
+        private final Exception error;
+
+        Result( final ChecksumManifest.Entry entry, final Path path, final Status status, final String actual, final Exception error ) {
+            this.entry = entry;
+            this.path = path;
+            this.status = status;
+            this.actual = actual;
+            this.error = error;
+        }
+
+        /**
+         * Manifest entry.
+         *
+         * @return entry
+         */
+        public ChecksumManifest.Entry getEntry() {
+            return entry;
+        }
+
+        /**
+         * Resolved path.
+         *
+         * @return path
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Status.
+         *
+         * @return status
+         */
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * Computed hash.
+         *
+         * @return hex or null if not computed
+         */
+        public String getActual() {
+            return actual;
+        }
+
+        /**
+         * Error.
+         *
+         * @return error or null
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return entry.getName() + ": " + status;
+        }
+    }
+
+    /**
+     * Counts of a run.
+     */
+    public static final class Summary {
+
+        private final int[] count = new int[Status.values().length];
+        private boolean stopped;
+
+        void add( final Result result ) {
+            count[result.getStatus().ordinal()]++;
+        }
+
+        /**
+         * Number of results with status.
+         *
+         * @param status status
+         * @return count
+         */
+        public int getCount( final Status status ) {
+            return count[status.ordinal()];
+        }
+
+        /**
+         * Whether all verified entries are OK.
+         *
+         * @return {@code true} if no failure
+         */
+        public boolean isOk() {
+            return count[Status.OK.ordinal()] == count[0] + count[1] + count[2] + count[3] && !stopped;
+        }
+
+        /**
+         * Whether fail fast stopped the run early.
+         *
+         * @return stopped
+         */
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        @Override
+        public String toString() {
+            return "ok=" + getCount( Status.OK ) + " mismatch=" + getCount( Status.MISMATCH ) + " missing=" + getCount( Status.MISSING ) + " error=" + getCount( Status.ERROR ) + ( stopped ? " (stopped)" : "" );
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compute several digests of a file with one read.
+ * <p>
+ * Sequential mode feeds all digests from one reused buffer.
+ * Parallel mode ({@link #parallel(Executor)}) lets the calling thread read into a ring of buffers
+ * and every digest consume the ring on its own worker. If a worker does not start in time the
+ * caller takes over its digest, so a saturated pool slows the hash down but never blocks it.
+ * </p>
+ * <pre>
+ *     Map&lt;String, byte[]&gt; hashM = MultiDigest.of( "MD5", "SHA-1", "SHA-256" ).digest( path );
+ * </pre>
+ *
+ * @author jTzipi
+ */
+public final class MultiDigest {
+
+    /**
+     * Default buffer size.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    // buffers in ring
+    private static final int RING_SLOTS = 4;
+    private static final int SPINS = 64;
+    private static final long PARK_NANOS = 20_000L;
+
+
+    static {
+        FingerprintProvider.install();
+    }
+
+    private final List<String> algoL;
+    private final int bufferSize;
+    private final Executor executor;
+
+    private MultiDigest( final List<String> algoL, final int bufferSize, final Executor executor ) {
+        this.algoL = algoL;
+        this.bufferSize = bufferSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Create sequential multi digest.
+     *
+     * @param algorithms digest algorithm names like {@code SHA-256}
+     * @return multi digest
+     * @throws NullPointerException     if {@code algorithms} is null
+     * @throws IllegalArgumentException if empty or an algorithm is unknown
+     */
+    public static MultiDigest of( final String... algorithms ) {
+        Objects.requireNonNull( algorithms );
+        if ( 0 == algorithms.length ) {
+            throw new IllegalArgumentException( "No algorithm" );
+        }
+        final List<String> algoL = new ArrayList<>();
+        for ( final String algo : algorithms ) {
+            DigestPool.of( Objects.requireNonNull( algo ) );
+            if ( !algoL.contains( algo ) ) {
+                algoL.add( algo );
+            }
+        }
+        return new MultiDigest( Collections.unmodifiableList( algoL ), DEFAULT_BUFFER_SIZE, null );
+    }
+
+    private static void pause( final int spins ) {
+        if ( spins < SPINS ) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos( PARK_NANOS );
+        }
+    }
+
+    // fill buffer until full or end of file
+    private static int fill( final FileChannel fc, final ByteBuffer buf ) throws IOException {
+        buf.clear();
+        while ( buf.hasRemaining() ) {
+            if ( fc.read( buf ) < 0 ) {
+                break;
+            }
+        }
+        return buf.position();
+    }
+
+    /**
+     * Return copy with buffer size.
+     *
+     * @param size buffer size &gt; 0
+     * @return multi digest
+     * @throws IllegalArgumentException if {@code size} &lt; 1
+     */
+    public MultiDigest bufferSize( final int size ) {
+        if ( size < 1 ) {
+            throw new IllegalArgumentException( "Buffer size[=" + size + "] < 1" );
+        }
+        return new MultiDigest( algoL, size, executor );
+    }
+
+    /**
+     * Return copy computing each digest on a worker of {@code executor}.
+     *
+     * @param executor executor
+     * @return multi digest
+     * @throws NullPointerException if {@code executor} is null
+     */
+    public MultiDigest parallel( final Executor executor ) {
+        Objects.requireNonNull( executor );
+        return new MultiDigest( algoL, bufferSize, executor );
+    }
+
+    /**
+     * Algorithms in order.
+     *
+     * @return algorithm names
+     */
+    public List<String> getAlgorithms() {
+        return algoL;
+    }
+
+    /**
+     * Compute all digests of file.
+     *
+     * @param path file
+     * @return map of algorithm to digest in order of {@link #getAlgorithms()}
+     * @throws IOException          if reading failed
+     * @throws NullPointerException if {@code path} is null
+     */
+    public Map<String, byte[]> digest( final Path path ) throws IOException {
+        Objects.requireNonNull( path );
+        final List<MessageDigest> mdL = new ArrayList<>( algoL.size() );
+        for ( final String algo : algoL ) {
+            mdL.add( DigestPool.of( algo ).acquire() );
+        }
+        try ( final FileChannel fc = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            if ( null == executor || 1 == mdL.size() ) {
+                sequential( fc, mdL );
+            } else {
+                new Ring( mdL ).run( fc );
+            }
+            final Map<String, byte[]> hashM = new LinkedHashMap<>();
+            for ( int i = 0; i < algoL.size(); i++ ) {
+                hashM.put( algoL.get( i ), mdL.get( i ).digest() );
+            }
+            return hashM;
+        } finally {
+            for ( final MessageDigest md : mdL ) {
+                DigestPool.of( md.getAlgorithm() ).release( md );
+            }
+        }
+    }
+
+    private void sequential( final FileChannel fc, final List<MessageDigest> mdL ) throws IOException {
+        final byte[] buf = new byte[bufferSize];
+        final ByteBuffer bb = ByteBuffer.wrap( buf );
+        for ( int n = fill( fc, bb ); n > 0; n = fill( fc, bb ) ) {
+            for ( final MessageDigest md : mdL ) {
+                md.update( buf, 0, n );
+            }
+        }
+    }
+
+    /**
+     * Single producer ring with one consumer per digest.
+     * A consumer is run either by a worker or inline by the producer, whoever claims it first.
+     */
+    private final class Ring {
+
+        private final byte[][] slot = new byte[RING_SLOTS][];
+        private final ByteBuffer[] slotBuf = new ByteBuffer[RING_SLOTS];
+        private final int[] len = new int[RING_SLOTS];
+        private final Consumer[] consumer;
+        private volatile long published;
+        private volatile long end = Long.MAX_VALUE;
+        private volatile boolean aborted;
+
+        Ring( final List<MessageDigest> mdL ) {
+            for ( int i = 0; i < RING_SLOTS; i++ ) {
+                slot[i] = new byte[bufferSize];
+                slotBuf[i] = ByteBuffer.wrap( slot[i] );
+            }
+            consumer = new Consumer[mdL.size()];
+            for ( int i = 0; i < consumer.length; i++ ) {
+                consumer[i] = new Consumer( mdL.get( i ) );
+            }
+        }
+
+        void run( final FileChannel fc ) throws IOException {
+            // the producer always runs the first digest itself
+            consumer[0].claimed.set( true );
+            final Thread producer = Thread.currentThread();
+            for ( int i = 1; i < consumer.length; i++ ) {
+                final Consumer c = consumer[i];
+                try {
+                    executor.execute( () -> {
+                        // a caller runs executor may run this on the producer, which would wait for itself
+                        if ( Thread.currentThread() != producer && c.claimed.compareAndSet( false, true ) ) {
+                            try {
+                                consume( c );
+                            } finally {
+                                c.stopped = true;
+                            }
+                        }
+                    } );
+                } catch ( final RejectedExecutionException reE ) {
+                    // producer will take over
+                }
+            }
+            try {
+                long seq = 0L;
+                while ( true ) {
+                    awaitConsumed( seq - RING_SLOTS + 1 );
+                    final int idx = ( int ) ( seq % RING_SLOTS );
+                    final int n = fill( fc, slotBuf[idx] );
+                    if ( n <= 0 ) {
+                        break;
+                    }
+                    len[idx] = n;
+                    published = ++seq;
+                    consumer[0].md.update( slot[idx], 0, n );
+                    consumer[0].seq = seq;
+                    for ( final Consumer c : consumer ) {
+                        if ( c.inline ) {
+                            catchUp( c, seq );
+                        }
+                    }
+                }
+                end = seq;
+                awaitConsumed( seq );
+            } catch ( final IOException | RuntimeException e ) {
+                aborted = true;
+                awaitStopped();
+                throw e;
+            }
+        }
+
+        // after abort the digests go back to the pool, so workers must have left them
+        private void awaitStopped() {
+            for ( int i = 1; i < consumer.length; i++ ) {
+                final Consumer c = consumer[i];
+                int spins = 0;
+                while ( c.claimed.get() && !c.inline && !c.stopped ) {
+                    pause( spins++ );
+                }
+            }
+        }
+
+        // wait until all consumers have consumed up to 'seq'
+        private void awaitConsumed( final long seq ) {
+            for ( final Consumer c : consumer ) {
+                int spins = 0;
+                while ( c.seq < seq ) {
+                    if ( c.claimed.compareAndSet( false, true ) ) {
+                        c.inline = true;
+                        catchUp( c, published );
+                    } else {
+                        pause( spins++ );
+                    }
+                }
+            }
+        }
+
+        private void catchUp( final Consumer c, final long upTo ) {
+            for ( long s = c.seq; s < upTo; s++ ) {
+                final int idx = ( int ) ( s % RING_SLOTS );
+                c.md.update( slot[idx], 0, len[idx] );
+            }
+            c.seq = upTo;
+        }
+
+        private void consume( final Consumer c ) {
+            long s = c.seq;
+            int spins = 0;
+            while ( !aborted && s < end ) {
+                if ( s < published ) {
+                    final int idx = ( int ) ( s % RING_SLOTS );
+                    c.md.update( slot[idx], 0, len[idx] );
+                    c.seq = ++s;
+                    spins = 0;
+                } else {
+                    pause( spins++ );
+                }
+            }
+        }
+    }
+
+    private static final class Consumer {
+
+        private final MessageDigest md;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile long seq;
+        // worker left consume
+        private volatile boolean stopped;
+        // run by the producer
+        private boolean inline;
+
+        Consumer( final MessageDigest md ) {
+            this.md = md;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Pure Java SHA-256 whose intermediate state can be exported and restored.
+ * <p>
+ * JDK digests can only be cloned in memory. This one can persist the state after hashing
+ * a prefix of a file and later continue with the appended bytes, giving the same result
+ * as hashing the whole file at once.
+ * </p>
+ * State format (big endian): {@code int magic, int[8] h, long count, int pending, byte[pending]}.
+ *
+ * @author jTzipi
+ */
+public final class ResumableSha256 {
+
+    private static final int MAGIC = 0x53323536;
+    private static final int BLOCK = 64;
+    private static final int[] K = {
+            0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+            0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+            0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+            0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+            0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+            0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+            0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+            0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+    };
+    private static final int[] H0 = {
+            0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19
+    };
+
+    private final int[] h = new int[8];
+    private final int[] w = new int[64];
+    private final byte[] pending = new byte[BLOCK];
+    private byte[] scratch;
+    private int pendingLen;
+    private long count;
+
+    private ResumableSha256() {
+        reset();
+    }
+
+    /**
+     * Create fresh digest.
+     *
+     * @return digest
+     */
+    public static ResumableSha256 create() {
+        return new ResumableSha256();
+    }
+
+    /**
+     * Restore digest from exported state.
+     *
+     * @param state state from {@link #exportState()}
+     * @return digest
+     * @throws NullPointerException     if {@code state} is null
+     * @throws IllegalArgumentException if {@code state} is malformed
+     */
+    public static ResumableSha256 restore( final byte[] state ) {
+        Objects.requireNonNull( state );
+        final ResumableSha256 sha = new ResumableSha256();
+        try {
+            final ByteBuffer bb = ByteBuffer.wrap( state );
+            if ( MAGIC != bb.getInt() ) {
+                throw new IllegalArgumentException( "Not a SHA-256 state" );
+            }
+            for ( int i = 0; i < 8; i++ ) {
+                sha.h[i] = bb.getInt();
+            }
+            sha.count = bb.getLong();
+            sha.pendingLen = bb.getInt();
+            if ( sha.pendingLen < 0 || sha.pendingLen >= BLOCK || sha.count % BLOCK != sha.pendingLen || bb.remaining() != sha.pendingLen ) {
+                throw new IllegalArgumentException( "Corrupt SHA-256 state" );
+            }
+            bb.get( sha.pending, 0, sha.pendingLen );
+        } catch ( final RuntimeException e ) {
+            if ( e instanceof IllegalArgumentException ) {
+                throw e;
+            }
+            throw new IllegalArgumentException( "Corrupt SHA-256 state", e );
+        }
+        return sha;
+    }
+
+    /**
+     * Bytes hashed so far.
+     *
+     * @return byte count
+     */
+    public long getByteCount() {
+        return count;
+    }
+
+    /**
+     * Export current state.
+     *
+     * @return state
+     */
+    public byte[] exportState() {
+        final ByteBuffer bb = ByteBuffer.allocate( 4 + 32 + 8 + 4 + pendingLen );
+        bb.putInt( MAGIC );
+        for ( final int v : h ) {
+            bb.putInt( v );
+        }
+        bb.putLong( count ).putInt( pendingLen ).put( pending, 0, pendingLen );
+        return bb.array();
+    }
+
+    /**
+     * Update with bytes.
+     *
+     * @param in  input
+     * @param off offset
+     * @param len length
+     */
+    public void update( final byte[] in, final int off, final int len ) {
+        Objects.checkFromIndexSize( off, len, in.length );
+        int pos = off;
+        final int end = off + len;
+        count += len;
+        if ( pendingLen > 0 ) {
+            final int n = Math.min( BLOCK - pendingLen, len );
+            System.arraycopy( in, pos, pending, pendingLen, n );
+            pendingLen += n;
+            pos += n;
+            if ( BLOCK > pendingLen ) {
+                return;
+            }
+            compress( pending, 0 );
+            pendingLen = 0;
+        }
+        for ( ; pos <= end - BLOCK; pos += BLOCK ) {
+            compress( in, pos );
+        }
+        pendingLen = end - pos;
+        System.arraycopy( in, pos, pending, 0, pendingLen );
+    }
+
+    /**
+     * Update with remaining bytes of buffer.
+     *
+     * @param in input
+     */
+    public void update( final ByteBuffer in ) {
+        if ( in.hasArray() ) {
+            update( in.array(), in.arrayOffset() + in.position(), in.remaining() );
+            in.position( in.limit() );
+            return;
+        }
+        if ( null == scratch ) {
+            scratch = new byte[8192];
+        }
+        final byte[] tmp = scratch;
+        while ( in.hasRemaining() ) {
+            final int n = Math.min( tmp.length, in.remaining() );
+            in.get( tmp, 0, n );
+            update( tmp, 0, n );
+        }
+    }
+
+    /**
+     * Finish and return hash. The digest is reset afterwards.
+     *
+     * @return 32 byte hash
+     */
+    public byte[] digest() {
+        final long bits = count * 8L;
+        final byte[] pad = new byte[( pendingLen < 56 ? 56 : 120 ) - pendingLen + 8];
+        pad[0] = ( byte ) 0x80;
+        for ( int i = 0; i < 8; i++ ) {
+            pad[pad.length - 1 - i] = ( byte ) ( bits >>> ( 8 * i ) );
+        }
+        update( pad, 0, pad.length );
+        final byte[] out = new byte[32];
+        for ( int i = 0; i < 8; i++ ) {
+            out[4 * i] = ( byte ) ( h[i] >>> 24 );
+            out[4 * i + 1] = ( byte ) ( h[i] >>> 16 );
+            out[4 * i + 2] = ( byte ) ( h[i] >>> 8 );
+            out[4 * i + 3] = ( byte ) h[i];
+        }
+        reset();
+        return out;
+    }
+
+    /**
+     * Reset to initial state.
+     */
+    public void reset() {
+        System.arraycopy( H0, 0, h, 0, 8 );
+        Arrays.fill( pending, ( byte ) 0 );
+        pendingLen = 0;
+        count = 0L;
+    }
+
+    private void compress( final byte[] b, final int off ) {
+        for ( int t = 0; t < 16; t++ ) {
+            final int i = off + 4 * t;
+            w[t] = b[i] << 24 | ( b[i + 1] & 0xFF ) << 16 | ( b[i + 2] & 0xFF ) << 8 | b[i + 3] & 0xFF;
+        }
+        for ( int t = 16; t < 64; t++ ) {
+            final int s0 = Integer.rotateRight( w[t - 15], 7 ) ^ Integer.rotateRight( w[t - 15], 18 ) ^ w[t - 15] >>> 3;
+            final int s1 = Integer.rotateRight( w[t - 2], 17 ) ^ Integer.rotateRight( w[t - 2], 19 ) ^ w[t - 2] >>> 10;
+            w[t] = w[t - 16] + s0 + w[t - 7] + s1;
+        }
+        int a = h[0];
+        int bb = h[1];
+        int c = h[2];
+        int d = h[3];
+        int e = h[4];
+        int f = h[5];
+        int g = h[6];
+        int hh = h[7];
+        for ( int t = 0; t < 64; t++ ) {
+            final int s1 = Integer.rotateRight( e, 6 ) ^ Integer.rotateRight( e, 11 ) ^ Integer.rotateRight( e, 25 );
+            final int ch = e & f ^ ~e & g;
+            final int t1 = hh + s1 + ch + K[t] + w[t];
+            final int s0 = Integer.rotateRight( a, 2 ) ^ Integer.rotateRight( a, 13 ) ^ Integer.rotateRight( a, 22 );
+            final int maj = a & bb ^ a & c ^ bb & c;
+            final int t2 = s0 + maj;
+            hh = g;
+            g = f;
+            f = e;
+            e = d + t1;
+            d = c;
+            c = bb;
+            bb = a;
+            a = t1 + t2;
+        }
+        h[0] += a;
+        h[1] += bb;
+        h[2] += c;
+        h[3] += d;
+        h[4] += e;
+        h[5] += f;
+        h[6] += g;
+        h[7] += hh;
+    }
+}
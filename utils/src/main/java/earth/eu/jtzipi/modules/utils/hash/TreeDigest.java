@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Root digest of a {@link TreeHash} together with its chunk size.
+ * <p>
+ * String form is {@code tree-sha256:<chunk size in bytes>:<lower case hex root>},
+ * for example {@code tree-sha256:1048576:5df6e0e2...}.
+ * Two digests are only comparable if their chunk size is equal.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class TreeDigest {
+
+    /**
+     * Prefix of string form.
+     */
+    public static final String PREFIX = "tree-sha256";
+
+    private final int chunkSize;
+    private final byte[] root;
+
+    private TreeDigest( final int chunkSize, final byte[] root ) {
+        this.chunkSize = chunkSize;
+        this.root = root;
+    }
+
+    /**
+     * Create digest.
+     *
+     * @param chunkSize chunk size in bytes
+     * @param root      root hash (32 bytes)
+     * @return digest
+     * @throws NullPointerException     if {@code root} is null
+     * @throws IllegalArgumentException if {@code chunkSize} &lt; 1 or {@code root} is not 32 bytes
+     */
+    public static TreeDigest of( final int chunkSize, final byte[] root ) {
+        Objects.requireNonNull( root );
+        if ( chunkSize < 1 ) {
+            throw new IllegalArgumentException( "Chunk size[=" + chunkSize + "] < 1" );
+        }
+        if ( TreeHash.HASH_LENGTH != root.length ) {
+            throw new IllegalArgumentException( "Root length[=" + root.length + "] is not " + TreeHash.HASH_LENGTH );
+        }
+        return new TreeDigest( chunkSize, root.clone() );
+    }
+
+    /**
+     * Parse string form.
+     *
+     * @param text {@code tree-sha256:<chunk>:<hex>}
+     * @return digest
+     * @throws NullPointerException     if {@code text} is null
+     * @throws IllegalArgumentException if {@code text} is malformed
+     */
+    public static TreeDigest parse( final String text ) {
+        Objects.requireNonNull( text );
+        final String[] part = text.split( ":" );
+        if ( 3 != part.length || !PREFIX.equals( part[0] ) ) {
+            throw new IllegalArgumentException( "Not a tree digest '" + text + "'" );
+        }
+        try {
+            return of( Integer.parseInt( part[1] ), Hex.decodeHex( part[2] ) );
+        } catch ( final NumberFormatException | DecoderException e ) {
+            throw new IllegalArgumentException( "Not a tree digest '" + text + "'", e );
+        }
+    }
+
+    /**
+     * Chunk size in bytes.
+     *
+     * @return chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Root hash.
+     *
+     * @return copy of root hash
+     */
+    public byte[] getRoot() {
+        return root.clone();
+    }
+
+    /**
+     * Root hash as hex.
+     *
+     * @return hex
+     */
+    public String getRootHex() {
+        return Hex.encodeHexString( root );
+    }
+
+    @Override
+    public boolean equals( final Object o ) {
+        if ( this == o ) {
+            return true;
+        }
+        if ( !( o instanceof TreeDigest ) ) {
+            return false;
+        }
+        final TreeDigest that = ( TreeDigest ) o;
+        return chunkSize == that.chunkSize && Arrays.equals( root, that.root );
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * chunkSize + Arrays.hashCode( root );
+    }
+
+    @Override
+    public String toString() {
+        return PREFIX + ":" + chunkSize + ":" + getRootHex();
+    }
+}
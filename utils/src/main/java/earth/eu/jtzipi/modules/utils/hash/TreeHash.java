@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import earth.eu.jtzipi.modules.utils.exec.ManagedExecutor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongConsumer;
+
+/**
+ * Parallel Merkle SHA-256 hash of a single file.
+ * <p>
+ * The file is split into chunks of {@code chunkSize} bytes, the last chunk may be shorter.
+ * An empty file has one empty chunk.
+ * <ul>
+ *     <li>leaf = SHA-256( 0x00 || chunk )</li>
+ *     <li>node = SHA-256( 0x01 || left || right )</li>
+ * </ul>
+ * Leaves are combined pairwise level by level. An odd last node of a level is moved up unchanged.
+ * The root is returned as {@link TreeDigest}. The result only depends on file content and chunk size,
+ * not on the number of threads, so it can be compared across machines.
+ * </p>
+ * <p>
+ * Chunks are read with positional {@link FileChannel} reads by the pool workers and the calling thread.
+ * The caller takes part in the work, so this never waits on queued tasks of a saturated pool.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class TreeHash {
+
+    /**
+     * Default chunk size (1 MiB).
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    /**
+     * Minimal chunk size.
+     */
+    public static final int MIN_CHUNK_SIZE = 4096;
+    /**
+     * Length of a SHA-256 hash.
+     */
+    public static final int HASH_LENGTH = 32;
+
+    private static final String ALGORITHM = "SHA-256";
+    private static final byte LEAF = 0x00;
+    private static final byte NODE = 0x01;
+    private static final LongConsumer NO_PROGRESS = bytes -> {
+    };
+    private static final BooleanSupplier NEVER = () -> false;
+
+    private final int chunkSize;
+    private final Executor executor;
+    private final int parallelism;
+
+    private TreeHash( final int chunkSize, final Executor executor, final int parallelism ) {
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Tree hash with chunk size using the {@link ExecutorRegistry#CHECKSUM} pool.
+     *
+     * @param chunkSize chunk size in bytes
+     * @return tree hash
+     * @throws IllegalArgumentException if {@code chunkSize} &lt; {@link #MIN_CHUNK_SIZE}
+     */
+    public static TreeHash of( final int chunkSize ) {
+        final ManagedExecutor me = ExecutorRegistry.get( ExecutorRegistry.CHECKSUM );
+        return of( chunkSize, me, me.getMaximumPoolSize() + 1 );
+    }
+
+    /**
+     * Tree hash with chunk size and executor.
+     *
+     * @param chunkSize   chunk size in bytes
+     * @param executor    executor for helper tasks
+     * @param parallelism threads working on one file including the caller
+     * @return tree hash
+     * @throws NullPointerException     if {@code executor} is null
+     * @throws IllegalArgumentException if {@code chunkSize} &lt; {@link #MIN_CHUNK_SIZE} or {@code parallelism} &lt; 1
+     */
+    public static TreeHash of( final int chunkSize, final Executor executor, final int parallelism ) {
+        Objects.requireNonNull( executor );
+        if ( chunkSize < MIN_CHUNK_SIZE ) {
+            throw new IllegalArgumentException( "Chunk size[=" + chunkSize + "] < " + MIN_CHUNK_SIZE );
+        }
+        if ( parallelism < 1 ) {
+            throw new IllegalArgumentException( "Parallelism[=" + parallelism + "] < 1" );
+        }
+        return new TreeHash( chunkSize, executor, parallelism );
+    }
+
+    /**
+     * Hash of one leaf.
+     *
+     * @param md    SHA-256 digest
+     * @param chunk chunk data from position to limit
+     * @param dest  destination array
+     * @param off   offset in {@code dest}
+     */
+    static void leaf( final MessageDigest md, final ByteBuffer chunk, final byte[] dest, final int off ) {
+        md.update( LEAF );
+        md.update( chunk );
+        finish( md, dest, off );
+    }
+
+    /**
+     * Combine leaf hashes to root.
+     *
+     * @param md     SHA-256 digest
+     * @param leaves leaf hashes, {@link #HASH_LENGTH} bytes each
+     * @param count  number of leaves
+     * @return root
+     */
+    static byte[] combine( final MessageDigest md, final byte[] leaves, final int count ) {
+        byte[] level = leaves;
+        int n = count;
+        while ( n > 1 ) {
+            final int m = ( n + 1 ) / 2;
+            final byte[] next = new byte[m * HASH_LENGTH];
+            for ( int j = 0; j < n / 2; j++ ) {
+                md.update( NODE );
+                md.update( level, 2 * j * HASH_LENGTH, 2 * HASH_LENGTH );
+                finish( md, next, j * HASH_LENGTH );
+            }
+            if ( 1 == ( n & 1 ) ) {
+                System.arraycopy( level, ( n - 1 ) * HASH_LENGTH, next, ( m - 1 ) * HASH_LENGTH, HASH_LENGTH );
+            }
+            level = next;
+            n = m;
+        }
+        return Arrays.copyOf( level, HASH_LENGTH );
+    }
+
+    private static void finish( final MessageDigest md, final byte[] dest, final int off ) {
+        try {
+            md.digest( dest, off, HASH_LENGTH );
+        } catch ( final DigestException dE ) {
+            throw new IllegalStateException( dE );
+        }
+    }
+
+    /**
+     * Chunk size.
+     *
+     * @return chunk size in bytes
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Compute tree digest of file.
+     *
+     * @param path file
+     * @return digest
+     * @throws IOException          if reading failed or the thread was interrupted
+     * @throws NullPointerException if {@code path} is null
+     */
+    public TreeDigest digest( final Path path ) throws IOException {
+        return digest( path, NO_PROGRESS );
+    }
+
+    /**
+     * Compute tree digest of file and report bytes hashed.
+     *
+     * @param path     file
+     * @param progress called with bytes of each hashed chunk, from several threads
+     * @return digest
+     * @throws IOException          if reading failed or the thread was interrupted
+     * @throws NullPointerException if {@code path} or {@code progress} is null
+     */
+    public TreeDigest digest( final Path path, final LongConsumer progress ) throws IOException {
+        return digest( path, progress, NEVER );
+    }
+
+    /**
+     * Compute tree digest of file, report bytes hashed and stop early if cancelled.
+     * <p>
+     * {@code cancel} is polled before each chunk. Once it returned {@code true} no further chunk is read.
+     * </p>
+     *
+     * @param path     file
+     * @param progress called with bytes of each hashed chunk, from several threads
+     * @param cancel   cancel check, called from several threads
+     * @return digest
+     * @throws IOException           if reading failed or the thread was interrupted
+     * @throws CancellationException if {@code cancel} returned {@code true}
+     * @throws NullPointerException  if any argument is null
+     */
+    public TreeDigest digest( final Path path, final LongConsumer progress, final BooleanSupplier cancel ) throws IOException {
+        Objects.requireNonNull( path );
+        Objects.requireNonNull( progress );
+        Objects.requireNonNull( cancel );
+        try ( final FileChannel fc = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            final Job job = newJob( path, fc, progress, cancel );
+            final int helpers = Math.min( parallelism, job.chunks ) - 1;
+            for ( int i = 0; i < helpers; i++ ) {
+                try {
+                    executor.execute( () -> job.work( null, null ) );
+                } catch ( final RejectedExecutionException reE ) {
+                    break;
+                }
+            }
+            final DigestPool pool = DigestPool.of( ALGORITHM );
+            final MessageDigest md = pool.acquire();
+            try {
+                // buffer taken from the pool only if a chunk is left for the caller
+                job.work( md, null );
+                job.await();
+                return TreeDigest.of( chunkSize, combine( md, job.leaves, job.chunks ) );
+            } finally {
+                pool.release( md );
+            }
+        }
+    }
+
+    /**
+     * Compute tree digest on the calling thread only with reused digest and buffer.
+     *
+     * @param path     file
+     * @param md       SHA-256 digest
+     * @param buf      buffer with capacity &ge; chunk size
+     * @param progress called with bytes of each hashed chunk
+     * @param cancel   cancel check polled before each chunk
+     * @return digest
+     * @throws IOException           if reading failed
+     * @throws CancellationException if cancelled
+     */
+    TreeDigest digestSequential( final Path path, final MessageDigest md, final ByteBuffer buf, final LongConsumer progress, final BooleanSupplier cancel ) throws IOException {
+        try ( final FileChannel fc = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            final Job job = newJob( path, fc, progress, cancel );
+            md.reset();
+            job.work( md, buf );
+            job.await();
+            return TreeDigest.of( chunkSize, combine( md, job.leaves, job.chunks ) );
+        }
+    }
+
+    private Job newJob( final Path path, final FileChannel fc, final LongConsumer progress, final BooleanSupplier cancel ) throws IOException {
+        final long size = fc.size();
+        final long chunks = Math.max( 1L, ( size + chunkSize - 1 ) / chunkSize );
+        if ( chunks > Integer.MAX_VALUE / HASH_LENGTH ) {
+            throw new IOException( "File '" + path + "' too large for chunk size " + chunkSize );
+        }
+        return new Job( fc, size, ( int ) chunks, progress, cancel );
+    }
+
+    /**
+     * One file hashed by several threads. Chunks are claimed by index.
+     */
+    private final class Job {
+
+        private final FileChannel fc;
+        private final long size;
+        private final int chunks;
+        private final LongConsumer progress;
+        private final BooleanSupplier cancel;
+        private final byte[] leaves;
+        private final AtomicInteger next = new AtomicInteger();
+        private final CountDownLatch doneLatch;
+        private volatile IOException error;
+        private volatile boolean cancelled;
+
+        Job( final FileChannel fc, final long size, final int chunks, final LongConsumer progress, final BooleanSupplier cancel ) {
+            this.fc = fc;
+            this.size = size;
+            this.chunks = chunks;
+            this.progress = progress;
+            this.cancel = cancel;
+            this.leaves = new byte[chunks * HASH_LENGTH];
+            this.doneLatch = new CountDownLatch( chunks );
+        }
+
+        // digest and buffer are borrowed on first chunk if null
+        void work( final MessageDigest digest, final ByteBuffer buffer ) {
+            MessageDigest md = digest;
+            ByteBuffer buf = buffer;
+            for ( int i = next.getAndIncrement(); i < chunks; i = next.getAndIncrement() ) {
+                try {
+                    if ( null != error || cancelled ) {
+                        continue;
+                    }
+                    if ( cancel.getAsBoolean() ) {
+                        cancelled = true;
+                        continue;
+                    }
+                    if ( null == md ) {
+                        md = DigestPool.of( ALGORITHM ).acquire();
+                    }
+                    if ( null == buf ) {
+                        buf = BufferPool.shared( chunkSize ).acquire();
+                    }
+                    final long pos = ( long ) i * chunkSize;
+                    buf.clear().limit( ( int ) Math.min( chunkSize, size - pos ) );
+                    while ( buf.hasRemaining() ) {
+                        if ( fc.read( buf, pos + buf.position() ) < 0 ) {
+                            throw new EOFException( "File shrank while hashing" );
+                        }
+                    }
+                    buf.flip();
+                    final int len = buf.remaining();
+                    leaf( md, buf, leaves, i * HASH_LENGTH );
+                    progress.accept( len );
+                } catch ( final IOException ioE ) {
+                    error = ioE;
+                } finally {
+                    doneLatch.countDown();
+                }
+            }
+            if ( null == digest && null != md ) {
+                DigestPool.of( ALGORITHM ).release( md );
+            }
+            if ( null == buffer && null != buf ) {
+                BufferPool.shared( chunkSize ).release( buf );
+            }
+        }
+
+        void await() throws IOException {
+            try {
+                doneLatch.await();
+            } catch ( final InterruptedException iE ) {
+                Thread.currentThread().interrupt();
+                error = new InterruptedIOException( "Tree hash interrupted" );
+                throw error;
+            }
+            if ( null != error ) {
+                throw error;
+            }
+            if ( cancelled ) {
+                throw new CancellationException( "Tree hash cancelled" );
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigestSpi;
+
+/**
+ * Pure Java xxHash64 (seed 0) as message digest.
+ * <p>
+ * The 8 byte digest is the hash value in big endian order, so its hex form
+ * equals the canonical form printed by {@code xxhsum}.
+ * Not a cryptographic hash: use it for change detection and dedupe pre-filtering only.
+ * Get it with {@code MessageDigest.getInstance( "XXH64" )} after {@link FingerprintProvider#install()}.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class XxHash64Spi extends MessageDigestSpi implements Cloneable {
+
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    private long v1;
+    private long v2;
+    private long v3;
+    private long v4;
+    private long total;
+    // pending bytes of an incomplete stripe
+    private byte[] pending = new byte[STRIPE];
+    private int pendingLen;
+
+    /**
+     * Create digest with seed 0.
+     */
+    public XxHash64Spi() {
+        engineReset();
+    }
+
+    private static long round( final long acc, final long input ) {
+        return Long.rotateLeft( acc + input * P2, 31 ) * P1;
+    }
+
+    private static long merge( final long acc, final long val ) {
+        return ( acc ^ round( 0L, val ) ) * P1 + P4;
+    }
+
+    private static long getLong( final byte[] b, final int i ) {
+        return ( b[i] & 0xFFL )
+                | ( b[i + 1] & 0xFFL ) << 8
+                | ( b[i + 2] & 0xFFL ) << 16
+                | ( b[i + 3] & 0xFFL ) << 24
+                | ( b[i + 4] & 0xFFL ) << 32
+                | ( b[i + 5] & 0xFFL ) << 40
+                | ( b[i + 6] & 0xFFL ) << 48
+                | ( b[i + 7] & 0xFFL ) << 56;
+    }
+
+    private static long getInt( final byte[] b, final int i ) {
+        return ( b[i] & 0xFFL )
+                | ( b[i + 1] & 0xFFL ) << 8
+                | ( b[i + 2] & 0xFFL ) << 16
+                | ( b[i + 3] & 0xFFL ) << 24;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 8;
+    }
+
+    @Override
+    protected void engineUpdate( final byte input ) {
+        pending[pendingLen++] = input;
+        total++;
+        if ( STRIPE == pendingLen ) {
+            stripe( pending, 0 );
+            pendingLen = 0;
+        }
+    }
+
+    @Override
+    protected void engineUpdate( final byte[] input, final int offset, final int len ) {
+        int off = offset;
+        final int end = offset + len;
+        total += len;
+        if ( pendingLen > 0 ) {
+            final int n = Math.min( STRIPE - pendingLen, len );
+            System.arraycopy( input, off, pending, pendingLen, n );
+            pendingLen += n;
+            off += n;
+            if ( STRIPE > pendingLen ) {
+                return;
+            }
+            stripe( pending, 0 );
+            pendingLen = 0;
+        }
+        for ( ; off <= end - STRIPE; off += STRIPE ) {
+            stripe( input, off );
+        }
+        pendingLen = end - off;
+        System.arraycopy( input, off, pending, 0, pendingLen );
+    }
+
+    @Override
+    protected void engineUpdate( final ByteBuffer input ) {
+        if ( input.hasArray() ) {
+            final int pos = input.position();
+            engineUpdate( input.array(), input.arrayOffset() + pos, input.limit() - pos );
+            input.position( input.limit() );
+            return;
+        }
+        // direct buffer: whole stripes straight from the buffer
+        final ByteBuffer le = input.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+        while ( le.hasRemaining() && pendingLen > 0 ) {
+            engineUpdate( le.get() );
+        }
+        while ( le.remaining() >= STRIPE ) {
+            v1 = round( v1, le.getLong() );
+            v2 = round( v2, le.getLong() );
+            v3 = round( v3, le.getLong() );
+            v4 = round( v4, le.getLong() );
+            total += STRIPE;
+        }
+        while ( le.hasRemaining() ) {
+            engineUpdate( le.get() );
+        }
+        input.position( input.limit() );
+    }
+
+    private void stripe( final byte[] b, final int off ) {
+        v1 = round( v1, getLong( b, off ) );
+        v2 = round( v2, getLong( b, off + 8 ) );
+        v3 = round( v3, getLong( b, off + 16 ) );
+        v4 = round( v4, getLong( b, off + 24 ) );
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final long h = value();
+        engineReset();
+        final byte[] out = new byte[8];
+        for ( int i = 7, s = 0; i >= 0; i--, s += 8 ) {
+            out[i] = ( byte ) ( h >>> s );
+        }
+        return out;
+    }
+
+    /**
+     * Current hash value without reset.
+     *
+     * @return xxHash64
+     */
+    long value() {
+        long h;
+        if ( total >= STRIPE ) {
+            h = Long.rotateLeft( v1, 1 ) + Long.rotateLeft( v2, 7 ) + Long.rotateLeft( v3, 12 ) + Long.rotateLeft( v4, 18 );
+            h = merge( h, v1 );
+            h = merge( h, v2 );
+            h = merge( h, v3 );
+            h = merge( h, v4 );
+        } else {
+            h = P5;
+        }
+        h += total;
+        int i = 0;
+        for ( ; i + 8 <= pendingLen; i += 8 ) {
+            h ^= round( 0L, getLong( pending, i ) );
+            h = Long.rotateLeft( h, 27 ) * P1 + P4;
+        }
+        if ( i + 4 <= pendingLen ) {
+            h ^= getInt( pending, i ) * P1;
+            h = Long.rotateLeft( h, 23 ) * P2 + P3;
+            i += 4;
+        }
+        for ( ; i < pendingLen; i++ ) {
+            h ^= ( pending[i] & 0xFFL ) * P5;
+            h = Long.rotateLeft( h, 11 ) * P1;
+        }
+        h ^= h >>> 33;
+        h *= P2;
+        h ^= h >>> 29;
+        h *= P3;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    @Override
+    protected void engineReset() {
+        v1 = P1 + P2;
+        v2 = P2;
+        v3 = 0L;
+        v4 = -P1;
+        total = 0L;
+        pendingLen = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final XxHash64Spi copy = ( XxHash64Spi ) super.clone();
+        copy.pending = pending.clone();
+        return copy;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * JFR event for hashing a file.
+ * <p>
+ * Create and {@link #begin()} before reading and set fields and commit only if {@link #shouldCommit()}.
+ * If no recording is running the JIT removes the event entirely.
+ * </p>
+ *
+ * @author jTzipi
+ */
+@Name( FileHashEvent.NAME )
+@Label( "File Hash" )
+@Category( { "Modules", "Checksum" } )
+@Description( "Message digest of a file computed" )
+@StackTrace( false )
+public final class FileHashEvent extends Event {
+
+    /**
+     * Event name.
+     */
+    public static final String NAME = "earth.eu.jtzipi.modules.FileHash";
+
+    @Label( "Path" )
+    public String path;
+
+    @Label( "Bytes" )
+    @DataAmount
+    public long bytes;
+
+    @Label( "Algorithm" )
+    public String algorithm;
+
+    @Label( "Throughput" )
+    @Description( "Megabyte per second" )
+    public double mbPerSecond;
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.metrics;
+
+/**
+ * Monotonic counter.
+ *
+ * @author jTzipi
+ */
+public interface ICounter {
+
+    /**
+     * Increment by one.
+     */
+    default void inc() {
+        add( 1L );
+    }
+
+    /**
+     * Add delta.
+     *
+     * @param delta delta
+     */
+    void add( long delta );
+
+    /**
+     * Current count.
+     *
+     * @return count
+     */
+    long get();
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Metric registry.
+ * <p>
+ * Implement this to bridge the metrics of all modules into a monitoring system.
+ * Install via {@link Metrics#setRegistry(IMetricRegistry)}.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public interface IMetricRegistry {
+
+    /**
+     * Return counter for name. Create if not existing.
+     *
+     * @param name name
+     * @return counter
+     */
+    ICounter counter( String name );
+
+    /**
+     * Return timer for name. Create if not existing.
+     *
+     * @param name name
+     * @return timer
+     */
+    ITimer timer( String name );
+
+    /**
+     * Register a gauge.
+     * <p>
+     * A gauge is sampled on snapshot only.
+     * </p>
+     *
+     * @param name  name
+     * @param gauge value supplier
+     */
+    void gauge( String name, LongSupplier gauge );
+
+    /**
+     * Take snapshot of all metrics.
+     *
+     * @return snapshot
+     */
+    MetricSnapshot snapshot();
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.metrics;
+
+/**
+ * Timer recording durations in nano seconds.
+ * <p>
+ * Use like
+ * <pre>
+ *     final long start = timer.start();
+ *     // work
+ *     timer.stop( start );
+ * </pre>
+ *
+ * @author jTzipi
+ */
+public interface ITimer {
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos duration in nano seconds
+     */
+    void record( long nanos );
+
+    /**
+     * Start timing.
+     *
+     * @return start time in nano seconds
+     */
+    default long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Stop timing and record duration since {@code start}.
+     *
+     * @param start start time of {@link #start()}
+     */
+    default void stop( final long start ) {
+        record( System.nanoTime() - start );
+    }
+
+    /**
+     * Number of recorded durations.
+     *
+     * @return count
+     */
+    long count();
+
+    /**
+     * Value at percentile.
+     *
+     * @param percentile [0,100]
+     * @return duration in nano seconds
+     */
+    long percentile( double percentile );
+
+    /**
+     * Sum of recorded durations.
+     *
+     * @return nano seconds
+     */
+    long total();
+
+    /**
+     * Max recorded duration.
+     *
+     * @return nano seconds
+     */
+    long max();
+}
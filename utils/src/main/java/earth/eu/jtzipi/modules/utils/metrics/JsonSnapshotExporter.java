@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.metrics;
+
+import earth.eu.jtzipi.modules.utils.exec.ExecutorRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write metric snapshots as JSON to a local file.
+ * <p>
+ * The file is replaced atomically so readers never see a half written snapshot.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class JsonSnapshotExporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger( "JsonSnapshotExporter" );
+
+    private JsonSnapshotExporter() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Write snapshot to file.
+     *
+     * @param snapshot snapshot
+     * @param file     target file
+     * @throws IOException          if writing failed
+     * @throws NullPointerException if {@code snapshot} or {@code file} is null
+     */
+    public static void export( final MetricSnapshot snapshot, final Path file ) throws IOException {
+        Objects.requireNonNull( snapshot );
+        Objects.requireNonNull( file );
+        final Path abs = file.toAbsolutePath();
+        final Path tmp = abs.resolveSibling( abs.getFileName() + ".tmp" );
+        Files.write( tmp, snapshot.toJson().getBytes( StandardCharsets.UTF_8 ) );
+        Files.move( tmp, abs, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Export snapshots of a registry periodically.
+     *
+     * @param registry registry
+     * @param file     target file
+     * @param period   period
+     * @return future to cancel export
+     * @throws NullPointerException if any argument is null
+     */
+    public static ScheduledFuture<?> schedule( final IMetricRegistry registry, final Path file, final Duration period ) {
+        Objects.requireNonNull( registry );
+        Objects.requireNonNull( file );
+        Objects.requireNonNull( period );
+        final long millis = Math.max( 1L, period.toMillis() );
+        return ExecutorRegistry.scheduler().scheduleAtFixedRate( () -> {
+            try {
+                export( registry.snapshot(), file );
+            } catch ( final IOException | RuntimeException e ) {
+                LOG.warn( "Can not export metrics to '" + file + "'", e );
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS );
+    }
+}
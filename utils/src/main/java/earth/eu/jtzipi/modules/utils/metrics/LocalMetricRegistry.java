@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * In process metric registry.
+ * <p>
+ * Counters are {@link LongAdder} and timers log linear histograms.
+ * Both are lock free so this registry can stay on under load.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class LocalMetricRegistry implements IMetricRegistry {
+
+    private final ConcurrentMap<String, Counter> counterM = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LogLinearTimer> timerM = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gaugeM = new ConcurrentHashMap<>();
+
+    private LocalMetricRegistry() {
+    }
+
+    /**
+     * Create new registry.
+     *
+     * @return registry
+     */
+    public static LocalMetricRegistry create() {
+        return new LocalMetricRegistry();
+    }
+
+    @Override
+    public ICounter counter( final String name ) {
+        Objects.requireNonNull( name );
+        return counterM.computeIfAbsent( name, n -> new Counter() );
+    }
+
+    @Override
+    public ITimer timer( final String name ) {
+        Objects.requireNonNull( name );
+        return timerM.computeIfAbsent( name, n -> new LogLinearTimer() );
+    }
+
+    @Override
+    public void gauge( final String name, final LongSupplier gauge ) {
+        Objects.requireNonNull( name );
+        Objects.requireNonNull( gauge );
+        gaugeM.put( name, gauge );
+    }
+
+    @Override
+    public MetricSnapshot snapshot() {
+        final Map<String, Long> cM = new HashMap<>();
+        counterM.forEach( ( name, c ) -> cM.put( name, c.get() ) );
+        final Map<String, Long> gM = new HashMap<>();
+        gaugeM.forEach( ( name, g ) -> gM.put( name, g.getAsLong() ) );
+        final Map<String, MetricSnapshot.TimerValue> tM = new HashMap<>();
+        timerM.forEach( ( name, t ) -> tM.put( name, MetricSnapshot.TimerValue.of( t ) ) );
+        return new MetricSnapshot( System.currentTimeMillis(), cM, gM, tM );
+    }
+
+    private static final class Counter implements ICounter {
+
+        private final LongAdder adder = new LongAdder();
+
+        @Override
+        public void inc() {
+            adder.increment();
+        }
+
+        @Override
+        public void add( final long delta ) {
+            adder.add( delta );
+        }
+
+        @Override
+        public long get() {
+            return adder.sum();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timer with a log linear histogram like HDR histogram.
+ * <p>
+ * Each power of two is split into {@value #HALF} linear buckets.
+ * That is each value is stored with a relative error of less than 1/{@value #HALF}.
+ * Recording is lock free and does not allocate.
+ * </p>
+ *
+ * @author jTzipi
+ */
+final class LogLinearTimer implements ITimer {
+
+    // significant bits
+    private static final int BITS = 5;
+    private static final int SUB = 1 << BITS;
+    private static final int HALF = SUB >> 1;
+    private static final int BUCKETS = SUB + ( Long.SIZE - 1 - BITS ) * HALF;
+
+    private final AtomicLongArray bucketA = new AtomicLongArray( BUCKETS );
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator( Math::max, 0L );
+
+    LogLinearTimer() {
+    }
+
+    static int index( final long value ) {
+        if ( value < SUB ) {
+            return ( int ) Math.max( 0L, value );
+        }
+        final int exp = Long.SIZE - 1 - Long.numberOfLeadingZeros( value );
+        final int top = ( int ) ( value >>> ( exp - BITS + 1 ) );
+        return SUB + ( exp - BITS ) * HALF + ( top - HALF );
+    }
+
+    static long upperBound( final int index ) {
+        if ( index < SUB ) {
+            return index;
+        }
+        final int k = index - SUB;
+        final int exp = k / HALF + BITS;
+        final long top = k % HALF + HALF;
+        final int shift = exp - BITS + 1;
+        return ( ( top + 1L ) << shift ) - 1L;
+    }
+
+    @Override
+    public void record( final long nanos ) {
+        bucketA.incrementAndGet( index( nanos ) );
+        count.increment();
+        total.add( nanos );
+        max.accumulate( nanos );
+    }
+
+    @Override
+    public long count() {
+        return count.sum();
+    }
+
+    @Override
+    public long percentile( final double percentile ) {
+        final long[] snap = new long[BUCKETS];
+        long cnt = 0L;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            snap[i] = bucketA.get( i );
+            cnt += snap[i];
+        }
+        if ( 0L == cnt ) {
+            return 0L;
+        }
+        final long rank = ( long ) Math.ceil( Math.min( 100D, Math.max( 0D, percentile ) ) / 100D * cnt );
+        long seen = 0L;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            seen += snap[i];
+            if ( seen >= rank && snap[i] > 0L ) {
+                return Math.min( upperBound( i ), max() );
+            }
+        }
+        return max();
+    }
+
+    @Override
+    public long total() {
+        return total.sum();
+    }
+
+    @Override
+    public long max() {
+        return max.get();
+    }
+}
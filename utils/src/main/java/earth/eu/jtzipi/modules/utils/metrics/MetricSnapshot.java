@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Immutable point in time view of all metrics of a registry.
+ *
+ * @author jTzipi
+ */
+public final class MetricSnapshot {
+
+    /**
+     * Empty snapshot.
+     */
+    public static final MetricSnapshot EMPTY = new MetricSnapshot( 0L, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap() );
+
+    private final long timestamp;
+    private final Map<String, Long> counterM;
+    private final Map<String, Long> gaugeM;
+    private final Map<String, TimerValue> timerM;
+
+    MetricSnapshot( final long timestamp, final Map<String, Long> counterM, final Map<String, Long> gaugeM, final Map<String, TimerValue> timerM ) {
+        this.timestamp = timestamp;
+        this.counterM = Collections.unmodifiableMap( new TreeMap<>( counterM ) );
+        this.gaugeM = Collections.unmodifiableMap( new TreeMap<>( gaugeM ) );
+        this.timerM = Collections.unmodifiableMap( new TreeMap<>( timerM ) );
+    }
+
+    /**
+     * Time of snapshot.
+     *
+     * @return epoch millis
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counterM;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gaugeM;
+    }
+
+    public Map<String, TimerValue> getTimers() {
+        return timerM;
+    }
+
+    /**
+     * Format as JSON.
+     *
+     * @return json object
+     */
+    public String toJson() {
+        final StringBuilder sb = new StringBuilder( 256 );
+        sb.append( "{\"timestamp\":" ).append( timestamp );
+        sb.append( ",\"counters\":{" );
+        appendLongs( sb, counterM );
+        sb.append( "},\"gauges\":{" );
+        appendLongs( sb, gaugeM );
+        sb.append( "},\"timers\":{" );
+        String sep = "";
+        for ( final Map.Entry<String, TimerValue> me : timerM.entrySet() ) {
+            final TimerValue tv = me.getValue();
+            sb.append( sep ).append( quote( me.getKey() ) )
+                    .append( ":{\"count\":" ).append( tv.count )
+                    .append( ",\"totalNanos\":" ).append( tv.total )
+                    .append( ",\"maxNanos\":" ).append( tv.max )
+                    .append( ",\"p50Nanos\":" ).append( tv.p50 )
+                    .append( ",\"p90Nanos\":" ).append( tv.p90 )
+                    .append( ",\"p99Nanos\":" ).append( tv.p99 )
+                    .append( ",\"p999Nanos\":" ).append( tv.p999 )
+                    .append( '}' );
+            sep = ",";
+        }
+        return sb.append( "}}" ).toString();
+    }
+
+    private static void appendLongs( final StringBuilder sb, final Map<String, Long> valueM ) {
+        String sep = "";
+        for ( final Map.Entry<String, Long> me : valueM.entrySet() ) {
+            sb.append( sep ).append( quote( me.getKey() ) ).append( ':' ).append( me.getValue() );
+            sep = ",";
+        }
+    }
+
+    private static String quote( final String str ) {
+        final StringBuilder sb = new StringBuilder( str.length() + 2 ).append( '"' );
+        for ( int i = 0; i < str.length(); i++ ) {
+            final char c = str.charAt( i );
+            if ( c == '"' || c == '\\' ) {
+                sb.append( '\\' ).append( c );
+            } else if ( c < 0x20 ) {
+                sb.append( String.format( "\\u%04x", ( int ) c ) );
+            } else {
+                sb.append( c );
+            }
+        }
+        return sb.append( '"' ).toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    /**
+     * Value of a timer.
+     */
+    public static final class TimerValue {
+
+        private final long count;
+        private final long total;
+        private final long max;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+
+        private TimerValue( final ITimer timer ) {
+            this.count = timer.count();
+            this.total = timer.total();
+            this.max = timer.max();
+            this.p50 = timer.percentile( 50D );
+            this.p90 = timer.percentile( 90D );
+            this.p99 = timer.percentile( 99D );
+            this.p999 = timer.percentile( 99.9D );
+        }
+
+        /**
+         * Read timer.
+         *
+         * @param timer timer
+         * @return value
+         */
+        public static TimerValue of( final ITimer timer ) {
+            Objects.requireNonNull( timer );
+            return new TimerValue( timer );
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Entry point for metrics of all modules.
+ * <p>
+ * Modules keep the counters and timers of their hot paths in static fields.
+ * These are thin handles forwarding to the current registry.
+ * So a registry installed late via {@link #setRegistry(IMetricRegistry)} still
+ * receives all values, and with the default {@link #NOOP} registry a hot path
+ * costs one volatile read.
+ * </p>
+ * <p>
+ * System properties
+ * <ul>
+ *     <li>{@value #PROP_REGISTRY}={@code local} install a {@link LocalMetricRegistry} on startup</li>
+ *     <li>{@value #PROP_EXPORT_FILE} path to write a JSON snapshot to periodically</li>
+ *     <li>{@value #PROP_EXPORT_SECONDS} export period in seconds (default 60)</li>
+ * </ul>
+ *
+ * @author jTzipi
+ */
+public final class Metrics {
+
+    /**
+     * Property for registry.
+     */
+    public static final String PROP_REGISTRY = "earth.eu.jtzipi.modules.metrics";
+    /**
+     * Property for export file.
+     */
+    public static final String PROP_EXPORT_FILE = "earth.eu.jtzipi.modules.metrics.file";
+    /**
+     * Property for export period.
+     */
+    public static final String PROP_EXPORT_SECONDS = "earth.eu.jtzipi.modules.metrics.seconds";
+
+    /**
+     * Registry doing nothing.
+     */
+    public static final IMetricRegistry NOOP = new NoopRegistry();
+
+    private static final Logger LOG = LoggerFactory.getLogger( "Metrics" );
+
+    private static final ConcurrentMap<String, CounterRef> COUNTER_M = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, TimerRef> TIMER_M = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongSupplier> GAUGE_M = new ConcurrentHashMap<>();
+
+    private static volatile IMetricRegistry registry = NOOP;
+
+    static {
+        if ( "local".equalsIgnoreCase( System.getProperty( PROP_REGISTRY ) ) ) {
+            setRegistry( LocalMetricRegistry.create() );
+            final String file = System.getProperty( PROP_EXPORT_FILE );
+            if ( null != file ) {
+                final long sec = Long.getLong( PROP_EXPORT_SECONDS, 60L );
+                JsonSnapshotExporter.schedule( registry, Paths.get( file ), Duration.ofSeconds( sec ) );
+            }
+        }
+    }
+
+    private Metrics() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Current registry.
+     *
+     * @return registry
+     */
+    public static IMetricRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Return whether a registry other than {@link #NOOP} is installed.
+     * <p>
+     * Use this to skip work only needed for metrics, like reading a file size.
+     * </p>
+     *
+     * @return {@code true} if metrics are recorded
+     */
+    public static boolean isEnabled() {
+        return registry != NOOP;
+    }
+
+    /**
+     * Install registry.
+     * <p>
+     * All handles returned before are rebound and all gauges registered again.
+     * </p>
+     *
+     * @param metricRegistry registry or null for {@link #NOOP}
+     */
+    public static synchronized void setRegistry( final IMetricRegistry metricRegistry ) {
+        final IMetricRegistry reg = null == metricRegistry ? NOOP : metricRegistry;
+        registry = reg;
+        COUNTER_M.values().forEach( ref -> ref.target = reg.counter( ref.name ) );
+        TIMER_M.values().forEach( ref -> ref.target = reg.timer( ref.name ) );
+        GAUGE_M.forEach( reg::gauge );
+        LOG.info( "Metric registry '" + reg.getClass().getSimpleName() + "' installed" );
+    }
+
+    /**
+     * Return counter handle.
+     *
+     * @param name name
+     * @return counter
+     * @throws NullPointerException if {@code name} is null
+     */
+    public static ICounter counter( final String name ) {
+        Objects.requireNonNull( name );
+        return COUNTER_M.computeIfAbsent( name, CounterRef::new );
+    }
+
+    /**
+     * Return timer handle.
+     *
+     * @param name name
+     * @return timer
+     * @throws NullPointerException if {@code name} is null
+     */
+    public static ITimer timer( final String name ) {
+        Objects.requireNonNull( name );
+        return TIMER_M.computeIfAbsent( name, TimerRef::new );
+    }
+
+    /**
+     * Register gauge.
+     *
+     * @param name  name
+     * @param gauge gauge
+     * @throws NullPointerException if {@code name} or {@code gauge} is null
+     */
+    public static synchronized void gauge( final String name, final LongSupplier gauge ) {
+        Objects.requireNonNull( name );
+        Objects.requireNonNull( gauge );
+        GAUGE_M.put( name, gauge );
+        registry.gauge( name, gauge );
+    }
+
+    /**
+     * Snapshot of current registry.
+     *
+     * @return snapshot
+     */
+    public static MetricSnapshot snapshot() {
+        return registry.snapshot();
+    }
+
+    private static final class CounterRef implements ICounter {
+
+        private final String name;
+        private volatile ICounter target;
+
+        private CounterRef( final String name ) {
+            this.name = name;
+            this.target = registry.counter( name );
+        }
+
+        @Override
+        public void inc() {
+            target.inc();
+        }
+
+        @Override
+        public void add( final long delta ) {
+            target.add( delta );
+        }
+
+        @Override
+        public long get() {
+            return target.get();
+        }
+    }
+
+    private static final class TimerRef implements ITimer {
+
+        private final String name;
+        private volatile ITimer target;
+
+        private TimerRef( final String name ) {
+            this.name = name;
+            this.target = registry.timer( name );
+        }
+
+        @Override
+        public void record( final long nanos ) {
+            target.record( nanos );
+        }
+
+        @Override
+        public long start() {
+            // skip the clock if nobody listens
+            return target == NoopRegistry.TIMER ? 0L : System.nanoTime();
+        }
+
+        @Override
+        public void stop( final long start ) {
+            // 0 is a start taken while no registry was set, its duration is unknown
+            final ITimer t = target;
+            if ( t != NoopRegistry.TIMER && 0L != start ) {
+                t.record( System.nanoTime() - start );
+            }
+        }
+
+        @Override
+        public long count() {
+            return target.count();
+        }
+
+        @Override
+        public long percentile( final double percentile ) {
+            return target.percentile( percentile );
+        }
+
+        @Override
+        public long total() {
+            return target.total();
+        }
+
+        @Override
+        public long max() {
+            return target.max();
+        }
+    }
+
+    private static final class NoopRegistry implements IMetricRegistry {
+
+        private static final ICounter COUNTER = new ICounter() {
+            @Override
+            public void inc() {
+            }
+
+            @Override
+            public void add( final long delta ) {
+            }
+
+            @Override
+            public long get() {
+                return 0L;
+            }
+        };
+
+        private static final ITimer TIMER = new ITimer() {
+            @Override
+            public void record( final long nanos ) {
+            }
+
+            @Override
+            public long count() {
+                return 0L;
+            }
+
+            @Override
+            public long percentile( final double percentile ) {
+                return 0L;
+            }
+
+            @Override
+            public long total() {
+                return 0L;
+            }
+
+            @Override
+            public long max() {
+                return 0L;
+            }
+        };
+
+        @Override
+        public ICounter counter( final String name ) {
+            return COUNTER;
+        }
+
+        @Override
+        public ITimer timer( final String name ) {
+            return TIMER;
+        }
+
+        @Override
+        public void gauge( final String name, final LongSupplier gauge ) {
+        }
+
+        @Override
+        public MetricSnapshot snapshot() {
+            return MetricSnapshot.EMPTY;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.store;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe Bloom filter over digests.
+ * <p>
+ * Digests are already uniformly distributed so the first 16 bytes are used as two
+ * independent hashes for double hashing. Adding more keys than expected is allowed
+ * but raises the false positive rate.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class BloomFilter {
+
+    private final AtomicLongArray bitA;
+    private final long bits;
+    private final int hashes;
+
+    private BloomFilter( final long bits, final int hashes ) {
+        this.bits = bits;
+        this.hashes = hashes;
+        this.bitA = new AtomicLongArray( ( int ) ( ( bits + 63L ) >>> 6 ) );
+    }
+
+    /**
+     * Create filter sized for {@code expected} keys.
+     *
+     * @param expected expected number of keys &gt; 0
+     * @param fpp      false positive probability in (0, 1)
+     * @return filter
+     * @throws IllegalArgumentException if {@code expected} &lt; 1 or {@code fpp} out of range
+     */
+    public static BloomFilter create( final long expected, final double fpp ) {
+        if ( expected < 1L || !( fpp > 0D && fpp < 1D ) ) {
+            throw new IllegalArgumentException( "Expected[=" + expected + "] or fpp[=" + fpp + "] invalid" );
+        }
+        final double ln2 = Math.log( 2D );
+        final long bits = Math.max( 64L, Math.min( ( long ) Integer.MAX_VALUE * 64L, ( long ) Math.ceil( -expected * Math.log( fpp ) / ( ln2 * ln2 ) ) ) );
+        final int k = Math.max( 1, ( int ) Math.round( ( double ) bits / expected * ln2 ) );
+        return new BloomFilter( bits, k );
+    }
+
+    /**
+     * Add digest.
+     *
+     * @param digest digest of at least 16 bytes
+     * @throws NullPointerException     if {@code digest} is null
+     * @throws IllegalArgumentException if {@code digest} is shorter than 16 bytes
+     */
+    public void put( final byte[] digest ) {
+        final long h1 = h( digest, 0 );
+        final long h2 = h( digest, 8 );
+        for ( int i = 0; i < hashes; i++ ) {
+            final long bit = Math.floorMod( h1 + i * h2, bits );
+            final int idx = ( int ) ( bit >>> 6 );
+            final long mask = 1L << bit;
+            long cur = bitA.get( idx );
+            while ( 0L == ( cur & mask ) && !bitA.compareAndSet( idx, cur, cur | mask ) ) {
+                cur = bitA.get( idx );
+            }
+        }
+    }
+
+    /**
+     * Return whether digest may have been added.
+     *
+     * @param digest digest of at least 16 bytes
+     * @return {@code false} if definitely not added
+     * @throws NullPointerException     if {@code digest} is null
+     * @throws IllegalArgumentException if {@code digest} is shorter than 16 bytes
+     */
+    public boolean mightContain( final byte[] digest ) {
+        final long h1 = h( digest, 0 );
+        final long h2 = h( digest, 8 );
+        for ( int i = 0; i < hashes; i++ ) {
+            final long bit = Math.floorMod( h1 + i * h2, bits );
+            if ( 0L == ( bitA.get( ( int ) ( bit >>> 6 ) ) & 1L << bit ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of bits.
+     *
+     * @return bits
+     */
+    public long getBits() {
+        return bits;
+    }
+
+    /**
+     * Number of hash functions.
+     *
+     * @return k
+     */
+    public int getHashes() {
+        return hashes;
+    }
+
+    private static long h( final byte[] digest, final int off ) {
+        Objects.requireNonNull( digest );
+        if ( digest.length < 16 ) {
+            throw new IllegalArgumentException( "Digest length[=" + digest.length + "] < 16" );
+        }
+        long v = 0L;
+        for ( int i = 0; i < 8; i++ ) {
+            v = v << 8 | digest[off + i] & 0xFFL;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.store;
+
+import earth.eu.jtzipi.modules.utils.ChecksumUtils;
+import earth.eu.jtzipi.modules.utils.exec.DeviceThrottle;
+import earth.eu.jtzipi.modules.utils.hash.BufferPool;
+import earth.eu.jtzipi.modules.utils.hash.ChecksumScheduler;
+import earth.eu.jtzipi.modules.utils.hash.DigestPool;
+import earth.eu.jtzipi.modules.utils.metrics.ICounter;
+import earth.eu.jtzipi.modules.utils.metrics.Metrics;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Local content addressable store.
+ * <p>
+ * Files are stored read only under {@code <root>/objects/<hex[0..2]>/<hex[2..4]>/<hex>} by their digest.
+ * New objects are copied to {@code <root>/tmp} while being hashed, synced and then linked or moved
+ * atomically into place, so a crash never leaves a partial object.
+ * Equal content is stored once. Optionally the ingested file is replaced by a hard link to its object.
+ * </p>
+ * <p>
+ * An in memory {@link BloomFilter} over all stored digests answers most misses of
+ * {@link #contains(String)} without touching the disk.
+ * </p>
+ * <p>
+ * A store is meant to have a single writer. The Bloom filter is loaded on open only, so objects added by another
+ * process are not seen by {@link #contains(String)} and are copied again, then deduplicated when placed.
+ * Concurrent writers never corrupt the store, but waste IO.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class ContentStore {
+
+    /**
+     * Default digest.
+     */
+    public static final String DEFAULT_ALGORITHM = "SHA-256";
+    private static final double FPP = 0.01D;
+    private static final long MIN_EXPECTED = 1L << 20;
+    private static final long STALE_TMP_MILLIS = TimeUnit.HOURS.toMillis( 1L );
+    private static final Logger LOG = LoggerFactory.getLogger( "ContentStore" );
+    private static final ICounter STORED = Metrics.counter( "cas.stored" );
+    private static final ICounter DEDUP = Metrics.counter( "cas.dedup" );
+    private static final ICounter BLOOM_NEGATIVE = Metrics.counter( "cas.bloom.negative" );
+
+    private final Path root;
+    private final Path objectDir;
+    private final Path tmpDir;
+    private final String algorithm;
+    private final BloomFilter bloom;
+    private final AtomicLong count;
+
+    private ContentStore( final Path root, final String algorithm, final BloomFilter bloom, final long count ) {
+        this.root = root;
+        this.objectDir = root.resolve( "objects" );
+        this.tmpDir = root.resolve( "tmp" );
+        this.algorithm = algorithm;
+        this.bloom = bloom;
+        this.count = new AtomicLong( count );
+    }
+
+    /**
+     * Open or create store with {@value #DEFAULT_ALGORITHM}.
+     *
+     * @param root store directory
+     * @return store
+     * @throws IOException          if the store can not be created or read
+     * @throws NullPointerException if {@code root} is null
+     */
+    public static ContentStore open( final Path root ) throws IOException {
+        return open( root, DEFAULT_ALGORITHM );
+    }
+
+    /**
+     * Open or create store.
+     * <p>
+     * All stored digests are loaded into the Bloom filter.
+     * Temporary files not modified for an hour are left over by crashed ingests and removed;
+     * newer ones may belong to an ingest of another process.
+     * </p>
+     *
+     * @param root      store directory
+     * @param algorithm digest algorithm with at least 128 bit
+     * @return store
+     * @throws IOException              if the store can not be created or read
+     * @throws NullPointerException     if {@code root} or {@code algorithm} is null
+     * @throws IllegalArgumentException if {@code algorithm} is unknown or too short
+     */
+    public static ContentStore open( final Path root, final String algorithm ) throws IOException {
+        Objects.requireNonNull( root );
+        final DigestPool pool = DigestPool.of( algorithm );
+        final MessageDigest md = pool.acquire();
+        final int len = md.getDigestLength();
+        pool.release( md );
+        if ( len < 16 ) {
+            throw new IllegalArgumentException( "Digest '" + algorithm + "' too short for a store" );
+        }
+        final Path objectDir = root.resolve( "objects" );
+        final Path tmpDir = root.resolve( "tmp" );
+        Files.createDirectories( objectDir );
+        Files.createDirectories( tmpDir );
+        final long stale = System.currentTimeMillis() - STALE_TMP_MILLIS;
+        try ( final DirectoryStream<Path> ds = Files.newDirectoryStream( tmpDir ) ) {
+            for ( final Path tmp : ds ) {
+                try {
+                    if ( Files.getLastModifiedTime( tmp ).toMillis() < stale ) {
+                        Files.deleteIfExists( tmp );
+                    }
+                } catch ( final NoSuchFileException nsfE ) {
+                    // placed or removed by its ingest meanwhile
+                }
+            }
+        }
+
+        final Collection<byte[]> digestL = new ArrayList<>();
+        try ( final Stream<Path> stream = Files.walk( objectDir, 3 ) ) {
+            stream.filter( p -> p.getNameCount() - objectDir.getNameCount() == 3 ).forEach( p -> {
+                try {
+                    final byte[] digest = Hex.decodeHex( p.getFileName().toString() );
+                    if ( len == digest.length ) {
+                        digestL.add( digest );
+                    }
+                } catch ( final DecoderException dE ) {
+                    LOG.warn( "Unknown file in store '" + p + "'" );
+                }
+            } );
+        }
+        final BloomFilter bloom = BloomFilter.create( Math.max( MIN_EXPECTED, 2L * digestL.size() ), FPP );
+        digestL.forEach( bloom::put );
+        LOG.info( "Open store '" + root + "' with " + digestL.size() + " objects" );
+        return new ContentStore( root, algorithm, bloom, digestL.size() );
+    }
+
+    /**
+     * Store directory.
+     *
+     * @return root
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Digest algorithm.
+     *
+     * @return algorithm
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Number of objects stored.
+     *
+     * @return count
+     */
+    public long size() {
+        return count.get();
+    }
+
+    /**
+     * Path of object for digest whether stored or not.
+     *
+     * @param hex digest as hex
+     * @return path
+     * @throws NullPointerException     if {@code hex} is null
+     * @throws IllegalArgumentException if {@code hex} is not a digest
+     */
+    public Path objectPath( final String hex ) {
+        Objects.requireNonNull( hex );
+        final String lower = hex.toLowerCase( Locale.ROOT );
+        if ( lower.length() < 32 || !lower.chars().allMatch( c -> c >= '0' && c <= '9' || c >= 'a' && c <= 'f' ) ) {
+            throw new IllegalArgumentException( "Not a digest '" + hex + "'" );
+        }
+        return objectDir.resolve( lower.substring( 0, 2 ) ).resolve( lower.substring( 2, 4 ) ).resolve( lower );
+    }
+
+    /**
+     * Return whether content with digest is stored.
+     *
+     * @param hex digest as hex
+     * @return {@code true} if stored
+     * @throws NullPointerException     if {@code hex} is null
+     * @throws IllegalArgumentException if {@code hex} is not a digest
+     */
+    public boolean contains( final String hex ) {
+        final Path object = objectPath( hex );
+        final byte[] digest;
+        try {
+            digest = Hex.decodeHex( hex );
+        } catch ( final DecoderException dE ) {
+            throw new IllegalArgumentException( "Not a digest '" + hex + "'", dE );
+        }
+        if ( !bloom.mightContain( digest ) ) {
+            BLOOM_NEGATIVE.inc();
+            return false;
+        }
+        return Files.exists( object );
+    }
+
+    /**
+     * Find object for digest.
+     *
+     * @param hex digest as hex
+     * @return object path if stored
+     * @throws NullPointerException     if {@code hex} is null
+     * @throws IllegalArgumentException if {@code hex} is not a digest
+     */
+    public Optional<Path> find( final String hex ) {
+        return contains( hex ) ? Optional.of( objectPath( hex ) ) : Optional.empty();
+    }
+
+    /**
+     * Ingest file without linking back.
+     *
+     * @param file file
+     * @return digest as hex
+     * @throws IOException          if reading or storing failed
+     * @throws NullPointerException if {@code file} is null
+     */
+    public String put( final Path file ) throws IOException {
+        return put( file, Link.NONE );
+    }
+
+    /**
+     * Ingest file.
+     *
+     * @param file file
+     * @param link whether to replace {@code file} by a hard link to the object
+     * @return digest as hex
+     * @throws IOException          if reading or storing failed or {@code file} changed before it was linked
+     * @throws NullPointerException if {@code file} or {@code link} is null
+     */
+    public String put( final Path file, final Link link ) throws IOException {
+        Objects.requireNonNull( file );
+        Objects.requireNonNull( link );
+        final String hex = ChecksumUtils.calcHash( file, ChecksumUtils.getDigest( algorithm ) );
+        return ingest( file, hex, link ).hex;
+    }
+
+    /**
+     * Ingest many files in parallel.
+     * <p>
+     * Files are hashed by a {@link ChecksumScheduler} and copied by its workers as soon as
+     * their digest is known and not yet stored.
+     * </p>
+     *
+     * @param files files
+     * @param link  whether to replace files by hard links to their objects
+     * @return result
+     * @throws InterruptedException if interrupted while waiting
+     * @throws NullPointerException if {@code files} or {@code link} is null
+     */
+    public Ingest putAll( final Collection<Path> files, final Link link ) throws InterruptedException {
+        Objects.requireNonNull( files );
+        Objects.requireNonNull( link );
+        final Map<Path, String> digestM = new ConcurrentHashMap<>();
+        final Map<Path, IOException> errorM = new ConcurrentHashMap<>();
+        final AtomicLong stored = new AtomicLong();
+        final AtomicLong dedup = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final ChecksumScheduler.Result result = ChecksumScheduler.of( algorithm ).onHash( ( path, hex ) -> {
+            try {
+                final Stored st = ingest( path, hex, link );
+                digestM.put( path, st.hex );
+                if ( st.isNew ) {
+                    stored.incrementAndGet();
+                    bytes.addAndGet( st.bytes );
+                } else {
+                    dedup.incrementAndGet();
+                }
+            } catch ( final IOException ioE ) {
+                errorM.put( path, ioE );
+            }
+        } ).hash( files );
+        errorM.putAll( result.getErrors() );
+        return new Ingest( digestM, errorM, stored.get(), dedup.get(), bytes.get() );
+    }
+
+    private Stored ingest( final Path file, final String hex, final Link link ) throws IOException {
+        final Stored st;
+        if ( contains( hex ) ) {
+            DEDUP.inc();
+            st = new Stored( hex, false, 0L );
+        } else {
+            st = copyIn( file );
+        }
+        if ( Link.HARD == link ) {
+            linkBack( file, objectPath( st.hex ) );
+        }
+        return st;
+    }
+
+    @SuppressWarnings("try")
+    private Stored copyIn( final Path file ) throws IOException {
+        final Path tmp = tmpDir.resolve( UUID.randomUUID().toString() );
+        final DigestPool pool = DigestPool.of( algorithm );
+        final MessageDigest md = pool.acquire();
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final ByteBuffer buf = bufferPool.acquire();
+        long bytes = 0L;
+        try {
+            try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( file );
+                  final FileChannel in = FileChannel.open( file, StandardOpenOption.READ );
+                  final FileChannel out = FileChannel.open( tmp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW ) ) {
+                for ( int n = in.read( buf ); n >= 0; n = in.read( buf ) ) {
+                    buf.flip();
+                    md.update( buf.duplicate() );
+                    while ( buf.hasRemaining() ) {
+                        out.write( buf );
+                    }
+                    bytes += n;
+                    buf.clear();
+                }
+                out.force( true );
+            }
+            // hash of the copy, the source may have changed after it was hashed first
+            final String hex = Hex.encodeHexString( md.digest() );
+            final Path object = objectPath( hex );
+            Files.createDirectories( object.getParent() );
+            final boolean isNew = place( tmp, object );
+            if ( isNew ) {
+                bloom.put( Hex.decodeHex( hex ) );
+                count.incrementAndGet();
+                STORED.inc();
+            } else {
+                DEDUP.inc();
+            }
+            return new Stored( hex, isNew, isNew ? bytes : 0L );
+        } catch ( final DecoderException dE ) {
+            throw new IllegalStateException( dE );
+        } finally {
+            Files.deleteIfExists( tmp );
+            bufferPool.release( buf );
+            pool.release( md );
+        }
+    }
+
+    /**
+     * Put temp file in place without replacing an existing object.
+     */
+    private static boolean place( final Path tmp, final Path object ) throws IOException {
+        try {
+            Files.createLink( object, tmp );
+        } catch ( final FileAlreadyExistsException faeE ) {
+            return false;
+        } catch ( final UnsupportedOperationException | FileSystemException linkE ) {
+            if ( Files.exists( object ) ) {
+                return false;
+            }
+            Files.move( tmp, object, StandardCopyOption.ATOMIC_MOVE );
+        }
+        if ( !object.toFile().setWritable( false, false ) ) {
+            LOG.debug( "Can not make '" + object + "' read only" );
+        }
+        return true;
+    }
+
+    private void linkBack( final Path file, final Path object ) throws IOException {
+        if ( Files.isSameFile( file, object ) ) {
+            return;
+        }
+        // the digest may be cached or the file changed after hashing, never replace different content
+        if ( !sameContent( file, object ) ) {
+            throw new IOException( "File '" + file + "' changed since it was hashed, not linked" );
+        }
+        final Path tmpLink = file.resolveSibling( "." + file.getFileName() + ".cas-" + UUID.randomUUID() );
+        try {
+            Files.createLink( tmpLink, object );
+            Files.move( tmpLink, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        } finally {
+            Files.deleteIfExists( tmpLink );
+        }
+    }
+
+    @SuppressWarnings("try")
+    private static boolean sameContent( final Path file, final Path object ) throws IOException {
+        final BufferPool bufferPool = BufferPool.getDefault();
+        final ByteBuffer buf = bufferPool.acquire();
+        final ByteBuffer objBuf = bufferPool.acquire();
+        try ( final DeviceThrottle.Permit permit = DeviceThrottle.acquire( file );
+              final FileChannel in = FileChannel.open( file, StandardOpenOption.READ );
+              final FileChannel obj = FileChannel.open( object, StandardOpenOption.READ ) ) {
+            if ( in.size() != obj.size() ) {
+                return false;
+            }
+            for ( int n = fill( in, buf ); n > 0; n = fill( in, buf ) ) {
+                if ( fill( obj, objBuf ) != n || !buf.flip().equals( objBuf.flip() ) ) {
+                    return false;
+                }
+            }
+            return fill( obj, objBuf ) <= 0;
+        } finally {
+            bufferPool.release( objBuf );
+            bufferPool.release( buf );
+        }
+    }
+
+    // fill buffer until full or end of file
+    private static int fill( final FileChannel fc, final ByteBuffer buf ) throws IOException {
+        buf.clear();
+        while ( buf.hasRemaining() ) {
+            if ( fc.read( buf ) < 0 ) {
+                break;
+            }
+        }
+        return buf.position();
+    }
+
+    /**
+     * Link back mode.
+     */
+    public enum Link {
+        /**
+         * Keep ingested file.
+         */
+        NONE,
+        /**
+         * Replace ingested file by hard link to its object.
+         * The file is compared byte by byte with the object first and kept if it changed.
+         */
+        HARD
+    }
+
+    private static final class Stored {
+
+        private final String hex;
+        private final boolean isNew;
+        private final long bytes;
+
+        private Stored( final String hex, final boolean isNew, final long bytes ) {
+            this.hex = hex;
+            this.isNew = isNew;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Result of {@link #putAll(Collection, Link)}.
+     */
+    public static final class Ingest {
+
+        private final Map<Path, String> digestM;
+        private final Map<Path, IOException> errorM;
+        private final long stored;
+        private final long deduplicated;
+        private final long bytesStored;
+
+        private Ingest( final Map<Path, String> digestM, final Map<Path, IOException> errorM, final long stored, final long deduplicated, final long bytesStored ) {
+            this.digestM = Collections.unmodifiableMap( digestM );
+            this.errorM = Collections.unmodifiableMap( errorM );
+            this.stored = stored;
+            this.deduplicated = deduplicated;
+            this.bytesStored = bytesStored;
+        }
+
+        /**
+         * Digest of every ingested file.
+         *
+         * @return path to hex
+         */
+        public Map<Path, String> getDigests() {
+            return digestM;
+        }
+
+        /**
+         * Files that failed.
+         *
+         * @return path to error
+         */
+        public Map<Path, IOException> getErrors() {
+            return errorM;
+        }
+
+        /**
+         * Number of new objects.
+         *
+         * @return count
+         */
+        public long getStored() {
+            return stored;
+        }
+
+        /**
+         * Number of files whose content was already stored.
+         *
+         * @return count
+         */
+        public long getDeduplicated() {
+            return deduplicated;
+        }
+
+        /**
+         * Bytes written for new objects.
+         *
+         * @return bytes
+         */
+        public long getBytesStored() {
+            return bytesStored;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Allocation profile of file hashing.
+ * <p>
+ * Usage: {@code HashAllocationBench [files] [file size] [algorithm]}.
+ * Creates temporary files, hashes them with a fresh digest and heap buffer per file
+ * (the former {@code ChecksumUtils} way) and with {@link HashEngine}, and prints
+ * bytes allocated per file by the calling thread (via {@code com.sun.management.ThreadMXBean}).
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class HashAllocationBench {
+
+    private static final int ROUNDS = 5;
+
+    private HashAllocationBench() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Run benchmark.
+     *
+     * @param args files, file size and algorithm
+     * @throws IOException on error
+     */
+    public static void main( final String[] args ) throws IOException {
+        final int files = args.length > 0 ? Integer.parseInt( args[0] ) : 200;
+        final int size = args.length > 1 ? Integer.parseInt( args[1] ) : 64 * 1024;
+        final String algo = args.length > 2 ? args[2] : "SHA-256";
+        final com.sun.management.ThreadMXBean tmx = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        final long tid = Thread.currentThread().getId();
+
+        final Path dir = Files.createTempDirectory( "hash-alloc" );
+        final List<Path> fileL = new ArrayList<>();
+        final byte[] data = new byte[size];
+        final Random rand = new Random( 7L );
+        final byte[] out = new byte[64];
+        try {
+            for ( int i = 0; i < files; i++ ) {
+                rand.nextBytes( data );
+                fileL.add( Files.write( dir.resolve( "f" + i ), data ) );
+            }
+            System.out.printf( "%d files of %d bytes, %s%n", files, size, algo );
+            System.out.printf( "%-12s %14s %10s%n", "engine", "bytes/file", "MB/s" );
+            for ( final boolean pooled : new boolean[]{false, true, false, true} ) {
+                long bestAlloc = Long.MAX_VALUE;
+                long bestNanos = Long.MAX_VALUE;
+                for ( int r = 0; r < ROUNDS; r++ ) {
+                    final long alloc = tmx.getThreadAllocatedBytes( tid );
+                    final long start = System.nanoTime();
+                    for ( final Path file : fileL ) {
+                        if ( pooled ) {
+                            HashEngine.digest( file, algo, out, 0 );
+                        } else {
+                            DigestUtils.digest( DigestUtils.getDigest( algo ), file.toFile() );
+                        }
+                    }
+                    bestNanos = Math.min( bestNanos, System.nanoTime() - start );
+                    bestAlloc = Math.min( bestAlloc, tmx.getThreadAllocatedBytes( tid ) - alloc );
+                }
+                System.out.printf( "%-12s %14d %10.1f%n", pooled ? "pooled" : "fresh", bestAlloc / files, ( double ) files * size * 1E3D / bestNanos );
+            }
+        } finally {
+            for ( final Path file : fileL ) {
+                Files.deleteIfExists( file );
+            }
+            Files.deleteIfExists( dir );
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2021 Tim Langhammer
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package earth.eu.jtzipi.modules.utils.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Throughput benchmark of digests and fingerprints on an in-memory buffer.
+ * <p>
+ * Usage: {@code HashThroughput [megabytes] [algorithm...]}.
+ * Every algorithm is warmed up, then hashed for several rounds; the best MB/s is printed.
+ * </p>
+ *
+ * @author jTzipi
+ */
+public final class HashThroughput {
+
+    private static final int ROUNDS = 5;
+    private static final int WARMUP = 3;
+    private static final int BLOCK = 64 * 1024;
+    private static final List<String> DEFAULT_ALGO_L = Arrays.asList( FingerprintProvider.CRC32C, FingerprintProvider.XXH64, "MD5", "SHA-1", "SHA-256", "SHA-512" );
+
+    private HashThroughput() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Run benchmark.
+     *
+     * @param args megabytes and algorithms
+     * @throws Exception on error
+     */
+    public static void main( final String[] args ) throws Exception {
+        FingerprintProvider.install();
+        final int mb = args.length > 0 ? Integer.parseInt( args[0] ) : 256;
+        final List<String> algoL = args.length > 1 ? Arrays.asList( args ).subList( 1, args.length ) : DEFAULT_ALGO_L;
+        final ByteBuffer data = ByteBuffer.allocateDirect( mb * 1024 * 1024 );
+        final byte[] block = new byte[BLOCK];
+        final Random rand = new Random( 42L );
+        while ( data.hasRemaining() ) {
+            rand.nextBytes( block );
+            data.put( block, 0, Math.min( BLOCK, data.remaining() ) );
+        }
+
+        System.out.printf( "%-10s %10s%n", "algorithm", "MB/s" );
+        for ( final String algo : algoL ) {
+            final MessageDigest md = MessageDigest.getInstance( algo );
+            for ( int i = 0; i < WARMUP; i++ ) {
+                run( md, data );
+            }
+            long best = Long.MAX_VALUE;
+            for ( int i = 0; i < ROUNDS; i++ ) {
+                best = Math.min( best, run( md, data ) );
+            }
+            System.out.printf( "%-10s %10.1f%n", algo, mb * 1E9D / best );
+        }
+    }
+
+    private static long run( final MessageDigest md, final ByteBuffer data ) {
+        final long start = System.nanoTime();
+        data.rewind();
+        md.update( data );
+        md.digest();
+        return System.nanoTime() - start;
+    }
+}